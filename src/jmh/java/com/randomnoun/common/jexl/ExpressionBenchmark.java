@@ -0,0 +1,87 @@
+package com.randomnoun.common.jexl;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.randomnoun.common.jexl.ast.TopLevelExpression;
+import com.randomnoun.common.jexl.eval.EvalContext;
+import com.randomnoun.common.jexl.eval.Evaluator;
+import com.randomnoun.common.jexl.eval.function.EndsWithFunction;
+import com.randomnoun.common.jexl.eval.function.LikeFunction;
+import com.randomnoun.common.jexl.eval.function.StartsWithFunction;
+
+/**
+ * JMH benchmarks for parsing and evaluating jexl expressions.
+ *
+ * <p>Run using <code>mvn -Pjmh verify -Djmh.includes=ExpressionBenchmark</code>
+ *
+ * @author knoxg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    /** Representative criteria, keyed by name */
+    static final Map<String, String> EXPRESSIONS = new HashMap<String, String>();
+    static {
+        EXPRESSIONS.put("arithmetic", "(amount * 2 + fee) / 3 > limit - 100 && rate * 1.5 < 10.0");
+        EXPRESSIONS.put("date", "created > \"2020-01-01T00:00:00\" && created < \"2030-01-01T00:00:00\"");
+        EXPRESSIONS.put("like", "like(name, \"%smith%\") || like(name, \"j_n%\")");
+        EXPRESSIONS.put("startsWith", "startsWith(name, \"John\") || endsWith(name, \"son\")");
+        EXPRESSIONS.put("nestedName", "user.address.country == \"AU\" && user.role == \"admin\"");
+    }
+
+    @Param({"arithmetic", "date", "like", "startsWith", "nestedName"})
+    public String criteria;
+
+    private String expressionString;
+    private TopLevelExpression expression;
+    private EvalContext context;
+    private Evaluator evaluator;
+
+    @Setup
+    public void setUp() throws ParseException {
+        expressionString = EXPRESSIONS.get(criteria);
+        expression = new ExpressionUtil().stringToExpression(expressionString);
+        evaluator = new Evaluator();
+
+        context = new EvalContext();
+        context.setVariable("amount", Long.valueOf(1500));
+        context.setVariable("fee", Long.valueOf(25));
+        context.setVariable("limit", Long.valueOf(1000));
+        context.setVariable("rate", Double.valueOf(4.25));
+        context.setVariable("created", new Date());
+        context.setVariable("name", "John Robertson");
+        Map<String, Object> address = new HashMap<String, Object>();
+        address.put("country", "AU");
+        Map<String, Object> user = new HashMap<String, Object>();
+        user.put("address", address);
+        user.put("role", "admin");
+        context.setVariable("user", user);
+        context.setFunction("like", new LikeFunction());
+        context.setFunction("startsWith", new StartsWithFunction());
+        context.setFunction("endsWith", new EndsWithFunction());
+    }
+
+    @Benchmark
+    public TopLevelExpression parse() throws ParseException {
+        return new ExpressionUtil().stringToExpression(expressionString);
+    }
+
+    @Benchmark
+    public Object evaluate() {
+        return evaluator.visit(expression, context);
+    }
+
+}
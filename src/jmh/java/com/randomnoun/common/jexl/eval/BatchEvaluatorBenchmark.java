@@ -0,0 +1,102 @@
+package com.randomnoun.common.jexl.eval;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.randomnoun.common.jexl.ExpressionUtil;
+import com.randomnoun.common.jexl.ast.TopLevelExpression;
+
+/**
+ * JMH benchmarks comparing row-by-row evaluation of a filter expression with the
+ * BatchEvaluator's row list and columnar filters.
+ *
+ * <p>Run using <code>mvn -Pjmh verify -Djmh.includes=BatchEvaluatorBenchmark</code>
+ *
+ * @author knoxg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEvaluatorBenchmark {
+
+    /** Representative filters, keyed by name */
+    static final Map<String, String> EXPRESSIONS = new HashMap<String, String>();
+    static {
+        EXPRESSIONS.put("range", "amount > 1000 && amount <= 5000");
+        EXPRESSIONS.put("mixed", "(amount < 100 || amount >= 9900) && priority != 0 || rate < 2.5");
+        EXPRESSIONS.put("interpreted", "amount + priority > 5000");
+    }
+
+    @Param({"range", "mixed", "interpreted"})
+    public String criteria;
+
+    @Param({"10000", "200000"})
+    public int rowCount;
+
+    private TopLevelExpression expression;
+    private List<Map<String, Object>> rows;
+    private Map<String, Object> columns;
+    private Evaluator evaluator;
+    private BatchEvaluator batchEvaluator;
+
+    @Setup
+    public void setUp() throws ParseException {
+        expression = new ExpressionUtil().stringToExpression(EXPRESSIONS.get(criteria));
+        evaluator = new Evaluator();
+        batchEvaluator = new BatchEvaluator();
+
+        Random r = new Random(1234);
+        long[] amount = new long[rowCount];
+        int[] priority = new int[rowCount];
+        double[] rate = new double[rowCount];
+        rows = new ArrayList<Map<String, Object>>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            amount[i] = r.nextInt(10000);
+            priority[i] = r.nextInt(5);
+            rate[i] = r.nextDouble() * 10;
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("amount", Long.valueOf(amount[i]));
+            row.put("priority", Long.valueOf(priority[i]));
+            row.put("rate", Double.valueOf(rate[i]));
+            rows.add(row);
+        }
+        columns = new HashMap<String, Object>();
+        columns.put("amount", amount);
+        columns.put("priority", priority);
+        columns.put("rate", rate);
+    }
+
+    @Benchmark
+    public BitSet rowByRow() {
+        BitSet result = new BitSet(rowCount);
+        EvalContext context = new EvalContext();
+        for (int i = 0; i < rowCount; i++) {
+            for (Map.Entry<String, Object> e : rows.get(i).entrySet()) {
+                context.setVariable(e.getKey(), e.getValue());
+            }
+            if (((Boolean) evaluator.visit(expression, context)).booleanValue()) { result.set(i); }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public BitSet rowList() {
+        return batchEvaluator.filter(expression, new EvalContext(), rows);
+    }
+
+    @Benchmark
+    public BitSet columnar() {
+        return batchEvaluator.filter(expression, new EvalContext(), columns, rowCount);
+    }
+
+}
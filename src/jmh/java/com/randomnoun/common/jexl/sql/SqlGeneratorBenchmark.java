@@ -0,0 +1,79 @@
+package com.randomnoun.common.jexl.sql;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.randomnoun.common.jexl.DateSpan;
+import com.randomnoun.common.jexl.ExpressionUtil;
+import com.randomnoun.common.jexl.ast.TopLevelExpression;
+import com.randomnoun.common.jexl.eval.EvalContext;
+import com.randomnoun.common.jexl.sql.function.EndsWithFunction;
+import com.randomnoun.common.jexl.sql.function.LikeFunction;
+import com.randomnoun.common.jexl.sql.function.StartsWithFunction;
+
+/**
+ * JMH benchmarks for translating jexl expressions into SQL, for each database type.
+ *
+ * <p>Run using <code>mvn -Pjmh verify -Djmh.includes=SqlGeneratorBenchmark</code>
+ *
+ * @author knoxg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlGeneratorBenchmark {
+
+    static final String EXPRESSION = "(lngId == idParam || lngId > 1000) && " +
+        "like(txtName, \"%smith%\") && startsWith(txtCode, \"AB\") && !endsWith(txtCode, \"Z\") && " +
+        "dtmCreated > startDate && lngAmount * 2 > 500";
+
+    @Param({ SqlGenerator.DATABASE_ORACLE, SqlGenerator.DATABASE_DB2, SqlGenerator.DATABASE_SQLSERVER,
+        SqlGenerator.DATABASE_MYSQL, SqlGenerator.DATABASE_JET })
+    public String databaseType;
+
+    private TopLevelExpression expression;
+    private EvalContext context;
+    private SqlGenerator generator;
+    private PreparedCriteriaCache cache;
+
+    @Setup
+    public void setUp() throws ParseException {
+        expression = new ExpressionUtil().stringToExpression(EXPRESSION);
+        generator = new SqlGenerator();
+        cache = new PreparedCriteriaCache(100, 0);
+
+        context = new EvalContext();
+        context.setVariable(SqlGenerator.VAR_DATABASE_TYPE, databaseType);
+        context.setVariable("lngId", new SqlColumn("lngId", "SOMETABLE", SqlColumn.NUMERIC));
+        context.setVariable("lngAmount", new SqlColumn("lngAmount", "SOMETABLE", SqlColumn.NUMERIC));
+        context.setVariable("txtName", new SqlColumn("txtName", "SOMETABLE"));
+        context.setVariable("txtCode", new SqlColumn("txtCode", "SOMETABLE"));
+        context.setVariable("dtmCreated", new SqlColumn("dtmCreated", "SOMETABLE", SqlColumn.TIMEVALUE));
+        context.setVariable("idParam", new PositionalParameter("id"));
+        context.setVariable("startDate", new DateSpan(new GregorianCalendar(2020, 0, 1).getTime()));
+        context.setFunction("like", new LikeFunction());
+        context.setFunction("startsWith", new StartsWithFunction());
+        context.setFunction("endsWith", new EndsWithFunction());
+    }
+
+    @Benchmark
+    public Object generate() {
+        return generator.visit(expression, context);
+    }
+
+    @Benchmark
+    public PreparedCriteria preparedCriteriaCache() {
+        return cache.get(expression, context);
+    }
+
+}
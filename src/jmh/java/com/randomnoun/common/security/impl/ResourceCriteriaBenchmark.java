@@ -0,0 +1,58 @@
+package com.randomnoun.common.security.impl;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks for the ResourceCriteriaImpl.evaluate() path used by 
+ * SecurityContext.hasPermission().
+ *
+ * <p>Run using <code>mvn -Pjmh verify -Djmh.includes=ResourceCriteriaBenchmark</code>
+ *
+ * @author knoxg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceCriteriaBenchmark {
+
+    @Param({ 
+        "customerId == 10", 
+        "customerId == 10 && region == \"APAC\"",
+        "(amount > 1000 && amount <= 50000) || (region == \"EMEA\" && level >= 3)" 
+    })
+    public String criteriaString;
+
+    private ResourceCriteriaImpl criteria;
+    private Map<String, Object> criteriaContext;
+
+    @Setup
+    public void setUp() {
+        criteria = new ResourceCriteriaImpl(criteriaString);
+        criteriaContext = new HashMap<String, Object>();
+        criteriaContext.put("customerId", Long.valueOf(10));
+        criteriaContext.put("region", "APAC");
+        criteriaContext.put("amount", Long.valueOf(2500));
+        criteriaContext.put("level", Long.valueOf(2));
+    }
+
+    @Benchmark
+    public ResourceCriteriaImpl parse() {
+        return new ResourceCriteriaImpl(criteriaString);
+    }
+
+    @Benchmark
+    public boolean evaluate() {
+        return criteria.evaluate(criteriaContext);
+    }
+
+}
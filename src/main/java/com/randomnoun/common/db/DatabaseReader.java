@@ -4,12 +4,29 @@ package com.randomnoun.common.db;
  * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
  */
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.sql.DataSource;
 
+import org.apache.log4j.Logger;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import com.randomnoun.common.db.enums.ConstraintTypeEnum;
+import com.randomnoun.common.db.to.ConstraintColumnTO;
+import com.randomnoun.common.db.to.ConstraintTO;
 import com.randomnoun.common.db.to.SchemaTO;
 import com.randomnoun.common.db.to.TableColumnTO;
 import com.randomnoun.common.db.to.TableTO;
@@ -19,7 +36,7 @@ import com.randomnoun.common.db.to.TableTO;
  * <p>Rewrite of DatabaseTO to be marginally more structured
  * 
  * <p>Contains methods for populating metadata from the data dictionaries of
- * Oracle and MySQL, for the purposes of whatever it is that I'm doing at the time.
+ * Oracle, MySQL and SQL Server, for the purposes of whatever it is that I'm doing at the time.
  *
  *  
  *  NB: does not set default values for oracle
@@ -27,12 +44,26 @@ import com.randomnoun.common.db.to.TableTO;
  */
 public abstract class DatabaseReader {
 
+	private static final Logger logger = Logger.getLogger(DatabaseReader.class);
+	
 	protected com.randomnoun.common.db.to.DatabaseTO db;
     
 	// only required for online DB metadata
 	public DataSource ds;
 	public JdbcTemplate jt;
 	
+	/** Cache used to share schemas between readers, or null */
+	private SchemaCache schemaCache;
+	
+	/** Identifies the database this reader is connected to; see {@link #getDataSourceKey()} */
+	private String dataSourceKey;
+	
+	/** The maximum number of metadata queries to run at the same time */
+	private int concurrency = 1;
+	
+	/** If non-null, only tables with names matching this SQL LIKE pattern are read */
+	private String tableFilter = null;
+	
 	/* these aren't used yet
 	public static class SourceTypeTO {
 		public SchemaTO schema;
@@ -88,37 +119,234 @@ public abstract class DatabaseReader {
 	}
 	
 	
-	// this only works for MYSQL. so that's odd.
+	private String getDefaultSchemaName() {
+		switch (db.getDatabaseType()) {
+			case ORACLE:
+				return (String) jt.queryForObject("SELECT SYS_CONTEXT('USERENV', 'CURRENT_SCHEMA') FROM DUAL", java.lang.String.class);
+			
+			case MYSQL:
+				return (String) jt.queryForObject("SELECT DATABASE();", java.lang.String.class);
+		
+			case SQLSERVER:
+				return (String) jt.queryForObject("SELECT SCHEMA_NAME()", java.lang.String.class);
+				
+			default:
+				throw new IllegalStateException("Unknown database type " + db.getDatabaseType());
+		}
+	}
+	
+	/** Sets the maximum number of metadata queries to run at the same time. Defaults to 1;
+	 * i.e. queries are run sequentially on the calling thread.
+	 * 
+	 * <p>Concurrent queries are each run on their own connection from the DataSource, so a 
+	 * SingleConnectionDataSource should not be used with a concurrency greater than 1.
+	 * 
+	 * @param concurrency the maximum number of metadata queries to run at the same time
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/** Restricts the tables (and their columns, constraints and triggers) read by this reader.
+	 * 
+	 * @param tableFilter an SQL LIKE pattern (e.g. "customer%"), or null to read all tables
+	 */
+	public void setTableFilter(String tableFilter) {
+		this.tableFilter = tableFilter;
+	}
+
+	public String getTableFilter() {
+		return tableFilter;
+	}
+	
+	/** Sets the cache used to share schemas between DatabaseReaders (and between processes). 
+	 * 
+	 * @param schemaCache the schema cache, or null to always read schemas from the database
+	 */
+	public void setSchemaCache(SchemaCache schemaCache) {
+		this.schemaCache = schemaCache;
+	}
+	
+	public SchemaCache getSchemaCache() {
+		return schemaCache;
+	}
+	
+	/** Returns a String identifying the database this reader is connected to; i.e. the JDBC URL
+	 * and username of the DataSource's connections. 
+	 * 
+	 * @return a String identifying the database this reader is connected to
+	 */
+	public String getDataSourceKey() {
+		if (dataSourceKey == null) {
+			dataSourceKey = jt.execute(new ConnectionCallback<String>() {
+				@Override
+				public String doInConnection(Connection con) throws SQLException, DataAccessException {
+					DatabaseMetaData md = con.getMetaData();
+					return md.getURL() + " " + md.getUserName();
+				}
+			});
+		}
+		return dataSourceKey;
+	}
+	
+	/** Returns a String that changes whenever the metadata of a schema changes, which is used to 
+	 * determine whether a cached schema is still valid. Fingerprints should be much cheaper to 
+	 * obtain than the schema itself.
+	 * 
+	 * <p>This implementation returns null, which prevents schemas from being cached.
+	 * 
+	 * @param schemaName the schema name
+	 * 
+	 * @return the schema fingerprint, or null if the schema can't be fingerprinted
+	 */
+	public String getSchemaFingerprint(String schemaName) {
+		return null;
+	}
+	
 	public SchemaTO getSchema(String schemaName) {
 		
 		// default schema name
 		if (schemaName==null) {
-			switch (db.getDatabaseType()) {
-				case ORACLE:
-					throw new UnsupportedOperationException("Not supported for this database type");
-				
-				case MYSQL:
-					schemaName = (String) jt.queryForObject("SELECT DATABASE();", java.lang.String.class);
-					break;
-			
-				case SQLSERVER:
-					throw new UnsupportedOperationException("Not supported for this database type");
-					
-				default:
-					throw new IllegalStateException("Unknown database type " + db.getDatabaseType());
-			}
+			schemaName = getDefaultSchemaName();
 		}
 		
 		SchemaTO schema = db.getSchemaMap().get(db.upper(schemaName));
 		if (schema == null) {
-			schema = readSchema(db.upper(schemaName));
+			schema = (schemaCache == null) ? readSchema(db.upper(schemaName)) : schemaCache.getSchema(this, db.upper(schemaName));
 			db.getSchemaMap().put(db.upper(schemaName), schema); 
 		}
 		return schema;
 	}
 	
+	/** Brings a cached schema up to date with the database, reading it if it is not already cached.
+	 * 
+	 * <p>Readers that can detect which objects have changed (see {@link #refreshSchema(SchemaTO)})
+	 * will only re-read those objects.
+	 * 
+	 * @param schemaName the schema name, or null for the default schema
+	 * 
+	 * @return the refreshed schema
+	 */
+	public SchemaTO refreshSchema(String schemaName) {
+		if (schemaName==null) {
+			schemaName = getDefaultSchemaName();
+		}
+		SchemaTO schema = db.getSchemaMap().get(db.upper(schemaName));
+		// fingerprint before refreshing, so that changes made during the refresh invalidate the cache 
+		String fingerprint = (schemaCache == null) ? null : getSchemaFingerprint(db.upper(schemaName));
+		if (schema == null) {
+			schema = readSchema(db.upper(schemaName));
+		} else {
+			// the schema may be shared with other readers through the cache, so refresh a copy
+			schema = refreshSchema(schemaCache == null ? schema : schemaCache.copySchema(schema));
+		}
+		db.getSchemaMap().put(db.upper(schemaName), schema);
+		if (fingerprint != null) {
+			schemaCache.putSchema(this, db.upper(schemaName), fingerprint, schema);
+		}
+		return schema;
+	}
+	
 	abstract public SchemaTO readSchema(String schemaName);  // SchemaTO schema
 	
+	/** Re-reads a schema previously returned by {@link #readSchema(String)}. 
+	 * 
+	 * <p>This implementation re-reads the entire schema; subclasses may update the supplied 
+	 * schema in place, re-reading only the objects that have changed since it was read.
+	 * Schemas returned by a {@link SchemaCache} are shared and must not be modified; use 
+	 * {@link #refreshSchema(String)}, which refreshes a copy of the cached schema.
+	 * 
+	 * @param schema the schema to refresh
+	 * 
+	 * @return the refreshed schema
+	 */
+	public SchemaTO refreshSchema(SchemaTO schema) {
+		return readSchema(schema.getName());
+	}
+	
+	
+	/** Runs metadata queries, concurrently if the concurrency is greater than 1.
+	 * 
+	 * @param tasks the queries to run
+	 */
+	protected void invokeAll(List<Callable<Object>> tasks) {
+		if (concurrency <= 1 || tasks.size() == 1) {
+			for (Callable<Object> task : tasks) {
+				try {
+					task.call();
+				} catch (RuntimeException re) {
+					throw re;
+				} catch (Exception e) {
+					throw new IllegalStateException("Exception reading schema", e);
+				}
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, tasks.size()));
+		try {
+			for (Future<Object> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ee.getCause();
+			}
+			throw new IllegalStateException("Exception reading schema", ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted reading schema", ie);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/** Returns SQL conditions which restrict a table name column to the table filter and
+	 * supplied table names, and appends any bind arguments used by those conditions.
+	 * 
+	 * @param column the table name column
+	 * @param tableNames if non-null, the table names to include
+	 * @param args the bind arguments of the query
+	 * 
+	 * @return SQL conditions, starting with " AND", or an empty string 
+	 */
+	protected String tableCondition(String column, Collection<String> tableNames, List<Object> args) {
+		StringBuilder sb = new StringBuilder();
+		if (tableFilter != null) {
+			sb.append(" AND " + column + " LIKE ?");
+			args.add(tableFilter);
+		}
+		if (tableNames != null) {
+			sb.append(" AND " + column + " IN (");
+			sb.append(String.join(", ", Collections.nCopies(tableNames.size(), "?")));
+			sb.append(")");
+			args.addAll(tableNames);
+		}
+		return sb.toString();
+	}
+	
+	/** Marks the columns of each table's primary key constraint as primary key columns. 
+	 * Can only be called once both the columns and constraints of the tables have been read.
+	 * 
+	 * @param tables the tables to update
+	 */
+	protected void setPrimaryKeyColumns(Collection<TableTO> tables) {
+		for (TableTO t : tables) {
+			for (ConstraintTO c : t.getConstraintMap().values()) {
+				if (c.getConstraintType() != ConstraintTypeEnum.PRIMARY) { continue; }
+				for (ConstraintColumnTO cc : c.getConstraintColumnMap().values()) {
+					if (t.getTableColumnMap().get(cc.getName()) == null) {
+						logger.error("Could not find column '" + cc.getName() + "' in table '" + t.getName() + "', constraintName = '" + c.getName() + "'");
+					} else {
+						t.getTableColumnMap().get(cc.getName()).setPrimaryKey(true);
+					}
+				}
+			}
+		}
+	}
 	
 	// @TODO pass in current schema/table for context resolution
 	public TableColumnTO getColumn(com.randomnoun.common.db.to.DatabaseTO db, String identifier) {
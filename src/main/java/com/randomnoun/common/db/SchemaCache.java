@@ -0,0 +1,247 @@
+package com.randomnoun.common.db;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.randomnoun.common.Text;
+import com.randomnoun.common.db.to.SchemaTO;
+
+/**
+ * A cache of schema metadata which can be shared between DatabaseReaders, and which can
+ * be persisted to disk so that it survives between processes.
+ *
+ * <p>Schemas are keyed by the database (see {@link DatabaseReader#getDataSourceKey()}) and
+ * the schema name. Each time a schema is retrieved from the cache, its fingerprint
+ * (see {@link DatabaseReader#getSchemaFingerprint(String)}) is compared with the fingerprint
+ * of the schema in the database, and the schema is re-read if they differ.
+ *
+ * <pre style="code">
+ *   SchemaCache schemaCache = new SchemaCache(new File(System.getProperty("user.home"), ".schemaCache"));
+ *   DatabaseReader dr = new MysqlDatabaseReader(dataSource);
+ *   dr.setSchemaCache(schemaCache);
+ *   SchemaTO schema = dr.getSchema("myschema");
+ * </pre>
+ *
+ * <p>Each reader is returned its own copy of a cached schema, which refers to that reader's DatabaseTO. 
+ * The reader that read the schema shares it with the cache, so schemas returned from the cache should 
+ * not be modified; use {@link #copySchema(SchemaTO)} to obtain a copy that can be. 
+ * 
+ * <p>Cache files are deserialised with an ObjectInputFilter that only accepts the schema 
+ * transfer objects and the JDK classes that they contain.
+ *
+ * @author knoxg
+ */
+public class SchemaCache {
+
+	/** Logger for this class */
+	public static final Logger logger = Logger.getLogger(SchemaCache.class);
+
+	/** Identifies schema cache files ('RNSC') */
+	private static final int MAGIC = 0x524E5343;
+
+	/** The format of cache files written by this class */
+	private static final int FORMAT_VERSION = 1;
+
+	/** The classes that may be deserialised from a cache file */
+	private static final ObjectInputFilter SCHEMA_FILTER = ObjectInputFilter.Config.createFilter(
+		"com.randomnoun.common.db.to.*;com.randomnoun.common.db.enums.*;" +
+		"java.util.ArrayList;java.util.HashMap;java.util.LinkedHashMap;java.util.Map$Entry;java.util.Date;java.sql.Timestamp;" +
+		"java.lang.*;java.math.*;!*");
+
+	/** A cached schema and its fingerprint */
+	private static class CachedSchema {
+		String fingerprint;
+		SchemaTO schema;
+
+		CachedSchema(String fingerprint, SchemaTO schema) {
+			this.fingerprint = fingerprint;
+			this.schema = schema;
+		}
+	}
+
+	/** The directory holding cache files, or null if the cache is not persisted */
+	private File directory;
+
+	/** Schemas cached in memory, keyed by database and schema name */
+	private Map<String, CachedSchema> schemas = new ConcurrentHashMap<String, CachedSchema>();
+
+	/** Create a cache which is held in memory only */
+	public SchemaCache() {
+		this(null);
+	}
+
+	/** Create a cache which is persisted to a directory. The directory is created if it does not exist.
+	 *
+	 * @param directory the directory holding cache files, or null to hold the cache in memory only
+	 */
+	public SchemaCache(File directory) {
+		this.directory = directory;
+	}
+
+	/** Returns a schema from the cache, or reads the schema from the database if it
+	 * is not cached, or has changed since it was cached.
+	 *
+	 * @param reader the reader used to fingerprint and read the schema
+	 * @param schemaName the schema name
+	 *
+	 * @return the schema, or a copy of the cached schema if it was read by another reader
+	 */
+	public SchemaTO getSchema(DatabaseReader reader, String schemaName) {
+		String fingerprint = reader.getSchemaFingerprint(schemaName);
+		if (fingerprint == null) {
+			return reader.readSchema(schemaName);
+		}
+		String key = reader.getDataSourceKey() + " " + schemaName;
+		CachedSchema cachedSchema = schemas.get(key);
+		if (cachedSchema == null || !cachedSchema.fingerprint.equals(fingerprint)) {
+			SchemaTO schema = readFile(key, fingerprint);
+			if (schema != null) {
+				schema.setDatabase(reader.db);
+				cachedSchema = new CachedSchema(fingerprint, schema);
+				schemas.put(key, cachedSchema);
+			}
+		}
+		if (cachedSchema != null && cachedSchema.fingerprint.equals(fingerprint)) {
+			logger.debug("Using cached schema '" + schemaName + "'");
+			SchemaTO schema = cachedSchema.schema;
+			if (schema.getDatabase() != reader.db) {
+				// don't re-parent a schema that other readers are using
+				schema = copySchema(schema);
+				schema.setDatabase(reader.db);
+			}
+			return schema;
+		}
+
+		logger.debug("Reading schema '" + schemaName + "'");
+		SchemaTO schema = reader.readSchema(schemaName);
+		putSchema(reader, schemaName, fingerprint, schema);
+		return schema;
+	}
+
+	/** Adds a schema to the cache.
+	 *
+	 * @param reader the reader that read the schema
+	 * @param schemaName the schema name
+	 * @param fingerprint the fingerprint of the schema, obtained before it was read
+	 * @param schema the schema
+	 */
+	public void putSchema(DatabaseReader reader, String schemaName, String fingerprint, SchemaTO schema) {
+		String key = reader.getDataSourceKey() + " " + schemaName;
+		CachedSchema cachedSchema = new CachedSchema(fingerprint, schema);
+		schemas.put(key, cachedSchema);
+		if (directory != null) {
+			try {
+				writeFile(key, cachedSchema);
+			} catch (IOException ioe) {
+				// the in-memory cache is still usable
+				logger.warn("Could not write schema cache file for '" + schemaName + "'", ioe);
+			}
+		}
+	}
+
+	/** Returns a deep copy of a schema, which can be modified (e.g. by 
+	 * {@link DatabaseReader#refreshSchema(SchemaTO)}) without affecting the readers that share 
+	 * the cached schema. The copy refers to the same DatabaseTO as the original schema.
+	 * 
+	 * @param schema the schema to copy
+	 * 
+	 * @return a copy of the schema
+	 */
+	public SchemaTO copySchema(SchemaTO schema) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(baos);
+			oos.writeObject(schema);
+			oos.flush();
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+			ois.setObjectInputFilter(SCHEMA_FILTER);
+			SchemaTO copy = (SchemaTO) ois.readObject();
+			copy.setDatabase(schema.getDatabase());
+			return copy;
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException("Could not copy schema '" + schema.getName() + "'", e);
+		}
+	}
+
+	/** Removes all schemas from the cache, including any cache files */
+	public void clear() {
+		schemas.clear();
+		if (directory != null) {
+			File[] files = directory.listFiles((dir, name) -> name.endsWith(".schema"));
+			if (files != null) {
+				for (File file : files) { file.delete(); }
+			}
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, Text.getMD5(key) + ".schema");
+	}
+
+	/** Reads a schema from a cache file, if it exists and has the expected fingerprint */
+	private SchemaTO readFile(String key, String fingerprint) {
+		if (directory == null) { return null; }
+		File file = getFile(key);
+		if (!file.exists()) { return null; }
+		try (InputStream is = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+			DataInputStream dis = new DataInputStream(is);
+			if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION ||
+				!dis.readUTF().equals(key) || !dis.readUTF().equals(fingerprint))
+			{
+				return null;
+			}
+			ObjectInputStream ois = new ObjectInputStream(dis);
+			ois.setObjectInputFilter(SCHEMA_FILTER);
+			return (SchemaTO) ois.readObject();
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			// e.g. the classes have changed since the file was written
+			logger.warn("Could not read schema cache file '" + file + "'", e);
+			return null;
+		}
+	}
+
+	/** Writes a schema to a cache file. The file is written to a temporary file which then
+	 * replaces the cache file, so that a partially-written file is never read. */
+	private void writeFile(String key, CachedSchema cachedSchema) throws IOException {
+		directory.mkdirs();
+		Path path = getFile(key).toPath();
+		Path tempPath = Files.createTempFile(directory.toPath(), path.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+				DataOutputStream dos = new DataOutputStream(os);
+				dos.writeInt(MAGIC);
+				dos.writeInt(FORMAT_VERSION);
+				dos.writeUTF(key);
+				dos.writeUTF(cachedSchema.fingerprint);
+				ObjectOutputStream oos = new ObjectOutputStream(dos);
+				oos.writeObject(cachedSchema.schema);
+				oos.flush();
+			}
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+}
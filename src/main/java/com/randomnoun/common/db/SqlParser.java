@@ -4,11 +4,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import com.randomnoun.common.io.Utf8CharSequence;
 
 /** A class to read an InputStream containing SQL statements (e.g. a MySQL input file) and split it into 
  * individual SQL statements.
@@ -17,7 +23,41 @@ import java.util.regex.Pattern;
  */
 public class SqlParser {
 	
-	private static Pattern MYSQL_DELIMITER_COMMAND = Pattern.compile("delimiter\\s+(.*)$", Pattern.CASE_INSENSITIVE);
+	/** The MySQL command which changes the statement delimiter */
+	private static final String DELIMITER_COMMAND = "delimiter";
+	
+	/** Number of characters read from the Reader at a time */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/** Statement buffers with a capacity larger than this are discarded after each statement */
+	private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+	
+	/** Default number of bytes of a file that are memory-mapped at a time */
+	private static final int DEFAULT_MAP_WINDOW_SIZE = 1 << 30;
+	
+	private static final byte[] DASH_COMMENT_START = "-- ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SLASH_COMMENT_START = "/* ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SLASH_COMMENT_END = " */".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NEWLINE = "\n".getBytes(StandardCharsets.US_ASCII);
+	
+	/** Number of bytes of a file that are memory-mapped at a time */
+	private int mapWindowSize = DEFAULT_MAP_WINDOW_SIZE;
+	
+	/** Sets the number of bytes of a file that are memory-mapped at a time by the 
+	 * {@link #consumeStatements(Path, boolean, Consumer)} methods (default 1GB). Statements may 
+	 * span several windows. Smaller windows use less address space (which may be limited on
+	 * 32-bit JVMs), at the cost of copying statements that span a window boundary.
+	 * 
+	 * @param mapWindowSize the number of bytes mapped at a time
+	 */
+	public void setMapWindowSize(int mapWindowSize) {
+		if (mapWindowSize < 1) { throw new IllegalArgumentException("mapWindowSize must be positive"); }
+		this.mapWindowSize = mapWindowSize;
+	}
+	
+	public int getMapWindowSize() {
+		return mapWindowSize;
+	}
 	
 	// could have a ParseState that contains things like the current delimiter, or current database
 	// (for 'use' commands), which can be modified by the InputStream, or the database vendor
@@ -101,12 +141,22 @@ public class SqlParser {
 		consumeStatements(new InputStreamReader(is), includeComments, consumer);
 	}
 	
+	/** Convert a Reader of SQL statements into individual statements, which are passed to a consumer
+	 * as they are parsed. See {@link #parseStatements(Reader, boolean)} for details.
+	 * 
+	 * <p>The Reader is read in blocks, so does not need to be buffered. Only the current statement is 
+	 * held in memory, so this method can be used to process files larger than the available heap.
+	 * 
+	 * @param is Reader to parse
+	 * @param includeComments include comment strings in result
+	 * @param consumer receives each statement (and comment, if includeComments is true)
+	 * 
+	 * @throws IOException 
+	 * @throws ParseException unclosed /*-style comment or single/double-quoted string
+	 */
 	public void consumeStatements(Reader is, boolean includeComments, Consumer<String> consumer) 
 		throws IOException, ParseException 
 	{
-		// @TODO some error handling
-		// List allSql = new ArrayList<String>();
-		
 		int state = 0; // command parsing [to states 0, 1, 2, 4, 7, 8]
 		// 1 // parsed double quote, in double quotes [to states 0, 1, 9]
 		// 2 // parsed - [to states 0, 3]
@@ -119,133 +169,156 @@ public class SqlParser {
 		// 9 // parsed backslash in double quote, next char emitted without changing state [then to state 1]
 		// 10 // parsed backslash in single quote, next char emitted without changing state [then to state 7]
 
-		String s = "";   // current statement
-		String snc = ""; // current statment without comments
-		String c = "";   // current comment
+		StringBuilder s = new StringBuilder(); // current statement
+		StringBuilder c = new StringBuilder(); // current comment
 		String delimiter = ";"; // default delimiter
-
-		int intch = is.read();
 		int delimIdx = 0; // number of delimiter characters read
-		while (intch!=-1) {
-			char ch = (char) intch;
-			
-			if (state==0) {
-				if (ch == delimiter.charAt(delimIdx)) {
-					delimIdx++;
-					if (delimiter.length()==delimIdx) {
-						s = s.trim(); delimIdx = 0; // was s.trim() + ";"
-						// could check for all commands at http://dev.mysql.com/doc/refman/5.7/en/mysql-commands.html
-						// but let's just implement 'DELIMITER' for now
-						Matcher m = MYSQL_DELIMITER_COMMAND.matcher(s);
-						if (m.matches()) {
-							delimiter = m.group(1); // set the new delimiter
-						} else {
-							consumer.consume(s); 
+
+		char[] buf = new char[BUFFER_SIZE];
+		int len = is.read(buf, 0, buf.length);
+		while (len != -1) {
+			int i = 0;
+			while (i < len) {
+				char ch = buf[i];
+				
+				if (state==0) {
+					if (ch == delimiter.charAt(delimIdx)) {
+						delimIdx++;
+						if (delimiter.length()==delimIdx) {
+							delimIdx = 0;
+							// could check for all commands at http://dev.mysql.com/doc/refman/5.7/en/mysql-commands.html
+							// but let's just implement 'DELIMITER' for now
+							String newDelimiter = getDelimiterCommand(s);
+							if (newDelimiter != null) {
+								delimiter = newDelimiter; // set the new delimiter
+							} else {
+								consumer.consume(trim(s)); 
+							}
+							s = reset(s);
 						}
-						s="";
 					} else {
-						state = 0; 
+						if (delimIdx > 0) {
+							// could push these back onto the inputStream in case the delimiter startsWith a " or -, but that seems a bit fiddly
+							s.append(delimiter, 0, delimIdx); delimIdx = 0; 
+						}
+						switch(ch) {
+							case '"' : state = 1; s.append(ch); break;
+							case '-' : state = 2; break;
+							case '/' : state = 4; break;
+							case '\'' : state = 7; s.append(ch); break;
+							case '\r' :
+							case '\n' :
+								// if this is a delimiter command, process it
+								String newDelimiter = getDelimiterCommand(s);
+								if (newDelimiter != null) {
+									delimiter = newDelimiter; // set the new delimiter
+									s.setLength(0);
+								} else {
+									s.append(ch);
+								}
+								break;
+							case '\\': state = 8; s.append(ch); break;							
+							default: 
+								// append the run of characters up to the next one that could change state 
+								char delimStart = delimiter.charAt(0);
+								int j = i + 1;
+								while (j < len && !isStatementBreak(buf[j]) && buf[j] != delimStart) { j++; }
+								s.append(buf, i, j - i);
+								i = j - 1;
+						}
 					}
-				} else {
-					if (delimIdx > 0) {
-						// could push these back onto the inputStream in case the delimiter startsWith a " or -, but that seems a bit fiddly
-						s = s + delimiter.substring(0, delimIdx); delimIdx = 0; 
+					
+				} else if (state==1) {
+					switch(ch) {
+						case '"' : state = 0; s.append(ch); break;
+						case '\\': state = 9; s.append(ch); break;
+						default: 
+							int j = i + 1;
+							while (j < len && buf[j] != '"' && buf[j] != '\\') { j++; }
+							s.append(buf, i, j - i);
+							i = j - 1;
 					}
+				} else if (state==2) {
 					switch(ch) {
-						case '"' : state = 1; s = s + ch; break;
-						case '-' : state = 2; break;
-						case '/' : state = 4; break;
-						case '\'' : state = 7; s = s + ch; break;
-						case '\r' :
-						case '\n' :
-							// if this is a delimiter command, process it
-							Matcher m = MYSQL_DELIMITER_COMMAND.matcher(s.trim());
-							if (m.matches()) {
-								delimiter = m.group(1); // set the new delimiter
-								s = ""; delimIdx = 0;
-							} else {
-								s = s + ch;
+						case '-' : state = 3; break;
+						default: state = 0; s.append('-').append(ch);
+					}
+				} else if (state==3) {
+					switch(ch) {
+						case '\r' : 
+						case '\n' : 
+							state = 0; 
+							if (includeComments) {
+								// include comments in the statements the comments appear in, unless this is a comment outside of a statement
+								s.append("-- ").append(trim(c));
+								if (isComment(s)) {
+									consumer.consume(trim(s));
+									s = reset(s);
+								} else {
+									s.append('\n');
+								}
 							}
-							break;
-						case '\\': state = 8; s = s + ch; break;							
-						default: s = s + ch;
+							c = reset(c); break;
+						default :
+							int j = i + 1;
+							while (j < len && buf[j] != '\r' && buf[j] != '\n') { j++; }
+							c.append(buf, i, j - i);
+							i = j - 1;
+					}
+				} else if (state==4) {
+					switch(ch) {
+						case '*' : state = 5; break;
+						default: state = 0; s.append('/').append(ch);
+					}
+				} else if (state==5) {
+					switch(ch) {
+						case '*' : state = 6; break;
+						default: 
+							int j = i + 1;
+							while (j < len && buf[j] != '*') { j++; }
+							c.append(buf, i, j - i);
+							i = j - 1;
 					}
+				} else if (state==6) {
+					switch(ch) {
+						case '/' : 
+							state = 0; 
+							if (includeComments) {
+								// include comments in the statements the comments appear in, unless this is a comment outside of a statement
+								s.append("/* ").append(trim(c)).append(" */");
+								if (s.charAt(0) == '/' && s.charAt(1) == '*') {
+									consumer.consume(s.toString());
+									s = reset(s);
+								}
+							} 
+							c = reset(c); break;
+						default: c.append('*').append(ch);
+					}
+				} else if (state==7) {
+					switch(ch) {
+						case '\'' : state = 0; s.append(ch); break;
+						case '\\' : state = 10; s.append(ch); break;
+						default: 
+							int j = i + 1;
+							while (j < len && buf[j] != '\'' && buf[j] != '\\') { j++; }
+							s.append(buf, i, j - i);
+							i = j - 1;
+					}
+				} else if (state==8) {
+					// could check ch is printable here, but probably ok
+					s.append(ch);
+					state = 0;
+				} else if (state==9) {
+					s.append(ch);
+					state = 1;
+				} else if (state==10) {
+					s.append(ch);
+					state = 7;
 				}
 				
-			} else if (state==1) {
-				switch(ch) {
-					case '"' : state = 0; s = s + ch; break;
-					case '\\': state = 9; s = s + ch; break;
-					default: s = s + ch;
-				}
-			} else if (state==2) {
-				switch(ch) {
-					case '-' : state = 3; break;
-					default: state = 0; s = s + "-" + ch;
-				}
-			} else if (state==3) {
-				switch(ch) {
-					case '\r' : 
-					case '\n' : 
-						state = 0; 
-						if (includeComments) {
-							// include comments in the statements the comments appear in, unless this is a comment outside of a statement
-							s += "-- " + c.trim();
-							if (s.trim().startsWith("--")) {
-								consumer.consume(s.trim());
-								s = "";
-							} else {
-								s += "\n";
-							}
-						}
-						c = ""; break;
-					default :
-						c = c + ch;
-				}
-			} else if (state==4) {
-				switch(ch) {
-					case '*' : state = 5; break;
-					default: state = 0; s = s + "/" + ch;
-				}
-			} else if (state==5) {
-				switch(ch) {
-					case '*' : state = 6; break;
-					default: c = c + ch;
-				}
-			} else if (state==6) {
-				switch(ch) {
-					case '/' : 
-						state = 0; 
-						if (includeComments) {
-							// include comments in the statements the comments appear in, unless this is a comment outside of a statement
-							s += ("/* " + c.trim() + " */");
-							if (s.startsWith("/*")) {
-								consumer.consume(s);
-								s = "";
-							}
-						} 
-						c=""; break;
-					default: c = c + "*" + ch;
-				}
-			} else if (state==7) {
-				switch(ch) {
-					case '\'' : state = 0; s = s + ch; break;
-					case '\\' : state = 10; s = s + ch; break;
-					default: s = s + ch;
-				}
-			} else if (state==8) {
-				// could check ch is printable here, but probably ok
-				s = s + ch;
-				state = 0;
-			} else if (state==9) {
-				s = s + ch;
-				state = 1;
-			} else if (state==10) {
-				s = s + ch;
-				state = 7;
+				i++;
 			}
-			
-			intch = is.read();
+			len = is.read(buf, 0, buf.length);
 		}
 		
 		if (state==5) {
@@ -261,15 +334,485 @@ public class SqlParser {
 			// ignore for the time being
 			throw new ParseException("Unclosed single quoted string before EOF", -1);
 		} else if (state==0) {
-			if (!s.trim().equals("")) {
+			String lastStatement = trim(s);
+			if (!lastStatement.equals("")) {
 				// unterminated statement at end of InputStream; add to list
-				consumer.consume(s.trim());
+				consumer.consume(lastStatement);
+			}
+		}
+	}
+	
+	/** Convert a UTF-8 encoded file of SQL statements into a List of individual statements.
+	 * See {@link #parseStatements(Reader, boolean)} for details.
+	 * 
+	 * @param path file to parse
+	 * @param includeComments include comment strings in result
+	 * 
+	 * @throws IOException 
+	 * @throws ParseException unclosed /*-style comment or single/double-quoted string
+	 */
+	public List<String> parseStatements(Path path, boolean includeComments) 
+		throws IOException, ParseException 
+	{
+		final List<String> allSql = new ArrayList<String>();
+		consumeStatements(path, includeComments, new Consumer<String>() {
+			@Override
+			public void consume(String s) {
+				allSql.add(s);
+			}
+		});
+		return allSql;
+	}
+	
+	/** Convert a UTF-8 encoded file of SQL statements into individual statements, which are passed to
+	 * a consumer as they are parsed. See {@link #parseStatements(Reader, boolean)} for details.
+	 * 
+	 * <p>The file is memory-mapped, and statements are located without decoding the file; 
+	 * only the bytes of each statement are decoded. This produces the same statements as
+	 * {@link #consumeStatements(Reader, boolean, Consumer)} when reading the file as UTF-8.
+	 * 
+	 * @param path file to parse
+	 * @param includeComments include comment strings in result
+	 * @param consumer receives each statement (and comment, if includeComments is true)
+	 * 
+	 * @throws IOException 
+	 * @throws ParseException unclosed /*-style comment or single/double-quoted string
+	 */
+	public void consumeStatements(Path path, boolean includeComments, final Consumer<String> consumer) 
+		throws IOException, ParseException 
+	{
+		scanStatements(path, includeComments, bb -> consumer.consume(decode(bb)));
+	}
+	
+	/** Convert a UTF-8 encoded file of SQL statements into individual statements, which are passed to
+	 * a consumer as they are parsed. See {@link #consumeStatements(Path, boolean, Consumer)} for details.
+	 * 
+	 * <p>Statements are supplied as {@link Utf8CharSequence}s, which are only decoded as they are read;
+	 * e.g. a consumer that only reads the start of each statement will not decode the rest of the
+	 * statement. CharSequences are only valid until the consumer returns; call <code>toString()</code>
+	 * to retain them.
+	 * 
+	 * @param path file to parse
+	 * @param includeComments include comment strings in result
+	 * @param consumer receives each statement (and comment, if includeComments is true)
+	 * 
+	 * @throws IOException 
+	 * @throws ParseException unclosed /*-style comment or single/double-quoted string
+	 */
+	public void consumeStatementSequences(Path path, boolean includeComments, final Consumer<CharSequence> consumer) 
+		throws IOException, ParseException 
+	{
+		scanStatements(path, includeComments, bb -> consumer.consume(new Utf8CharSequence(bb)));
+	}
+	
+	/** Splits a memory-mapped file into statements. This is the same state machine as 
+	 * {@link #consumeStatements(Reader, boolean, Consumer)}, operating on UTF-8 bytes rather than
+	 * characters. As every character that changes state is ASCII, and bytes within UTF-8 multi-byte 
+	 * sequences are never ASCII, this finds the same statements as the character-based parser.
+	 * 
+	 * <p>Statements are passed to the consumer as ByteBuffers, which are only valid until the
+	 * consumer returns.
+	 */
+	private void scanStatements(Path path, boolean includeComments, Consumer<ByteBuffer> consumer) 
+		throws IOException, ParseException 
+	{
+		int state = 0; // states as per consumeStatements(Reader, boolean, Consumer)
+		ByteStatement s = new ByteStatement(); // current statement
+		ByteStatement c = new ByteStatement(); // current comment
+		byte[] delimiter = new byte[] { ';' }; // default delimiter
+		int delimIdx = 0; // number of delimiter bytes read
+		int delimStart = -1; // position of the first delimiter byte read, or -1 if it was in a previous window
+		
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long offset = 0; offset < size; offset += mapWindowSize) {
+				int len = (int) Math.min(mapWindowSize, size - offset);
+				ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+				s.setWindow(buf);
+				c.setWindow(buf);
+				delimStart = -1;
+				
+				int i = 0;
+				while (i < len) {
+					byte ch = buf.get(i);
+					
+					if (state==0) {
+						if (ch == delimiter[delimIdx]) {
+							if (delimIdx == 0) { delimStart = i; }
+							delimIdx++;
+							if (delimiter.length==delimIdx) {
+								delimIdx = 0;
+								String newDelimiter = getDelimiterCommand(s);
+								if (newDelimiter != null) {
+									delimiter = newDelimiter.getBytes(StandardCharsets.UTF_8);
+								} else {
+									consumer.consume(s.toByteBuffer(true)); 
+								}
+								s.reset();
+							}
+						} else {
+							if (delimIdx > 0) {
+								if (delimStart == -1) {
+									s.append(delimiter, delimIdx);
+								} else {
+									s.append(delimStart, delimIdx);
+								}
+								delimIdx = 0; 
+							}
+							switch(ch) {
+								case '"' : state = 1; s.append(i, 1); break;
+								case '-' : state = 2; break;
+								case '/' : state = 4; break;
+								case '\'' : state = 7; s.append(i, 1); break;
+								case '\r' :
+								case '\n' :
+									String newDelimiter = getDelimiterCommand(s);
+									if (newDelimiter != null) {
+										delimiter = newDelimiter.getBytes(StandardCharsets.UTF_8);
+										s.reset();
+									} else {
+										s.append(i, 1);
+									}
+									break;
+								case '\\': state = 8; s.append(i, 1); break;
+								default: 
+									byte delimFirst = delimiter[0];
+									int j = i + 1;
+									while (j < len && !isStatementBreak((char) buf.get(j)) && buf.get(j) != delimFirst) { j++; }
+									s.append(i, j - i);
+									i = j - 1;
+							}
+						}
+						
+					} else if (state==1) {
+						switch(ch) {
+							case '"' : state = 0; s.append(i, 1); break;
+							case '\\': state = 9; s.append(i, 1); break;
+							default: 
+								int j = i + 1;
+								while (j < len && buf.get(j) != '"' && buf.get(j) != '\\') { j++; }
+								s.append(i, j - i);
+								i = j - 1;
+						}
+					} else if (state==2) {
+						switch(ch) {
+							case '-' : state = 3; break;
+							default: state = 0; s.appendWithPrevious((byte) '-', i);
+						}
+					} else if (state==3) {
+						switch(ch) {
+							case '\r' : 
+							case '\n' : 
+								state = 0; 
+								if (includeComments) {
+									s.append(DASH_COMMENT_START, DASH_COMMENT_START.length);
+									s.append(c.toByteBuffer(true));
+									if (isComment(s)) {
+										consumer.consume(s.toByteBuffer(true));
+										s.reset();
+									} else {
+										s.append(NEWLINE, NEWLINE.length);
+									}
+								}
+								c.reset(); break;
+							default :
+								int j = i + 1;
+								while (j < len && buf.get(j) != '\r' && buf.get(j) != '\n') { j++; }
+								c.append(i, j - i);
+								i = j - 1;
+						}
+					} else if (state==4) {
+						switch(ch) {
+							case '*' : state = 5; break;
+							default: state = 0; s.appendWithPrevious((byte) '/', i);
+						}
+					} else if (state==5) {
+						switch(ch) {
+							case '*' : state = 6; break;
+							default: 
+								int j = i + 1;
+								while (j < len && buf.get(j) != '*') { j++; }
+								c.append(i, j - i);
+								i = j - 1;
+						}
+					} else if (state==6) {
+						switch(ch) {
+							case '/' : 
+								state = 0; 
+								if (includeComments) {
+									s.append(SLASH_COMMENT_START, SLASH_COMMENT_START.length);
+									s.append(c.toByteBuffer(true));
+									s.append(SLASH_COMMENT_END, SLASH_COMMENT_END.length);
+									if (s.byteAt(0) == '/' && s.byteAt(1) == '*') {
+										consumer.consume(s.toByteBuffer(false));
+										s.reset();
+									}
+								} 
+								c.reset(); break;
+							default: c.appendWithPrevious((byte) '*', i);
+						}
+					} else if (state==7) {
+						switch(ch) {
+							case '\'' : state = 0; s.append(i, 1); break;
+							case '\\' : state = 10; s.append(i, 1); break;
+							default: 
+								int j = i + 1;
+								while (j < len && buf.get(j) != '\'' && buf.get(j) != '\\') { j++; }
+								s.append(i, j - i);
+								i = j - 1;
+						}
+					} else if (state==8) {
+						s.append(i, 1);
+						state = 0;
+					} else if (state==9) {
+						s.append(i, 1);
+						state = 1;
+					} else if (state==10) {
+						s.append(i, 1);
+						state = 7;
+					}
+					
+					i++;
+				}
 			}
 		}
 		
-		// return allSql;
+		if (state==5) {
+			throw new ParseException("Unclosed /*-style comment before EOF", -1);
+		} else if (state==1) {
+			throw new ParseException("Unclosed double quoted string before EOF", -1);
+		} else if (state==7) {
+			throw new ParseException("Unclosed single quoted string before EOF", -1);
+		} else if (state==0) {
+			ByteBuffer lastStatement = s.toByteBuffer(true);
+			if (lastStatement.hasRemaining()) {
+				// unterminated statement at end of file; add to list
+				consumer.consume(lastStatement);
+			}
+		}
 	}
+	
+	/** A statement or comment being read from a memory-mapped file. 
+	 * 
+	 * <p>This holds a range of bytes in the current window of the file, preceded by any bytes
+	 * that have had to be copied (e.g. text before a comment that has been removed, or text from
+	 * a previous window). Statements that appear unmodified in a single window of the file are 
+	 * never copied.
+	 */
+	private static class ByteStatement {
+		/** The current window of the file */
+		private ByteBuffer window;
+		
+		/** Bytes preceding the range in the current window */
+		private byte[] copied = new byte[256];
+		private int copiedLength;
+		
+		/** The range of bytes in the current window */
+		private int start, end;
+		
+		/** Move to the next window of the file, copying any bytes from the current window */
+		void setWindow(ByteBuffer window) {
+			copyRange();
+			this.window = window;
+		}
+		
+		/** Append bytes from the current window */
+		void append(int pos, int len) {
+			if (end != start && pos != end) {
+				copyRange();
+			}
+			if (end == start) {
+				start = pos;
+				end = pos;
+			}
+			end += len;
+		}
 
-
+		/** Append a byte, followed by the byte in the current position. The byte is not appended
+		 * if the current position is within a UTF-8 multi-byte sequence, so that it is appended
+		 * once per character. */ 
+		void appendWithPrevious(byte previous, int pos) {
+			if ((window.get(pos) & 0xC0) == 0x80) {
+				append(pos, 1);
+			} else if (pos > 0 && window.get(pos - 1) == previous) {
+				append(pos - 1, 2);
+			} else {
+				append(new byte[] { previous }, 1);
+				append(pos, 1);
+			}
+		}
+		
+		/** Append bytes that do not appear at this position in the file */
+		void append(byte[] b, int len) {
+			copyRange();
+			ensureCapacity(copiedLength + len);
+			System.arraycopy(b, 0, copied, copiedLength, len);
+			copiedLength += len;
+		}
+		
+		/** Append the remaining bytes in a ByteBuffer */
+		void append(ByteBuffer bb) {
+			copyRange();
+			ensureCapacity(copiedLength + bb.remaining());
+			int len = bb.remaining(); 
+			bb.get(copied, copiedLength, len);
+			copiedLength += len;
+		}
+		
+		private void copyRange() {
+			if (end > start) {
+				ensureCapacity(copiedLength + end - start);
+				ByteBuffer range = window.duplicate();
+				range.limit(end);
+				range.position(start);
+				range.get(copied, copiedLength, end - start);
+				copiedLength += end - start;
+			}
+			start = 0;
+			end = 0;
+		}
+		
+		private void ensureCapacity(int capacity) {
+			if (copied.length < capacity) {
+				copied = Arrays.copyOf(copied, Math.max(capacity, copied.length * 2));
+			}
+		}
+		
+		int length() {
+			return copiedLength + end - start;
+		}
+		
+		byte byteAt(int index) {
+			return index < copiedLength ? copied[index] : window.get(start + index - copiedLength);
+		}
+		
+		/** Returns the bytes in this statement, optionally with leading and trailing whitespace removed */
+		ByteBuffer toByteBuffer(boolean trim) {
+			ByteBuffer bb;
+			if (copiedLength == 0 && end > start) {
+				bb = window.duplicate();
+				bb.limit(end);
+				bb.position(start);
+			} else {
+				copyRange();
+				bb = ByteBuffer.wrap(copied, 0, copiedLength);
+			}
+			if (trim) {
+				int from = bb.position();
+				int to = bb.limit();
+				while (from < to && (bb.get(from) & 0xFF) <= ' ') { from++; }
+				while (to > from && (bb.get(to - 1) & 0xFF) <= ' ') { to--; }
+				bb.limit(to);
+				bb.position(from);
+			}
+			return bb;
+		}
+		
+		void reset() {
+			start = 0;
+			end = 0;
+			copiedLength = 0;
+			if (copied.length > MAX_RETAINED_CAPACITY) {
+				copied = new byte[256];
+			}
+		}
+	}
+	
+	/** Decode a UTF-8 ByteBuffer */
+	private static String decode(ByteBuffer bb) {
+		if (bb.hasArray()) {
+			return new String(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining(), StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[bb.remaining()];
+		bb.duplicate().get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/** Returns true if the trimmed contents of a ByteStatement start with '--' */
+	private static boolean isComment(ByteStatement s) {
+		int start = 0;
+		while (start < s.length() && (s.byteAt(start) & 0xFF) <= ' ') { start++; }
+		return start + 1 < s.length() && s.byteAt(start) == '-' && s.byteAt(start + 1) == '-';
+	}
+	
+	/** If the trimmed statement is a MySQL 'DELIMITER' command, returns the new delimiter.
+	 * The statement is only decoded if it starts with 'DELIMITER' followed by whitespace. */
+	private static String getDelimiterCommand(ByteStatement s) {
+		int start = 0;
+		int len = s.length();
+		while (start < len && (s.byteAt(start) & 0xFF) <= ' ') { start++; }
+		if (len - start <= DELIMITER_COMMAND.length()) { return null; }
+		for (int i = 0; i < DELIMITER_COMMAND.length(); i++) {
+			if (Character.toLowerCase((char) (s.byteAt(start + i) & 0xFF)) != DELIMITER_COMMAND.charAt(i)) { return null; }
+		}
+		if (!isRegexWhitespace((char) s.byteAt(start + DELIMITER_COMMAND.length()))) { return null; }
+		return getDelimiterCommand(decode(s.toByteBuffer(false)));
+	}
+	
+	/** Returns true if a character may end a run of ordinary characters in state 0 */
+	private static boolean isStatementBreak(char ch) {
+		return ch == '"' || ch == '-' || ch == '/' || ch == '\'' || ch == '\r' || ch == '\n' || ch == '\\';
+	}
+	
+	/** Returns the contents of a StringBuilder with leading and trailing whitespace removed,
+	 * as per {@link String#trim()}. */
+	private static String trim(StringBuilder sb) {
+		int start = 0;
+		int end = sb.length();
+		while (start < end && sb.charAt(start) <= ' ') { start++; }
+		while (end > start && sb.charAt(end - 1) <= ' ') { end--; }
+		return sb.substring(start, end);
+	}
+	
+	/** Returns true if the trimmed contents of a StringBuilder start with '--' */
+	private static boolean isComment(StringBuilder sb) {
+		int start = 0;
+		while (start < sb.length() && sb.charAt(start) <= ' ') { start++; }
+		return start + 1 < sb.length() && sb.charAt(start) == '-' && sb.charAt(start + 1) == '-';
+	}
+	
+	/** Empties a StringBuilder so that it can be reused for the next statement. Builders
+	 * that have grown to hold a very long statement are discarded, so that their memory 
+	 * can be reclaimed. */
+	private static StringBuilder reset(StringBuilder sb) {
+		if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+			return new StringBuilder();
+		}
+		sb.setLength(0);
+		return sb;
+	}
+	
+	/** If the trimmed statement is a MySQL 'DELIMITER' command, returns the new delimiter.
+	 * 
+	 * <p>This is equivalent to matching the statement against the regex <code>delimiter\\s+(.*)$</code> 
+	 * (case-insensitive), but does not create a String unless the statement is a DELIMITER command.
+	 * 
+	 * @param sb the current statement
+	 * 
+	 * @return the new delimiter, or null if the statement is not a DELIMITER command
+	 */
+	private static String getDelimiterCommand(CharSequence sb) {
+		int start = 0;
+		int end = sb.length();
+		while (start < end && sb.charAt(start) <= ' ') { start++; }
+		if (end - start <= DELIMITER_COMMAND.length()) { return null; }
+		while (end > start && sb.charAt(end - 1) <= ' ') { end--; }
+		for (int i = 0; i < DELIMITER_COMMAND.length(); i++) {
+			if (Character.toLowerCase(sb.charAt(start + i)) != DELIMITER_COMMAND.charAt(i)) { return null; }
+		}
+		int pos = start + DELIMITER_COMMAND.length();
+		if (pos == end || !isRegexWhitespace(sb.charAt(pos))) { return null; }
+		while (pos < end && isRegexWhitespace(sb.charAt(pos))) { pos++; }
+		for (int i = pos; i < end; i++) {
+			char ch = sb.charAt(i);
+			if (ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029') { return null; }
+		}
+		return sb.subSequence(pos, end).toString();
+	}
+	
+	/** Returns true if the character matches the regex '\\s' character class */
+	private static boolean isRegexWhitespace(char ch) {
+		return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+	}
 
 }
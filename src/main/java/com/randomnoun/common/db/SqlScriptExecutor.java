@@ -0,0 +1,835 @@
+package com.randomnoun.common.db;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+/** Executes a script of SQL statements (e.g. a schema migration or a MySQL dump file)
+ * against a DataSource.
+ *
+ * <p>The script is split into statements by a {@link SqlParser} running in a separate thread,
+ * so that parsing and execution overlap. Consecutive DML statements of the same type
+ * (INSERT, REPLACE, UPDATE or DELETE) are executed as JDBC batches of up to
+ * {@link #setBatchSize(int) batchSize} statements. Comments are not executed.
+ *
+ * <p>If {@link #setConcurrency(int) concurrency} is greater than 1, DML statements are
+ * executed concurrently on that many connections. Statements that modify the same table,
+ * and all statements within a <code>LOCK TABLES</code> ... <code>UNLOCK TABLES</code> block,
+ * are always executed in script order on the same connection. Any other statement
+ * (e.g. DDL) waits for all outstanding DML to complete, and is then executed on its own.
+ * <code>SET</code> and <code>USE</code> statements are also replayed on each concurrent connection.
+ * Transaction control statements (<code>START TRANSACTION</code>, <code>BEGIN</code>, <code>COMMIT</code>, 
+ * <code>ROLLBACK</code> and savepoints) wait for all outstanding DML to complete, and are then executed 
+ * on every connection, so a script that sets <code>autocommit=0</code> and later commits will commit the 
+ * DML executed on each connection. Each connection is committed separately, so a failure during a 
+ * <code>COMMIT</code> may leave some connections committed; and DDL statements only implicitly commit
+ * the DML executed on their own connection.
+ * Concurrent execution assumes that DML statements only read the table that they modify
+ * (which is the case for dump files), so should only be enabled for scripts where that is true.
+ *
+ * <p>Execution stops at the first statement that fails. As statements are executed as
+ * they are parsed, statements preceding a parse error will already have been executed.
+ *
+ * <pre style="code">
+ *   SqlScriptExecutor executor = new SqlScriptExecutor(dataSource);
+ *   executor.setConcurrency(4);
+ *   executor.setListener(listener);
+ *   SqlScriptExecutor.Progress progress = executor.execute(reader);
+ * </pre>
+ *
+ * @author knoxg
+ */
+public class SqlScriptExecutor {
+
+	/** Logger for this class */
+	public static final Logger logger = Logger.getLogger(SqlScriptExecutor.class);
+
+	/** Marks the end of the statement queue; compared by identity */
+	private static final String END_OF_SCRIPT = new String("");
+
+	/** Maximum number of statement groups queued for each concurrent connection */
+	private static final int MAX_QUEUED_GROUPS = 4;
+
+	/** The type of an SQL statement, used to group statements into batches and to
+	 * report execution times */
+	public enum StatementClass {
+		INSERT, REPLACE, UPDATE, DELETE,
+		/** LOCK TABLES */
+		LOCK,
+		/** UNLOCK TABLES */
+		UNLOCK,
+		/** SET and USE statements, which modify the state of the connection */
+		SESSION,
+		/** START TRANSACTION, BEGIN, COMMIT, ROLLBACK, SAVEPOINT and RELEASE SAVEPOINT */
+		TRANSACTION,
+		/** Any other statement */
+		OTHER;
+
+		/** Returns true if statements of this type can be executed in a JDBC batch */
+		public boolean isBatchable() {
+			return this == INSERT || this == REPLACE || this == UPDATE || this == DELETE;
+		}
+	}
+
+	/** Receives notifications as a script is executed */
+	public static interface Listener {
+		/** Called after each statement or batch has been executed. If concurrency is
+		 * greater than 1, this method may be called from several threads at once.
+		 *
+		 * @param statementClass the type of statement executed
+		 * @param statementCount the number of statements executed (the batch size)
+		 * @param nanos the time taken to execute the statements, in nanoseconds
+		 */
+		public void executed(StatementClass statementClass, int statementCount, long nanos);
+
+		/** Called after every {@link SqlScriptExecutor#setProgressInterval(int) progressInterval}
+		 * statements have been read, and when the script has completed. Always called from
+		 * the thread executing the script.
+		 *
+		 * @param progress the progress so far
+		 */
+		public void progress(Progress progress);
+	}
+
+	/** The progress of a script execution at a point in time */
+	public static class Progress {
+		private long statementsRead;
+		private long statementsExecuted;
+		private long batchesExecuted;
+		private long elapsedNanos;
+		private long[] statementCounts;
+		private long[] statementNanos;
+
+		Progress(long statementsRead, long statementsExecuted, long batchesExecuted, long elapsedNanos,
+			long[] statementCounts, long[] statementNanos)
+		{
+			this.statementsRead = statementsRead;
+			this.statementsExecuted = statementsExecuted;
+			this.batchesExecuted = batchesExecuted;
+			this.elapsedNanos = elapsedNanos;
+			this.statementCounts = statementCounts;
+			this.statementNanos = statementNanos;
+		}
+
+		/** Returns the number of statements read from the script */
+		public long getStatementsRead() { return statementsRead; }
+
+		/** Returns the number of statements executed */
+		public long getStatementsExecuted() { return statementsExecuted; }
+
+		/** Returns the number of JDBC executions; a batch counts as a single execution */
+		public long getBatchesExecuted() { return batchesExecuted; }
+
+		/** Returns the time since execution started, in milliseconds */
+		public long getElapsedMillis() { return elapsedNanos / 1000000; }
+
+		/** Returns the number of statements executed per second */
+		public double getStatementsPerSecond() {
+			return elapsedNanos == 0 ? 0 : statementsExecuted * 1000000000.0 / elapsedNanos;
+		}
+
+		/** Returns the number of statements of the supplied type that have been executed */
+		public long getStatementCount(StatementClass statementClass) {
+			return statementCounts[statementClass.ordinal()];
+		}
+
+		/** Returns the total time spent executing statements of the supplied type, in milliseconds.
+		 * If concurrency is greater than 1, this may exceed the elapsed time. */
+		public long getStatementMillis(StatementClass statementClass) {
+			return statementNanos[statementClass.ordinal()] / 1000000;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(statementsExecuted).append(" of ").append(statementsRead).append(" statements executed in ")
+			  .append(getElapsedMillis()).append("ms (").append(Math.round(getStatementsPerSecond())).append("/s)");
+			for (StatementClass sc : StatementClass.values()) {
+				if (statementCounts[sc.ordinal()] > 0) {
+					sb.append("; ").append(sc).append(": ").append(statementCounts[sc.ordinal()])
+					  .append(" in ").append(getStatementMillis(sc)).append("ms");
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	/** The type and target of a statement, as determined by {@link #classify(String)} */
+	static class StatementInfo {
+		StatementClass statementClass;
+		/** For DML statements, the (lower-cased) table modified, or null if this could not be determined */
+		String table;
+		/** For LOCK statements, the (lower-cased) tables locked */
+		List<String> tables;
+
+		StatementInfo(StatementClass statementClass, String table, List<String> tables) {
+			this.statementClass = statementClass;
+			this.table = table;
+			this.tables = tables;
+		}
+	}
+
+	private DataSource dataSource;
+	private int batchSize = 100;
+	private int concurrency = 1;
+	private int queueSize = 1000;
+	private int progressInterval = 1000;
+	private Listener listener;
+
+	/** Create a new SqlScriptExecutor
+	 *
+	 * @param dataSource the DataSource that statements will be executed against
+	 */
+	public SqlScriptExecutor(DataSource dataSource) {
+		if (dataSource == null) { throw new NullPointerException("null dataSource"); }
+		this.dataSource = dataSource;
+	}
+
+	/** Sets the maximum number of statements in a JDBC batch (default 100). A batch size
+	 * of 1 executes each statement individually.
+	 *
+	 * @param batchSize the maximum number of statements in a batch
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) { throw new IllegalArgumentException("batchSize must be positive"); }
+		this.batchSize = batchSize;
+	}
+
+	/** Sets the number of connections that DML statements are executed on (default 1).
+	 * See the class documentation for the restrictions on concurrent execution.
+	 *
+	 * @param concurrency the number of connections that DML statements are executed on
+	 */
+	public void setConcurrency(int concurrency) {
+		if (concurrency < 1) { throw new IllegalArgumentException("concurrency must be positive"); }
+		this.concurrency = concurrency;
+	}
+
+	/** Sets the number of parsed statements that may be waiting to be executed (default 1000).
+	 *
+	 * @param queueSize the number of parsed statements that may be waiting to be executed
+	 */
+	public void setQueueSize(int queueSize) {
+		if (queueSize < 1) { throw new IllegalArgumentException("queueSize must be positive"); }
+		this.queueSize = queueSize;
+	}
+
+	/** Sets the number of statements read between calls to {@link Listener#progress(Progress)} (default 1000).
+	 *
+	 * @param progressInterval the number of statements read between progress notifications
+	 */
+	public void setProgressInterval(int progressInterval) {
+		if (progressInterval < 1) { throw new IllegalArgumentException("progressInterval must be positive"); }
+		this.progressInterval = progressInterval;
+	}
+
+	/** Sets the listener that is notified as the script is executed
+	 *
+	 * @param listener the listener, or null
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/** Executes the statements in an InputStream, using the platform default character set.
+	 *
+	 * @param is the script to execute
+	 *
+	 * @return the final progress of the execution
+	 *
+	 * @throws IOException if the script could not be read
+	 * @throws ParseException if the script could not be parsed
+	 * @throws SQLException if a statement could not be executed
+	 */
+	public Progress execute(InputStream is) throws IOException, ParseException, SQLException {
+		return execute(new InputStreamReader(is));
+	}
+
+	/** Executes the statements in a Reader.
+	 *
+	 * @param reader the script to execute
+	 *
+	 * @return the final progress of the execution
+	 *
+	 * @throws IOException if the script could not be read
+	 * @throws ParseException if the script could not be parsed
+	 * @throws SQLException if a statement could not be executed
+	 */
+	public Progress execute(final Reader reader) throws IOException, ParseException, SQLException {
+		return new Execution().execute(consumer -> new SqlParser().consumeStatements(reader, false, consumer));
+	}
+
+	/** Executes the statements in a UTF-8 encoded file. The file is memory-mapped, which
+	 * is faster than reading it through a Reader.
+	 *
+	 * @param path the script to execute
+	 *
+	 * @return the final progress of the execution
+	 *
+	 * @throws IOException if the script could not be read
+	 * @throws ParseException if the script could not be parsed
+	 * @throws SQLException if a statement could not be executed
+	 */
+	public Progress execute(final Path path) throws IOException, ParseException, SQLException {
+		return new Execution().execute(consumer -> new SqlParser().consumeStatements(path, false, consumer));
+	}
+
+	/** Passes the statements in a script to a consumer */
+	private static interface ScriptSource {
+		public void consumeStatements(SqlParser.Consumer<String> consumer) throws IOException, ParseException;
+	}
+
+	/** The state of a single script execution */
+	private class Execution {
+		private long startNanos = System.nanoTime();
+		private long statementsRead;
+		private AtomicLong statementsExecuted = new AtomicLong();
+		private AtomicLong batchesExecuted = new AtomicLong();
+		private AtomicLongArray statementCounts = new AtomicLongArray(StatementClass.values().length);
+		private AtomicLongArray statementNanos = new AtomicLongArray(StatementClass.values().length);
+
+		/** Connection used for statements that are not executed concurrently */
+		private Connection connection;
+
+		/** Concurrent connections, or null if concurrency is 1 */
+		private Lane[] lanes;
+
+		/** The lane that each table is currently being modified on */
+		private Map<String, Lane> tableLanes = new HashMap<String, Lane>();
+
+		/** The lane executing the current LOCK TABLES block, or null */
+		private Lane lockLane;
+
+		/** SET and USE statements, which are replayed on each lane */
+		private List<String> sessionStatements = Collections.synchronizedList(new ArrayList<String>());
+
+		/** The statements in the current batch */
+		private List<String> batch = new ArrayList<String>();
+		private StatementClass batchClass;
+		private Lane batchLane;
+
+		/** The first error encountered by a lane */
+		private volatile SQLException failure;
+
+		/** Exception or error thrown by the parser thread */
+		private volatile Throwable parseException;
+
+
+		/** A connection that executes statement groups, in order, in its own thread */
+		private class Lane {
+			private ExecutorService executor;
+			private Connection laneConnection;
+			private int sessionStatementsApplied;
+			private Semaphore queued = new Semaphore(MAX_QUEUED_GROUPS);
+			private Future<?> lastGroup;
+
+			Lane(final int laneNumber) {
+				executor = Executors.newSingleThreadExecutor(r -> {
+					Thread thread = new Thread(r, "SqlScriptExecutor-" + laneNumber);
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+
+			/** Returns the number of groups waiting to be executed */
+			int getQueueLength() {
+				return MAX_QUEUED_GROUPS - queued.availablePermits();
+			}
+
+			/** Execute a statement group on this lane, after any session statements that preceded it.
+			 * 
+			 * @param statementClass the type of statements in the group
+			 * @param sql the statements
+			 * @param record if false, the statements have already been recorded as executed on 
+			 *   another connection, and are not included in the progress or listener notifications
+			 */
+			void submit(final StatementClass statementClass, final List<String> sql, final boolean record) throws SQLException {
+				try {
+					queued.acquire();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting to execute statement", ie);
+				}
+				// session statements added after this group is submitted are applied before later groups
+				final int sessionStatementCount = sessionStatements.size();
+				lastGroup = executor.submit(() -> {
+					try {
+						if (failure == null) {
+							if (laneConnection == null) {
+								laneConnection = dataSource.getConnection();
+							}
+							while (sessionStatementsApplied < sessionStatementCount) {
+								executeGroup(laneConnection, StatementClass.SESSION,
+									Collections.singletonList(sessionStatements.get(sessionStatementsApplied)), false);
+								sessionStatementsApplied++;
+							}
+							executeGroup(laneConnection, statementClass, sql, record);
+						}
+					} catch (SQLException e) {
+						if (failure == null) { failure = e; }
+					} finally {
+						queued.release();
+					}
+				});
+			}
+
+			/** Wait for all submitted groups to complete */
+			void await() throws SQLException {
+				if (lastGroup == null) { return; }
+				try {
+					lastGroup.get();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for statement to complete", ie);
+				} catch (ExecutionException ee) {
+					throw new IllegalStateException("Unexpected exception executing statement", ee.getCause());
+				}
+			}
+
+			void close() {
+				executor.submit(() -> {
+					if (laneConnection != null) {
+						try {
+							laneConnection.close();
+						} catch (SQLException e) {
+							logger.error("Could not close connection", e);
+						}
+					}
+				});
+				executor.shutdown();
+			}
+		}
+
+		Progress execute(final ScriptSource source) throws IOException, ParseException, SQLException {
+			final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(queueSize);
+			// the parser thread is interrupted once this thread stops reading the queue; the
+			// interrupt status is restored after each put(), so that the END_OF_SCRIPT put() 
+			// can't block on a full queue after execution has been aborted
+			Thread parserThread = new Thread(() -> {
+				try {
+					source.consumeStatements(s -> {
+						try {
+							queue.put(s);
+						} catch (InterruptedException ie) {
+							Thread.currentThread().interrupt();
+							throw new IllegalStateException("Script execution aborted", ie);
+						}
+					});
+				} catch (Throwable t) {
+					parseException = t;
+				} finally {
+					try {
+						queue.put(END_OF_SCRIPT);
+					} catch (InterruptedException ie) {
+						// execution aborted
+					}
+				}
+			}, "SqlScriptExecutor-parser");
+			parserThread.setDaemon(true);
+
+			try {
+				connection = dataSource.getConnection();
+				if (concurrency > 1) {
+					lanes = new Lane[concurrency];
+					for (int i = 0; i < concurrency; i++) { lanes[i] = new Lane(i); }
+				}
+				parserThread.start();
+				String sql = takeStatement(queue);
+				while (sql != END_OF_SCRIPT) {
+					if (!sql.isEmpty()) {
+						statementsRead++;
+						dispatch(sql, classify(sql));
+						if (failure != null) { throw failure; }
+						if (listener != null && statementsRead % progressInterval == 0) {
+							listener.progress(getProgress());
+						}
+					}
+					sql = takeStatement(queue);
+				}
+				if (parseException instanceof IOException) {
+					throw (IOException) parseException;
+				} else if (parseException instanceof ParseException) {
+					throw (ParseException) parseException;
+				} else if (parseException instanceof RuntimeException) {
+					throw (RuntimeException) parseException;
+				} else if (parseException instanceof Error) {
+					throw (Error) parseException;
+				} else if (parseException != null) {
+					throw new IllegalStateException("Unexpected exception parsing script", parseException);
+				}
+				barrier();
+
+			} finally {
+				parserThread.interrupt();
+				if (lanes != null) {
+					for (Lane lane : lanes) { lane.close(); }
+				}
+				if (connection != null) {
+					connection.close();
+				}
+			}
+
+			Progress progress = getProgress();
+			if (listener != null) {
+				listener.progress(progress);
+			}
+			return progress;
+		}
+
+		private String takeStatement(BlockingQueue<String> queue) throws SQLException {
+			try {
+				return queue.take();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted reading statement", ie);
+			}
+		}
+
+		private Progress getProgress() {
+			long[] counts = new long[statementCounts.length()];
+			long[] nanos = new long[statementNanos.length()];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = statementCounts.get(i);
+				nanos[i] = statementNanos.get(i);
+			}
+			return new Progress(statementsRead, statementsExecuted.get(), batchesExecuted.get(),
+				System.nanoTime() - startNanos, counts, nanos);
+		}
+
+		/** Execute a statement, add it to the current batch, or send it to a lane */
+		private void dispatch(String sql, StatementInfo info) throws SQLException {
+			StatementClass sc = info.statementClass;
+			if (lanes == null) {
+				if (sc.isBatchable()) {
+					addToBatch(sql, sc, null);
+				} else {
+					flushBatch();
+					executeGroup(connection, sc, Collections.singletonList(sql));
+				}
+
+			} else if (sc == StatementClass.TRANSACTION) {
+				// executed on every connection, once the preceding statements have completed
+				barrier();
+				executeGroup(connection, sc, Collections.singletonList(sql));
+				for (Lane lane : lanes) {
+					lane.submit(sc, Collections.singletonList(sql), false);
+				}
+
+			} else if (lockLane != null) {
+				// everything within a LOCK TABLES block is executed on the same connection,
+				// except for session statements (e.g. 'SET autocommit=0'), which apply to every connection
+				if (sc.isBatchable()) {
+					addToBatch(sql, sc, lockLane);
+				} else if (sc == StatementClass.SESSION) {
+					flushBatch();
+					executeGroup(connection, sc, Collections.singletonList(sql));
+					sessionStatements.add(sql);
+				} else {
+					flushBatch();
+					lockLane.submit(sc, Collections.singletonList(sql), true);
+					if (sc == StatementClass.UNLOCK) { lockLane = null; }
+				}
+
+			} else if (sc == StatementClass.LOCK && info.tables != null) {
+				flushBatch();
+				lockLane = getLane(info.tables);
+				lockLane.submit(sc, Collections.singletonList(sql), true);
+
+			} else if (sc.isBatchable() && info.table != null) {
+				addToBatch(sql, sc, getLane(Collections.singletonList(info.table)));
+
+			} else {
+				barrier();
+				executeGroup(connection, sc, Collections.singletonList(sql));
+				if (sc == StatementClass.SESSION) {
+					sessionStatements.add(sql);
+				}
+			}
+		}
+
+		/** Returns the lane that the supplied tables should be modified on; i.e. the lane that
+		 * is already modifying those tables, or the least busy lane. */
+		private Lane getLane(List<String> tables) throws SQLException {
+			Lane lane = null;
+			for (String table : tables) {
+				Lane tableLane = tableLanes.get(table);
+				if (tableLane != null && lane != null && tableLane != lane) {
+					// tables are being modified on different lanes; wait for them to finish
+					barrier();
+					lane = null;
+					break;
+				} else if (tableLane != null) {
+					lane = tableLane;
+				}
+			}
+			if (lane == null) {
+				lane = lanes[0];
+				for (Lane l : lanes) {
+					if (l.getQueueLength() < lane.getQueueLength()) { lane = l; }
+				}
+			}
+			for (String table : tables) {
+				tableLanes.put(table, lane);
+			}
+			return lane;
+		}
+
+		private void addToBatch(String sql, StatementClass sc, Lane lane) throws SQLException {
+			if (batch.size() > 0 && (batchClass != sc || batchLane != lane || batch.size() >= batchSize)) {
+				flushBatch();
+			}
+			batch.add(sql);
+			batchClass = sc;
+			batchLane = lane;
+		}
+
+		private void flushBatch() throws SQLException {
+			if (batch.size() == 0) { return; }
+			List<String> sql = batch;
+			batch = new ArrayList<String>();
+			if (batchLane == null) {
+				executeGroup(connection, batchClass, sql);
+			} else {
+				batchLane.submit(batchClass, sql, true);
+			}
+		}
+
+		/** Wait for all lanes to complete */
+		private void barrier() throws SQLException {
+			flushBatch();
+			if (lanes != null) {
+				for (Lane lane : lanes) { lane.await(); }
+				tableLanes.clear();
+			}
+			if (failure != null) { throw failure; }
+		}
+
+		/** Execute a single statement, or a batch of statements */
+		private void executeGroup(Connection conn, StatementClass sc, List<String> sql) throws SQLException {
+			executeGroup(conn, sc, sql, true);
+		}
+
+		/** Execute a single statement, or a batch of statements.
+		 * 
+		 * @param record if false, the statements are not included in the progress or listener 
+		 *   notifications (as they are a replay of statements executed on another connection)
+		 */
+		private void executeGroup(Connection conn, StatementClass sc, List<String> sql, boolean record) throws SQLException {
+			long start = System.nanoTime();
+			try (Statement stmt = conn.createStatement()) {
+				if (sql.size() == 1) {
+					stmt.execute(sql.get(0));
+				} else {
+					for (String s : sql) { stmt.addBatch(s); }
+					stmt.executeBatch();
+				}
+			} catch (SQLException e) {
+				String s = sql.get(0);
+				if (s.length() > 200) { s = s.substring(0, 200) + "..."; }
+				throw new SQLException("Error executing " +
+				  (sql.size() == 1 ? "statement" : "batch of " + sql.size() + " statements starting with") +
+				  " '" + s + "': " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+			}
+			if (!record) { return; }
+			long nanos = System.nanoTime() - start;
+			statementsExecuted.addAndGet(sql.size());
+			batchesExecuted.incrementAndGet();
+			statementCounts.addAndGet(sc.ordinal(), sql.size());
+			statementNanos.addAndGet(sc.ordinal(), nanos);
+			if (listener != null) {
+				listener.executed(sc, sql.size(), nanos);
+			}
+		}
+	}
+
+	/** Determine the type of a statement, and the tables that it modifies or locks.
+	 *
+	 * <p>A table is only returned for DML statements that modify a single table, and
+	 * don't read from other tables in an obvious way (e.g. INSERT ... SELECT, or multi-table
+	 * UPDATEs and DELETEs).
+	 *
+	 * @param sql an SQL statement, without comments
+	 *
+	 * @return the type and target of the statement
+	 */
+	static StatementInfo classify(String sql) {
+		Tokenizer t = new Tokenizer(sql);
+		String word = t.nextKeyword();
+		if (word == null) {
+			return new StatementInfo(StatementClass.OTHER, null, null);
+		}
+		switch (word) {
+			case "INSERT":
+			case "REPLACE":
+				StatementClass sc = word.equals("INSERT") ? StatementClass.INSERT : StatementClass.REPLACE;
+				word = t.skipKeywords("LOW_PRIORITY", "DELAYED", "HIGH_PRIORITY", "IGNORE", "INTO");
+				String table = t.nextName(word);
+				word = t.nextKeyword();
+				if ("(".equals(word)) {
+					t.skipParentheses();
+					word = t.nextKeyword();
+				}
+				return new StatementInfo(sc, "VALUES".equals(word) || "VALUE".equals(word) || "SET".equals(word) ? table : null, null);
+
+			case "UPDATE":
+				word = t.skipKeywords("LOW_PRIORITY", "IGNORE");
+				table = t.nextName(word);
+				return new StatementInfo(StatementClass.UPDATE, "SET".equals(t.nextKeyword()) ? table : null, null);
+
+			case "DELETE":
+				word = t.skipKeywords("LOW_PRIORITY", "QUICK", "IGNORE");
+				if (!"FROM".equals(word)) {
+					return new StatementInfo(StatementClass.DELETE, null, null);
+				}
+				table = t.nextName(t.nextKeyword());
+				word = t.nextKeyword();
+				return new StatementInfo(StatementClass.DELETE, word == null || word.equals("WHERE") ||
+				  word.equals("ORDER") || word.equals("LIMIT") ? table : null, null);
+
+			case "LOCK":
+				word = t.nextKeyword();
+				if (!"TABLES".equals(word) && !"TABLE".equals(word)) {
+					return new StatementInfo(StatementClass.OTHER, null, null);
+				}
+				List<String> tables = new ArrayList<String>();
+				word = t.nextKeyword();
+				while (word != null) {
+					table = t.nextName(word);
+					if (table == null) {
+						return new StatementInfo(StatementClass.LOCK, null, null);
+					}
+					tables.add(table);
+					// skip alias and lock type
+					word = t.nextKeyword();
+					while (word != null && !word.equals(",")) { word = t.nextKeyword(); }
+					if (word != null) { word = t.nextKeyword(); }
+				}
+				return new StatementInfo(StatementClass.LOCK, null, tables);
+
+			case "UNLOCK":
+				return new StatementInfo(StatementClass.UNLOCK, null, null);
+
+			case "SET":
+			case "USE":
+				return new StatementInfo(StatementClass.SESSION, null, null);
+
+			case "START":
+				return new StatementInfo("TRANSACTION".equals(t.nextKeyword()) ? StatementClass.TRANSACTION : StatementClass.OTHER, null, null);
+
+			case "BEGIN":
+			case "COMMIT":
+			case "ROLLBACK":
+			case "SAVEPOINT":
+				return new StatementInfo(StatementClass.TRANSACTION, null, null);
+
+			case "RELEASE":
+				return new StatementInfo("SAVEPOINT".equals(t.nextKeyword()) ? StatementClass.TRANSACTION : StatementClass.OTHER, null, null);
+
+			default:
+				return new StatementInfo(StatementClass.OTHER, null, null);
+		}
+	}
+
+	/** Splits the start of a statement into words and punctuation */
+	private static class Tokenizer {
+		private String sql;
+		private int pos;
+
+		Tokenizer(String sql) {
+			this.sql = sql;
+		}
+
+		/** Returns the next token; unquoted words are upper-cased, quoted identifiers are
+		 * returned with their quotes, and any other character is returned on its own.
+		 * Returns null at the end of the statement. */
+		String nextKeyword() {
+			while (pos < sql.length() && Character.isWhitespace(sql.charAt(pos))) { pos++; }
+			if (pos == sql.length()) { return null; }
+			int start = pos;
+			char ch = sql.charAt(pos);
+			if (ch == '`') {
+				int end = sql.indexOf('`', pos + 1);
+				pos = end == -1 ? sql.length() : end + 1;
+				return sql.substring(start, pos);
+			} else if (isWordChar(ch)) {
+				while (pos < sql.length() && isWordChar(sql.charAt(pos))) { pos++; }
+				return sql.substring(start, pos).toUpperCase(Locale.ROOT);
+			}
+			pos++;
+			return String.valueOf(ch);
+		}
+
+		/** Skips any of the supplied keywords, and returns the token following them */
+		String skipKeywords(String... keywords) {
+			String word = nextKeyword();
+			boolean found = true;
+			while (word != null && found) {
+				found = false;
+				for (String keyword : keywords) {
+					if (keyword.equals(word)) { found = true; word = nextKeyword(); break; }
+				}
+			}
+			return word;
+		}
+
+		/** Returns the (possibly qualified) table name starting with the supplied token,
+		 * lower-cased and without quotes, or null if the token is not a name */
+		String nextName(String word) {
+			if (word == null || !(word.startsWith("`") || isWordChar(word.charAt(0)))) { return null; }
+			StringBuilder sb = new StringBuilder(unquote(word));
+			while (pos < sql.length() && sql.charAt(pos) == '.') {
+				pos++;
+				word = nextKeyword();
+				if (word == null) { return null; }
+				sb.append('.').append(unquote(word));
+			}
+			return sb.toString().toLowerCase(Locale.ROOT);
+		}
+
+		/** Skips to the closing parenthesis matching an opening parenthesis that has just been read */
+		void skipParentheses() {
+			int depth = 1;
+			while (depth > 0 && pos < sql.length()) {
+				String word = nextKeyword();
+				if ("(".equals(word)) { depth++; }
+				else if (")".equals(word)) { depth--; }
+			}
+		}
+
+		private static String unquote(String word) {
+			return word.startsWith("`") ? word.substring(1, word.endsWith("`") && word.length() > 1 ? word.length() - 1 : word.length()) : word;
+		}
+
+		private static boolean isWordChar(char ch) {
+			return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+		}
+	}
+}
@@ -1,13 +1,28 @@
 package com.randomnoun.common.db.dao;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.ResultSetExtractor;
 
 import com.randomnoun.common.db.DatabaseReader;
@@ -23,10 +38,30 @@ import com.randomnoun.common.db.to.TriggerTO;
 import com.randomnoun.common.spring.StringRowMapper;
 
 //all the stuff that's specific to mysql should go in here
+/** Reads schema metadata from the INFORMATION_SCHEMA tables of a MySQL database.
+ * 
+ * <p>The tables, columns, constraints, triggers and routines of a schema are read using 
+ * independent queries; if {@link #setConcurrency(int)} is greater than 1, these queries
+ * are run concurrently, each on its own connection from the DataSource (so a 
+ * SingleConnectionDataSource should not be used with a concurrency greater than 1). 
+ * 
+ * <p>The tables read can be restricted using {@link #setTableFilter(String)}, and 
+ * a previously-read schema can be refreshed incrementally using {@link #refreshSchema(SchemaTO)}.
+ * 
+ * <p>Schemas can be cached between readers using a {@link com.randomnoun.common.db.SchemaCache}; 
+ * see {@link #getSchemaFingerprint(String)} for the changes that invalidate a cached schema. 
+ */
 public class MysqlDatabaseReader extends DatabaseReader {
 
 	Logger logger = Logger.getLogger(MysqlDatabaseReader.class);
 	
+	/** The columns of INFORMATION_SCHEMA.COLUMNS that make up a column definition */
+	private static final String COLUMN_DEFINITION = "COLUMN_NAME, ORDINAL_POSITION, COLUMN_TYPE, " +
+		"IS_NULLABLE, COLUMN_DEFAULT IS NULL, COLUMN_DEFAULT, COLUMN_KEY, EXTRA, COLUMN_COMMENT";
+	
+	/** An SQL expression which aggregates the column definitions in INFORMATION_SCHEMA.COLUMNS into a checksum */
+	private static final String COLUMN_CHECKSUM = "SUM(CRC32(CONCAT_WS('|', " + COLUMN_DEFINITION + ")))";
+	
 	public MysqlDatabaseReader(DataSource dataSource) {
 		super(dataSource);
 		this.db.setDbType(DatabaseTypeEnum.MYSQL);
@@ -35,33 +70,247 @@ public class MysqlDatabaseReader extends DatabaseReader {
 	@Override
 	public SchemaTO readSchema(String schemaName) {
 		SchemaTO schema = new SchemaTO(db, schemaName);
-		// TODO Auto-generated method stub
-		List<String> tableList = null;
+		schema.setReadTime(getServerTime());
+		// checksums are read before the schema, so that changes made while it is being read are refreshed later
+		Map<String, TableState> tableStates = readTableStates(schema);
+		readSchemaObjects(schema, null);
+		schema.setColumnChecksums(getColumnChecksums(tableStates));
+		return schema;
+	}
+	
+	/** Re-reads the tables in the schema that have been created, altered or updated since the
+	 * schema was read, removes tables that have been dropped, and re-reads all routines.
+	 * The schema is modified in place.
+	 * 
+	 * <p>A table is re-read if its CREATE_TIME or UPDATE_TIME in INFORMATION_SCHEMA.TABLES is not 
+	 * earlier than the time the schema was read, or if a checksum of its column definitions in 
+	 * INFORMATION_SCHEMA.COLUMNS has changed (as ALTER TABLE operations performed in-place or instantly 
+	 * may not update CREATE_TIME). The times are read with the information_schema_stats_expiry session 
+	 * variable set to 0, so that MySQL 8 does not return cached values.  
+	 * 
+	 * <p>Changes that do not modify a table's times or columns (e.g. adding a foreign key constraint 
+	 * to an indexed column in-place) are not detected; use {@link #readSchema(String)} to re-read 
+	 * the entire schema. 
+	 */
+	@Override
+	public SchemaTO refreshSchema(final SchemaTO s) {
+		if (s.getReadTime() == null) {
+			return readSchema(s.getName());
+		}
+		Date readTime = getServerTime();
+		Map<String, TableState> tableStates = readTableStates(s);
+		Map<String, Long> columnChecksums = s.getColumnChecksums();
+		
+		// times are only accurate to the second, so tables changed in the same second as the last read are re-read 
+		List<String> changedTables = new ArrayList<String>();
+		for (Map.Entry<String, TableState> entry : tableStates.entrySet()) {
+			TableState state = entry.getValue();
+			if (!s.getTableMap().containsKey(entry.getKey()) || state.changeTime == null || 
+			  !state.changeTime.before(s.getReadTime()) ||
+			  (columnChecksums != null && !Objects.equals(columnChecksums.get(entry.getKey()), state.columnChecksum))) {
+				changedTables.add(entry.getKey());
+			}
+		}
+		Set<String> removedTables = new HashSet<String>(s.getTableMap().keySet());
+		removedTables.removeAll(tableStates.keySet());
+		removedTables.addAll(changedTables);
+		logger.debug("Refreshing schema '" + s.getName() + "': " + changedTables.size() + " changed tables, " + 
+			(removedTables.size() - changedTables.size()) + " dropped tables");
+		
+		s.getTableMap().keySet().removeAll(removedTables);
+		for (Iterator<TriggerTO> i = s.getTriggerMap().values().iterator(); i.hasNext(); ) {
+			if (removedTables.contains(i.next().getTable().getName())) { i.remove(); }
+		}
+		readSchemaObjects(s, changedTables);
+		s.setReadTime(readTime);
+		s.setColumnChecksums(getColumnChecksums(tableStates));
+		return s;
+	}
+	
+	/** The state of a table in INFORMATION_SCHEMA, used to determine whether it has changed */
+	private static class TableState {
+		/** The later of the table's CREATE_TIME and UPDATE_TIME */
+		Timestamp changeTime;
+		
+		/** A checksum of the table's column definitions */
+		Long columnChecksum;
+	}
+	
+	/** Returns the state of each table in a schema, keyed by table name */
+	private Map<String, TableState> readTableStates(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		args.add(s.getName());
+		return queryWithCurrentStatistics(
+			"SELECT T.TABLE_NAME, T.CREATE_TIME, T.UPDATE_TIME, C.COLUMN_CHECKSUM " +
+			" FROM INFORMATION_SCHEMA.TABLES T " +
+			" LEFT JOIN (SELECT TABLE_NAME, " + COLUMN_CHECKSUM + " AS COLUMN_CHECKSUM " +
+			"  FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = ? GROUP BY TABLE_NAME) C " +
+			" ON C.TABLE_NAME = T.TABLE_NAME " +
+			" WHERE T.TABLE_SCHEMA = ?" + 
+			tableCondition("T.TABLE_NAME", null, args),
+			args.toArray(),
+			new ResultSetExtractor<Map<String, TableState>>() {
+				@Override
+				public Map<String, TableState> extractData(ResultSet rs) throws SQLException, DataAccessException {
+					Map<String, TableState> tableStates = new HashMap<String, TableState>();
+					while (rs.next()) {
+						Timestamp createTime = rs.getTimestamp("CREATE_TIME");
+						Timestamp updateTime = rs.getTimestamp("UPDATE_TIME");
+						TableState state = new TableState();
+						state.changeTime = (updateTime != null && (createTime == null || updateTime.after(createTime))) ? updateTime : createTime;
+						state.columnChecksum = rs.getLong("COLUMN_CHECKSUM"); if (rs.wasNull()) { state.columnChecksum = null; }
+						tableStates.put(s.getDatabase().upper(rs.getString("TABLE_NAME")), state);
+					}
+					return tableStates;
+				}
+			});
+	}
+	
+	/** Returns the column checksums of a set of table states */
+	private static Map<String, Long> getColumnChecksums(Map<String, TableState> tableStates) {
+		Map<String, Long> columnChecksums = new HashMap<String, Long>();
+		for (Map.Entry<String, TableState> entry : tableStates.entrySet()) {
+			columnChecksums.put(entry.getKey(), entry.getValue().columnChecksum);
+		}
+		return columnChecksums;
+	}
+	
+	/** Runs a query on a single connection with the information_schema_stats_expiry session variable set 
+	 * to 0, so that the CREATE_TIME and UPDATE_TIME columns of INFORMATION_SCHEMA.TABLES are read from 
+	 * the storage engine rather than the statistics cache. The variable is reset to its global value 
+	 * once the query has completed. 
+	 * 
+	 * <p>MySQL versions before 8.0 (and MariaDB) don't cache these columns, and don't have this variable.
+	 */
+	private <T> T queryWithCurrentStatistics(final String sql, final Object[] args, final ResultSetExtractor<T> rse) {
+		return jt.execute(new ConnectionCallback<T>() {
+			@Override
+			public T doInConnection(Connection con) throws SQLException, DataAccessException {
+				boolean statsExpirySet = false;
+				try (Statement stmt = con.createStatement()) {
+					stmt.execute("SET SESSION information_schema_stats_expiry = 0");
+					statsExpirySet = true;
+				} catch (SQLException sqle) {
+					logger.debug("Could not set information_schema_stats_expiry: " + sqle.getMessage());
+				}
+				try (PreparedStatement ps = con.prepareStatement(sql)) {
+					for (int i = 0; i < args.length; i++) {
+						ps.setObject(i + 1, args[i]);
+					}
+					try (ResultSet rs = ps.executeQuery()) {
+						return rse.extractData(rs);
+					}
+				} finally {
+					if (statsExpirySet) {
+						try (Statement stmt = con.createStatement()) {
+							stmt.execute("SET SESSION information_schema_stats_expiry = DEFAULT");
+						}
+					}
+				}
+			}
+		});
+	}
+	
+	/** Returns a fingerprint of the schema, composed of the number of tables and their latest
+	 * CREATE_TIME and UPDATE_TIME, a checksum of the column definitions of every table (as ALTER TABLE 
+	 * operations performed in-place or instantly may not update CREATE_TIME), and the number and 
+	 * checksums of routines and triggers. The table filter is included in the fingerprint.
+	 * 
+	 * <p>As in {@link #refreshSchema(SchemaTO)}, the fingerprint is read with the information_schema_stats_expiry 
+	 * session variable set to 0, so that MySQL 8 does not return cached table times.
+	 */
+	@Override
+	public String getSchemaFingerprint(String schemaName) {
+		List<Object> args = new ArrayList<Object>();
+		StringBuilder sql = new StringBuilder("SELECT CONCAT_WS('/', ");
+		sql.append(
+			" (SELECT CONCAT_WS(',', COUNT(*), MAX(CREATE_TIME), MAX(UPDATE_TIME)) " +
+			"  FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = ?");
+		args.add(schemaName);
+		sql.append(tableCondition("TABLE_NAME", null, args));
+		sql.append("), " +
+			" (SELECT CONCAT_WS(',', COUNT(*), SUM(CRC32(CONCAT_WS('|', TABLE_NAME, " + COLUMN_DEFINITION + ")))) " +
+			"  FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = ?");
+		args.add(schemaName);
+		sql.append(tableCondition("TABLE_NAME", null, args));
+		sql.append("), " +
+			" (SELECT CONCAT_WS(',', COUNT(*), SUM(CRC32(CONCAT_WS('|', ROUTINE_NAME, ROUTINE_TYPE, LAST_ALTERED, ROUTINE_DEFINITION)))) " +
+			"  FROM INFORMATION_SCHEMA.ROUTINES WHERE ROUTINE_SCHEMA = ?), ");
+		args.add(schemaName);
+		sql.append(
+			" (SELECT CONCAT_WS(',', COUNT(*), SUM(CRC32(CONCAT_WS('|', TRIGGER_NAME, EVENT_OBJECT_TABLE, CREATED, ACTION_TIMING, EVENT_MANIPULATION, ACTION_STATEMENT)))) " +
+			"  FROM INFORMATION_SCHEMA.TRIGGERS WHERE TRIGGER_SCHEMA = ?");
+		args.add(schemaName);
+		sql.append(tableCondition("EVENT_OBJECT_TABLE", null, args));
+		sql.append(")) AS FINGERPRINT");
+		String fingerprint = queryWithCurrentStatistics(sql.toString(), args.toArray(), new ResultSetExtractor<String>() {
+			@Override
+			public String extractData(ResultSet rs) throws SQLException, DataAccessException {
+				return rs.next() ? rs.getString("FINGERPRINT") : null;
+			}
+		});
+		return (getTableFilter() == null ? "" : getTableFilter()) + "/" + fingerprint;
+	}
+	
+	/** Returns the current time on the database server */
+	private Date getServerTime() {
+		return jt.queryForObject("SELECT NOW()", Timestamp.class);
+	}
+	
+	/** Reads tables, columns, constraints, triggers and routines into a schema.
+	 * 
+	 * @param s the schema to populate
+	 * @param tableNames if non-null, only these tables (and their columns, constraints 
+	 *   and triggers) are read
+	 */
+	private void readSchemaObjects(final SchemaTO s, final Collection<String> tableNames) {
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		if (tableNames == null || tableNames.size() > 0) {
+			tasks.add(() -> { readTableNames(s, tableNames); return null; });
+			tasks.add(() -> { readColumns(s, tableNames); return null; });
+			tasks.add(() -> { readConstraints(s, tableNames); return null; });
+			tasks.add(() -> { readTriggers(s, tableNames); return null; });
+		}
+		tasks.add(() -> { readRoutines(s); return null; });
+		invokeAll(tasks);
 		
+		setPrimaryKeyColumns(tableNames == null ? s.getTableMap().values() : tablesNamed(s, tableNames));
+	}
+	
+	/** Returns the tables in the schema with the supplied names */
+	private List<TableTO> tablesNamed(SchemaTO s, Collection<String> tableNames) {
+		List<TableTO> result = new ArrayList<TableTO>();
+		for (String tableName : tableNames) {
+			TableTO t = s.getTableMap().get(s.getDatabase().upper(tableName));
+			if (t != null) { result.add(t); }
+		}
+		return result;
+	}
+	
+	private void readTableNames(final SchemaTO s, Collection<String> tableNames) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
 		// this became outrageously slow in mysql 8
-		tableList = jt.query(
+		List<String> tableList = jt.query(
 			"SELECT table_name "+
 			" FROM information_schema.tables " +
-			" WHERE table_schema='" + schema.getName() + "'",
+			" WHERE table_schema = ?" + 
+			tableCondition("table_name", tableNames, args),
+			args.toArray(),
 			new StringRowMapper() );
-		//tableList = schema.database.upper(tableList);
 		for (String n : tableList) {
 			logger.debug("Table " + n);
-			// TableTO t = readTable(schema, n);
-			TableTO t = new TableTO(schema, n);
-			schema.getTableMap().put(n, t);
+			s.getTable(n);
 		}
-		
-		readTables(schema);
-		readTriggers(schema);
-		readRoutines(schema);
-		return schema;
 	}
 	
-	private void readTriggers(final SchemaTO s) {
+	private void readTriggers(final SchemaTO s, Collection<String> tableNames) {
 		// final TriggerTO t = new TriggerTO(schema, triggerName);
 		// return t;
 		
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
 		jt.query(
 			"SELECT T.trigger_catalog, T.trigger_schema, T.trigger_name,\n" + 
 			" T.event_manipulation,\n" + 
@@ -80,8 +329,10 @@ public class MysqlDatabaseReader extends DatabaseReader {
 			" T.collation_connection,\n" + // utf8mb4_unicode_ci 
 			" T.database_collation  \n" + // utf8mb4_0900_ai_ci 
 			"FROM INFORMATION_SCHEMA.TRIGGERS T\n" +
-			"WHERE T.trigger_schema = '" + s.getName() + "'\n" + // TODO escape 
+			"WHERE T.trigger_schema = ?\n" + 
+			tableCondition("T.event_object_table", tableNames, args) + 
 			" ORDER BY T.event_object_schema, T.event_object_table, T.event_manipulation, T.action_order",
+			args.toArray(),
 			new ResultSetExtractor<Object>() {
 				@Override
 				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
@@ -110,8 +361,9 @@ public class MysqlDatabaseReader extends DatabaseReader {
 		});
 	}
 
-	// probably more efficient to read all tables at once, but this is what the current code does
-	private void readTables(final SchemaTO s) {
+	private void readColumns(final SchemaTO s, Collection<String> tableNames) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
 		jt.query(
 			// TABLE_CATALOG always NULL, TABLE_SCHEMA
 			"SELECT TABLE_NAME, COLUMN_NAME, ORDINAL_POSITION, COLUMN_DEFAULT, IS_NULLABLE, "+
@@ -121,8 +373,10 @@ public class MysqlDatabaseReader extends DatabaseReader {
 			"  COLUMN_COMMENT "+
 			" FROM INFORMATION_SCHEMA.COLUMNS " +
 			" WHERE " +
-			" TABLE_SCHEMA = '" + s.getName() + "' " + // @TODO escape 
+			" TABLE_SCHEMA = ? " + 
+			tableCondition("TABLE_NAME", tableNames, args) + 
 			"	ORDER BY TABLE_NAME, ORDINAL_POSITION ", 
+			args.toArray(),
 			new ResultSetExtractor<Object>() {
 				@Override
 				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
@@ -154,7 +408,11 @@ public class MysqlDatabaseReader extends DatabaseReader {
 					return null;
 				}
 			});
-		
+	}
+	
+	private void readConstraints(final SchemaTO s, Collection<String> tableNames) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
 		jt.query(
 			"SELECT TC.constraint_catalog, TC.constraint_schema, TC.constraint_name,\n" + 
 			" TC.table_schema, TC.table_name,\n" + 
@@ -168,8 +426,10 @@ public class MysqlDatabaseReader extends DatabaseReader {
 			" AND TC.constraint_name = KCU.constraint_name\n" + 
 			" AND TC.table_schema = KCU.table_schema\n" + 
 			" AND TC.table_name = KCU.table_name)\n" + 
-			"WHERE TC.table_schema = '" + s.getName() + "'\n" + // @TODO escape 
+			"WHERE TC.table_schema = ?\n" + 
+			tableCondition("TC.table_name", tableNames, args) + 
 			" ORDER BY TC.table_schema, TC.table_name, TC.constraint_name, KCU.ordinal_position;\n",
+			args.toArray(),
 			new ResultSetExtractor<Object>() {
 				@Override
 				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
@@ -203,20 +463,12 @@ public class MysqlDatabaseReader extends DatabaseReader {
 							c.getTable().getSchema().getDatabase().upper(rs.getString("REFERENCED_COLUMN_NAME")));
 						
 						c.getConstraintColumnMap().put(cc.getName(), cc);
-						if (c.getConstraintType() == ConstraintTypeEnum.PRIMARY) {
-							if (t.getTableColumnMap().get(cc.getName()) == null) {
-								logger.error("Could not find column '" + cc.getName() + "' in table '" + t.getName() + "', tableName='" + tableName + "', constraintName = '" + constraintName + "'");
-							} else {
-								t.getTableColumnMap().get(cc.getName()).setPrimaryKey(true);
-							}
-						}
 					}
 					return null;
 				}
 			});
 	}
 	
-	// probably more efficient to read all tables at once, but this is what the current code does
 	private void readRoutines(final SchemaTO s) {
 		jt.query(
 			// TABLE_CATALOG always NULL, TABLE_SCHEMA
@@ -230,16 +482,18 @@ public class MysqlDatabaseReader extends DatabaseReader {
 			"  definer " + // , character_set_client, collation_connection, database_collation
 			" FROM INFORMATION_SCHEMA.routines " +
 			" WHERE " +
-			" routine_schema = '" + s.getName() + "' " + // @TODO escape 
+			" routine_schema = ? " + 
 			"	ORDER BY routine_name ", 
+			new Object[] { s.getName() },
 			new ResultSetExtractor<Object>() {
 				@Override
 				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					s.getRoutineMap().clear();
 					while (rs.next()) {
 						String routineName = rs.getString("routine_name");
-						RoutineTO r = new RoutineTO(s, routineName);
+						RoutineTO r = new RoutineTO(s, s.getDatabase().upper(routineName));
 						r.setType(rs.getString("routine_type"));
-						r.setDataType("data_type");
+						r.setDataType(rs.getString("data_type"));
 						r.setDataTypeLength(rs.getLong("character_maximum_length")); if (rs.wasNull()) { r.setDataTypeLength(null); }
 						r.setDataTypeNumericPrecision(rs.getLong("numeric_precision")); if (rs.wasNull()) { r.setDataTypeNumericPrecision(null); }
 						r.setDataTypeNumericScale(rs.getLong("numeric_scale")); if (rs.wasNull()) { r.setDataTypeNumericScale(null); }
@@ -251,6 +505,7 @@ public class MysqlDatabaseReader extends DatabaseReader {
 						r.setSqlMode(rs.getString("sql_mode"));
 						r.setComment(rs.getString("routine_comment"));
 						r.setDefiner(rs.getString("definer"));
+						s.getRoutineMap().put(r.getName(), r);
 						
 						/*
 						RoutineParameterTO mtc = new RoutineParameterTO(t, 
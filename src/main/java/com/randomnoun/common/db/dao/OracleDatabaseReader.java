@@ -0,0 +1,283 @@
+package com.randomnoun.common.db.dao;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import com.randomnoun.common.db.DatabaseReader;
+import com.randomnoun.common.db.enums.ConstraintTypeEnum;
+import com.randomnoun.common.db.enums.DatabaseTypeEnum;
+import com.randomnoun.common.db.to.ConstraintColumnTO;
+import com.randomnoun.common.db.to.ConstraintTO;
+import com.randomnoun.common.db.to.RoutineTO;
+import com.randomnoun.common.db.to.SchemaTO;
+import com.randomnoun.common.db.to.TableColumnTO;
+import com.randomnoun.common.db.to.TableTO;
+import com.randomnoun.common.db.to.TriggerTO;
+import com.randomnoun.common.spring.StringRowMapper;
+
+/** Reads schema metadata from the ALL_* data dictionary views of an Oracle database.
+ *
+ * <p>Each kind of object (tables, columns, constraints, triggers and standalone routines) is
+ * read for the entire schema using a single query; if {@link #setConcurrency(int)} is
+ * greater than 1, these queries are run concurrently.
+ *
+ * <p>Oracle identifiers are case-insensitive, so schema, table and column names are uppercased.
+ * NOT NULL constraints, and other check constraints with system-generated names, are not read.
+ *
+ * @author knoxg
+ */
+public class OracleDatabaseReader extends DatabaseReader {
+
+	Logger logger = Logger.getLogger(OracleDatabaseReader.class);
+
+	public OracleDatabaseReader(DataSource dataSource) {
+		super(dataSource);
+		this.db.setDbType(DatabaseTypeEnum.ORACLE);
+		this.db.setCaseInsensitive();
+	}
+
+	@Override
+	public SchemaTO readSchema(String schemaName) {
+		final SchemaTO s = new SchemaTO(db, schemaName);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		tasks.add(() -> { readTableNames(s); return null; });
+		tasks.add(() -> { readColumns(s); return null; });
+		tasks.add(() -> { readConstraints(s); return null; });
+		tasks.add(() -> { readTriggers(s); return null; });
+		tasks.add(() -> { readRoutines(s); return null; });
+		invokeAll(tasks);
+		setPrimaryKeyColumns(s.getTableMap().values());
+		return s;
+	}
+
+	/** Returns a fingerprint of the schema, composed of the number of objects owned by the
+	 * schema and their latest LAST_DDL_TIME. The table filter is included in the fingerprint.
+	 */
+	@Override
+	public String getSchemaFingerprint(String schemaName) {
+		String fingerprint = jt.queryForObject(
+			"SELECT COUNT(*) || ',' || TO_CHAR(MAX(last_ddl_time), 'YYYY-MM-DD HH24:MI:SS') " +
+			" FROM all_objects WHERE owner = ?",
+			new Object[] { schemaName }, String.class);
+		return (getTableFilter() == null ? "" : getTableFilter()) + "/" + fingerprint;
+	}
+
+	private void readTableNames(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		String sql = "SELECT table_name FROM all_tables WHERE owner = ? AND dropped = 'NO'" +
+			tableCondition("table_name", null, args);
+		args.add(s.getName());
+		sql += " UNION ALL SELECT view_name FROM all_views WHERE owner = ?" +
+			tableCondition("view_name", null, args);
+		List<String> tableList = jt.query(sql, args.toArray(), new StringRowMapper());
+		for (String n : tableList) {
+			logger.debug("Table " + n);
+			s.getTable(n);
+		}
+	}
+
+	private void readColumns(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		jt.query(
+			// data_default is a LONG, which must be the last column selected and read
+			"SELECT C.table_name, C.column_name, C.column_id, C.nullable, C.data_type, " +
+			"  CASE WHEN C.char_used IS NOT NULL THEN C.char_length WHEN C.data_type = 'RAW' THEN C.data_length END AS data_length, " +
+			"  C.data_precision, C.data_scale, CM.comments, C.data_default " +
+			" FROM all_tab_columns C " +
+			" LEFT JOIN all_col_comments CM " +
+			" ON (CM.owner = C.owner AND CM.table_name = C.table_name AND CM.column_name = C.column_name) " +
+			" WHERE C.owner = ? AND C.table_name NOT LIKE 'BIN$%'" +
+			tableCondition("C.table_name", null, args) +
+			" ORDER BY C.table_name, C.column_id",
+			args.toArray(),
+			new ResultSetExtractor<Object>() {
+				@Override
+				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					TableTO t = null;
+					String lastTableName = null;
+					while (rs.next()) {
+						String tableName = rs.getString("TABLE_NAME");
+						if (t == null || !tableName.equals(lastTableName)) {
+							t = s.getTable(tableName);
+							lastTableName = tableName;
+						}
+						String columnName = rs.getString("COLUMN_NAME");
+						long columnId = rs.getLong("COLUMN_ID");
+						boolean nullable = "Y".equals(rs.getString("NULLABLE"));
+						String dataType = rs.getString("DATA_TYPE");
+						long length = rs.getObject("DATA_LENGTH") == null ? -1 : rs.getLong("DATA_LENGTH");
+						long precision = rs.getObject("DATA_PRECISION") == null ? -1 : rs.getLong("DATA_PRECISION");
+						// TIMESTAMP and INTERVAL columns have a scale but no precision; the scale is already in the data type
+						long scale = (precision == -1 || rs.getObject("DATA_SCALE") == null) ? -1 : rs.getLong("DATA_SCALE");
+						String comments = rs.getString("COMMENTS");
+						String defaultValue = rs.getString("DATA_DEFAULT");
+						TableColumnTO tc = new TableColumnTO(t, t.getSchema().getDatabase().upper(columnName),
+							columnId, false, dataType, length, precision, scale, nullable,
+							defaultValue == null ? null : defaultValue.trim(), comments);
+						t.getTableColumnMap().put(tc.getName(), tc);
+					}
+					return null;
+				}
+			});
+	}
+
+	private void readConstraints(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		jt.query(
+			"SELECT C.table_name, C.constraint_name,\n" +
+			" DECODE(C.constraint_type, 'P', 'PRIMARY KEY', 'R', 'FOREIGN KEY', 'U', 'UNIQUE', 'C', 'CHECK') AS constraint_type,\n" +
+			" CC.column_name, CC.position,\n" +
+			" RC.table_name AS referenced_table_name, RC.column_name AS referenced_column_name\n" +
+			"FROM all_constraints C\n" +
+			" LEFT JOIN all_cons_columns CC\n" +
+			" ON (CC.owner = C.owner AND CC.constraint_name = C.constraint_name AND CC.table_name = C.table_name)\n" +
+			" LEFT JOIN all_cons_columns RC\n" +
+			" ON (RC.owner = C.r_owner AND RC.constraint_name = C.r_constraint_name AND RC.position = CC.position)\n" +
+			"WHERE C.owner = ?\n" +
+			" AND C.table_name NOT LIKE 'BIN$%'\n" +
+			" AND (C.constraint_type IN ('P', 'R', 'U') OR (C.constraint_type = 'C' AND C.generated = 'USER NAME'))\n" +
+			tableCondition("C.table_name", null, args) +
+			" ORDER BY C.table_name, C.constraint_name, CC.position",
+			args.toArray(),
+			new ResultSetExtractor<Object>() {
+				@Override
+				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					TableTO t = null;
+					ConstraintTO c = null;
+					String lastTableName = null;
+					String lastConstraintName = null;
+
+					while (rs.next()) {
+						String tableName = s.getDatabase().upper(rs.getString("TABLE_NAME"));
+						if (t == null || !tableName.equals(lastTableName)) {
+							t = s.getTable(tableName);
+							lastTableName = tableName;
+							lastConstraintName = null;
+							c = null;
+						}
+
+						String constraintName = s.getDatabase().upper(rs.getString("CONSTRAINT_NAME"));
+						if (c == null || !constraintName.equals(lastConstraintName)) {
+							ConstraintTypeEnum type = ConstraintTypeEnum.fromDatabaseString(rs.getString("CONSTRAINT_TYPE"));
+							c = new ConstraintTO(t, type, constraintName);
+							t.getConstraintMap().put(constraintName, c);
+							lastConstraintName = constraintName;
+						}
+
+						String columnName = rs.getString("COLUMN_NAME");
+						if (columnName != null) {
+							String refTableName = rs.getString("REFERENCED_TABLE_NAME");
+							String refColumnName = rs.getString("REFERENCED_COLUMN_NAME");
+							ConstraintColumnTO cc = new ConstraintColumnTO(c, s.getDatabase().upper(columnName),
+								rs.getLong("POSITION"),
+								refTableName == null ? null : s.getDatabase().upper(refTableName),
+								refColumnName == null ? null : s.getDatabase().upper(refColumnName));
+							c.getConstraintColumnMap().put(cc.getName(), cc);
+						}
+					}
+					return null;
+				}
+			});
+	}
+
+	private void readTriggers(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		jt.query(
+			// trigger_body is a LONG, which must be the last column selected and read
+			"SELECT T.table_name, T.trigger_name, T.triggering_event,\n" +
+			" CASE WHEN T.trigger_type LIKE 'BEFORE%' THEN 'BEFORE' WHEN T.trigger_type LIKE 'AFTER%' THEN 'AFTER' ELSE T.trigger_type END AS action_timing,\n" +
+			" T.owner, T.trigger_body\n" +
+			"FROM all_triggers T\n" +
+			"WHERE T.table_owner = ? AND T.base_object_type IN ('TABLE', 'VIEW')\n" +
+			tableCondition("T.table_name", null, args) +
+			" ORDER BY T.table_name, T.trigger_name",
+			args.toArray(),
+			new ResultSetExtractor<Object>() {
+				@Override
+				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					TableTO t = null;
+					String lastTableName = null;
+
+					while (rs.next()) {
+						String tableName = rs.getString("TABLE_NAME");
+						if (t == null || !tableName.equals(lastTableName)) {
+							t = s.getTable(tableName);
+							lastTableName = tableName;
+						}
+
+						TriggerTO trigger = new TriggerTO(t, s.getDatabase().upper(rs.getString("TRIGGER_NAME")));
+						trigger.setEventManipulation(rs.getString("TRIGGERING_EVENT"));
+						trigger.setActionTiming(rs.getString("ACTION_TIMING"));
+						trigger.setDefiner(rs.getString("OWNER"));
+						trigger.setActionStatement(rs.getString("TRIGGER_BODY"));
+						s.getTriggerMap().put(trigger.getName(), trigger);
+					}
+					return null;
+				}
+			});
+	}
+
+	private void readRoutines(final SchemaTO s) {
+		// the source of each routine is spread over many rows; the attributes of the routine are only joined to the first line
+		jt.query(
+			"SELECT S.name, S.type, S.line, S.text,\n" +
+			" P.deterministic, P.authid,\n" +
+			" A.data_type, A.data_length, A.data_precision, A.data_scale\n" +
+			"FROM all_source S\n" +
+			" LEFT JOIN all_procedures P\n" +
+			" ON (S.line = 1 AND P.owner = S.owner AND P.object_name = S.name AND P.object_type = S.type AND P.procedure_name IS NULL)\n" +
+			" LEFT JOIN all_arguments A\n" +
+			" ON (S.line = 1 AND S.type = 'FUNCTION' AND A.owner = S.owner AND A.object_name = S.name\n" +
+			"  AND A.package_name IS NULL AND A.position = 0 AND A.data_level = 0)\n" +
+			"WHERE S.owner = ? AND S.type IN ('PROCEDURE', 'FUNCTION')\n" +
+			" ORDER BY S.name, S.type, S.line",
+			new Object[] { s.getName() },
+			new ResultSetExtractor<Object>() {
+				@Override
+				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					s.getRoutineMap().clear();
+					RoutineTO r = null;
+					StringBuilder definition = new StringBuilder();
+					while (rs.next()) {
+						String routineName = s.getDatabase().upper(rs.getString("NAME"));
+						if (r == null || !routineName.equals(r.getName())) {
+							if (r != null) { r.setDefinition(definition.toString()); }
+							r = new RoutineTO(s, routineName);
+							r.setType(rs.getString("TYPE"));
+							r.setDataType(rs.getString("DATA_TYPE"));
+							r.setDataTypeLength(rs.getLong("DATA_LENGTH")); if (rs.wasNull()) { r.setDataTypeLength(null); }
+							r.setDataTypeNumericPrecision(rs.getLong("DATA_PRECISION")); if (rs.wasNull()) { r.setDataTypeNumericPrecision(null); }
+							r.setDataTypeNumericScale(rs.getLong("DATA_SCALE")); if (rs.wasNull()) { r.setDataTypeNumericScale(null); }
+							r.setDeterministic("YES".equals(rs.getString("DETERMINISTIC")));
+							r.setSecurityType("CURRENT_USER".equals(rs.getString("AUTHID")) ? "INVOKER" : "DEFINER");
+							r.setDefiner(s.getName());
+							s.getRoutineMap().put(r.getName(), r);
+							definition.setLength(0);
+						}
+						String text = rs.getString("TEXT");
+						if (text != null) { definition.append(text); }
+					}
+					if (r != null) { r.setDefinition(definition.toString()); }
+					return null;
+				}
+			});
+	}
+
+}
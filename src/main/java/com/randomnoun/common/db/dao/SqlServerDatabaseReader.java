@@ -0,0 +1,287 @@
+package com.randomnoun.common.db.dao;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import com.randomnoun.common.db.DatabaseReader;
+import com.randomnoun.common.db.enums.ConstraintTypeEnum;
+import com.randomnoun.common.db.enums.DatabaseTypeEnum;
+import com.randomnoun.common.db.to.ConstraintColumnTO;
+import com.randomnoun.common.db.to.ConstraintTO;
+import com.randomnoun.common.db.to.RoutineTO;
+import com.randomnoun.common.db.to.SchemaTO;
+import com.randomnoun.common.db.to.TableColumnTO;
+import com.randomnoun.common.db.to.TableTO;
+import com.randomnoun.common.db.to.TriggerTO;
+import com.randomnoun.common.spring.StringRowMapper;
+
+/** Reads schema metadata from the INFORMATION_SCHEMA views and sys catalog views of a
+ * Microsoft SQL Server database.
+ *
+ * <p>Each kind of object (tables, columns, constraints, triggers and routines) is
+ * read for the entire schema using a single query; if {@link #setConcurrency(int)} is
+ * greater than 1, these queries are run concurrently.
+ *
+ * <p>Column comments are read from MS_Description extended properties. The columns of
+ * CHECK constraints are not read.
+ *
+ * @author knoxg
+ */
+public class SqlServerDatabaseReader extends DatabaseReader {
+
+	Logger logger = Logger.getLogger(SqlServerDatabaseReader.class);
+
+	public SqlServerDatabaseReader(DataSource dataSource) {
+		super(dataSource);
+		this.db.setDbType(DatabaseTypeEnum.SQLSERVER);
+	}
+
+	@Override
+	public SchemaTO readSchema(String schemaName) {
+		final SchemaTO s = new SchemaTO(db, schemaName);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		tasks.add(() -> { readTableNames(s); return null; });
+		tasks.add(() -> { readColumns(s); return null; });
+		tasks.add(() -> { readConstraints(s); return null; });
+		tasks.add(() -> { readTriggers(s); return null; });
+		tasks.add(() -> { readRoutines(s); return null; });
+		invokeAll(tasks);
+		setPrimaryKeyColumns(s.getTableMap().values());
+		return s;
+	}
+
+	/** Returns a fingerprint of the schema, composed of the number of objects in the schema
+	 * and their latest modify_date. The table filter is included in the fingerprint.
+	 */
+	@Override
+	public String getSchemaFingerprint(String schemaName) {
+		String fingerprint = jt.queryForObject(
+			"SELECT CONCAT(COUNT(*), ',', CONVERT(VARCHAR(23), MAX(modify_date), 121)) " +
+			" FROM sys.objects WHERE schema_id = SCHEMA_ID(?)",
+			new Object[] { schemaName }, String.class);
+		return (getTableFilter() == null ? "" : getTableFilter()) + "/" + fingerprint;
+	}
+
+	private void readTableNames(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		List<String> tableList = jt.query(
+			"SELECT TABLE_NAME " +
+			" FROM INFORMATION_SCHEMA.TABLES " +
+			" WHERE TABLE_SCHEMA = ?" +
+			tableCondition("TABLE_NAME", null, args),
+			args.toArray(),
+			new StringRowMapper());
+		for (String n : tableList) {
+			logger.debug("Table " + n);
+			s.getTable(n);
+		}
+	}
+
+	private void readColumns(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		jt.query(
+			"SELECT C.TABLE_NAME, C.COLUMN_NAME, C.ORDINAL_POSITION, C.COLUMN_DEFAULT, C.IS_NULLABLE, " +
+			"  C.DATA_TYPE, C.CHARACTER_MAXIMUM_LENGTH, C.NUMERIC_PRECISION, C.NUMERIC_SCALE, " +
+			"  CAST(EP.value AS NVARCHAR(4000)) AS COLUMN_COMMENT " +
+			" FROM INFORMATION_SCHEMA.COLUMNS C " +
+			" LEFT JOIN sys.extended_properties EP " +
+			" ON (EP.class = 1 AND EP.name = 'MS_Description' " +
+			"  AND EP.major_id = OBJECT_ID(QUOTENAME(C.TABLE_SCHEMA) + '.' + QUOTENAME(C.TABLE_NAME)) " +
+			"  AND EP.minor_id = COLUMNPROPERTY(OBJECT_ID(QUOTENAME(C.TABLE_SCHEMA) + '.' + QUOTENAME(C.TABLE_NAME)), C.COLUMN_NAME, 'ColumnId')) " +
+			" WHERE C.TABLE_SCHEMA = ?" +
+			tableCondition("C.TABLE_NAME", null, args) +
+			" ORDER BY C.TABLE_NAME, C.ORDINAL_POSITION",
+			args.toArray(),
+			new ResultSetExtractor<Object>() {
+				@Override
+				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					TableTO t = null;
+					String lastTableName = null;
+					while (rs.next()) {
+						String tableName = rs.getString("TABLE_NAME");
+						if (t == null || !tableName.equals(lastTableName)) {
+							t = s.getTable(tableName);
+							lastTableName = tableName;
+						}
+						// CHARACTER_MAXIMUM_LENGTH is -1 for (MAX) types, which is treated as no length
+						TableColumnTO tc = new TableColumnTO(t,
+							t.getSchema().getDatabase().upper(rs.getString("COLUMN_NAME")),
+							rs.getLong("ORDINAL_POSITION"),
+							false,
+							rs.getString("DATA_TYPE"),
+							rs.getObject("CHARACTER_MAXIMUM_LENGTH") == null ? -1 : rs.getLong("CHARACTER_MAXIMUM_LENGTH"),
+							rs.getObject("NUMERIC_PRECISION") == null ? -1 : rs.getLong("NUMERIC_PRECISION"),
+							rs.getObject("NUMERIC_SCALE") == null ? -1 : rs.getLong("NUMERIC_SCALE"),
+							rs.getString("IS_NULLABLE").startsWith("Y"),
+							rs.getString("COLUMN_DEFAULT"),
+							rs.getString("COLUMN_COMMENT"));
+						t.getTableColumnMap().put(tc.getName(), tc);
+					}
+					return null;
+				}
+			});
+	}
+
+	private void readConstraints(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		jt.query(
+			"SELECT TC.TABLE_NAME, TC.CONSTRAINT_NAME, TC.CONSTRAINT_TYPE,\n" +
+			" KCU.COLUMN_NAME, KCU.ORDINAL_POSITION,\n" +
+			" RKCU.TABLE_NAME AS REFERENCED_TABLE_NAME, RKCU.COLUMN_NAME AS REFERENCED_COLUMN_NAME\n" +
+			"FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS TC\n" +
+			" LEFT JOIN INFORMATION_SCHEMA.KEY_COLUMN_USAGE KCU\n" +
+			" ON (TC.CONSTRAINT_SCHEMA = KCU.CONSTRAINT_SCHEMA\n" +
+			" AND TC.CONSTRAINT_NAME = KCU.CONSTRAINT_NAME\n" +
+			" AND TC.TABLE_SCHEMA = KCU.TABLE_SCHEMA\n" +
+			" AND TC.TABLE_NAME = KCU.TABLE_NAME)\n" +
+			" LEFT JOIN INFORMATION_SCHEMA.REFERENTIAL_CONSTRAINTS RC\n" +
+			" ON (TC.CONSTRAINT_SCHEMA = RC.CONSTRAINT_SCHEMA\n" +
+			" AND TC.CONSTRAINT_NAME = RC.CONSTRAINT_NAME)\n" +
+			" LEFT JOIN INFORMATION_SCHEMA.KEY_COLUMN_USAGE RKCU\n" +
+			" ON (RC.UNIQUE_CONSTRAINT_SCHEMA = RKCU.CONSTRAINT_SCHEMA\n" +
+			" AND RC.UNIQUE_CONSTRAINT_NAME = RKCU.CONSTRAINT_NAME\n" +
+			" AND KCU.ORDINAL_POSITION = RKCU.ORDINAL_POSITION)\n" +
+			"WHERE TC.TABLE_SCHEMA = ?\n" +
+			tableCondition("TC.TABLE_NAME", null, args) +
+			" ORDER BY TC.TABLE_NAME, TC.CONSTRAINT_NAME, KCU.ORDINAL_POSITION",
+			args.toArray(),
+			new ResultSetExtractor<Object>() {
+				@Override
+				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					TableTO t = null;
+					ConstraintTO c = null;
+					String lastTableName = null;
+					String lastConstraintName = null;
+
+					while (rs.next()) {
+						String tableName = s.getDatabase().upper(rs.getString("TABLE_NAME"));
+						if (t == null || !tableName.equals(lastTableName)) {
+							t = s.getTable(tableName);
+							lastTableName = tableName;
+							lastConstraintName = null;
+							c = null;
+						}
+
+						String constraintName = s.getDatabase().upper(rs.getString("CONSTRAINT_NAME"));
+						if (c == null || !constraintName.equals(lastConstraintName)) {
+							ConstraintTypeEnum type = ConstraintTypeEnum.fromDatabaseString(rs.getString("CONSTRAINT_TYPE"));
+							c = new ConstraintTO(t, type, constraintName);
+							t.getConstraintMap().put(constraintName, c);
+							lastConstraintName = constraintName;
+						}
+
+						String columnName = rs.getString("COLUMN_NAME");
+						if (columnName != null) {
+							String refTableName = rs.getString("REFERENCED_TABLE_NAME");
+							String refColumnName = rs.getString("REFERENCED_COLUMN_NAME");
+							ConstraintColumnTO cc = new ConstraintColumnTO(c, s.getDatabase().upper(columnName),
+								rs.getLong("ORDINAL_POSITION"),
+								refTableName == null ? null : s.getDatabase().upper(refTableName),
+								refColumnName == null ? null : s.getDatabase().upper(refColumnName));
+							c.getConstraintColumnMap().put(cc.getName(), cc);
+						}
+					}
+					return null;
+				}
+			});
+	}
+
+	private void readTriggers(final SchemaTO s) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(s.getName());
+		// triggers fired by more than one event have a row per event
+		jt.query(
+			"SELECT O.name AS TABLE_NAME, T.name AS TRIGGER_NAME, TE.type_desc AS EVENT_MANIPULATION,\n" +
+			" CASE WHEN T.is_instead_of_trigger = 1 THEN 'INSTEAD OF' ELSE 'AFTER' END AS ACTION_TIMING,\n" +
+			" M.definition AS ACTION_STATEMENT\n" +
+			"FROM sys.triggers T\n" +
+			" INNER JOIN sys.objects O ON (O.object_id = T.parent_id)\n" +
+			" INNER JOIN sys.trigger_events TE ON (TE.object_id = T.object_id)\n" +
+			" INNER JOIN sys.sql_modules M ON (M.object_id = T.object_id)\n" +
+			"WHERE O.schema_id = SCHEMA_ID(?)\n" +
+			tableCondition("O.name", null, args) +
+			" ORDER BY O.name, T.name, TE.type",
+			args.toArray(),
+			new ResultSetExtractor<Object>() {
+				@Override
+				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					TableTO t = null;
+					TriggerTO trigger = null;
+					String lastTableName = null;
+
+					while (rs.next()) {
+						String tableName = rs.getString("TABLE_NAME");
+						if (t == null || !tableName.equals(lastTableName)) {
+							t = s.getTable(tableName);
+							lastTableName = tableName;
+							trigger = null;
+						}
+
+						String triggerName = s.getDatabase().upper(rs.getString("TRIGGER_NAME"));
+						if (trigger != null && triggerName.equals(trigger.getName())) {
+							trigger.setEventManipulation(trigger.getEventManipulation() + " OR " + rs.getString("EVENT_MANIPULATION"));
+							continue;
+						}
+						trigger = new TriggerTO(t, triggerName);
+						trigger.setEventManipulation(rs.getString("EVENT_MANIPULATION"));
+						trigger.setActionTiming(rs.getString("ACTION_TIMING"));
+						trigger.setActionStatement(rs.getString("ACTION_STATEMENT"));
+						s.getTriggerMap().put(trigger.getName(), trigger);
+					}
+					return null;
+				}
+			});
+	}
+
+	private void readRoutines(final SchemaTO s) {
+		// INFORMATION_SCHEMA.ROUTINES.ROUTINE_DEFINITION is truncated to 4000 characters, so definitions are read from sys.sql_modules
+		jt.query(
+			"SELECT R.ROUTINE_NAME, R.ROUTINE_TYPE,\n" +
+			" R.DATA_TYPE, R.CHARACTER_MAXIMUM_LENGTH, R.NUMERIC_PRECISION, R.NUMERIC_SCALE,\n" +
+			" R.COLLATION_NAME, R.IS_DETERMINISTIC, R.SQL_DATA_ACCESS,\n" +
+			" M.definition AS ROUTINE_DEFINITION\n" +
+			"FROM INFORMATION_SCHEMA.ROUTINES R\n" +
+			" LEFT JOIN sys.sql_modules M\n" +
+			" ON (M.object_id = OBJECT_ID(QUOTENAME(R.ROUTINE_SCHEMA) + '.' + QUOTENAME(R.ROUTINE_NAME)))\n" +
+			"WHERE R.ROUTINE_SCHEMA = ?\n" +
+			" ORDER BY R.ROUTINE_NAME",
+			new Object[] { s.getName() },
+			new ResultSetExtractor<Object>() {
+				@Override
+				public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+					s.getRoutineMap().clear();
+					while (rs.next()) {
+						RoutineTO r = new RoutineTO(s, s.getDatabase().upper(rs.getString("ROUTINE_NAME")));
+						r.setType(rs.getString("ROUTINE_TYPE"));
+						r.setDataType(rs.getString("DATA_TYPE"));
+						r.setDataTypeLength(rs.getLong("CHARACTER_MAXIMUM_LENGTH")); if (rs.wasNull()) { r.setDataTypeLength(null); }
+						r.setDataTypeNumericPrecision(rs.getLong("NUMERIC_PRECISION")); if (rs.wasNull()) { r.setDataTypeNumericPrecision(null); }
+						r.setDataTypeNumericScale(rs.getLong("NUMERIC_SCALE")); if (rs.wasNull()) { r.setDataTypeNumericScale(null); }
+						r.setCollationName(rs.getString("COLLATION_NAME"));
+						r.setDeterministic("YES".equals(rs.getString("IS_DETERMINISTIC")));
+						r.setDataAccess(rs.getString("SQL_DATA_ACCESS"));
+						r.setDefinition(rs.getString("ROUTINE_DEFINITION"));
+						s.getRoutineMap().put(r.getName(), r);
+					}
+					return null;
+				}
+			});
+	}
+
+}
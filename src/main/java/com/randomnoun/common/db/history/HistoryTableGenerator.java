@@ -4,11 +4,25 @@ package com.randomnoun.common.db.history;
  * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
  */
 
-import java.io.ByteArrayOutputStream;
-import java.io.PrintWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -20,8 +34,10 @@ import org.apache.log4j.Logger;
 
 import com.randomnoun.common.Text;
 import com.randomnoun.common.db.DatabaseReader;
+import com.randomnoun.common.db.SchemaCache;
 import com.randomnoun.common.db.dao.MysqlDatabaseReader;
 import com.randomnoun.common.db.to.SchemaTO;
+import com.randomnoun.common.io.StringBuilderWriter;
 
 /** This class will generate history table and triggers. 
  * 
@@ -55,11 +71,37 @@ public class HistoryTableGenerator {
 	private String jessopScriptFilename;
 	private String schemaName; 
 	private Map<String, Object> options = new HashMap<String, Object>();
+	private SchemaCache schemaCache;
+	private int concurrency = 1;
+	
+	/** Compiled copies of the jessop script that are not currently being evaluated; at most one per 
+	 * concurrent evaluation. Replaced when the script changes. */
+	private volatile Queue<CompiledScript> compiledScripts = new ConcurrentLinkedQueue<CompiledScript>();
+	
+	ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
 	
 	public HistoryTableGenerator(DataSource ds) {
 		this.ds = ds;
 	}
 
+	/** Sets the number of tables generated at the same time (default 1). If greater than 1, 
+	 * the script must honour the 'tableNames' option.
+	 * 
+	 * @param concurrency the number of tables generated at the same time
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	/** Sets the cache used to retrieve schema metadata, so that the schema is not re-read 
+	 * from the database each time SQL is generated.
+	 * 
+	 * @param schemaCache the schema cache, or null to always read the schema from the database
+	 */
+	public void setSchemaCache(SchemaCache schemaCache) {
+		this.schemaCache = schemaCache;
+	}
+
 	/** Set the options for the history generator.
 	 * 
 	 * <p>History options are specific to the generator being used, but typical options are:
@@ -108,33 +150,120 @@ public class HistoryTableGenerator {
 	 * @throws ScriptException
 	 */
 	public String generateHistoryTableSql() throws ScriptException {
-   
-		DatabaseReader dr = new MysqlDatabaseReader(ds);
+		StringBuilderWriter writer = new StringBuilderWriter();
+		try {
+			generateHistoryTableSql(writer);
+		} catch (IOException ioe) {
+			// StringBuilderWriters don't throw IOExceptions
+			throw new IllegalStateException("IOException writing to String", ioe);
+		}
+		return writer.toString();
+	}
+	
+	/** Writes the SQL that will create history tables, triggers and stored procedures to a UTF-8 encoded file.
+	 * 
+	 * @param file the file to write
+	 * 
+	 * @throws ScriptException
+	 * @throws IOException
+	 */
+	public void generateHistoryTableSql(File file) throws ScriptException, IOException {
+		try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			generateHistoryTableSql(writer);
+		}
+	}
+	
+	/** Writes the SQL that will create history tables, triggers and stored procedures to a Writer.
+	 * 
+	 * <p>If {@link #setConcurrency(int) concurrency} is greater than 1, each table is generated 
+	 * separately (by setting the 'tableNames' option to that table), and the output is written 
+	 * in table order as each table completes.
+	 * 
+	 * @param writer the writer to write to. The writer is flushed but not closed.
+	 * 
+	 * @throws ScriptException
+	 * @throws IOException
+	 */
+	public void generateHistoryTableSql(Writer writer) throws ScriptException, IOException {
+		DatabaseReader dr = newDatabaseReader();
+		dr.setSchemaCache(schemaCache);
 		SchemaTO schema = dr.getSchema(schemaName);
 		
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		PrintWriter pw = new PrintWriter(baos);
-		
-		ScriptEngine engine = new ScriptEngineManager().getEngineByName("jessop");
-		if (engine==null) { throw new IllegalStateException("Missing engine 'jessop'"); }
-		engine.put(ScriptEngine.FILENAME, jessopScriptFilename);
+		logger.info("Start eval");
+		if (concurrency <= 1) {
+			eval(schema, options, writer);
+			writer.flush();
+			return;
+		}
 		
+		@SuppressWarnings("unchecked")
+		List<String> tableNames = (List<String>) options.get("tableNames");
+		if (tableNames == null) {
+			tableNames = schema.getTableNames();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, tableNames.size())));
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (String tableName : tableNames) {
+				final Map<String, Object> tableOptions = new HashMap<String, Object>(options);
+				tableOptions.put("tableNames", Collections.singletonList(tableName));
+				results.add(executor.submit(() -> {
+					StringBuilderWriter tableWriter = new StringBuilderWriter();
+					eval(schema, tableOptions, tableWriter);
+					return tableWriter.toString();
+				}));
+			}
+			for (Future<String> result : results) {
+				writer.write(result.get());
+			}
+			writer.flush();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted generating history tables", ie);
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof ScriptException) { throw (ScriptException) cause; }
+			if (cause instanceof IOException) { throw (IOException) cause; }
+			if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+			throw new IllegalStateException("Exception generating history tables", cause);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/** Returns the reader used to read the schema */
+	DatabaseReader newDatabaseReader() {
+		return new MysqlDatabaseReader(ds);
+	}
+	
+	/** Evaluates the jessop script, using a previously compiled script if one is available */
+	private void eval(SchemaTO schema, Map<String, Object> options, Writer writer) throws ScriptException {
 		ScriptContext sc = new SimpleScriptContext();
-		sc.setWriter(pw);
+		sc.setWriter(writer);
 		sc.setAttribute("schema", schema, ScriptContext.ENGINE_SCOPE);
-		
 		sc.setAttribute("logger", scriptLogger, ScriptContext.ENGINE_SCOPE);
 		sc.setAttribute("options", options, ScriptContext.ENGINE_SCOPE);
 
-		logger.info("Start eval");
-		jessopScript = Text.replaceString(jessopScript, "\r", ""); // jessop has issues with \r\n EOLs
-		// if (logger.isDebugEnabled()) { logger.debug(getSource(engine, jessopScript)); }
-		
+		Queue<CompiledScript> pool = compiledScripts;
+		CompiledScript compiledScript = pool.poll();
+		if (compiledScript == null) {
+			// compiled scripts are not shared between threads, as script engines may not be thread-safe
+			ScriptEngine engine;
+			synchronized (scriptEngineManager) {
+				engine = scriptEngineManager.getEngineByName("jessop");
+			}
+			if (engine==null) { throw new IllegalStateException("Missing engine 'jessop'"); }
+			engine.put(ScriptEngine.FILENAME, jessopScriptFilename);
+			String script = Text.replaceString(jessopScript, "\r", ""); // jessop has issues with \r\n EOLs
+			if (!(engine instanceof Compilable)) {
+				engine.eval(script, sc);
+				return;
+			}
+			compiledScript = ((Compilable) engine).compile(script);
+		}
 		// table loop is within the generator now
-		engine.eval(jessopScript, sc);
-		
-		String sql = baos.toString();
-		return sql;
+		compiledScript.eval(sc);
+		pool.offer(compiledScript);
 	}
 
 	public String getJessopScript() {
@@ -143,6 +272,7 @@ public class HistoryTableGenerator {
 
 	public void setJessopScript(String jessopScript) {
 		this.jessopScript = jessopScript;
+		compiledScripts = new ConcurrentLinkedQueue<CompiledScript>();
 	}
 
 	public String getJessopScriptFilename() {
@@ -151,6 +281,7 @@ public class HistoryTableGenerator {
 
 	public void setJessopScriptFilename(String jessopScriptFilename) {
 		this.jessopScriptFilename = jessopScriptFilename;
+		compiledScripts = new ConcurrentLinkedQueue<CompiledScript>();
 	}
 
 	public String getSchemaName() {
@@ -1,6 +1,11 @@
 package com.randomnoun.common.db.to;
 
-public class ConstraintColumnTO {
+import java.io.Serializable;
+
+public class ConstraintColumnTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = 5450986852337094724L;
 	
 	private ConstraintTO constraint;
 	private String name;
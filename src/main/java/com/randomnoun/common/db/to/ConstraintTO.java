@@ -1,5 +1,6 @@
 package com.randomnoun.common.db.to;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -7,7 +8,10 @@ import java.util.Map;
 
 import com.randomnoun.common.db.enums.ConstraintTypeEnum;
 
-public class ConstraintTO {
+public class ConstraintTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = -2794520668665768020L;
 	
 	private String name;
 	private TableTO table;
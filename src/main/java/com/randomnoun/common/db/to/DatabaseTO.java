@@ -1,5 +1,6 @@
 package com.randomnoun.common.db.to;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -11,10 +12,15 @@ import com.randomnoun.common.db.enums.DatabaseTypeEnum;
  * 
  * @author knoxg
  */
-public class DatabaseTO {
+public class DatabaseTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = -4796342435356987048L;
+
 	private boolean caseInsensitive = false;
 	private DatabaseTypeEnum databaseType;
-	private Map<String, SchemaTO> schemaMap = null;
+	// not serialised, so that cached schemas do not include the other schemas read by the same reader
+	private transient Map<String, SchemaTO> schemaMap = null;
 	
 	public DatabaseTypeEnum getDatabaseType() { return databaseType; }
 	
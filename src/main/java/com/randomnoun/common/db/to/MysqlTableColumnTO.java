@@ -5,8 +5,11 @@ import org.apache.log4j.Logger;
 /** Holds type information for a table column. 
  */
 public class MysqlTableColumnTO extends TableColumnTO {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = -7143020124228606867L;
 	
-	Logger logger = Logger.getLogger(MysqlTableColumnTO.class);
+	static Logger logger = Logger.getLogger(MysqlTableColumnTO.class);
 
 	private String columnType;
 	
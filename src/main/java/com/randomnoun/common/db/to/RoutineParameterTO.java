@@ -1,6 +1,11 @@
 package com.randomnoun.common.db.to;
 
-public class RoutineParameterTO {
+import java.io.Serializable;
+
+public class RoutineParameterTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = -3125071247731615194L;
 
 	RoutineTO routine;
 	String name;
@@ -1,8 +1,12 @@
 package com.randomnoun.common.db.to;
 
+import java.io.Serializable;
 import java.util.Map;
 
-public class RoutineTO {
+public class RoutineTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = 6179971004290935548L;
 	
 	private SchemaTO schema;
 	private String name;
@@ -1,17 +1,31 @@
 package com.randomnoun.common.db.to;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /** Container class for per-owner (schema) data */
-public class SchemaTO {
+public class SchemaTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = -3322153916305727815L;
+
 	private DatabaseTO database;
 	
 	private String name;
 	private Map<String, TableTO> tableMap;
 	private Map<String, TriggerTO> triggerMap;
+	private Map<String, RoutineTO> routineMap;
+	
+	/** The time this schema was read, according to the database server; used to refresh the schema incrementally */
+	private Date readTime;
+	
+	/** A checksum of each table's column definitions when this schema was read, keyed by table name, 
+	 * or null if not known; used to refresh the schema incrementally */
+	private Map<String, Long> columnChecksums;
 	
 	/*
 	public List indexes;
@@ -29,9 +43,11 @@ public class SchemaTO {
 		this.name = schemaName;
 		tableMap = new HashMap<String, TableTO>();
 		triggerMap = new HashMap<String, TriggerTO>();
+		routineMap = new HashMap<String, RoutineTO>();
 	}
 	
-	public TableTO getTable(String tableName) {
+	// synchronized so that tables can be created by concurrent metadata queries
+	public synchronized TableTO getTable(String tableName) {
 		TableTO table = tableMap.get(database.upper(tableName));
 		if (table == null) { 
 			table = new TableTO(this, database.upper(tableName)); 
@@ -51,6 +67,10 @@ public class SchemaTO {
 		return new ArrayList<String>(triggerMap.keySet());
 	}
 
+	public List<String> getRoutineNames() {
+		return new ArrayList<String>(routineMap.keySet());
+	}
+	
 	public Map<String, TableTO> getTableMap() {
 		return tableMap;
 	}
@@ -67,6 +87,14 @@ public class SchemaTO {
 		this.triggerMap = triggerMap;
 	}
 
+	public Map<String, RoutineTO> getRoutineMap() {
+		return routineMap;
+	}
+
+	public void setRoutineMap(Map<String, RoutineTO> routineMap) {
+		this.routineMap = routineMap;
+	}
+
 	public void setDatabase(DatabaseTO database) {
 		this.database = database;
 	}
@@ -74,4 +102,20 @@ public class SchemaTO {
 	public void setName(String name) {
 		this.name = name;
 	}
+
+	public Date getReadTime() {
+		return readTime;
+	}
+
+	public void setReadTime(Date readTime) {
+		this.readTime = readTime;
+	}
+
+	public Map<String, Long> getColumnChecksums() {
+		return columnChecksums;
+	}
+
+	public void setColumnChecksums(Map<String, Long> columnChecksums) {
+		this.columnChecksums = columnChecksums;
+	}
 }
\ No newline at end of file
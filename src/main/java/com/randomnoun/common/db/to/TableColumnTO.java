@@ -1,12 +1,16 @@
 package com.randomnoun.common.db.to;
 
+import java.io.Serializable;
 import org.apache.log4j.Logger;
 
 /** Holds type information for a table column. 
  */
-public class TableColumnTO {
+public class TableColumnTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = 5245232100685958957L;
 	
-	Logger logger = Logger.getLogger(TableColumnTO.class);
+	static Logger logger = Logger.getLogger(TableColumnTO.class);
 	
 	private TableTO table;
 	private String name;
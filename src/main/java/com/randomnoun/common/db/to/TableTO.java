@@ -1,11 +1,16 @@
 package com.randomnoun.common.db.to;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-public class TableTO {
+public class TableTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = 2670794318421429758L;
+
 	private String name;
 	private SchemaTO schema;
 	private Map<String, TableColumnTO> tableColumnMap;
@@ -1,7 +1,13 @@
 package com.randomnoun.common.db.to;
 
+import java.io.Serializable;
+
+
+public class TriggerTO implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = 1466962695533240472L;
 
-public class TriggerTO {
 	private TableTO table; 
 	
 	private String name;
@@ -0,0 +1,74 @@
+package com.randomnoun.common.io;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream which reads from a ByteBuffer, such as a memory-mapped file.
+ * 
+ * <p>Reading from this stream advances the position of the buffer.
+ * This class is not thread-safe.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	/** The buffer to read from */
+	protected ByteBuffer buffer;
+
+	/** The buffer position when {@link #mark(int)} was last called */
+	private int markPosition = 0;
+
+	/**
+	 * Constructs a ByteBufferInputStream.
+	 *
+	 * @param buffer the buffer to read from, starting at its current position
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.markPosition = buffer.position();
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) { return 0; }
+		if (!buffer.hasRemaining()) { return -1; }
+		len = Math.min(len, buffer.remaining());
+		buffer.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public long skip(long n) {
+		int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+		markPosition = buffer.position();
+	}
+
+	@Override
+	public void reset() {
+		buffer.position(markPosition);
+	}
+}
@@ -0,0 +1,117 @@
+package com.randomnoun.common.io;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A CharSequence view of UTF-8 encoded bytes held in a ByteBuffer, such as a slice of a
+ * memory-mapped file.
+ *
+ * <p>Bytes are decoded on demand, so reading the start of the sequence using
+ * {@link #charAt(int)} or {@link #subSequence(int, int)} only decodes the start of the buffer.
+ * {@link #length()} and {@link #toString()} decode the entire buffer.
+ *
+ * <p>Malformed input is replaced, as per {@link String#String(byte[], java.nio.charset.Charset)}.
+ * This class is not thread-safe.
+ */
+public class Utf8CharSequence implements CharSequence {
+
+	/** Minimum number of characters decoded at a time */
+	private static final int DECODE_SIZE = 256;
+
+	/** The bytes that have not yet been decoded */
+	private ByteBuffer bytes;
+
+	/** The decoder, or null once all bytes have been decoded */
+	private CharsetDecoder decoder;
+
+	/** True if all bytes have been passed to the decoder */
+	private boolean endOfInput;
+
+	/** The characters decoded so far */
+	private char[] chars;
+
+	/** The number of characters decoded so far */
+	private int length;
+
+	/** The decoded String, once toString() has been called */
+	private String string;
+
+	/**
+	 * Constructs a Utf8CharSequence.
+	 *
+	 * @param bytes the bytes between the buffer's position and limit. The buffer itself
+	 *   is not modified.
+	 */
+	public Utf8CharSequence(ByteBuffer bytes) {
+		this.bytes = bytes.slice();
+		this.decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.chars = new char[Math.min(this.bytes.remaining(), DECODE_SIZE)];
+	}
+
+	/** Decode bytes until at least the supplied number of characters are available,
+	 * or all bytes have been decoded */
+	private void decode(int required) {
+		while (decoder != null && length < required) {
+			// UTF-8 never decodes to more characters than bytes; the extra characters leave room
+			// for a surrogate pair
+			long maxLength = (long) length + bytes.remaining() + 2;
+			int target = (int) Math.min(maxLength, Math.max(required, (long) length + DECODE_SIZE));
+			if (chars.length < target) {
+				chars = Arrays.copyOf(chars, (int) Math.min(maxLength, Math.max(target, (long) chars.length * 2)));
+			}
+			CharBuffer out = CharBuffer.wrap(chars, length, target - length);
+			CoderResult result = endOfInput ? CoderResult.UNDERFLOW : decoder.decode(bytes, out, false);
+			if (result.isUnderflow()) {
+				// any remaining bytes are an incomplete sequence at the end of the input
+				endOfInput = true;
+				if (decoder.decode(bytes, out, true).isUnderflow() && decoder.flush(out).isUnderflow()) {
+					decoder = null;
+				}
+			}
+			length = out.position();
+		}
+	}
+
+	@Override
+	public int length() {
+		decode(Integer.MAX_VALUE);
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0) { throw new IndexOutOfBoundsException("index " + index); }
+		decode(index + 1);
+		if (index >= length) { throw new IndexOutOfBoundsException("index " + index); }
+		return chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || start > end) { throw new IndexOutOfBoundsException("start " + start + ", end " + end); }
+		decode(end);
+		if (end > length) { throw new IndexOutOfBoundsException("end " + end); }
+		return new String(chars, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		if (string == null) {
+			decode(Integer.MAX_VALUE);
+			string = new String(chars, 0, length);
+		}
+		return string;
+	}
+}
@@ -0,0 +1,684 @@
+package com.randomnoun.common.jexl.eval;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.log4j.Logger;
+
+import com.randomnoun.common.jexl.ast.*;
+
+
+/**
+ * Evaluates a single expression over many rows of data, rather than calling
+ * {@link Evaluator#visit(TopLevelExpression, EvalContext)} once per row with a new EvalContext.
+ *
+ * <p>Rows can be supplied in one of two forms:
+ * <ul>
+ *   <li>a row list; i.e. a List of Maps, as returned by a structured list extractor. Each
+ *     row's entries are visible to the expression as variables.
+ *   <li>a set of columns; i.e. a Map of column names to arrays, where each array holds
+ *     that column's values for every row. Arrays may be <code>long[]</code>, <code>int[]</code>,
+ *     <code>double[]</code>, <code>boolean[]</code> or <code>Object[]</code>.
+ * </ul>
+ *
+ * <p>Variables and functions in the supplied EvalContext are visible to every row; row values
+ * take precedence over context variables with the same name.
+ *
+ * <p>If the expression consists only of comparisons between numeric columns
+ * and numeric constants (combined with <code>&amp;&amp;</code>, <code>||</code> and parentheses), e.g.
+ *
+ * <pre style="code">
+ *   (amount &gt; 1000 &amp;&amp; amount &lt;= 5000) || priority == 1
+ * </pre>
+ *
+ * and is evaluated against columnar input, then the expression is compiled into primitive
+ * loops over the column arrays instead of being interpreted for each row.
+ * Everything else is interpreted using a single EvalContext per thread.
+ *
+ * <p>Inputs larger than the parallel threshold are split across a ForkJoinPool.
+ *
+ * <p>Numeric comparisons follow the same coercion rules as the Evaluator (the rhs of a
+ * comparison is coerced into the type of the lhs), so both evaluation strategies
+ * return the same result.
+ *
+ * <p>This class is thread-safe, provided that the functions in the EvalContext are thread-safe,
+ * and that the EvalContext and row data are not modified during evaluation.
+ *
+ * @author knoxg
+ */
+public class BatchEvaluator {
+
+    /** Logger instance for this class */
+    Logger logger = Logger.getLogger(BatchEvaluator.class);
+
+    /** Default number of rows above which evaluation is split across the ForkJoinPool */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
+    // comparison operators used in compiled predicates; the first four are in the same
+    // order as the ops in RelationalExpression, the last two in the same order as EqualityExpression
+    private static final int OP_LT = 0;
+    private static final int OP_GT = 1;
+    private static final int OP_LE = 2;
+    private static final int OP_GE = 3;
+    private static final int OP_EQ = 4;
+    private static final int OP_NE = 5;
+
+    /** The pool used to evaluate large inputs */
+    private ForkJoinPool pool;
+
+    /** Number of rows above which evaluation is split across the pool */
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /** The (stateless) evaluator used to interpret rows */
+    private Evaluator evaluator = new Evaluator();
+
+    /** Create a BatchEvaluator which uses the common ForkJoinPool */
+    public BatchEvaluator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** Create a BatchEvaluator which uses the supplied ForkJoinPool
+     *
+     * @param pool the pool used to evaluate inputs larger than the parallel threshold
+     */
+    public BatchEvaluator(ForkJoinPool pool) {
+        if (pool == null) { throw new NullPointerException("null pool"); }
+        this.pool = pool;
+    }
+
+    /** Sets the number of rows above which evaluation is split across the ForkJoinPool.
+     * Defaults to {@link #DEFAULT_PARALLEL_THRESHOLD}.
+     *
+     * @param parallelThreshold the number of rows above which evaluation is performed in parallel.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 1) { throw new IllegalArgumentException("parallelThreshold must be positive"); }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /** Returns the number of rows above which evaluation is split across the ForkJoinPool.
+     *
+     * @return the number of rows above which evaluation is performed in parallel.
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /** Evaluate an expression against every row in a row list.
+     *
+     * @param expression the expression to evaluate
+     * @param context the variables and functions available to every row
+     * @param rows the rows to evaluate
+     *
+     * @return an array containing the result of the expression for each row
+     *
+     * @throws EvalException if the expression could not be evaluated for any row
+     */
+    public Object[] evaluate(TopLevelExpression expression, EvalContext context, List<Map<String, Object>> rows) {
+        Batch batch = new RowListBatch(expression, context, rows);
+        batch.results = new Object[rows.size()];
+        run(batch, rows.size());
+        return batch.results;
+    }
+
+    /** Evaluate a boolean expression against every row in a row list.
+     *
+     * @param expression the expression to evaluate
+     * @param context the variables and functions available to every row
+     * @param rows the rows to evaluate
+     *
+     * @return a BitSet with a bit set for each row where the expression evaluates to true
+     *
+     * @throws EvalException if the expression could not be evaluated, or does not
+     *   evaluate to a Boolean, for any row
+     */
+    public BitSet filter(TopLevelExpression expression, EvalContext context, List<Map<String, Object>> rows) {
+        Batch batch = new RowListBatch(expression, context, rows);
+        return run(batch, rows.size());
+    }
+
+    /** Evaluate an expression against every row in a set of columns.
+     *
+     * @param expression the expression to evaluate
+     * @param context the variables and functions available to every row
+     * @param columns a map of column names to column arrays
+     * @param rowCount the number of rows to evaluate
+     *
+     * @return an array containing the result of the expression for each row
+     *
+     * @throws EvalException if the expression could not be evaluated for any row
+     * @throws IllegalArgumentException if a column is not an array, or contains fewer than rowCount values
+     */
+    public Object[] evaluate(TopLevelExpression expression, EvalContext context, Map<String, Object> columns, int rowCount) {
+        Batch batch = new ColumnBatch(expression, context, columns, rowCount);
+        batch.results = new Object[rowCount];
+        run(batch, rowCount);
+        return batch.results;
+    }
+
+    /** Evaluate a boolean expression against every row in a set of columns.
+     *
+     * @param expression the expression to evaluate
+     * @param context the variables and functions available to every row
+     * @param columns a map of column names to column arrays
+     * @param rowCount the number of rows to evaluate
+     *
+     * @return a BitSet with a bit set for each row where the expression evaluates to true
+     *
+     * @throws EvalException if the expression could not be evaluated, or does not
+     *   evaluate to a Boolean, for any row
+     * @throws IllegalArgumentException if a column is not an array, or contains fewer than rowCount values
+     */
+    public BitSet filter(TopLevelExpression expression, EvalContext context, Map<String, Object> columns, int rowCount) {
+        Batch batch = new ColumnBatch(expression, context, columns, rowCount);
+        return run(batch, rowCount);
+    }
+
+    /** Returns true if the expression can be compiled into primitive loops over the
+     * supplied columns (i.e. the expression only contains comparisons between numeric
+     * columns and numeric constants).
+     *
+     * @param expression the expression to evaluate
+     * @param context the variables and functions available to every row
+     * @param columns a map of column names to column arrays
+     *
+     * @return true if the expression will be evaluated without interpreting each row
+     */
+    public boolean isCompilable(TopLevelExpression expression, EvalContext context, Map<String, Object> columns) {
+        return compile(expression.expression, context, columns) != null;
+    }
+
+    /** Evaluate all rows in a batch, in parallel if there are more rows than the parallel threshold */
+    private BitSet run(Batch batch, int rowCount) {
+        if (rowCount <= parallelThreshold) {
+            return batch.evaluateRange(0, rowCount);
+        }
+        return pool.invoke(new EvaluateTask(batch, 0, rowCount));
+    }
+
+    /** Evaluates rows [from, to) of a batch, splitting into subtasks
+     * if the range contains more rows than the parallel threshold. */
+    private class EvaluateTask extends RecursiveTask<BitSet> {
+        /** Generated serialVersionUID */
+        private static final long serialVersionUID = 7209547214627386391L;
+
+        Batch batch;
+        int from;
+        int to;
+
+        EvaluateTask(Batch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected BitSet compute() {
+            if (to - from <= parallelThreshold) {
+                return batch.evaluateRange(from, to);
+            }
+            int mid = (from + to) >>> 1;
+            EvaluateTask left = new EvaluateTask(batch, from, mid);
+            left.fork();
+            BitSet result = new EvaluateTask(batch, mid, to).compute();
+            result.or(left.join());
+            return result;
+        }
+    }
+
+    /** The expression, context and rows being evaluated */
+    private abstract class Batch {
+        TopLevelExpression expression;
+        EvalContext context;
+
+        /** If non-null, the result of each row is stored in this array */
+        Object[] results;
+
+        /** If non-null, the compiled form of the expression */
+        ColumnPredicate predicate;
+
+        Batch(TopLevelExpression expression, EvalContext context) {
+            if (expression == null) { throw new NullPointerException("null expression"); }
+            if (context == null) { throw new NullPointerException("null context"); }
+            this.expression = expression;
+            this.context = context;
+        }
+
+        /** Create a variable map, used by a single thread, that can be positioned on any row */
+        abstract RowVariables newRowVariables();
+
+        /** Evaluate rows [from, to) */
+        BitSet evaluateRange(int from, int to) {
+            BitSet bits = new BitSet(to);
+            if (predicate != null) {
+                predicate.evaluate(from, to, bits);
+                if (results != null) {
+                    for (int i = from; i < to; i++) { results[i] = Boolean.valueOf(bits.get(i)); }
+                }
+                return bits;
+            }
+
+            RowVariables variables = newRowVariables();
+            EvalContext rowContext = new EvalContext();
+            rowContext.setFunctions(context.getFunctions());
+            rowContext.setVariables(variables);
+            for (int i = from; i < to; i++) {
+                variables.row = i;
+                Object value = evaluator.visit(expression, rowContext);
+                if (results != null) {
+                    results[i] = value;
+                } else if (value instanceof Boolean) {
+                    if (((Boolean) value).booleanValue()) { bits.set(i); }
+                } else {
+                    throw new EvalException("Expression must evaluate to a boolean (found " +
+                      (value == null ? "null" : value.getClass().getName()) + " in row " + i + ")");
+                }
+            }
+            return bits;
+        }
+    }
+
+    /** A batch of rows supplied as a List of Maps */
+    private class RowListBatch extends Batch {
+        List<Map<String, Object>> rows;
+
+        RowListBatch(TopLevelExpression expression, EvalContext context, List<Map<String, Object>> rows) {
+            super(expression, context);
+            if (rows == null) { throw new NullPointerException("null rows"); }
+            // random access is required to split the list across threads
+            this.rows = (rows instanceof RandomAccess) ? rows : new ArrayList<Map<String, Object>>(rows);
+        }
+
+        RowVariables newRowVariables() {
+            return new RowVariables(context.getVariables()) {
+                boolean rowContainsKey(Object key) { return rows.get(row).containsKey(key); }
+                Object rowGet(Object key) { return rows.get(row).get(key); }
+            };
+        }
+    }
+
+    /** A batch of rows supplied as a Map of column arrays */
+    private class ColumnBatch extends Batch {
+        Map<String, Object> columns;
+
+        ColumnBatch(TopLevelExpression expression, EvalContext context, Map<String, Object> columns, int rowCount) {
+            super(expression, context);
+            if (columns == null) { throw new NullPointerException("null columns"); }
+            for (Map.Entry<String, Object> e : columns.entrySet()) {
+                Object column = e.getValue();
+                if (column == null || !column.getClass().isArray()) {
+                    throw new IllegalArgumentException("Column '" + e.getKey() + "' is not an array");
+                }
+                if (java.lang.reflect.Array.getLength(column) < rowCount) {
+                    throw new IllegalArgumentException("Column '" + e.getKey() + "' contains fewer than " + rowCount + " rows");
+                }
+            }
+            this.columns = columns;
+            this.predicate = compile(expression.expression, context, columns);
+            if (predicate != null && logger.isDebugEnabled()) {
+                logger.debug("Compiled expression into " + predicate);
+            }
+        }
+
+        RowVariables newRowVariables() {
+            return new RowVariables(context.getVariables()) {
+                boolean rowContainsKey(Object key) { return columns.containsKey(key); }
+                Object rowGet(Object key) { return getColumnValue(columns.get(key), row); }
+            };
+        }
+    }
+
+    /** Returns a single value from a column array, boxed in the same way as
+     * values that are created by the Evaluator (i.e. integer types are returned as Longs) */
+    private static Object getColumnValue(Object column, int row) {
+        if (column instanceof long[]) {
+            return Long.valueOf(((long[]) column)[row]);
+        } else if (column instanceof int[]) {
+            return Long.valueOf(((int[]) column)[row]);
+        } else if (column instanceof double[]) {
+            return Double.valueOf(((double[]) column)[row]);
+        } else if (column instanceof boolean[]) {
+            return Boolean.valueOf(((boolean[]) column)[row]);
+        } else if (column instanceof Object[]) {
+            return ((Object[]) column)[row];
+        }
+        throw new EvalException("Unsupported column type '" + column.getClass().getName() + "'");
+    }
+
+    /** A read-only variable map which overlays the values of a single row over
+     * the variables in the EvalContext. Each thread uses its own instance, which is
+     * moved from row to row by setting the <code>row</code> field.
+     */
+    private static abstract class RowVariables extends AbstractMap<String, Object> {
+        Map<String, Object> contextVariables;
+        int row;
+
+        RowVariables(Map<String, Object> contextVariables) {
+            this.contextVariables = contextVariables;
+        }
+
+        abstract boolean rowContainsKey(Object key);
+        abstract Object rowGet(Object key);
+
+        public boolean containsKey(Object key) {
+            return rowContainsKey(key) || contextVariables.containsKey(key);
+        }
+
+        public Object get(Object key) {
+            return rowContainsKey(key) ? rowGet(key) : contextVariables.get(key);
+        }
+
+        public Set<Map.Entry<String, Object>> entrySet() {
+            throw new UnsupportedOperationException("Row variables cannot be enumerated");
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // compiled predicates
+
+    /** An expression compiled into primitive loops over column arrays */
+    interface ColumnPredicate {
+        /** Sets the bits in result for rows in [from, to) that satisfy this predicate */
+        void evaluate(int from, int to, BitSet result);
+    }
+
+    /** The conjunction of a number of predicates */
+    private static class AndPredicate implements ColumnPredicate {
+        List<ColumnPredicate> terms;
+        AndPredicate(List<ColumnPredicate> terms) { this.terms = terms; }
+        public void evaluate(int from, int to, BitSet result) {
+            BitSet bits = new BitSet(to);
+            terms.get(0).evaluate(from, to, bits);
+            for (int i = 1; i < terms.size() && !bits.isEmpty(); i++) {
+                BitSet termBits = new BitSet(to);
+                terms.get(i).evaluate(from, to, termBits);
+                bits.and(termBits);
+            }
+            result.or(bits);
+        }
+        public String toString() { return "and" + terms; }
+    }
+
+    /** The disjunction of a number of predicates */
+    private static class OrPredicate implements ColumnPredicate {
+        List<ColumnPredicate> terms;
+        OrPredicate(List<ColumnPredicate> terms) { this.terms = terms; }
+        public void evaluate(int from, int to, BitSet result) {
+            for (ColumnPredicate term : terms) {
+                term.evaluate(from, to, result);
+            }
+        }
+        public String toString() { return "or" + terms; }
+    }
+
+    /** A comparison between a long[] column and a constant */
+    private static class LongComparison implements ColumnPredicate {
+        long[] column; int op; long value;
+        LongComparison(long[] column, int op, long value) { this.column = column; this.op = op; this.value = value; }
+        public void evaluate(int from, int to, BitSet result) {
+            long[] c = column; long v = value;
+            switch (op) {
+                case OP_LT: for (int i = from; i < to; i++) { if (c[i] < v) { result.set(i); } } break;
+                case OP_GT: for (int i = from; i < to; i++) { if (c[i] > v) { result.set(i); } } break;
+                case OP_LE: for (int i = from; i < to; i++) { if (c[i] <= v) { result.set(i); } } break;
+                case OP_GE: for (int i = from; i < to; i++) { if (c[i] >= v) { result.set(i); } } break;
+                case OP_EQ: for (int i = from; i < to; i++) { if (c[i] == v) { result.set(i); } } break;
+                case OP_NE: for (int i = from; i < to; i++) { if (c[i] != v) { result.set(i); } } break;
+                default:
+                    throw new EvalException("Internal error - unexpected comparison operation");
+            }
+        }
+        public String toString() { return "long[" + op + "," + value + "]"; }
+    }
+
+    /** A comparison between an int[] column and a constant */
+    private static class IntComparison implements ColumnPredicate {
+        int[] column; int op; long value;
+        IntComparison(int[] column, int op, long value) { this.column = column; this.op = op; this.value = value; }
+        public void evaluate(int from, int to, BitSet result) {
+            int[] c = column; long v = value;
+            switch (op) {
+                case OP_LT: for (int i = from; i < to; i++) { if (c[i] < v) { result.set(i); } } break;
+                case OP_GT: for (int i = from; i < to; i++) { if (c[i] > v) { result.set(i); } } break;
+                case OP_LE: for (int i = from; i < to; i++) { if (c[i] <= v) { result.set(i); } } break;
+                case OP_GE: for (int i = from; i < to; i++) { if (c[i] >= v) { result.set(i); } } break;
+                case OP_EQ: for (int i = from; i < to; i++) { if (c[i] == v) { result.set(i); } } break;
+                case OP_NE: for (int i = from; i < to; i++) { if (c[i] != v) { result.set(i); } } break;
+                default:
+                    throw new EvalException("Internal error - unexpected comparison operation");
+            }
+        }
+        public String toString() { return "int[" + op + "," + value + "]"; }
+    }
+
+    /** A comparison between a double[] column and a constant. Uses Double.compare() to
+     * keep the same NaN and -0.0 semantics as the Evaluator (which uses Double.compareTo()). */
+    private static class DoubleComparison implements ColumnPredicate {
+        double[] column; int op; double value;
+        DoubleComparison(double[] column, int op, double value) { this.column = column; this.op = op; this.value = value; }
+        public void evaluate(int from, int to, BitSet result) {
+            double[] c = column; double v = value;
+            switch (op) {
+                case OP_LT: for (int i = from; i < to; i++) { if (Double.compare(c[i], v) < 0) { result.set(i); } } break;
+                case OP_GT: for (int i = from; i < to; i++) { if (Double.compare(c[i], v) > 0) { result.set(i); } } break;
+                case OP_LE: for (int i = from; i < to; i++) { if (Double.compare(c[i], v) <= 0) { result.set(i); } } break;
+                case OP_GE: for (int i = from; i < to; i++) { if (Double.compare(c[i], v) >= 0) { result.set(i); } } break;
+                case OP_EQ: for (int i = from; i < to; i++) { if (Double.compare(c[i], v) == 0) { result.set(i); } } break;
+                case OP_NE: for (int i = from; i < to; i++) { if (Double.compare(c[i], v) != 0) { result.set(i); } } break;
+                default:
+                    throw new EvalException("Internal error - unexpected comparison operation");
+            }
+        }
+        public String toString() { return "double[" + op + "," + value + "]"; }
+    }
+
+    /** One side of a compiled comparison; either a column or a numeric constant */
+    private static class Operand {
+        Object column;   // a long[], int[] or double[] column
+        Number constant; // a Long or Double constant
+    }
+
+    /** Compile an Expression node into a ColumnPredicate, or return null if the expression
+     * contains anything other than comparisons between numeric columns and numeric constants.
+     *
+     * <PRE>
+     * conditionalAndExpression -> ConditionalAndExpression()
+     * nodeListOptional -> ( "||" ConditionalAndExpression() )*
+     * </PRE>
+     */
+    static ColumnPredicate compile(Expression n, EvalContext context, Map<String, Object> columns) {
+        List<ColumnPredicate> terms = new ArrayList<ColumnPredicate>();
+        terms.add(compile(n.conditionalAndExpression, context, columns));
+        for (Enumeration<Node> e = n.nodeListOptional.elements(); e.hasMoreElements();) {
+            NodeSequence seq = (NodeSequence) e.nextElement();
+            terms.add(compile((ConditionalAndExpression) seq.elementAt(1), context, columns));
+        }
+        if (terms.contains(null)) { return null; }
+        return terms.size() == 1 ? terms.get(0) : new OrPredicate(terms);
+    }
+
+    /** Compile a ConditionalAndExpression node.
+     *
+     * <PRE>
+     * equalityExpression -> EqualityExpression()
+     * nodeListOptional -> ( "&&" EqualityExpression() )*
+     * </PRE>
+     */
+    private static ColumnPredicate compile(ConditionalAndExpression n, EvalContext context, Map<String, Object> columns) {
+        List<ColumnPredicate> terms = new ArrayList<ColumnPredicate>();
+        terms.add(compile(n.equalityExpression, context, columns));
+        for (Enumeration<Node> e = n.nodeListOptional.elements(); e.hasMoreElements();) {
+            NodeSequence seq = (NodeSequence) e.nextElement();
+            terms.add(compile((EqualityExpression) seq.elementAt(1), context, columns));
+        }
+        if (terms.contains(null)) { return null; }
+        return terms.size() == 1 ? terms.get(0) : new AndPredicate(terms);
+    }
+
+    /** Compile an EqualityExpression node. Chained equalities (e.g. <code>a == b == c</code>) are not compiled.
+     *
+     * <PRE>
+     * relationalExpression -> RelationalExpression()
+     * nodeListOptional -> ( ( "==" | "!=" ) RelationalExpression() )*
+     * </PRE>
+     */
+    private static ColumnPredicate compile(EqualityExpression n, EvalContext context, Map<String, Object> columns) {
+        if (n.nodeListOptional.size() == 0) {
+            return compile(n.relationalExpression, context, columns);
+        } else if (n.nodeListOptional.size() == 1) {
+            NodeSequence seq = (NodeSequence) n.nodeListOptional.elementAt(0);
+            int which = ((NodeChoice) seq.elementAt(0)).which;
+            Operand lhs = getOperand(n.relationalExpression, context, columns);
+            Operand rhs = getOperand(seq.elementAt(1), context, columns);
+            return compileComparison(OP_EQ + which, lhs, rhs);
+        }
+        return null;
+    }
+
+    /** Compile a RelationalExpression node. Chained comparisons (e.g. <code>a &lt; b &lt; c</code>) are not compiled.
+     *
+     * <PRE>
+     * additiveExpression -> AdditiveExpression()
+     * nodeListOptional -> ( ( "&lt;" | "&gt;" | "&lt;=" | "&gt;=" ) AdditiveExpression() )*
+     * </PRE>
+     */
+    private static ColumnPredicate compile(RelationalExpression n, EvalContext context, Map<String, Object> columns) {
+        if (n.nodeListOptional.size() == 0) {
+            // may be a parenthesised expression
+            PrimaryExpression primary = getPrimaryExpression(n.additiveExpression);
+            if (primary != null && primary.nodeChoice.which == 3) {
+                NodeSequence seq = (NodeSequence) primary.nodeChoice.choice;
+                return compile((Expression) seq.elementAt(1), context, columns);
+            }
+        } else if (n.nodeListOptional.size() == 1) {
+            NodeSequence seq = (NodeSequence) n.nodeListOptional.elementAt(0);
+            int which = ((NodeChoice) seq.elementAt(0)).which;
+            Operand lhs = getOperand(n.additiveExpression, context, columns);
+            Operand rhs = getOperand(seq.elementAt(1), context, columns);
+            return compileComparison(which, lhs, rhs);
+        }
+        return null;
+    }
+
+    /** Returns the PrimaryExpression beneath an AdditiveExpression, if the AdditiveExpression
+     * contains no operators, or null otherwise. */
+    private static PrimaryExpression getPrimaryExpression(AdditiveExpression n) {
+        if (n.nodeListOptional.size() != 0) { return null; }
+        MultiplicativeExpression me = n.multiplicativeExpression;
+        if (me.nodeListOptional.size() != 0) { return null; }
+        UnaryExpression ue = me.unaryExpression;
+        if (ue.nodeChoice.which != 1) { return null; }
+        return (PrimaryExpression) ue.nodeChoice.choice;
+    }
+
+    /** Returns the column or constant represented by a RelationalExpression or
+     * AdditiveExpression node, or null if the node is not a numeric column or constant.
+     *
+     * <p>Names which refer to columns become column operands, names which refer to
+     * numeric context variables become constant operands, as do numeric literals and
+     * negated numeric literals.
+     */
+    private static Operand getOperand(Node node, EvalContext context, Map<String, Object> columns) {
+        AdditiveExpression ae;
+        if (node instanceof RelationalExpression) {
+            RelationalExpression re = (RelationalExpression) node;
+            if (re.nodeListOptional.size() != 0) { return null; }
+            ae = re.additiveExpression;
+        } else if (node instanceof AdditiveExpression) {
+            ae = (AdditiveExpression) node;
+        } else {
+            return null;
+        }
+        if (ae.nodeListOptional.size() != 0) { return null; }
+        MultiplicativeExpression me = ae.multiplicativeExpression;
+        if (me.nodeListOptional.size() != 0) { return null; }
+        return getOperand(me.unaryExpression, context, columns);
+    }
+
+    /** Returns the column or constant represented by a UnaryExpression node, or null */
+    private static Operand getOperand(UnaryExpression ue, EvalContext context, Map<String, Object> columns) {
+        if (ue.nodeChoice.which == 0) {
+            // negated numeric constant
+            NodeSequence seq = (NodeSequence) ue.nodeChoice.choice;
+            if (((NodeChoice) seq.elementAt(0)).which != 2) { return null; }
+            Operand operand = getOperand((UnaryExpression) seq.elementAt(1), context, columns);
+            if (operand == null || operand.constant == null) { return null; }
+            if (operand.constant instanceof Long) {
+                operand.constant = Long.valueOf(-operand.constant.longValue());
+            } else {
+                operand.constant = Double.valueOf(-operand.constant.doubleValue());
+            }
+            return operand;
+        }
+
+        PrimaryExpression pe = (PrimaryExpression) ue.nodeChoice.choice;
+        Operand operand = new Operand();
+        switch (pe.nodeChoice.which) {
+            case 1:
+                Name name = (Name) pe.nodeChoice.choice;
+                if (name.nodeListOptional.size() != 0) { return null; }
+                String varName = name.nodeToken.tokenImage;
+                if (columns.containsKey(varName)) {
+                    Object column = columns.get(varName);
+                    if (!(column instanceof long[] || column instanceof int[] || column instanceof double[])) { return null; }
+                    operand.column = column;
+                } else {
+                    Object value = context.getVariable(varName);
+                    if (!(value instanceof Long || value instanceof Double)) { return null; }
+                    operand.constant = (Number) value;
+                }
+                return operand;
+
+            case 2:
+                Literal literal = (Literal) pe.nodeChoice.choice;
+                String token = ((literal.nodeChoice.choice instanceof NodeToken) ? ((NodeToken) literal.nodeChoice.choice).tokenImage : null);
+                switch (literal.nodeChoice.which) {
+                    case 0: operand.constant = Long.valueOf(token); return operand;
+                    case 1: operand.constant = Double.valueOf(token); return operand;
+                    default: return null;
+                }
+
+            default:
+                return null;
+        }
+    }
+
+    /** Compile a comparison between two operands, applying the same type coercion as the Evaluator
+     * (i.e. the rhs is coerced into the type of the lhs).
+     *
+     * @return a ColumnPredicate, or null if the comparison cannot be compiled
+     */
+    private static ColumnPredicate compileComparison(int op, Operand lhs, Operand rhs) {
+        if (lhs == null || rhs == null) { return null; }
+        if (lhs.column != null && rhs.constant != null) {
+            return compileComparison(lhs.column, op, rhs.constant);
+        }
+        if (lhs.constant != null && rhs.column != null) {
+            // swap the operands if that doesn't change the coercion applied to the column
+            boolean lhsLong = (lhs.constant instanceof Long);
+            boolean columnLong = !(rhs.column instanceof double[]);
+            if (lhsLong == columnLong) {
+                int[] swappedOps = { OP_GT, OP_LT, OP_GE, OP_LE, OP_EQ, OP_NE };
+                return compileComparison(rhs.column, swappedOps[op], lhs.constant);
+            }
+        }
+        return null;
+    }
+
+    /** Compile a comparison between a column and a constant */
+    private static ColumnPredicate compileComparison(Object column, int op, Number constant) {
+        if (column instanceof long[]) {
+            return new LongComparison((long[]) column, op, constant.longValue());
+        } else if (column instanceof int[]) {
+            return new IntComparison((int[]) column, op, constant.longValue());
+        } else {
+            return new DoubleComparison((double[]) column, op, constant.doubleValue());
+        }
+    }
+
+}
@@ -26,6 +26,12 @@ public class EvalContext
         this.variables = variables;
     }
 
+    /** Returns all variables accessible to an expression. */
+    public Map<String, Object> getVariables()
+    {
+        return variables;
+    }
+
     /** Set a specific variable binding */
     public void setVariable(String name, Object value)
     {
@@ -56,6 +62,12 @@ public class EvalContext
         this.functions = functions;
     }
 
+    /** Returns all functions accessible to an expression. */
+    public Map<String, EvalFunction> getFunctions()
+    {
+        return functions;
+    }
+
     /** Set a specific function */
     public void setFunction(String name, EvalFunction function)
     {
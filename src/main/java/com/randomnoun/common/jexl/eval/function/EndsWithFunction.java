@@ -14,11 +14,38 @@ import com.randomnoun.common.jexl.eval.EvalFunction;
  *
  * Returns true if the first argument to this function ends with the second argument.
  *
+ * <p>If the function is created with caseInsensitive set, then the values are compared
+ * case-insensitively.
+ *
  * <p>The result of the function is of type Boolean.
  */
 public class EndsWithFunction
     implements EvalFunction
 {
+    /** If true, matches are case-insensitive */
+    private boolean caseInsensitive;
+
+    /** Create a case-sensitive endsWith() function */
+    public EndsWithFunction()
+    {
+        this(false);
+    }
+
+    /** Create an endsWith() function
+     *
+     * @param caseInsensitive if true, the text will be compared case-insensitively
+     */
+    public EndsWithFunction(boolean caseInsensitive)
+    {
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    /** Returns true if this function performs case-insensitive matches */
+    public boolean isCaseInsensitive()
+    {
+        return caseInsensitive;
+    }
+
     /** Implements the function as per the class description. */
     public Object evaluate(String functionName, EvalContext context, List<Object> arguments)
         throws EvalException
@@ -40,6 +67,9 @@ public class EndsWithFunction
             throw new EvalException(functionName + "() second parameter cannot be null");
         }
 
+        if (caseInsensitive) {
+            return Boolean.valueOf(arg0.regionMatches(true, arg0.length() - arg1.length(), arg1, 0, arg1.length()));
+        }
         return Boolean.valueOf(arg0.endsWith(arg1));
     }
 }
\ No newline at end of file
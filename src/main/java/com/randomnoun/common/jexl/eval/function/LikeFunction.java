@@ -6,6 +6,8 @@ package com.randomnoun.common.jexl.eval.function;
 
 import java.util.List;
 
+import com.randomnoun.common.MRUCache;
+
 import com.randomnoun.common.jexl.eval.EvalContext;
 import com.randomnoun.common.jexl.eval.EvalException;
 import com.randomnoun.common.jexl.eval.EvalFunction;
@@ -14,16 +16,64 @@ import com.randomnoun.common.jexl.eval.EvalFunction;
  *
  * <p>like() takes a two parameters, the string being matched and the SQL LIKE pattern we
  * are matching on. The LIKE pattern uses the "%" character to represent any sequence of
- * characters, and "_" to indicate a single character. This class automatically deals
- * with conflicts with the Java regex parser, so the pattern may contain any other
- * Unicode or regular expression characters, which will be treated like any other
- * character.
+ * characters, and "_" to indicate a single character. Any other character in the pattern
+ * (including regular expression characters) is matched literally.
+ *
+ * <p>Patterns are compiled into {@link LikePattern} objects. Since the pattern is nearly always
+ * a constant, the most recently used pattern is reused without a cache lookup; other patterns
+ * are held in a small MRU cache.
  *
  * <p>The result of the function is of type Boolean.
  */
 public class LikeFunction
     implements EvalFunction
 {
+    /** Maximum number of compiled patterns held by each function instance */
+    public static final int PATTERN_CACHE_SIZE = 64;
+
+    /** If true, matches are case-insensitive */
+    private boolean caseInsensitive;
+
+    /** The most recently used pattern */
+    private volatile LikePattern lastPattern;
+
+    /** Compiled patterns, used when the pattern varies between calls */
+    private MRUCache<String, LikePattern> patternCache;
+
+    /** Create a case-sensitive like() function */
+    public LikeFunction()
+    {
+        this(false);
+    }
+
+    /** Create a like() function
+     *
+     * @param caseInsensitive if true, the pattern will match text case-insensitively
+     */
+    public LikeFunction(boolean caseInsensitive)
+    {
+        this.caseInsensitive = caseInsensitive;
+        this.patternCache = new MRUCache<String, LikePattern>(PATTERN_CACHE_SIZE, 0,
+            pattern -> LikePattern.like(pattern, this.caseInsensitive));
+    }
+
+    /** Returns true if this function performs case-insensitive matches */
+    public boolean isCaseInsensitive()
+    {
+        return caseInsensitive;
+    }
+
+    /** Returns the compiled form of a LIKE pattern */
+    protected LikePattern getPattern(String pattern)
+    {
+        LikePattern likePattern = lastPattern;
+        if (likePattern == null || !likePattern.getPattern().equals(pattern)) {
+            likePattern = patternCache.get(pattern);
+            lastPattern = likePattern;
+        }
+        return likePattern;
+    }
+
     /** Implements the function as per the class description. */
     public Object evaluate(String functionName, EvalContext context, List<Object> arguments)
         throws EvalException
@@ -45,15 +95,6 @@ public class LikeFunction
             throw new EvalException(functionName + "() second parameter cannot be null");
         }
 
-        // convert arg1 into a regex; first escape any chars that may confuse the
-        // regex engine (see java.util.regex.Pattern class to see how this list was derived)
-        String specialChars = "\\[]^$?*+{}|().";
-        for (int i = 0; i < specialChars.length(); i++) {
-            arg1 = arg1.replaceAll("\\" + specialChars.charAt(i),
-                    "\\\\" + "\\" + specialChars.charAt(i));
-        }
-        arg1 = arg1.replaceAll("%", ".*");
-        arg1 = arg1.replaceAll("_", ".");
-        return Boolean.valueOf(arg0.matches(arg1));
+        return Boolean.valueOf(getPattern(arg1).matches(arg0));
     }
-}
\ No newline at end of file
+}
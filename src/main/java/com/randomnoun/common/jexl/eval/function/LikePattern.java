@@ -0,0 +1,239 @@
+package com.randomnoun.common.jexl.eval.function;
+
+/* (c) 2013-2018 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A compiled SQL LIKE pattern, or a compiled prefix or suffix match.
+ *
+ * <p>LIKE patterns use the "%" character to represent any sequence of characters
+ * (including an empty sequence), and "_" to represent any single character.
+ * All other characters are matched literally.
+ *
+ * <p>Patterns are compiled into the cheapest matcher that implements them; e.g.
+ * <code>abc%</code> is matched using a prefix comparison, and <code>%abc%</code> using
+ * a substring search. Patterns containing more than one literal segment, or "_" wildcards,
+ * are matched by comparing each literal segment in turn, without using regular expressions.
+ *
+ * <p>Instances of this class are immutable and thread-safe.
+ *
+ * @author knoxg
+ */
+public class LikePattern
+{
+    private static final int EXACT = 0;
+    private static final int PREFIX = 1;
+    private static final int SUFFIX = 2;
+    private static final int CONTAINS = 3;
+    private static final int ANY = 4;
+    private static final int WILDCARD = 5;
+
+    /** The pattern this object was compiled from */
+    private final String pattern;
+
+    /** The type of matcher */
+    private final int type;
+
+    /** The literal text for EXACT, PREFIX, SUFFIX and CONTAINS matchers */
+    private final String literal;
+
+    /** The non-empty segments between '%' characters for WILDCARD matchers */
+    private final String[] segments;
+
+    /** For WILDCARD matchers, true if the pattern does not start with '%' */
+    private final boolean anchoredStart;
+
+    /** For WILDCARD matchers, true if the pattern does not end with '%' */
+    private final boolean anchoredEnd;
+
+    /** If true, characters are compared case-insensitively (as per String.equalsIgnoreCase) */
+    private final boolean caseInsensitive;
+
+    private LikePattern(String pattern, int type, String literal, String[] segments,
+        boolean anchoredStart, boolean anchoredEnd, boolean caseInsensitive)
+    {
+        this.pattern = pattern;
+        this.type = type;
+        this.literal = literal;
+        this.segments = segments;
+        this.anchoredStart = anchoredStart;
+        this.anchoredEnd = anchoredEnd;
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    /** Compile an SQL LIKE pattern.
+     *
+     * @param pattern the LIKE pattern
+     * @param caseInsensitive if true, the pattern will match text case-insensitively
+     *
+     * @return the compiled pattern
+     */
+    public static LikePattern like(String pattern, boolean caseInsensitive)
+    {
+        if (pattern == null) { throw new NullPointerException("null pattern"); }
+        boolean anchoredStart = !pattern.startsWith("%");
+        boolean anchoredEnd = !pattern.endsWith("%");
+        List<String> segmentList = new ArrayList<String>();
+        int start = 0;
+        int pos = pattern.indexOf('%');
+        while (pos != -1) {
+            if (pos > start) { segmentList.add(pattern.substring(start, pos)); }
+            start = pos + 1;
+            pos = pattern.indexOf('%', start);
+        }
+        if (start < pattern.length()) { segmentList.add(pattern.substring(start)); }
+
+        if (pattern.indexOf('_') == -1) {
+            if (segmentList.size() == 0) {
+                return new LikePattern(pattern, pattern.length() == 0 ? EXACT : ANY, "", null, false, false, caseInsensitive);
+            } else if (segmentList.size() == 1) {
+                String literal = segmentList.get(0);
+                int type = anchoredStart ? (anchoredEnd ? EXACT : PREFIX) : (anchoredEnd ? SUFFIX : CONTAINS);
+                return new LikePattern(pattern, type, literal, null, false, false, caseInsensitive);
+            }
+        }
+        return new LikePattern(pattern, WILDCARD, null, segmentList.toArray(new String[segmentList.size()]),
+            anchoredStart, anchoredEnd, caseInsensitive);
+    }
+
+    /** Compile a prefix match. All characters in the prefix are matched literally.
+     *
+     * @param prefix the prefix
+     * @param caseInsensitive if true, the prefix will match text case-insensitively
+     *
+     * @return the compiled pattern
+     */
+    public static LikePattern startsWith(String prefix, boolean caseInsensitive)
+    {
+        if (prefix == null) { throw new NullPointerException("null prefix"); }
+        return new LikePattern(prefix, PREFIX, prefix, null, false, false, caseInsensitive);
+    }
+
+    /** Compile a suffix match. All characters in the suffix are matched literally.
+     *
+     * @param suffix the suffix
+     * @param caseInsensitive if true, the suffix will match text case-insensitively
+     *
+     * @return the compiled pattern
+     */
+    public static LikePattern endsWith(String suffix, boolean caseInsensitive)
+    {
+        if (suffix == null) { throw new NullPointerException("null suffix"); }
+        return new LikePattern(suffix, SUFFIX, suffix, null, false, false, caseInsensitive);
+    }
+
+    /** Returns the pattern this object was compiled from */
+    public String getPattern()
+    {
+        return pattern;
+    }
+
+    /** Returns true if this pattern matches text case-insensitively */
+    public boolean isCaseInsensitive()
+    {
+        return caseInsensitive;
+    }
+
+    /** Returns true if the supplied text matches this pattern.
+     *
+     * @param text the text to match
+     *
+     * @return true if the text matches this pattern
+     */
+    public boolean matches(String text)
+    {
+        switch (type) {
+            case EXACT:
+                return caseInsensitive ? text.equalsIgnoreCase(literal) : text.equals(literal);
+            case PREFIX:
+                return caseInsensitive ? text.regionMatches(true, 0, literal, 0, literal.length()) : text.startsWith(literal);
+            case SUFFIX:
+                return caseInsensitive
+                    ? text.regionMatches(true, text.length() - literal.length(), literal, 0, literal.length())
+                    : text.endsWith(literal);
+            case CONTAINS:
+                if (!caseInsensitive) { return text.contains(literal); }
+                for (int i = 0; i <= text.length() - literal.length(); i++) {
+                    if (text.regionMatches(true, i, literal, 0, literal.length())) { return true; }
+                }
+                return false;
+            case ANY:
+                return true;
+            case WILDCARD:
+                return matchesWildcard(text);
+            default:
+                throw new IllegalStateException("Unknown pattern type " + type);
+        }
+    }
+
+    /** Match text against a pattern containing multiple segments or '_' wildcards.
+     *
+     * <p>Each '%' can absorb any text, so it's sufficient to match the first segment at the
+     * start of the text (if the pattern is anchored there), the last segment at the end of the
+     * text (if anchored there), and each remaining segment at the earliest possible position
+     * after the previous one.
+     */
+    private boolean matchesWildcard(String text)
+    {
+        int first = 0;
+        int last = segments.length;
+        int pos = 0;
+        int end = text.length();
+
+        if (anchoredStart && anchoredEnd && last == 1) {
+            return end == segments[0].length() && segmentMatches(text, 0, segments[0]);
+        }
+        if (anchoredStart) {
+            String segment = segments[0];
+            if (segment.length() > end || !segmentMatches(text, 0, segment)) { return false; }
+            pos = segment.length();
+            first = 1;
+        }
+        if (anchoredEnd) {
+            String segment = segments[last - 1];
+            int start = end - segment.length();
+            if (start < pos || !segmentMatches(text, start, segment)) { return false; }
+            end = start;
+            last--;
+        }
+        for (int i = first; i < last; i++) {
+            String segment = segments[i];
+            int found = -1;
+            for (int j = pos; j <= end - segment.length(); j++) {
+                if (segmentMatches(text, j, segment)) { found = j; break; }
+            }
+            if (found == -1) { return false; }
+            pos = found + segment.length();
+        }
+        return true;
+    }
+
+    /** Returns true if the segment matches the text at the supplied offset. The caller
+     * must ensure that the text contains at least segment.length() characters after offset. */
+    private boolean segmentMatches(String text, int offset, String segment)
+    {
+        for (int i = 0; i < segment.length(); i++) {
+            char p = segment.charAt(i);
+            if (p == '_') { continue; }
+            char c = text.charAt(offset + i);
+            if (c == p) { continue; }
+            if (caseInsensitive) {
+                // same comparison as String.regionMatches(true, ...)
+                char uc = Character.toUpperCase(c);
+                char up = Character.toUpperCase(p);
+                if (uc == up || Character.toLowerCase(uc) == Character.toLowerCase(up)) { continue; }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns the pattern this object was compiled from */
+    public String toString()
+    {
+        return pattern;
+    }
+}
@@ -15,11 +15,38 @@ import com.randomnoun.common.jexl.sql.SqlColumn;
  *
  * Returns true if the first value starts with the second value.
  *
+ * <p>If the function is created with caseInsensitive set, then the values are compared
+ * case-insensitively.
+ *
  * <p>The result of the function is of type Boolean.
  */
 public class StartsWithFunction
     implements EvalFunction
 {
+    /** If true, matches are case-insensitive */
+    private boolean caseInsensitive;
+
+    /** Create a case-sensitive startsWith() function */
+    public StartsWithFunction()
+    {
+        this(false);
+    }
+
+    /** Create a startsWith() function
+     *
+     * @param caseInsensitive if true, the text will be compared case-insensitively
+     */
+    public StartsWithFunction(boolean caseInsensitive)
+    {
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    /** Returns true if this function performs case-insensitive matches */
+    public boolean isCaseInsensitive()
+    {
+        return caseInsensitive;
+    }
+
     /** Implements the function as per the class description. */
     public Object evaluate(String functionName, EvalContext context, List<Object> arguments)
         throws EvalException
@@ -45,6 +72,9 @@ public class StartsWithFunction
             throw new EvalException(functionName + "() second parameter cannot be null");
         }
 
+        if (caseInsensitive) {
+            return Boolean.valueOf(arg0.regionMatches(true, 0, arg1, 0, arg1.length()));
+        }
         return Boolean.valueOf(arg0.startsWith(arg1));
     }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+package com.randomnoun.common.jexl.sql;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import com.randomnoun.common.jexl.ast.Node;
+import com.randomnoun.common.jexl.eval.EvalContext;
+import com.randomnoun.common.jexl.eval.EvalException;
+import com.randomnoun.common.jexl.eval.Evaluator;
+
+
+/**
+ * A criteria expression, partitioned by the {@link CriteriaPlanner} into SQL
+ * and an in-memory residual filter.
+ *
+ * <p>The residual filter is evaluated against rows returned by the database. Variables
+ * in the residual expression are resolved as follows:
+ * <ul>
+ *   <li>SqlColumn variables are read from the row, using the column name
+ *   <li>PositionalParameter variables are read from the parameter values supplied to
+ *     {@link #getResidualFilter(Map)}
+ *   <li>other context variables are used as-is
+ *   <li>names which do not exist in the context are read from the row
+ * </ul>
+ *
+ * <p>Instances of this class are immutable and thread-safe; the filters returned by
+ * getResidualFilter() are not thread-safe.
+ *
+ *
+ * @author knoxg
+ */
+public class CriteriaPlan
+{
+    /** The conjuncts translated into SQL, or null if no conjuncts could be translated */
+    private PreparedCriteria sqlCriteria;
+
+    /** The conjuncts to be evaluated in memory */
+    private List<Node> residual;
+
+    /** The context used to create this plan */
+    private EvalContext context;
+
+    /** Create a new CriteriaPlan
+     *
+     * @param sqlCriteria the conjuncts translated into SQL, or null if no conjuncts could be translated
+     * @param residual the conjuncts to be evaluated in memory
+     * @param context the context used to create this plan
+     */
+    CriteriaPlan(PreparedCriteria sqlCriteria, List<Node> residual, EvalContext context)
+    {
+        this.sqlCriteria = sqlCriteria;
+        this.residual = Collections.unmodifiableList(new ArrayList<Node>(residual));
+        this.context = context;
+    }
+
+    /** Returns the SQL for the conjuncts which can be evaluated by the database,
+     * or null if there are no such conjuncts */
+    public PreparedCriteria getSqlCriteria()
+    {
+        return sqlCriteria;
+    }
+
+    /** Returns the conjuncts which must be evaluated in memory (EqualityExpression or Expression nodes) */
+    public List<Node> getResidualConjuncts()
+    {
+        return residual;
+    }
+
+    /** Returns true if some conjuncts must be evaluated in memory */
+    public boolean hasResidual()
+    {
+        return !residual.isEmpty();
+    }
+
+    /** Returns a filter which evaluates the residual conjuncts against a row returned by the database.
+     * If there is no residual, the filter accepts every row.
+     *
+     * <p>The returned filter reuses a single EvalContext for each row, and is therefore not thread-safe.
+     *
+     * @param parameterValues the values of any positional parameters referenced in the residual conjuncts,
+     *   keyed by positional parameter name. May be null if there are no positional parameters.
+     *
+     * @return a filter over database rows
+     *
+     * @throws EvalException (from the filter) if a conjunct cannot be evaluated, or does not evaluate to a Boolean
+     */
+    public Predicate<Map<String, Object>> getResidualFilter(Map<String, ?> parameterValues)
+    {
+        if (residual.isEmpty()) {
+            return row -> true;
+        }
+        final RowVariables variables = new RowVariables(context.getVariables(),
+            parameterValues == null ? Collections.<String, Object>emptyMap() : parameterValues);
+        final EvalContext rowContext = new EvalContext();
+        rowContext.setVariables(variables);
+        rowContext.setFunctions(context.getFunctions());
+        final Evaluator evaluator = new Evaluator();
+
+        return row -> {
+            variables.row = row;
+            for (Node conjunct : residual) {
+                Object result = conjunct.accept(evaluator, rowContext);
+                if (!(result instanceof Boolean)) {
+                    throw new EvalException("Expression must evaluate to a boolean (found " +
+                      (result == null ? "null" : result.getClass().getName()) + ")");
+                }
+                if (!((Boolean) result).booleanValue()) { return false; }
+            }
+            return true;
+        };
+    }
+
+    /** Returns a string representation of this plan, for debugging */
+    public String toString()
+    {
+        return "sql=" + (sqlCriteria == null ? "(none)" : sqlCriteria.getSql()) +
+          ", residual conjuncts=" + residual.size();
+    }
+
+    /** A read-only variable map which resolves SqlColumns and PositionalParameters
+     * in the planning context to values in the current row */
+    private static class RowVariables extends AbstractMap<String, Object>
+    {
+        Map<String, Object> contextVariables;
+        Map<String, ?> parameterValues;
+        Map<String, Object> row;
+
+        RowVariables(Map<String, Object> contextVariables, Map<String, ?> parameterValues)
+        {
+            this.contextVariables = contextVariables;
+            this.parameterValues = parameterValues;
+        }
+
+        public boolean containsKey(Object key)
+        {
+            return contextVariables.containsKey(key) || row.containsKey(key);
+        }
+
+        public Object get(Object key)
+        {
+            if (!contextVariables.containsKey(key)) {
+                return row.get(key);
+            }
+            Object value = contextVariables.get(key);
+            if (value instanceof SqlColumn) {
+                return row.get(((SqlColumn) value).getName());
+            } else if (value instanceof PositionalParameter) {
+                String name = ((PositionalParameter) value).getName();
+                if (!parameterValues.containsKey(name)) {
+                    throw new EvalException("Missing value for positional parameter '" + name + "'");
+                }
+                return parameterValues.get(name);
+            }
+            return value;
+        }
+
+        public Set<Map.Entry<String, Object>> entrySet()
+        {
+            throw new UnsupportedOperationException("Row variables cannot be enumerated");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.randomnoun.common.jexl.sql;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.*;
+
+import org.apache.log4j.Logger;
+
+import com.randomnoun.common.jexl.ast.*;
+import com.randomnoun.common.jexl.eval.EvalContext;
+import com.randomnoun.common.jexl.eval.EvalException;
+
+
+/**
+ * Splits a criteria expression into a part that can be evaluated by the database,
+ * and a part that must be evaluated in memory.
+ *
+ * <p>The expression is split into its top-level conjuncts (the terms joined by <code>&amp;&amp;</code>,
+ * including those inside parentheses); each conjunct is translated into SQL using the
+ * {@link SqlGenerator} if possible. Conjuncts that cannot be translated (e.g. those that
+ * use functions that don't implement {@link SqlFunction}, or that reference variables
+ * which are not SqlColumns or translation-time variables) are retained as a residual filter,
+ * which is applied to each row returned by the database.
+ *
+ * <pre style="code">
+ *   EvalContext context = new EvalContext();
+ *   context.setVariable(SqlGenerator.VAR_DATABASE_TYPE, SqlGenerator.DATABASE_MYSQL);
+ *   context.setVariable("amount", new SqlColumn("amount", SqlColumn.NUMERIC));
+ *   context.setVariable("name", new SqlColumn("name"));
+ *   context.setFunction("customFn", new CustomFunction()); // an EvalFunction only
+ *
+ *   CriteriaPlan plan = new CriteriaPlanner().plan(expr, context);
+ *   List rows = jt.queryForList("SELECT * FROM table WHERE " + plan.getSqlCriteria().getSql());
+ *   rows.removeIf(plan.getResidualFilter(null).negate());
+ * </pre>
+ *
+ * <p>If the expression contains a top-level <code>||</code> operator, the expression is either
+ * translated into SQL as a whole, or evaluated in memory as a whole.
+ *
+ * <p>This class is thread-safe.
+ *
+ *
+ * @author knoxg
+ */
+public class CriteriaPlanner
+{
+    /** Logger instance for this class */
+    Logger logger = Logger.getLogger(CriteriaPlanner.class);
+
+    /** Partition an expression into SQL and in-memory conjuncts.
+     *
+     * @param expression the expression to partition
+     * @param context the context containing the database type, columns, variables,
+     *   positional parameters and functions used by the expression. See {@link SqlGenerator}.
+     *   This context is also used when evaluating the residual filter.
+     *
+     * @return the partitioned expression
+     */
+    public CriteriaPlan plan(TopLevelExpression expression, EvalContext context)
+    {
+        List<Node> conjuncts = new ArrayList<Node>();
+        addConjuncts(expression.expression, conjuncts);
+
+        EvalContext sqlContext = new EvalContext();
+        sqlContext.setVariables(new HashMap<String, Object>(context.getVariables()));
+        sqlContext.setFunctions(context.getFunctions());
+        SqlGenerator generator = new SqlGenerator();
+
+        String sql = null;
+        List<Node> residual = new ArrayList<Node>();
+        for (Node conjunct : conjuncts) {
+            Object result;
+            try {
+                result = conjunct.accept(generator, sqlContext);
+            } catch (RuntimeException re) {
+                // EvalExceptions for unsupported constructs, but also ClassCastExceptions etc
+                // from EvalFunctions that are passed SqlColumns at translation time
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Conjunct will be evaluated in memory: " + re.getMessage());
+                }
+                result = null;
+            }
+            if (result instanceof SqlText) {
+                sql = (sql == null) ? result.toString() : "(" + sql + " AND " + result + ")";
+            } else {
+                residual.add(conjunct);
+            }
+        }
+
+        PreparedCriteria sqlCriteria = null;
+        if (sql != null) {
+            List<String> parameterNames = new ArrayList<String>();
+            sql = SqlGenerator.replacePositionalParameters(sql, parameterNames);
+            sqlCriteria = PreparedCriteria.create(sql, parameterNames, context);
+        }
+        return new CriteriaPlan(sqlCriteria, residual, context);
+    }
+
+    /** Add the conjuncts in an Expression to a list.
+     *
+     * <PRE>
+     * conditionalAndExpression -> ConditionalAndExpression()
+     * nodeListOptional -> ( "||" ConditionalAndExpression() )*
+     * </PRE>
+     */
+    private void addConjuncts(Expression n, List<Node> conjuncts)
+    {
+        if (n.nodeListOptional.size() != 0) {
+            // a disjunction can't be split
+            conjuncts.add(n);
+            return;
+        }
+
+        ConditionalAndExpression cae = n.conditionalAndExpression;
+        addConjunct(cae.equalityExpression, conjuncts);
+        for (Enumeration<Node> e = cae.nodeListOptional.elements(); e.hasMoreElements();) {
+            NodeSequence seq = (NodeSequence) e.nextElement();
+            addConjunct((EqualityExpression) seq.elementAt(1), conjuncts);
+        }
+    }
+
+    /** Add an EqualityExpression to a list of conjuncts; if the EqualityExpression is a
+     * parenthesised expression, then add the conjuncts within the parentheses instead. */
+    private void addConjunct(EqualityExpression n, List<Node> conjuncts)
+    {
+        Expression inner = getParenthesisedExpression(n);
+        if (inner != null) {
+            addConjuncts(inner, conjuncts);
+        } else {
+            conjuncts.add(n);
+        }
+    }
+
+    /** If the EqualityExpression consists solely of a parenthesised expression, returns that expression,
+     * otherwise returns null */
+    private Expression getParenthesisedExpression(EqualityExpression n)
+    {
+        if (n.nodeListOptional.size() != 0) { return null; }
+        RelationalExpression re = n.relationalExpression;
+        if (re.nodeListOptional.size() != 0) { return null; }
+        AdditiveExpression ae = re.additiveExpression;
+        if (ae.nodeListOptional.size() != 0) { return null; }
+        MultiplicativeExpression me = ae.multiplicativeExpression;
+        if (me.nodeListOptional.size() != 0) { return null; }
+        UnaryExpression ue = me.unaryExpression;
+        if (ue.nodeChoice.which != 1) { return null; }
+        PrimaryExpression pe = (PrimaryExpression) ue.nodeChoice.choice;
+        if (pe.nodeChoice.which != 3) { return null; }
+        return (Expression) ((NodeSequence) pe.nodeChoice.choice).elementAt(1);
+    }
+
+}
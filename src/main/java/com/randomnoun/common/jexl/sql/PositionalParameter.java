@@ -4,13 +4,15 @@ package com.randomnoun.common.jexl.sql;
  * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
  */
 
+import java.sql.Types;
+
 
 /**
  * An object representing a variable that can be passed in as a positional parameter.
  *
  * <p>See SqlGenerator for a description of how this class is intended to be used.
  *
- * 
+ *
  * @author knoxg
  */
 public class PositionalParameter
@@ -18,6 +20,10 @@ public class PositionalParameter
     /** The name of this positional parameter. */
     private String name;
 
+    /** The java.sql.Types type of this parameter, used when binding null values;
+     * Types.OTHER if unknown */
+    private int sqlType = Types.OTHER;
+
     /** Create a new Positional Parameter
      *
      * @param name A name for this positional parameter, which is returned
@@ -28,9 +34,44 @@ public class PositionalParameter
         this.name = name;
     }
 
+    /** Create a new Positional Parameter with a known SQL type
+     *
+     * @param name A name for this positional parameter, which is returned
+     *   in the VAR_PARAMETERS list when the parameter is referenced in generated SQL.
+     * @param sqlType the java.sql.Types type of this parameter; used by
+     *   {@link PreparedCriteria} when binding null values
+     */
+    public PositionalParameter(String name, int sqlType)
+    {
+        this.name = name;
+        this.sqlType = sqlType;
+    }
+
     /** Retrieves the name of this positional parameter */
     public String getName()
     {
         return name;
     }
+
+    /** Retrieves the java.sql.Types type of this positional parameter (Types.OTHER if not known) */
+    public int getSqlType()
+    {
+        return sqlType;
+    }
+
+    /** Two PositionalParameters are equal if they have the same name and type */
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof PositionalParameter)) {
+            return false;
+        }
+        PositionalParameter other = (PositionalParameter) obj;
+        return sqlType == other.sqlType && (name == null ? other.name == null : name.equals(other.name));
+    }
+
+    /** Returns a hashCode consistent with {@link #equals(Object)} */
+    public int hashCode()
+    {
+        return (name == null ? 0 : name.hashCode()) * 31 + sqlType;
+    }
 }
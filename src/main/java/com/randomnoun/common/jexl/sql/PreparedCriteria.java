@@ -0,0 +1,223 @@
+package com.randomnoun.common.jexl.sql;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.*;
+
+import com.randomnoun.common.jexl.ast.TopLevelExpression;
+import com.randomnoun.common.jexl.eval.EvalContext;
+import com.randomnoun.common.jexl.eval.EvalException;
+
+
+/**
+ * The SQL generated for a TopLevelExpression, along with the positional parameters
+ * that need to be bound to it when it is executed.
+ *
+ * <p>A PreparedCriteria is generated once (using the {@link SqlGenerator}), and can then be
+ * executed any number of times with different parameter values, without walking the
+ * expression AST again. Since the SQL text is identical for each execution, all
+ * executions share the same entry in the JDBC driver's statement cache.
+ *
+ * <pre style="code">
+ *   EvalContext context = new EvalContext();
+ *   context.setVariable(SqlGenerator.VAR_DATABASE_TYPE, SqlGenerator.DATABASE_MYSQL);
+ *   context.setVariable("externalMessageType", new SqlColumn("externalMessageType"));
+ *   context.setVariable("messageVar", new PositionalParameter("messageVar", Types.VARCHAR));
+ *   PreparedCriteria criteria = PreparedCriteria.prepare(expr, context);
+ *
+ *   PreparedStatement ps = conn.prepareStatement("SELECT * FROM message WHERE " + criteria.getSql());
+ *   criteria.bind(ps, Collections.singletonMap("messageVar", "MT500"));
+ * </pre>
+ *
+ * <p>See {@link PreparedCriteriaCache} to cache PreparedCriteria objects across requests.
+ *
+ * <p>Instances of this class are immutable and thread-safe.
+ *
+ *
+ * @author knoxg
+ */
+public class PreparedCriteria
+{
+    /** The generated SQL, containing '?' placeholders */
+    private String sql;
+
+    /** The name of the positional parameter for each '?' placeholder in the SQL */
+    private List<String> parameterNames;
+
+    /** The java.sql.Types type of each '?' placeholder in the SQL (Types.OTHER if unknown) */
+    private int[] parameterTypes;
+
+    /** Create a new PreparedCriteria object. Use {@link #prepare(TopLevelExpression, EvalContext)}
+     * to create a PreparedCriteria from an expression.
+     *
+     * @param sql the generated SQL
+     * @param parameterNames the name of the positional parameter for each '?' placeholder in the SQL
+     * @param parameterTypes the java.sql.Types type of each positional parameter
+     */
+    public PreparedCriteria(String sql, List<String> parameterNames, int[] parameterTypes)
+    {
+        if (parameterNames.size() != parameterTypes.length) {
+            throw new IllegalArgumentException("parameterNames and parameterTypes must be the same length");
+        }
+        this.sql = sql;
+        this.parameterNames = Collections.unmodifiableList(new ArrayList<String>(parameterNames));
+        this.parameterTypes = parameterTypes.clone();
+    }
+
+    /** Generate the SQL for an expression.
+     *
+     * <p>The supplied context is not modified (the VAR_PARAMETERS variable is not set).
+     *
+     * @param expression the expression to convert into SQL
+     * @param context the context containing the database type, columns, variables,
+     *   positional parameters and functions used by the expression. See {@link SqlGenerator}.
+     *
+     * @return the SQL and parameter binding plan for this expression
+     *
+     * @throws EvalException if the expression could not be converted into SQL
+     */
+    @SuppressWarnings("unchecked")
+    public static PreparedCriteria prepare(TopLevelExpression expression, EvalContext context)
+    {
+        EvalContext sqlContext = new EvalContext();
+        sqlContext.setVariables(new HashMap<String, Object>(context.getVariables()));
+        sqlContext.setFunctions(context.getFunctions());
+
+        SqlGenerator generator = new SqlGenerator();
+        String sql = (String) generator.visit(expression, sqlContext);
+        List<String> parameterNames = (List<String>) sqlContext.getVariable(SqlGenerator.VAR_PARAMETERS);
+        if (parameterNames == null) { parameterNames = Collections.emptyList(); }
+        return create(sql, parameterNames, context);
+    }
+
+    /** Create a PreparedCriteria from generated SQL, using the PositionalParameters in the
+     * context to determine the type of each parameter.
+     *
+     * @param sql the generated SQL, containing '?' placeholders
+     * @param parameterNames the name of the positional parameter for each '?' placeholder in the SQL
+     * @param context the context used to generate the SQL
+     *
+     * @return the SQL and parameter binding plan
+     */
+    static PreparedCriteria create(String sql, List<String> parameterNames, EvalContext context)
+    {
+        // positional parameter names may differ from the variable names they're bound to
+        Map<String, Integer> types = new HashMap<String, Integer>();
+        for (Object value : context.getVariables().values()) {
+            if (value instanceof PositionalParameter) {
+                PositionalParameter pp = (PositionalParameter) value;
+                types.put(pp.getName(), Integer.valueOf(pp.getSqlType()));
+            }
+        }
+        int[] parameterTypes = new int[parameterNames.size()];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Integer type = types.get(parameterNames.get(i));
+            parameterTypes[i] = (type == null ? Types.OTHER : type.intValue());
+        }
+        return new PreparedCriteria(sql, parameterNames, parameterTypes);
+    }
+
+    /** Returns the generated SQL, containing a '?' placeholder for each positional parameter */
+    public String getSql()
+    {
+        return sql;
+    }
+
+    /** Returns the name of the positional parameter for each '?' placeholder in the SQL.
+     * The same name may appear more than once in this list. */
+    public List<String> getParameterNames()
+    {
+        return parameterNames;
+    }
+
+    /** Returns the positional parameter values in the order they appear in the SQL; suitable for
+     * passing to a JdbcTemplate.
+     *
+     * @param values a map of positional parameter names to values
+     *
+     * @return an array of positional parameter values
+     *
+     * @throws IllegalArgumentException if values does not contain a value for a positional parameter
+     */
+    public Object[] getArguments(Map<String, ?> values)
+    {
+        Object[] args = new Object[parameterNames.size()];
+        for (int i = 0; i < args.length; i++) {
+            String name = parameterNames.get(i);
+            if (!values.containsKey(name)) {
+                throw new IllegalArgumentException("Missing value for positional parameter '" + name + "'");
+            }
+            args[i] = values.get(name);
+        }
+        return args;
+    }
+
+    /** Returns the java.sql.Types type of each positional parameter, in the order they appear in the SQL;
+     * suitable for passing to a JdbcTemplate. */
+    public int[] getArgumentTypes()
+    {
+        return parameterTypes.clone();
+    }
+
+    /** Bind positional parameter values into a PreparedStatement, where the SQL generated
+     * by this object starts at the first placeholder in the statement.
+     *
+     * @param ps the statement to bind parameters into
+     * @param values a map of positional parameter names to values
+     *
+     * @throws SQLException if the parameters could not be bound
+     * @throws IllegalArgumentException if values does not contain a value for a positional parameter
+     */
+    public void bind(PreparedStatement ps, Map<String, ?> values)
+        throws SQLException
+    {
+        bind(ps, 1, values);
+    }
+
+    /** Bind positional parameter values into a PreparedStatement, where the SQL generated
+     * by this object is preceded by other placeholders in the statement.
+     *
+     * @param ps the statement to bind parameters into
+     * @param startIndex the JDBC (1-based) index of the first placeholder in the SQL generated by this object
+     * @param values a map of positional parameter names to values
+     *
+     * @return the index of the next placeholder in the statement after the SQL generated by this object
+     *
+     * @throws SQLException if the parameters could not be bound
+     * @throws IllegalArgumentException if values does not contain a value for a positional parameter
+     */
+    public int bind(PreparedStatement ps, int startIndex, Map<String, ?> values)
+        throws SQLException
+    {
+        Object[] args = getArguments(values);
+        int index = startIndex;
+        for (int i = 0; i < args.length; i++) {
+            Object value = args[i];
+            int type = parameterTypes[i];
+            if (value == null) {
+                ps.setNull(index, type == Types.OTHER ? Types.NULL : type);
+            } else if (value instanceof java.util.Date &&
+              !(value instanceof java.sql.Date || value instanceof java.sql.Time || value instanceof Timestamp)) {
+                ps.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime()));
+            } else if (type == Types.OTHER) {
+                ps.setObject(index, value);
+            } else {
+                ps.setObject(index, value, type);
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /** Returns a string representation of this object, for debugging */
+    public String toString()
+    {
+        return sql + " " + parameterNames;
+    }
+}
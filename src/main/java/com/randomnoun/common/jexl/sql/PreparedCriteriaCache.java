@@ -0,0 +1,159 @@
+package com.randomnoun.common.jexl.sql;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.*;
+
+import org.apache.log4j.Logger;
+
+import com.randomnoun.common.MRUCache;
+import com.randomnoun.common.jexl.ExpressionUtil;
+import com.randomnoun.common.jexl.ast.TopLevelExpression;
+import com.randomnoun.common.jexl.eval.EvalContext;
+import com.randomnoun.common.jexl.eval.EvalException;
+
+
+/**
+ * A cache of {@link PreparedCriteria} objects, keyed by expression text and the
+ * variables used to generate the SQL (database type, SqlColumns, PositionalParameters and
+ * any translation-time variables).
+ *
+ * <p>Since translation-time variables form part of the cache key, criteria
+ * which will be executed repeatedly with different values should supply those values as
+ * PositionalParameters, so that a single cache entry (and a single SQL string) is used for every execution.
+ *
+ * <p>Functions are not part of the cache key, so each cache should only be used
+ * with a single set of functions, and any EvalFunctions evaluated at translation time should return
+ * the same value every time they're called with the same arguments.
+ *
+ * <p>This class is thread-safe.
+ *
+ *
+ * @author knoxg
+ */
+public class PreparedCriteriaCache
+{
+    /** Logger instance for this class */
+    Logger logger = Logger.getLogger(PreparedCriteriaCache.class);
+
+    /** The cache of PreparedCriteria objects. Replaced rather than cleared, since
+     * MRUCache.clear() does not reset its MRU list and update times */
+    private volatile MRUCache<Key, PreparedCriteria> cache;
+
+    /** The maximum number of entries in the cache */
+    private int cacheSize;
+
+    /** The amount of time (in ms) an entry can remain in the cache */
+    private int expiryTime;
+
+    /** Cache key. Contains the expression text and a snapshot of the variables in the EvalContext.  */
+    private static class Key
+    {
+        String expression;
+        Map<String, Object> variables;
+
+        Key(String expression, EvalContext context)
+        {
+            this.expression = expression;
+            this.variables = new HashMap<String, Object>(context.getVariables());
+            // set by previous SqlGenerator invocations; doesn't affect the generated SQL
+            this.variables.remove(SqlGenerator.VAR_PARAMETERS);
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) { return false; }
+            Key other = (Key) obj;
+            return expression.equals(other.expression) && variables.equals(other.variables);
+        }
+
+        public int hashCode()
+        {
+            return expression.hashCode() * 31 + variables.hashCode();
+        }
+
+        public String toString()
+        {
+            return expression;
+        }
+    }
+
+    /** Create a new cache
+     *
+     * @param cacheSize the maximum number of PreparedCriteria objects held in the cache.
+     *   A value &lt;= 0 means that the size of this cache is not limited.
+     * @param expiryTime the amount of time (in ms) a PreparedCriteria can remain in the cache.
+     *   A value &lt;= 0 means that entries do not expire.
+     */
+    public PreparedCriteriaCache(int cacheSize, int expiryTime)
+    {
+        this.cacheSize = cacheSize;
+        this.expiryTime = expiryTime;
+        cache = new MRUCache<Key, PreparedCriteria>(cacheSize, expiryTime, null);
+    }
+
+    /** Retrieves the PreparedCriteria for an expression, generating and caching it if necessary.
+     *
+     * @param expression the expression text
+     * @param context the context containing the database type, columns, variables,
+     *   positional parameters and functions used by the expression. See {@link SqlGenerator}.
+     *
+     * @return the SQL and parameter binding plan for this expression
+     *
+     * @throws java.text.ParseException if the expression could not be parsed
+     * @throws EvalException if the expression could not be converted into SQL
+     */
+    public PreparedCriteria get(String expression, EvalContext context)
+        throws java.text.ParseException
+    {
+        Key key = new Key(expression, context);
+        MRUCache<Key, PreparedCriteria> cache = this.cache;
+        PreparedCriteria criteria = (PreparedCriteria) cache.getNoCallback(key);
+        if (criteria == null) {
+            TopLevelExpression expr = new ExpressionUtil().stringToExpression(expression);
+            PreparedCriteria prepared = PreparedCriteria.prepare(expr, context);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Prepared criteria '" + expression + "' as '" + prepared.getSql() + "'");
+            }
+            criteria = cache.get(key, k -> prepared);
+        }
+        return criteria;
+    }
+
+    /** Retrieves the PreparedCriteria for a previously-parsed expression, generating and caching it if necessary.
+     *
+     * @param expression the expression
+     * @param context the context containing the database type, columns, variables,
+     *   positional parameters and functions used by the expression. See {@link SqlGenerator}.
+     *
+     * @return the SQL and parameter binding plan for this expression
+     *
+     * @throws EvalException if the expression could not be converted into SQL
+     */
+    public PreparedCriteria get(TopLevelExpression expression, EvalContext context)
+    {
+        Key key = new Key(new ExpressionUtil().expressionToString(expression), context);
+        MRUCache<Key, PreparedCriteria> cache = this.cache;
+        PreparedCriteria criteria = (PreparedCriteria) cache.getNoCallback(key);
+        if (criteria == null) {
+            // prepared outside of the cache lock
+            PreparedCriteria prepared = PreparedCriteria.prepare(expression, context);
+            criteria = cache.get(key, k -> prepared);
+        }
+        return criteria;
+    }
+
+    /** Removes all entries from the cache */
+    public void clear()
+    {
+        cache = new MRUCache<Key, PreparedCriteria>(cacheSize, expiryTime, null);
+    }
+
+    /** Returns the number of entries in the cache */
+    public int size()
+    {
+        return cache.size();
+    }
+}
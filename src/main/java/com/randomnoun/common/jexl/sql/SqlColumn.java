@@ -5,6 +5,7 @@ package com.randomnoun.common.jexl.sql;
  */
 
 import java.sql.Types;
+import java.util.Objects;
 
 
 /**
@@ -199,4 +200,34 @@ public class SqlColumn
     {
         return getFullName();
     }
+
+    /** Two SqlColumns are equal if they refer to the same column, table, currency column and data type
+     * (and will therefore generate the same SQL).
+     *
+     * @param obj the object to compare with
+     *
+     * @return true if obj is an SqlColumn with the same definition as this one
+     */
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof SqlColumn))
+        {
+            return false;
+        }
+        SqlColumn other = (SqlColumn) obj;
+        return dataType == other.dataType &&
+          Objects.equals(name, other.name) &&
+          Objects.equals(table, other.table) &&
+          Objects.equals(currencyCodeName, other.currencyCodeName);
+    }
+
+    /** Returns a hashCode consistent with {@link #equals(Object)} */
+    public int hashCode()
+    {
+        return Objects.hash(name, table, currencyCodeName, dataType);
+    }
 }
@@ -100,6 +100,9 @@ import com.randomnoun.common.jexl.eval.*;
  * iterate over this list to create the actual parameters to pass into JDBC when running
  * the query.
  *
+ * <p>The {@link PreparedCriteria} class performs this bookkeeping, and can be cached
+ * (see {@link PreparedCriteriaCache}) so that the SQL is only generated once for each expression.
+ *
  * <h3>Static dates</h3>
  * If a date is inserted into an SQL query, we need to know which database we're running
  * on, since each vendor seems to have their own way of representing fixed dates. This is
@@ -491,6 +494,23 @@ public class SqlGenerator
         return string;
     }
 
+    /**
+     * Wraps an SQL expression in the function used to convert text to lower case in the
+     * current database. Used to generate case-insensitive comparisons.
+     *
+     * @param evalContext The evaluation context (containing the database type)
+     * @param sql The SQL expression to convert to lower case
+     *
+     * @return The lower-cased SQL expression
+     */
+    public static String toLowerCaseSql(EvalContext evalContext, String sql) {
+        String databaseType = getDatabaseType(evalContext);
+        if (databaseType.equals(DATABASE_JET)) {
+            return "LCASE(" + sql + ")";
+        }
+        return "LOWER(" + sql + ")";
+    }
+
     /**
      * Escape the text used in a LIKE function, so that % and _ characters have no
      * special meaning. Note that an escaped like literal still needs to be passed
@@ -532,6 +552,43 @@ public class SqlGenerator
         return string;
     }
 
+    /** Replaces the positional parameter markers in SQL generated by this class with
+     * '?' placeholders. This is performed by {@link #visit(TopLevelExpression, EvalContext)}, but
+     * needs to be called explicitly if SQL is generated for nodes further down the AST.
+     *
+     * @param sql the generated SQL, containing positional parameter markers
+     * @param paramList a list to which the name of each positional parameter is added,
+     *   in the order in which they appear in the SQL
+     *
+     * @return the SQL, with each positional parameter marker replaced with '?'
+     */
+    public static String replacePositionalParameters(String sql, List<String> paramList) {
+        // replace {positionalNames} with '?' markers and remember what we've hit so far ...
+        int pos = sql.indexOf(POS_MARKER_LEFT);
+        if (pos == -1) {
+            return sql;
+        }
+        StringBuilder sb = new StringBuilder(sql.length());
+        int start = 0;
+        int pos2;
+
+        while (pos != -1) {
+            pos2 = sql.indexOf(POS_MARKER_RIGHT, pos + POS_MARKER_LEFT.length());
+
+            if (pos2 == -1) {
+                throw new EvalException("Internal error (unclosed positional parameter)");
+            }
+
+            paramList.add(sql.substring(pos + POS_MARKER_LEFT.length(), pos2));
+            sb.append(sql, start, pos).append('?');
+            start = pos2 + POS_MARKER_RIGHT.length();
+            pos = sql.indexOf(POS_MARKER_LEFT, start);
+        }
+        sb.append(sql, start, sql.length());
+
+        return sb.toString();
+    }
+
     /** Convert a TopLevelExpression node to it's SQL representation. The SQL is returned
      * as a String. If any positional parameters have been referenced inside the SQL,
      * then the context variable VAR_PARAMETERS is set, containing an ordered list of Strings,
@@ -563,23 +620,8 @@ public class SqlGenerator
     public Object visit(TopLevelExpression n, EvalContext context) {
         EvalContext evalContext = (EvalContext) context;
         String sql = n.expression.accept(this, context).toString();
-
-        // replace {positionalNames} with '?' markers and remember what we've hit so far ... 
-        int pos = sql.indexOf(POS_MARKER_LEFT);
-        int pos2;
         List<String> paramList = new ArrayList<>();
-
-        while (pos != -1) {
-            pos2 = sql.indexOf(POS_MARKER_RIGHT, pos + POS_MARKER_LEFT.length());
-
-            if (pos2 == -1) {
-                throw new EvalException("Internal error (unclosed positional parameter)");
-            }
-
-            paramList.add(sql.substring(pos + POS_MARKER_LEFT.length(), pos2));
-            sql = sql.substring(0, pos) + "?" + sql.substring(pos2 + POS_MARKER_RIGHT.length());
-            pos = sql.indexOf(POS_MARKER_LEFT);
-        }
+        sql = replacePositionalParameters(sql, paramList);
 
         if (paramList.size() > 0) {
             evalContext.setVariable(VAR_PARAMETERS, paramList);
@@ -17,6 +17,20 @@ import com.randomnoun.common.jexl.sql.SqlText;
  *  argument) ends with the text in the second argument.
  */
 public class EndsWithFunction extends com.randomnoun.common.jexl.eval.function.EndsWithFunction  implements SqlFunction {
+	/** Create a case-sensitive endsWith() function */
+	public EndsWithFunction() {
+		super();
+	}
+
+	/** Create an endsWith() function. Case-insensitive matches are translated into
+	 * a comparison between the lower-cased column and the lower-cased text.
+	 *
+	 * @param caseInsensitive if true, the text will be compared case-insensitively
+	 */
+	public EndsWithFunction(boolean caseInsensitive) {
+		super(caseInsensitive);
+	}
+
 	/** @inheritdoc */
 	public String toSql(String functionName, EvalContext evalContext, List<Object> arguments) {
 		if (arguments.size() != 2) { throw new EvalException(functionName + "() must contain two parameters"); }
@@ -37,6 +51,9 @@ public class EndsWithFunction extends com.randomnoun.common.jexl.eval.function.E
 
 		if (arg0 == null) { throw new EvalException(functionName + "() first parameter cannot be null"); }
 		if (arg1 == null) { throw new EvalException(functionName + "() second parameter cannot be null"); }
+		if (isCaseInsensitive()) {
+			return "(" + SqlGenerator.toLowerCaseSql(evalContext, arg0.getFullName()) + " LIKE " + SqlGenerator.toSql(evalContext, likePattern.toLowerCase()) + ")";
+		}
 		return "(" + arg0.getFullName() + " LIKE " + SqlGenerator.toSql(evalContext, likePattern) + ")";
 	}
 }
\ No newline at end of file
@@ -18,6 +18,20 @@ import com.randomnoun.common.jexl.sql.SqlText;
  */
 public class LikeFunction extends com.randomnoun.common.jexl.eval.function.LikeFunction implements SqlFunction 
 {
+	/** Create a case-sensitive like() function */
+	public LikeFunction() {
+		super();
+	}
+
+	/** Create a like() function. Case-insensitive matches are translated into
+	 * a comparison between the lower-cased column and the lower-cased pattern.
+	 *
+	 * @param caseInsensitive if true, the pattern will match text case-insensitively
+	 */
+	public LikeFunction(boolean caseInsensitive) {
+		super(caseInsensitive);
+	}
+
 	/** @inheritdoc */
 	public String toSql(String functionName, EvalContext evalContext, List<Object> arguments) {
 		if (arguments.size() != 2) { throw new EvalException(functionName + "() must contain two parameters"); }
@@ -29,6 +43,12 @@ public class LikeFunction extends com.randomnoun.common.jexl.eval.function.LikeF
 		if (arg0 == null) { throw new EvalException(functionName + "() first parameter cannot be null"); }
 		if (arg1 == null) { throw new EvalException(functionName + "() second parameter cannot be null"); }
 
+		if (isCaseInsensitive()) {
+			String pattern = (arg1 instanceof String) 
+				? SqlGenerator.toSql(evalContext, ((String) arg1).toLowerCase()).toString()
+				: SqlGenerator.toLowerCaseSql(evalContext, SqlGenerator.toSql(evalContext, arg1).toString());
+			return "(" + SqlGenerator.toLowerCaseSql(evalContext, arg0.getFullName()) + " LIKE " + pattern + ")";
+		}
 		return "(" + arg0.getFullName() + " LIKE " + SqlGenerator.toSql(evalContext, arg1) + ")";
 	}
 }
\ No newline at end of file
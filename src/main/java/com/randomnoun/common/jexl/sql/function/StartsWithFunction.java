@@ -19,6 +19,20 @@ import com.randomnoun.common.jexl.sql.SqlText;
 public class StartsWithFunction
 	extends com.randomnoun.common.jexl.eval.function.StartsWithFunction
 	implements SqlFunction {
+	/** Create a case-sensitive startsWith() function */
+	public StartsWithFunction() {
+		super();
+	}
+
+	/** Create a startsWith() function. Case-insensitive matches are translated into
+	 * a comparison between the lower-cased column and the lower-cased text.
+	 *
+	 * @param caseInsensitive if true, the text will be compared case-insensitively
+	 */
+	public StartsWithFunction(boolean caseInsensitive) {
+		super(caseInsensitive);
+	}
+
 	/** @inheritdoc */
 	public String toSql(String functionName, EvalContext evalContext, List<Object> arguments) {
 		if (arguments.size() != 2) { throw new EvalException(functionName + "() must contain two parameters"); }
@@ -37,6 +51,9 @@ public class StartsWithFunction
 		Object arg1 = arguments.get(1);
 		if (arg0 == null) { throw new EvalException(functionName + "() first parameter cannot be null"); }
 		if (arg1 == null) { throw new EvalException(functionName + "() second parameter cannot be null"); }
+		if (isCaseInsensitive()) {
+			return "(" + SqlGenerator.toLowerCaseSql(evalContext, arg0.getFullName()) + " LIKE " + SqlGenerator.toSql(evalContext, likePattern.toLowerCase()) + ")";
+		}
 		return "(" + arg0.getFullName() + " LIKE " + SqlGenerator.toSql(evalContext, likePattern) + ")";
 	}
 }
\ No newline at end of file
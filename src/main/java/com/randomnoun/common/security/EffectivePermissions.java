@@ -0,0 +1,174 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The permissions granted to a user, either directly or through their roles,
+ * flattened into a single structure.
+ *
+ * <p>Permissions are identified by integer ids assigned by the {@link SecurityContext}.
+ * Grants without a ResourceCriteria are held in a bitset; grants with a ResourceCriteria
+ * are held in a sorted array, with the user's own criteria preceding the criteria of each
+ * of their roles (in role order).
+ *
+ * <p>Instances of this class are immutable and thread-safe, and are rebuilt
+ * by the SecurityContext whenever its caches are reset.
+ *
+ * @author knoxg
+ */
+public class EffectivePermissions {
+
+	/** An empty ResourceCriteria array */
+	private static final ResourceCriteria[] NO_CRITERIA = new ResourceCriteria[0];
+
+	/** Permission ids that have been granted to the user, with or without criteria */
+	private final BitSet granted;
+
+	/** Permission ids that have been granted to the user without criteria */
+	private final BitSet unconditional;
+
+	/** Sorted permission ids that have been granted to the user with criteria */
+	private final int[] criteriaIds;
+
+	/** The criteria for each id in criteriaIds */
+	private final ResourceCriteria[][] criteria;
+
+	/** Create a new EffectivePermissions object.
+	 *
+	 * @param unconditional permission ids granted without criteria
+	 * @param conditional a map of permission ids granted with criteria to the list of those criteria
+	 */
+	EffectivePermissions(BitSet unconditional, Map<Integer, List<ResourceCriteria>> conditional) {
+		this.unconditional = (BitSet) unconditional.clone();
+		this.granted = (BitSet) unconditional.clone();
+		Map<Integer, List<ResourceCriteria>> sorted = new TreeMap<Integer, List<ResourceCriteria>>(conditional);
+		this.criteriaIds = new int[sorted.size()];
+		this.criteria = new ResourceCriteria[sorted.size()][];
+		int idx = 0;
+		for (Map.Entry<Integer, List<ResourceCriteria>> entry : sorted.entrySet()) {
+			int id = entry.getKey().intValue();
+			criteriaIds[idx] = id;
+			criteria[idx] = entry.getValue().toArray(new ResourceCriteria[entry.getValue().size()]);
+			granted.set(id);
+			idx++;
+		}
+	}
+
+	/** Returns true if the permission has been granted, with or without criteria.
+	 *
+	 * @param permissionId the permission id
+	 *
+	 * @return true if the permission has been granted
+	 */
+	public boolean isGranted(int permissionId) {
+		return permissionId >= 0 && granted.get(permissionId);
+	}
+
+	/** Returns true if the permission has been granted without criteria.
+	 *
+	 * @param permissionId the permission id
+	 *
+	 * @return true if the permission has been granted without criteria
+	 */
+	public boolean isUnconditional(int permissionId) {
+		return permissionId >= 0 && unconditional.get(permissionId);
+	}
+
+	/** Returns the criteria attached to the grants of a permission, or an empty array if there
+	 * are none. The returned array must not be modified.
+	 *
+	 * @param permissionId the permission id
+	 *
+	 * @return the criteria for this permission
+	 */
+	ResourceCriteria[] getCriteria(int permissionId) {
+		int idx = Arrays.binarySearch(criteriaIds, permissionId);
+		return idx < 0 ? NO_CRITERIA : criteria[idx];
+	}
+
+	/** Returns true if a permission is allowed in the supplied context.
+	 *
+	 * <p>If the context is null, returns true if the permission has been granted
+	 * at all; otherwise returns true if the permission has been granted without criteria,
+	 * or if any of the criteria for that permission evaluate to true.
+	 *
+	 * @param permissionId the permission id
+	 * @param context the resource context, or null
+	 *
+	 * @return true if the permission is allowed
+	 */
+	public boolean hasPermission(int permissionId, Map<String, Object> context) {
+		return hasPermission(permissionId, context, null);
+	}
+
+	/** Returns true if a permission is allowed in the supplied context, using a cache of 
+	 * previous criteria evaluations.
+	 *
+	 * @param permissionId the permission id
+	 * @param context the resource context, or null
+	 * @param decisionCache a cache of criteria evaluation results, or null to evaluate criteria directly
+	 *
+	 * @return true if the permission is allowed
+	 */
+	public boolean hasPermission(int permissionId, Map<String, Object> context, ResourceCriteriaDecisionCache decisionCache) {
+		if (permissionId < 0) { return false; }
+		if (context == null) {
+			return granted.get(permissionId);
+		}
+		if (unconditional.get(permissionId)) {
+			return true;
+		}
+		for (ResourceCriteria rc : getCriteria(permissionId)) {
+			if (decisionCache == null ? rc.evaluate(context) : decisionCache.evaluate(rc, context)) { return true; }
+		}
+		return false;
+	}
+
+	/** Returns the contexts in which a permission is allowed. Each criteria for the permission is
+	 * evaluated over the whole list of contexts (see {@link ResourceCriteria#evaluate(List)}).
+	 *
+	 * @param permissionId the permission id
+	 * @param contexts the resource contexts
+	 *
+	 * @return a BitSet with a bit set for each context in which the permission is allowed
+	 */
+	public BitSet hasPermission(int permissionId, List<Map<String, Object>> contexts) {
+		BitSet result = new BitSet(contexts.size());
+		if (permissionId < 0) { return result; }
+		if (unconditional.get(permissionId)) {
+			result.set(0, contexts.size());
+			return result;
+		}
+		for (ResourceCriteria rc : getCriteria(permissionId)) {
+			result.or(rc.evaluate(contexts));
+			if (result.cardinality() == contexts.size()) { break; }
+		}
+		return result;
+	}
+
+	/** Returns the ids of all permissions granted to the user, with or without criteria.
+	 *
+	 * @return a list of permission ids, in ascending order
+	 */
+	public List<Integer> getGrantedIds() {
+		List<Integer> result = new ArrayList<Integer>(granted.cardinality());
+		for (int i = granted.nextSetBit(0); i >= 0; i = granted.nextSetBit(i + 1)) {
+			result.add(i);
+		}
+		return result;
+	}
+
+	/** Returns a string representation of this object, for debugging */
+	public String toString() {
+		return "granted=" + granted + ", unconditional=" + unconditional;
+	}
+}
@@ -45,6 +45,9 @@ public class Permission implements Serializable
     /** The resourceCriteria for this permission. */
     private ResourceCriteria resourceCriteria;
 
+    /** The name of this permission, in 'activity.resource' format. Created when first required. */
+    private transient String name;
+
     /** Create a new role-based permission.
      *
      * @param role  the name of this role this permission applies to
@@ -197,6 +200,18 @@ public class Permission implements Serializable
         return resource;
     }
 
+    /** Returns the name of this permission, in 'activity.resource' format.
+     *
+     * @return the name of this permission
+     */
+    public String getName()
+    {
+        if (name == null) {
+            name = activity + "." + resource;
+        }
+        return name;
+    }
+
     /** Returns the resourceCriteria that applies to this permission.
      *
      * @return the resourceCriteria that applies to this permission
@@ -0,0 +1,74 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+/**
+ * A resolved permission; i.e. an activity/resource pair together with the dense integer id
+ * assigned to it by a {@link PermissionRegistry}.
+ *
+ * <p>Callers that check the same permission repeatedly (e.g. JSP tags) can resolve the
+ * permission string once using {@link SecurityContext#resolvePermission(String)}, and 
+ * then check the PermissionId using {@link SecurityContext#hasPermission(User, PermissionId, java.util.Map)},
+ * which avoids parsing and hashing the permission string on every check.
+ *
+ * <p>PermissionIds are only meaningful within the registry that created them. Permissions
+ * that have not been registered have an id of -1. 
+ * Instances of this class are immutable and thread-safe.
+ *
+ * @author knoxg
+ */
+public final class PermissionId {
+
+	/** The permission id */
+	private final int id;
+
+	/** The activity for this permission */
+	private final String activity;
+
+	/** The resource for this permission */
+	private final String resource;
+
+	/** The permission name, in 'activity.resource' format */
+	private final String name;
+
+	/** Create a new PermissionId. PermissionIds are created by the PermissionRegistry.
+	 *
+	 * @param id the permission id
+	 * @param activity the activity for this permission
+	 * @param resource the resource for this permission
+	 * @param name the permission name, in 'activity.resource' format
+	 */
+	PermissionId(int id, String activity, String resource, String name) {
+		this.id = id;
+		this.activity = activity;
+		this.resource = resource;
+		this.name = name;
+	}
+
+	/** Returns the permission id, or -1 if this permission has not been registered */
+	public int getId() {
+		return id;
+	}
+
+	/** Returns the activity for this permission */
+	public String getActivity() {
+		return activity;
+	}
+
+	/** Returns the resource for this permission */
+	public String getResource() {
+		return resource;
+	}
+
+	/** Returns the permission name, in 'activity.resource' format */
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the permission name, in 'activity.resource' format */
+	public String toString() {
+		return name;
+	}
+}
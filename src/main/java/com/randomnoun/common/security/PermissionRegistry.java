@@ -0,0 +1,126 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense integer ids to permissions (activity/resource pairs).
+ *
+ * <p>Ids are assigned in sequence starting at 0, and are never reused, so they can be
+ * used as indexes into arrays and bitsets (see {@link EffectivePermissions}).
+ * Activity and resource names are interned within the registry, so that permissions
+ * loaded for different users and roles share the same String instances.
+ *
+ * <p>Lookups are lock-free; assigning a new id is synchronized. This class is thread-safe.
+ *
+ * @author knoxg
+ */
+public class PermissionRegistry {
+
+	/** Permissions, keyed by name */
+	private final Map<String, PermissionId> permissionsByName = new ConcurrentHashMap<String, PermissionId>();
+
+	/** Permissions, indexed by id. Only the first {@link #size} elements are populated. */
+	private volatile PermissionId[] permissionsById = new PermissionId[64];
+
+	/** The number of permissions in this registry */
+	private volatile int size = 0;
+
+	/** Interned activity and resource names */
+	private final Map<String, String> names = new ConcurrentHashMap<String, String>();
+
+	/** Returns the permission with the supplied name, or null if that permission
+	 * has not been registered.
+	 *
+	 * @param permission a permission, in 'activity.resource' format
+	 *
+	 * @return the PermissionId, or null
+	 */
+	public PermissionId get(String permission) {
+		return permissionsByName.get(permission);
+	}
+
+	/** Returns the permission with the supplied id, or null if no permission has been
+	 * assigned that id.
+	 *
+	 * @param id a permission id
+	 *
+	 * @return the PermissionId, or null
+	 */
+	public PermissionId get(int id) {
+		PermissionId[] byId = permissionsById;
+		return (id < 0 || id >= size || id >= byId.length) ? null : byId[id];
+	}
+
+	/** Returns the permission with the supplied name, registering it if required.
+	 *
+	 * @param permission a permission, in 'activity.resource' format
+	 *
+	 * @return the PermissionId
+	 *
+	 * @throws IllegalArgumentException if the permission supplied is formatted incorrectly
+	 */
+	public PermissionId intern(String permission) {
+		PermissionId permissionId = permissionsByName.get(permission);
+		if (permissionId != null) {
+			return permissionId;
+		}
+		int pos = permission.indexOf('.');
+		if (pos == -1) {
+			throw new IllegalArgumentException("Illegal permission value '" + permission + "'");
+		}
+		return register(permission, permission.substring(0, pos), permission.substring(pos + 1));
+	}
+
+	/** Returns the permission for the supplied activity and resource, registering it if required.
+	 *
+	 * @param activity the activity
+	 * @param resource the resource
+	 *
+	 * @return the PermissionId
+	 */
+	public PermissionId intern(String activity, String resource) {
+		String permission = activity + "." + resource;
+		PermissionId permissionId = permissionsByName.get(permission);
+		if (permissionId != null) {
+			return permissionId;
+		}
+		return register(permission, activity, resource);
+	}
+
+	/** Returns the number of permissions in this registry; i.e. one more than the highest
+	 * permission id assigned so far */
+	public int size() {
+		return size;
+	}
+
+	/** Assigns the next id to a permission, unless another thread has already done so */
+	private synchronized PermissionId register(String permission, String activity, String resource) {
+		PermissionId permissionId = permissionsByName.get(permission);
+		if (permissionId != null) {
+			return permissionId;
+		}
+		int id = size;
+		permissionId = new PermissionId(id, internName(activity), internName(resource), permission);
+		PermissionId[] byId = permissionsById;
+		if (id == byId.length) {
+			byId = Arrays.copyOf(byId, byId.length * 2);
+		}
+		byId[id] = permissionId;
+		permissionsById = byId;
+		size = id + 1;
+		permissionsByName.put(permission, permissionId);
+		return permissionId;
+	}
+
+	/** Returns the canonical instance of an activity or resource name */
+	private String internName(String name) {
+		String existing = names.putIfAbsent(name, name);
+		return existing == null ? name : existing;
+	}
+}
@@ -56,6 +56,22 @@ public abstract class ResourceCriteria
         return criteriaString;
     }
 
+    /**
+     * Returns the names of the criteria context variables that {@link #evaluate(Map)} 
+     * reads, or null if these are not known. If this method returns a non-null value,
+     * then the result of evaluate() must depend only on the values of these variables
+     * (and on whether they are present in the context), which allows the result to be 
+     * cached by a {@link ResourceCriteriaDecisionCache}.
+     * 
+     * <p>The default implementation returns null.
+     *
+     * @return the names of the context variables read by this criteria, or null 
+     */
+    public Set<String> getReferencedVariables()
+    {
+        return null;
+    }
+
     /**
      * Returns true if this resourceCriteria identifies a resource with the
      * supplied criteriaContext. The context used is resource-specific, but
@@ -73,4 +89,26 @@ public abstract class ResourceCriteria
         return true;
         
     }
+
+    /**
+     * Evaluates this resourceCriteria against a list of criteria contexts, returning
+     * a BitSet with a bit set for each context that this ResourceCriteria matches.
+     * 
+     * <p>The default implementation calls {@link #evaluate(Map)} for each context; 
+     * subclasses may override this method to evaluate all contexts more efficiently.
+     *
+     * @param criteriaContexts The contexts used to identify each resource
+     * 
+     * @return a BitSet containing the indexes of the contexts that match this ResourceCriteria
+     */
+    public BitSet evaluate(List<Map<String, Object>> criteriaContexts)
+    {
+        BitSet result = new BitSet(criteriaContexts.size());
+        int idx = 0;
+        for (Map<String, Object> criteriaContext : criteriaContexts) {
+            if (evaluate(criteriaContext)) { result.set(idx); }
+            idx++;
+        }
+        return result;
+    }
 }
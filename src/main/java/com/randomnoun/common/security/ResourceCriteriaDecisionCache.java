@@ -0,0 +1,123 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import com.randomnoun.common.MRUCache;
+
+/**
+ * A cache of ResourceCriteria evaluation results.
+ *
+ * <p>Results are keyed on the identity of the ResourceCriteria object, and the values of
+ * the context variables that the criteria references (see
+ * {@link ResourceCriteria#getReferencedVariables()}). Other variables in the context
+ * are ignored, so the same result is returned for contexts that differ only in variables
+ * that the criteria does not read. Criteria that do not declare their referenced variables
+ * are always evaluated.
+ *
+ * <p>A cache can either be scoped to a single request (e.g. created when a page starts
+ * rendering and discarded afterwards), or shared across requests with a short expiry time,
+ * which can be configured in the {@link SecurityContext} using the
+ * INIT_DECISION_CACHE_SIZE and INIT_DECISION_CACHE_EXPIRY properties.
+ *
+ * <p>Context values are used as cache keys, so they should be immutable and implement
+ * equals() and hashCode(). This class is thread-safe.
+ *
+ * @author knoxg
+ */
+public class ResourceCriteriaDecisionCache {
+
+    /** Marks a variable that is missing from the context (as opposed to present with a null value) */
+    private static final Object MISSING = new Object();
+
+    /** The cached results */
+    private volatile MRUCache<DecisionKey, Boolean> cache;
+
+    /** Maximum number of results in this cache */
+    private int cacheSize;
+
+    /** Expiry time of results in this cache, in milliseconds */
+    private int expiryTime;
+
+    /** The key of a cached result */
+    private static class DecisionKey {
+        private final ResourceCriteria criteria;
+        private final Object[] values;
+        private final int hashCode;
+
+        DecisionKey(ResourceCriteria criteria, Object[] values) {
+            this.criteria = criteria;
+            this.values = values;
+            this.hashCode = 31 * System.identityHashCode(criteria) + Arrays.hashCode(values);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof DecisionKey)) { return false; }
+            DecisionKey other = (DecisionKey) object;
+            return criteria == other.criteria && Arrays.equals(values, other.values);
+        }
+    }
+
+    /** Create a new cache with no size limit, where entries do not expire; suitable for
+     * caches that are scoped to a single request.
+     */
+    public ResourceCriteriaDecisionCache() {
+        this(0, 0);
+    }
+
+    /** Create a new cache.
+     *
+     * @param cacheSize the maximum number of results in this cache. A value &lt;= 0 means that
+     *   the size of this cache is not limited.
+     * @param expiryTime the amount of time (in ms) a result can remain valid. A value &lt;= 0
+     *   means that results do not expire.
+     */
+    public ResourceCriteriaDecisionCache(int cacheSize, int expiryTime) {
+        this.cacheSize = cacheSize;
+        this.expiryTime = expiryTime;
+        this.cache = new MRUCache<DecisionKey, Boolean>(cacheSize, expiryTime, null);
+    }
+
+    /** Evaluates a ResourceCriteria against a context, returning a cached result
+     * if one is available.
+     *
+     * @param criteria the criteria to evaluate
+     * @param context the criteria context
+     *
+     * @return the result of criteria.evaluate(context)
+     */
+    public boolean evaluate(final ResourceCriteria criteria, final Map<String, Object> context) {
+        Set<String> names = criteria.getReferencedVariables();
+        if (names == null) {
+            return criteria.evaluate(context);
+        }
+        Object[] values = new Object[names.size()];
+        int idx = 0;
+        for (String name : names) {
+            Object value = context.get(name);
+            values[idx++] = (value == null && !context.containsKey(name)) ? MISSING : value;
+        }
+        Boolean result = cache.get(new DecisionKey(criteria, values),
+            key -> Boolean.valueOf(criteria.evaluate(context)));
+        return result.booleanValue();
+    }
+
+    /** Removes all results from this cache */
+    public void clear() {
+        cache = new MRUCache<DecisionKey, Boolean>(cacheSize, expiryTime, null);
+    }
+
+    /** Returns the number of results in this cache */
+    public int size() {
+        return cache.size();
+    }
+}
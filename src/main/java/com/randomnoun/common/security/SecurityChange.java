@@ -0,0 +1,68 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.Serializable;
+
+/**
+ * A notification that the security data for a user, role or resource has changed,
+ * which can be applied to a SecurityContext using {@link SecurityContext#invalidate(SecurityChange)}.
+ *
+ * @see SecurityChangeSource
+ * @see SecurityChangeWatcher
+ *
+ * @author knoxg
+ */
+public class SecurityChange implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = -2236181364627102470L;
+
+	/** The type of object that has changed */
+	public enum ChangeType {
+		/** The roles or permissions of a user have changed; the name is the username */
+		USER,
+		/** The permissions of a role have changed; the name is the role name */
+		ROLE,
+		/** Permissions on a resource have changed; the name is the resource name */
+		RESOURCE,
+		/** Unknown changes have been made; the name is ignored */
+		ALL
+	}
+
+	/** The type of object that has changed */
+	private ChangeType changeType;
+
+	/** The username, role name or resource name that has changed */
+	private String name;
+
+	/** Create a new SecurityChange
+	 *
+	 * @param changeType the type of object that has changed
+	 * @param name the username, role name or resource name that has changed. May be null
+	 *   if changeType is ALL.
+	 */
+	public SecurityChange(ChangeType changeType, String name) {
+		if (changeType == null) { throw new NullPointerException("null changeType"); }
+		if (name == null && changeType != ChangeType.ALL) { throw new NullPointerException("null name"); }
+		this.changeType = changeType;
+		this.name = name;
+	}
+
+	/** Returns the type of object that has changed */
+	public ChangeType getChangeType() {
+		return changeType;
+	}
+
+	/** Returns the username, role name or resource name that has changed */
+	public String getName() {
+		return name;
+	}
+
+	/** Returns a string representation of this change, for debugging */
+	public String toString() {
+		return changeType + (name == null ? "" : " '" + name + "'");
+	}
+}
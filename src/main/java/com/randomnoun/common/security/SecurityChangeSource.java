@@ -0,0 +1,41 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A source of security change notifications, polled by a {@link SecurityChangeWatcher}.
+ *
+ * <p>Implementations typically read a version or audit column from the security tables, 
+ * which is incremented whenever a user, role or permission is modified.
+ *
+ * @see com.randomnoun.common.security.impl.SpringSecurityChangeSource
+ * 
+ * @author knoxg
+ */
+public interface SecurityChangeSource {
+
+	/** Returns the current version of the security data. The version must increase
+	 * whenever the security data is modified.
+	 *
+	 * @return the current version
+	 *
+	 * @throws IOException if the version could not be retrieved
+	 */
+	public long getVersion() throws IOException;
+
+	/** Returns the changes made to the security data after the supplied version.
+	 *
+	 * @param sinceVersion a version previously returned by {@link #getVersion()}
+	 *
+	 * @return the changes made since that version, or null if these are not known
+	 *   (in which case all users and roles will be reloaded)
+	 *
+	 * @throws IOException if the changes could not be retrieved
+	 */
+	public List<SecurityChange> getChanges(long sinceVersion) throws IOException;
+}
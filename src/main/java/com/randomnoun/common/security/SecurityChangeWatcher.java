@@ -0,0 +1,144 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Polls a {@link SecurityChangeSource} at a fixed interval, and invalidates the
+ * affected users, roles and resources in a SecurityContext whenever the security
+ * data changes. This allows SecurityContexts on multiple servers to pick up changes
+ * without being reset.
+ *
+ * <pre style="code">
+ *   SecurityChangeWatcher watcher = new SecurityChangeWatcher(securityContext, changeSource, 30000);
+ *   watcher.start();
+ *   ...
+ *   watcher.stop();
+ * </pre>
+ *
+ * @author knoxg
+ */
+public class SecurityChangeWatcher {
+
+	/** Logger for this class */
+	public static final Logger logger = Logger.getLogger(SecurityChangeWatcher.class);
+
+	/** The security context to invalidate */
+	private SecurityContext securityContext;
+
+	/** The source of change notifications */
+	private SecurityChangeSource changeSource;
+
+	/** The polling interval, in milliseconds */
+	private long pollInterval;
+
+	/** The last version read from the change source, or -1 if the change source has not been read */
+	private long lastVersion = -1;
+
+	/** The thread that polls the change source, or null if this watcher has not been started */
+	private ScheduledExecutorService executor;
+
+	/** Create a new SecurityChangeWatcher.
+	 *
+	 * @param securityContext the security context to invalidate
+	 * @param changeSource the source of change notifications
+	 * @param pollInterval the polling interval, in milliseconds
+	 */
+	public SecurityChangeWatcher(SecurityContext securityContext, SecurityChangeSource changeSource, long pollInterval) {
+		if (securityContext == null) { throw new NullPointerException("null securityContext"); }
+		if (changeSource == null) { throw new NullPointerException("null changeSource"); }
+		if (pollInterval <= 0) { throw new IllegalArgumentException("pollInterval must be positive"); }
+		this.securityContext = securityContext;
+		this.changeSource = changeSource;
+		this.pollInterval = pollInterval;
+	}
+
+	/** Start polling the change source in a background thread. */
+	public synchronized void start() {
+		if (executor != null) { throw new IllegalStateException("Watcher already started"); }
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "SecurityChangeWatcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(() -> {
+			try {
+				poll();
+			} catch (Exception e) {
+				// try again next time
+				logger.error("Could not poll security changes", e);
+			}
+		}, 0, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stop polling the change source */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/** Poll the change source once, and invalidate any users, roles or resources that have changed
+	 * since the last poll. The first poll applies any changes made since the security context's 
+	 * caches were loaded, if that version is known; otherwise it only records the current version.
+	 * 
+	 * <p>This method waits for the invalidations to complete, and then advances the
+	 * security context's cache version (see {@link SecurityContext#getCacheVersion()}).
+	 *
+	 * @return the number of changes applied, or -1 if the change source could not
+	 *   supply a list of changes and the entire security context was invalidated
+	 *
+	 * @throws IOException if the change source could not be read, or the changes could
+	 *   not be applied (in which case they will be applied again on the next poll)
+	 */
+	public synchronized int poll() throws IOException {
+		if (lastVersion == -1) {
+			lastVersion = securityContext.getCacheVersion();
+		}
+		long version = changeSource.getVersion();
+		if (lastVersion == -1 || version == lastVersion) {
+			lastVersion = version;
+			return 0;
+		}
+		List<SecurityChange> changes = changeSource.getChanges(lastVersion);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		if (changes == null) {
+			logger.info("Security data changed to version " + version + "; reloading security context");
+			futures.add(securityContext.invalidateAll());
+		} else {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Security data changed to version " + version + ": " + changes);
+			}
+			for (SecurityChange change : changes) {
+				futures.add(securityContext.invalidate(change));
+			}
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw (IOException) new InterruptedIOException("Interrupted applying security changes").initCause(ie);
+			} catch (ExecutionException ee) {
+				throw new IOException("Could not apply security changes", ee.getCause());
+			}
+		}
+		lastVersion = version;
+		securityContext.advanceCacheVersion(version);
+		return changes == null ? -1 : changes.size();
+	}
+}
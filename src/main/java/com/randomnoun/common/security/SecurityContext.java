@@ -4,12 +4,28 @@ package com.randomnoun.common.security;
  * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.log4j.Logger;
 
 import com.randomnoun.common.MRUCache;
 
@@ -25,6 +41,11 @@ import com.randomnoun.common.MRUCache;
  * <p>This class now mostly acts as a cache for user and role data, and can perform
  * simple and complex permission checks for users against resources.
  * 
+ * <p>Permission checks are performed against an {@link EffectivePermissions} object
+ * for each user, which combines the user's own permissions with those of their roles.
+ * Permission names are interned to integer ids, so that a permission check without a 
+ * resource context is a single bit test. 
+ * 
  * <p>The following properties can be passed to the SecurityContext during construction;
  * property keys are defined as static public final Strings in this class.
  *
@@ -34,6 +55,23 @@ import com.randomnoun.common.MRUCache;
  * <li>INIT_USER_CACHE_SIZE - maximum size of user cache
  * <li>INIT_USER_CACHE_EXPIRY - expiry time of users from the user cache (in milliseconds). If this
  *     property is not set, user caching is disabled.
+ * <li>INIT_PRELOAD - if set to "true", all users, roles and permissions are loaded from the
+ *     SecurityLoader when the context is created or reset, rather than when they are first
+ *     required. Defaults to false.
+ * <li>INIT_DECISION_CACHE_EXPIRY - expiry time of resource criteria evaluation results (in milliseconds). 
+ *     If this property is set, the results of evaluating resource criteria in 
+ *     {@link #hasPermission(User, String, Map)} are cached in a {@link ResourceCriteriaDecisionCache}
+ *     shared by all users of this context. 
+ * <li>INIT_DECISION_CACHE_SIZE - maximum number of results held in the decision cache. Defaults to 10000.
+ * <li>INIT_CHANGE_SOURCE - a {@link SecurityChangeSource} object which supplies the current version
+ *     of the security data. Required if INIT_SNAPSHOT_FILE is set.
+ * <li>INIT_SNAPSHOT_FILE - the name of a file which holds a snapshot of this context's caches
+ *     (see {@link SecuritySnapshotFile}). The snapshot is written when the context is 
+ *     {@link #shutdown()}, and restored when the context is created or reset if its version matches 
+ *     the version supplied by the INIT_CHANGE_SOURCE; otherwise the caches are populated on demand 
+ *     (or preloaded, if INIT_PRELOAD is set).
+ * <li>INIT_SNAPSHOT_INTERVAL - if set, the snapshot is also written periodically at this 
+ *     interval (in milliseconds). 
  * </ul>
  *
  * <p>Additional properties may also be required based on the SecurityLoader implementation used.
@@ -44,8 +82,8 @@ import com.randomnoun.common.MRUCache;
  */
 public class SecurityContext {
     
-    // /** The logger for this class */
-    // private static Logger logger = Logger.getLogger(SecurityContext.class.getName());
+    /** The logger for this class */
+    private static Logger logger = Logger.getLogger(SecurityContext.class.getName());
 
     /** SecurityContext properties */
     private Map<String, Object> properties = null;
@@ -62,28 +100,70 @@ public class SecurityContext {
     /** An initialisation property key. See the class documentation for details. */
 	public static final String INIT_CASE_INSENSITIVE = "securityContext.caseInsensitive";
 
+    /** An initialisation property key. See the class documentation for details. */
+	public static final String INIT_PRELOAD = "securityContext.preload";
+
+    /** An initialisation property key. See the class documentation for details. */
+	public static final String INIT_DECISION_CACHE_EXPIRY = "securityContext.decisionCacheExpiry";
+
+    /** An initialisation property key. See the class documentation for details. */
+	public static final String INIT_DECISION_CACHE_SIZE = "securityContext.decisionCacheSize";
+
+    /** An initialisation property key. See the class documentation for details. */
+	public static final String INIT_CHANGE_SOURCE = "securityContext.changeSource";
+
+    /** An initialisation property key. See the class documentation for details. */
+	public static final String INIT_SNAPSHOT_FILE = "securityContext.snapshotFile";
+
+    /** An initialisation property key. See the class documentation for details. */
+	public static final String INIT_SNAPSHOT_INTERVAL = "securityContext.snapshotInterval";
+
     /** Maps rolenames to maps of permission names (in the form 'activity.resource')
      * to Permission objects (possibly containing ResourceCriteria objects). 
      * 
 	 * If the security context is case-insensitive, then role names are lower-cased.
      */
-    private Map<String, Map<String, Permission>> rolePermissionCache = null;
+    private volatile MRUCache<String, Map<String, Permission>> rolePermissionCache = null;
 
     /** Maps usernames to maps of permission names (in the form 'activity.resource')
      * to Permission objects (possibly containing ResourceCriteria objects). 
      *  
      * If the security context is case-insensitive, then usernames are lower-cased. */
-    private Map<User, Map<String, Permission>> userPermissionCache = null;
+    private volatile MRUCache<User, Map<String, Permission>> userPermissionCache = null;
     
     /** Maps user objects to list of roles. 
      * 
      * @TODO convert to HashSet ?
      */
-    private Map<User, List<String>> userRoleCache = null;
+    private volatile MRUCache<User, List<String>> userRoleCache = null;
 
     /** Maps userIds to Users. 
      */
-    private Map<Long, User> userCache = null;
+    private volatile MRUCache<Long, User> userCache = null;
+    
+    /** Maps user objects to their effective permissions. Each entry is built from the
+     * user permission, user role and role permission caches that were created alongside it. 
+     */
+    private volatile MRUCache<User, EffectivePermissions> effectivePermissionCache = null;
+    
+    /** Caches the results of resource criteria evaluations across requests, or null if
+     * INIT_DECISION_CACHE_EXPIRY is not set */
+    private volatile ResourceCriteriaDecisionCache decisionCache = null;
+    
+    /** Assigns ids to permission names (in the form 'activity.resource'). 
+     * Ids are never reused, and are retained when the security context is reset. */
+    private final PermissionRegistry permissionRegistry = new PermissionRegistry();
+    
+    /** Rebuilds cache entries after they have been invalidated. Created when first required. */
+    private ExecutorService invalidationExecutor = null;
+    
+    /** Writes snapshots periodically, if INIT_SNAPSHOT_INTERVAL is set */
+    private ScheduledExecutorService snapshotExecutor = null;
+    
+    /** The version of the security data reflected in the caches, or -1 if not known. 
+     * Set when the caches are reset or preloaded, and advanced by a SecurityChangeWatcher
+     * once it has applied the changes up to a later version. */
+    private final AtomicLong cacheVersion = new AtomicLong(-1);
     
     /** This security loader is used to retrieve information from a persistant data
      *  store for this context */
@@ -122,22 +202,11 @@ public class SecurityContext {
             }
 
             User user = (User) key;
-			
-			Map<String, Permission> result = new HashMap<String, Permission>();
             try {
-                List<Permission> permissions = loader.loadUserPermissions(user);
-                for (Iterator<Permission> i = permissions.iterator(); i.hasNext(); ) {
-                	Permission perm = (Permission) i.next();
-                	if (result.containsKey(perm.getActivity() + "." + perm.getResource())) {
-                		throw new IllegalStateException("User '" + key + "' contains two versions of permission '" + 
-                		  perm.getActivity() + "." + perm.getResource() + "'; please check the database");
-                	}
-                	result.put(perm.getActivity() + "." + perm.getResource(), perm);
-                }
+                return toPermissionMap("User '" + key + "'", loader.loadUserPermissions(user));
             } catch (IOException ioe) {
                 throw new RuntimeException("IOException reading user permissions", ioe);
             }
-            return result;
         }
     }
 
@@ -167,23 +236,37 @@ public class SecurityContext {
 				throw new IllegalArgumentException("Expected roleName as string, found " + key.getClass().getName());
 			}
 			String rolename = (String) key;
-			Map<String, Permission> result = new HashMap<String, Permission>();
 			try {
-				List<Permission> permissions = loader.loadRolePermissions(rolename);
-				for (Iterator<Permission> i = permissions.iterator(); i.hasNext(); ) {
-					Permission perm = (Permission) i.next();
-					if (result.containsKey(perm.getActivity() + "." + perm.getResource())) {
-						throw new IllegalStateException("Role '" + key + "' contains two versions of permission '" + 
-						  perm.getActivity() + "." + perm.getResource() + "'; please check the database");
-					}
-					result.put(perm.getActivity() + "." + perm.getResource(), perm);
-				}
+				return toPermissionMap("Role '" + key + "'", loader.loadRolePermissions(rolename));
 			} catch (IOException ioe) {
 				throw new RuntimeException("IOException reading role permissions", ioe);
 			}
-			return result;
 		}
 	}
+	
+	/** Converts a list of permissions into a map of permission names (in the form 'activity.resource')
+	 * to Permission objects.
+	 * 
+	 * @param owner a description of the user or role that owns these permissions, used in exception text
+	 * @param permissions the list of permissions
+	 * 
+	 * @return a map of permissions
+	 * 
+	 * @throws IllegalStateException if the list contains the same permission more than once
+	 */
+	private static Map<String, Permission> toPermissionMap(String owner, List<Permission> permissions) {
+		Map<String, Permission> result = new HashMap<String, Permission>();
+		for (Iterator<Permission> i = permissions.iterator(); i.hasNext(); ) {
+			Permission perm = (Permission) i.next();
+			String name = perm.getName();
+			if (result.containsKey(name)) {
+				throw new IllegalStateException(owner + " contains two versions of permission '" + 
+				  name + "'; please check the database");
+			}
+			result.put(name, perm);
+		}
+		return result;
+	}
 
 
 	/** This class is invoked by the MRUCache to recalculate values in the
@@ -256,6 +339,91 @@ public class SecurityContext {
 		}
 	}
 
+	/** This class is invoked by the MRUCache to build the effective permissions of a user
+	 * from the user permission, user role and role permission caches.
+	 */
+	private class EffectivePermissionCallback
+		implements MRUCache.RetrievalCallback {
+
+		Map<User, Map<String, Permission>> userPermissions;
+		Map<User, List<String>> userRoles;
+		Map<String, Map<String, Permission>> rolePermissions;
+
+		/** Creates a new callback used to populate the effective permission cache
+		 */
+		public EffectivePermissionCallback(Map<User, Map<String, Permission>> userPermissions,
+			Map<User, List<String>> userRoles, Map<String, Map<String, Permission>> rolePermissions) 
+		{
+			this.userPermissions = userPermissions;
+			this.userRoles = userRoles;
+			this.rolePermissions = rolePermissions;
+		}
+
+		/** this method is only called if the required value is not in the cache,
+		 * or the value in the cache has expired.
+		 *
+		 * @param key The User to return effective permissions for
+		 */
+		public Object get(Object key) {
+			if (key==null) { throw new NullPointerException("null key"); }
+			if (!(key instanceof User)) {
+				throw new IllegalArgumentException("Expected user as User, found " + key.getClass().getName());
+			}
+			User user = (User) key;
+			
+			return buildEffectivePermissions(user, userPermissions.get(user), userRoles.get(user), rolePermissions);
+		}
+	}
+	
+	/** Combines the permissions granted to a user with the permissions granted to that user's roles.
+	 * 
+	 * @param user the user
+	 * @param grants the permissions granted to the user, keyed by permission name
+	 * @param roles the user's roles
+	 * @param rolePermissions a map of role names to the permissions granted to that role 
+	 * 
+	 * @return the user's effective permissions
+	 * 
+	 * @throws IllegalStateException if the user, or one of the user's roles, is unknown 
+	 */
+	private EffectivePermissions buildEffectivePermissions(User user, Map<String, Permission> grants, 
+		List<String> roles, Map<String, Map<String, Permission>> rolePermissions) 
+	{
+		if (grants == null || roles == null) {
+			throw new IllegalStateException("Unknown user '" + user.getUsername() + "'");
+		}
+		BitSet unconditional = new BitSet();
+		Map<Integer, List<ResourceCriteria>> conditional = new HashMap<Integer, List<ResourceCriteria>>();
+		addGrants(grants, unconditional, conditional);
+		for (String rolename : roles) {
+			Map<String, Permission> roleGrants = rolePermissions.get(rolename);
+			if (roleGrants == null) {
+				throw new IllegalStateException("Unknown role '" + rolename + "'");
+			}
+			addGrants(roleGrants, unconditional, conditional);
+		}
+		return new EffectivePermissions(unconditional, conditional);
+	}
+	
+	private void addGrants(Map<String, Permission> grants, BitSet unconditional, 
+		Map<Integer, List<ResourceCriteria>> conditional) 
+	{
+		for (Map.Entry<String, Permission> entry : grants.entrySet()) {
+			int id = internPermission(entry.getKey());
+			ResourceCriteria criteria = entry.getValue().getResourceCriteria();
+			if (criteria == null) {
+				unconditional.set(id);
+			} else {
+				List<ResourceCriteria> criteriaList = conditional.get(id);
+				if (criteriaList == null) {
+					criteriaList = new ArrayList<ResourceCriteria>(1);
+					conditional.put(id, criteriaList);
+				}
+				criteriaList.add(criteria);
+			}
+		}
+	}
+
 
     /**
      * Creates a new SecurityContext object.
@@ -273,7 +441,26 @@ public class SecurityContext {
         this.securityLoader.initialise(properties);
         this.securityAuthenticator = securityAuthenticator;
         this.securityAuthenticator.initialise(properties);
+        if (properties.get(INIT_SNAPSHOT_FILE) != null && !(properties.get(INIT_CHANGE_SOURCE) instanceof SecurityChangeSource)) {
+            throw new IllegalArgumentException(INIT_SNAPSHOT_FILE + " requires a SecurityChangeSource in " + INIT_CHANGE_SOURCE);
+        }
 		resetSecurityContext();
+		if (properties.get(INIT_SNAPSHOT_FILE) != null && properties.get(INIT_SNAPSHOT_INTERVAL) != null) {
+			long interval = Long.parseLong((String) properties.get(INIT_SNAPSHOT_INTERVAL));
+			snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "SecurityContext-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			snapshotExecutor.scheduleWithFixedDelay(() -> {
+				try {
+					writeSnapshot();
+				} catch (Exception e) {
+					// try again next time
+					logger.error("Could not write security snapshot", e);
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
     }
     
 
@@ -490,64 +677,265 @@ public class SecurityContext {
      * @throws IllegalArgumentException if the permission supplied is formatted incorrectly.
      */
     public boolean hasPermission(User user, String permission, Map<String, Object> context) {
+        return hasPermission(user, permission, context, decisionCache);
+    }
+    
+    /**
+     * Returns true if a user is allowed to perform the permission supplied, with
+     * given resource context, using the supplied cache of resource criteria evaluations. 
+     * 
+     * <p>This can be used to avoid re-evaluating the same criteria against the same resource
+     * within a single request, e.g. 
+     * 
+     * <pre style="code">
+     *   ResourceCriteriaDecisionCache decisionCache = new ResourceCriteriaDecisionCache();
+     *   for (Map&lt;String, Object&gt; account : accounts) {
+     *       account.put("canEdit", securityContext.hasPermission(user, "update.account", account, decisionCache));
+     *   }
+     * </pre>
+     *
+     * @param user The user we are determining
+     * @param permission The permission we are testing for. Permissions are expressed in
+     *   'activity.resourceType' format.
+     * @param context The resource context used to evaluate against the resource expression
+     * @param decisionCache A cache of resource criteria evaluations, or null to evaluate 
+     *   resource criteria without caching
+     *
+     * @return true if the permission is allowed, false is the permission is denied.
+     *
+     * @throws NullPointerException if either parameter to this method is null
+     * @throws IllegalArgumentException if the permission supplied is formatted incorrectly.
+     */
+    public boolean hasPermission(User user, String permission, Map<String, Object> context, 
+    	ResourceCriteriaDecisionCache decisionCache) 
+    {
     	// @TODO should get this User out of our userCache, keyed by id
         if (permission == null) { throw new NullPointerException("Null permission"); }
         if (user == null) { throw new NullPointerException("Null user"); }
 
-        int pos = permission.indexOf('.');
-        if (pos == -1) {
-            throw new IllegalArgumentException("Illegal permission value '" + permission + "'");
+        // load the user before the id lookup, since this interns the user's permissions
+        EffectivePermissions effectivePermissions = getEffectivePermissions(user);
+        PermissionId permissionId = permissionRegistry.get(permission);
+        if (permissionId == null) {
+            if (permission.indexOf('.') == -1) {
+                throw new IllegalArgumentException("Illegal permission value '" + permission + "'");
+            }
+            // not granted to any user or role loaded so far
+            return false;
         }
-
-		//  try per-user permissions...
-		Map<String, Permission> userPermissions = userPermissionCache.get(user);
-		if (userPermissions == null) {
-			// @TODO - load from DB ? should be handled by MRUCache
-			throw new IllegalStateException("Unknown user '" + user.getUsername() + "'");
-		} else {
-			Permission userPermission = (Permission) userPermissions.get(permission);
-			if (userPermission!=null) {
-				if (context == null) {
-					return true;
-				} else {
-					ResourceCriteria criteria = userPermission.getResourceCriteria();
-					if (criteria == null || criteria.evaluate(context)) {
-						return true;
-					}
-				}
-			}
-		}
-		
-		// then try per-role permissions ...
-		List<String> roles = userRoleCache.get(user);
-		if (roles == null) {
-			// @TODO - load from DB ? should be handled by MRUCache
-			throw new IllegalStateException("Unknown user '" + user.getUsername() + "'");
-		} else {
-			for (Iterator<String> i = roles.iterator(); i.hasNext(); ) {
-				String rolename = (String) i.next();
-				Map<String, Permission> rolePermissions = rolePermissionCache.get(rolename);
-				if (rolePermissions == null) {
-					// @TODO - load from DB ? should be handled by MRUCache
-					throw new IllegalStateException("Unknown role '" + rolename + "'");
-				} else {
-					// this is a strange data structure
-					Permission rolePermission = (Permission) rolePermissions.get(permission);
-					if (rolePermission!=null) {
-						if (context == null) {
-							return true;
-						} else {
-							ResourceCriteria criteria = rolePermission.getResourceCriteria();
-							if (criteria == null || criteria.evaluate(context)) {
-								return true;
-							}
-						}	
-					}
-				}
-			}
-		}
-
-        return false;
+        return effectivePermissions.hasPermission(permissionId.getId(), context, decisionCache);
+    }
+    
+    /**
+     * Returns true if a user is allowed to perform a permission previously resolved
+     * using {@link #resolvePermission(String)}, with given resource context.
+     *
+     * @param user The user we are determining
+     * @param permission The resolved permission we are testing for
+     * @param context The resource context used to evaluate against the resource expression
+     *
+     * @return true if the permission is allowed, false is the permission is denied.
+     *
+     * @throws NullPointerException if either the user or permission is null
+     */
+    public boolean hasPermission(User user, PermissionId permission, Map<String, Object> context) {
+        return hasPermission(user, permission, context, decisionCache);
+    }
+    
+    /**
+     * Returns true if a user is allowed to perform a permission previously resolved
+     * using {@link #resolvePermission(String)}, with given resource context, using the 
+     * supplied cache of resource criteria evaluations. 
+     *
+     * @param user The user we are determining
+     * @param permission The resolved permission we are testing for
+     * @param context The resource context used to evaluate against the resource expression
+     * @param decisionCache A cache of resource criteria evaluations, or null to evaluate 
+     *   resource criteria without caching
+     *
+     * @return true if the permission is allowed, false is the permission is denied.
+     *
+     * @throws NullPointerException if either the user or permission is null
+     */
+    public boolean hasPermission(User user, PermissionId permission, Map<String, Object> context, 
+        ResourceCriteriaDecisionCache decisionCache) 
+    {
+        if (permission == null) { throw new NullPointerException("Null permission"); }
+        if (user == null) { throw new NullPointerException("Null user"); }
+        // load the user before the id lookup, since this interns the user's permissions
+        EffectivePermissions effectivePermissions = getEffectivePermissions(user);
+        return effectivePermissions.hasPermission(getPermissionId(permission), context, decisionCache);
+    }
+    
+    /**
+     * Returns the resources in a list that a user is allowed to perform the permission on.
+     * 
+     * <p>This is equivalent to calling {@link #hasPermission(User, String, Map)} for each resource 
+     * context in the list, but the user's permissions are only resolved once, and each 
+     * resource criteria is evaluated over the entire list (in parallel, for large lists).
+     * 
+     * @param user The user we are determining
+     * @param permission The permission we are testing for. Permissions are expressed in
+     *   'activity.resourceType' format.
+     * @param contexts The resource contexts used to evaluate against the resource expression.
+     *   The list must not contain null elements.
+     *   
+     * @return a BitSet with a bit set for each context in which the permission is allowed
+     *
+     * @throws NullPointerException if any parameter to this method is null
+     * @throws IllegalArgumentException if the permission supplied is formatted incorrectly.
+     */
+    public BitSet hasPermissions(User user, String permission, List<Map<String, Object>> contexts) {
+        if (permission == null) { throw new NullPointerException("Null permission"); }
+        if (user == null) { throw new NullPointerException("Null user"); }
+        if (contexts == null) { throw new NullPointerException("Null contexts"); }
+        
+        EffectivePermissions effectivePermissions = getEffectivePermissions(user);
+        PermissionId permissionId = permissionRegistry.get(permission);
+        if (permissionId == null) {
+            if (permission.indexOf('.') == -1) {
+                throw new IllegalArgumentException("Illegal permission value '" + permission + "'");
+            }
+            return new BitSet();
+        }
+        return effectivePermissions.hasPermission(permissionId.getId(), contexts);
+    }
+    
+    /**
+     * Returns the resources in a list that a user is allowed to perform a permission 
+     * previously resolved using {@link #resolvePermission(String)} on. 
+     * See {@link #hasPermissions(User, String, List)}.
+     * 
+     * @param user The user we are determining
+     * @param permission The resolved permission we are testing for
+     * @param contexts The resource contexts used to evaluate against the resource expression.
+     *   The list must not contain null elements.
+     *   
+     * @return a BitSet with a bit set for each context in which the permission is allowed
+     *
+     * @throws NullPointerException if any parameter to this method is null
+     */
+    public BitSet hasPermissions(User user, PermissionId permission, List<Map<String, Object>> contexts) {
+        if (permission == null) { throw new NullPointerException("Null permission"); }
+        if (user == null) { throw new NullPointerException("Null user"); }
+        if (contexts == null) { throw new NullPointerException("Null contexts"); }
+        EffectivePermissions effectivePermissions = getEffectivePermissions(user);
+        return effectivePermissions.hasPermission(getPermissionId(permission), contexts);
+    }
+    
+    /**
+     * Returns the resources in a list that a user is allowed to perform the permission on. 
+     * See {@link #hasPermissions(User, String, List)}.
+     * 
+     * @param user The user we are determining
+     * @param permission The permission we are testing for. Permissions are expressed in
+     *   'activity.resourceType' format.
+     * @param contexts The resource contexts used to evaluate against the resource expression.
+     *   The list must not contain null elements.
+     *   
+     * @return a new list containing the contexts in which the permission is allowed, in their original order
+     *
+     * @throws NullPointerException if any parameter to this method is null
+     * @throws IllegalArgumentException if the permission supplied is formatted incorrectly.
+     */
+    public List<Map<String, Object>> filterByPermission(User user, String permission, List<Map<String, Object>> contexts) {
+        BitSet permitted = hasPermissions(user, permission, contexts);
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(permitted.cardinality());
+        for (int i = permitted.nextSetBit(0); i >= 0; i = permitted.nextSetBit(i + 1)) {
+            result.add(contexts.get(i));
+        }
+        return result;
+    }
+    
+    /** Returns the effective permissions of a user; i.e. the permissions granted to that
+     * user, combined with the permissions granted to each of that user's roles. 
+     * 
+     * @param user The user 
+     * 
+     * @return the user's effective permissions
+     * 
+     * @throws IllegalStateException if the user, or one of the user's roles, is unknown
+     */
+    public EffectivePermissions getEffectivePermissions(User user) {
+        if (user == null) { throw new NullPointerException("Null user"); }
+        EffectivePermissions effectivePermissions = effectivePermissionCache.get(user);
+        if (effectivePermissions == null) {
+            throw new IllegalStateException("Unknown user '" + user.getUsername() + "'");
+        }
+        return effectivePermissions;
+    }
+    
+    /** Returns the id of a permission, or -1 if the permission has not been granted
+     * to any user or role loaded by this security context.
+     * 
+     * @param permission a permission, in 'activity.resource' format
+     * 
+     * @return the permission id, or -1
+     */
+    public int getPermissionId(String permission) {
+        if (permission == null) { throw new NullPointerException("Null permission"); }
+        PermissionId permissionId = permissionRegistry.get(permission);
+        return permissionId == null ? -1 : permissionId.getId();
+    }
+    
+    /** Resolves a permission string into a PermissionId, which can be supplied to 
+     * {@link #hasPermission(User, PermissionId, Map)}. 
+     * 
+     * <p>Permissions that have not been granted to any user or role loaded so far are not 
+     * registered (since the permission string may come from request data, registering it would 
+     * grow the registry without bound); they are returned as an unregistered PermissionId with 
+     * an id of -1, which is looked up by name each time it is checked.
+     * 
+     * @param permission a permission, in 'activity.resource' format
+     * 
+     * @return the resolved permission
+     * 
+     * @throws NullPointerException if the permission is null
+     * @throws IllegalArgumentException if the permission supplied is formatted incorrectly.
+     */
+    public PermissionId resolvePermission(String permission) {
+        if (permission == null) { throw new NullPointerException("Null permission"); }
+        PermissionId permissionId = permissionRegistry.get(permission);
+        if (permissionId == null) {
+            int pos = permission.indexOf('.');
+            if (pos == -1) {
+                throw new IllegalArgumentException("Illegal permission value '" + permission + "'");
+            }
+            permissionId = new PermissionId(-1, permission.substring(0, pos), permission.substring(pos + 1), permission);
+        }
+        return permissionId;
+    }
+    
+    /** Returns the registered id of a resolved permission, looking up unregistered 
+     * permissions by name, or -1 if the permission has not been granted to any user or role 
+     * loaded by this security context. 
+     * 
+     * @param permission a resolved permission
+     * 
+     * @return the permission id, or -1
+     */
+    private int getPermissionId(PermissionId permission) {
+        if (permission.getId() >= 0) { return permission.getId(); }
+        PermissionId permissionId = permissionRegistry.get(permission.getName());
+        return permissionId == null ? -1 : permissionId.getId();
+    }
+    
+    /** Returns the registry of permission ids used by this security context.
+     * 
+     * @return the permission registry
+     */
+    public PermissionRegistry getPermissionRegistry() {
+        return permissionRegistry;
+    }
+    
+    /** Returns the id of a permission, assigning a new id if required.
+     * 
+     * @param permission a permission, in 'activity.resource' format
+     * 
+     * @return the permission id
+     */
+    int internPermission(String permission) {
+        return permissionRegistry.intern(permission).getId();
     }
 
 	/**
@@ -662,11 +1050,192 @@ public class SecurityContext {
     /** Clear all caches and re-initialises this security context (as defined 
      * in this instance's initial initialisation properties). 
      * This method also resets this security context's loader.
+     * 
+     * <p>If the INIT_SNAPSHOT_FILE property is set, and that file contains a snapshot of 
+     * the current version of the security data, the caches are then restored from that snapshot.
+     * Otherwise, if the INIT_PRELOAD property is set, the caches are then preloaded 
+     * (see {@link #preloadSecurityContext()}); permission checks performed while
+     * the caches are being restored or preloaded will use the previous caches.
+     * 
+     * @throws IllegalStateException if the context is configured to preload,
+     *   and it fails to do so.
      */
-    @SuppressWarnings("unchecked")
 	public void resetSecurityContext() {
         // logger.debug("Security context properties: " + properties.toString());
-    	
+		boolean preload = "true".equals(properties.get(INIT_PRELOAD));
+		if (!preload) {
+			// the empty caches are populated from data at least as recent as this version
+			long version = getDataVersion();
+			swapCaches(null);
+			cacheVersion.set(version);
+		}
+		try {
+			securityLoader.resetSecurityContext();	
+		} catch (IOException ioe) {
+			throw (IllegalArgumentException) new IllegalArgumentException(
+			  "Cannot initialise security Context").initCause(ioe);
+		}
+		if (restoreSnapshot()) {
+			return;
+		}
+		if (preload) {
+			preloadSecurityContext();
+		}
+    }
+	
+	/** Loads all users, roles and permissions from the SecurityLoader, 
+	 * and replaces the caches in this security context with caches containing that data.
+	 * 
+	 * <p>The data is retrieved using {@link SecurityLoader#loadSecuritySnapshot()},
+	 * and the effective permissions of each user are calculated in parallel. 
+	 * The existing caches remain in use until the new caches have been fully populated.
+	 * 
+	 * @throws IllegalStateException if the security context could not be preloaded
+	 */
+	public void preloadSecurityContext() {
+		long version = getDataVersion();
+		SecuritySnapshot snapshot;
+		try {
+			snapshot = securityLoader.loadSecuritySnapshot();
+		} catch (IOException ioe) {
+			throw new IllegalStateException("Cannot preload security context", ioe);
+		}
+		swapCaches(snapshot);
+		cacheVersion.set(version);
+	}
+	
+	/** Returns the current version of the security data, as supplied by the INIT_CHANGE_SOURCE.
+	 * 
+	 * @return the current version, or -1 if there is no change source or the version could not be read 
+	 */
+	private long getDataVersion() {
+		Object changeSource = properties.get(INIT_CHANGE_SOURCE);
+		if (!(changeSource instanceof SecurityChangeSource)) {
+			return -1;
+		}
+		try {
+			return ((SecurityChangeSource) changeSource).getVersion();
+		} catch (IOException ioe) {
+			logger.warn("Could not read security data version", ioe);
+			return -1;
+		}
+	}
+	
+	/** Returns the version of the security data reflected in this security context's caches. 
+	 * 
+	 * <p>This is the version supplied by the INIT_CHANGE_SOURCE when the caches were last 
+	 * reset or preloaded, or the version most recently applied by a {@link SecurityChangeWatcher}.
+	 * Cache entries may reflect later changes to the security data, but never earlier ones.
+	 * 
+	 * @return the version of the cached security data, or -1 if this is not known
+	 */
+	public long getCacheVersion() {
+		return cacheVersion.get();
+	}
+	
+	/** Records that all changes up to the supplied version have been applied to the caches.
+	 * Called by a SecurityChangeWatcher once the invalidations for those changes have completed.
+	 * 
+	 * @param version the version of the security data now reflected in the caches
+	 */
+	void advanceCacheVersion(long version) {
+		cacheVersion.accumulateAndGet(version, Math::max);
+	}
+
+	/** Returns a snapshot of the users, roles and permissions currently held in this 
+	 * security context's caches. Users are only included if their roles and permissions, 
+	 * and the permissions of each of their roles, are cached.
+	 * 
+	 * @return a snapshot of this security context's caches
+	 */
+	@SuppressWarnings("unchecked")
+	public SecuritySnapshot getSecuritySnapshot() {
+		MRUCache<User, Map<String, Permission>> userPermissions = userPermissionCache;
+		MRUCache<User, List<String>> userRoles = userRoleCache;
+		MRUCache<String, Map<String, Permission>> rolePermissions = rolePermissionCache;
+
+		Map<String, List<Permission>> rolePermissionMap = new HashMap<String, List<Permission>>();
+		for (String role : getCachedKeys(rolePermissions)) {
+			Map<String, Permission> grants = (Map<String, Permission>) rolePermissions.getNoCallback(role);
+			if (grants != null) {
+				rolePermissionMap.put(role, new ArrayList<Permission>(grants.values()));
+			}
+		}
+		List<User> users = new ArrayList<User>();
+		Map<User, List<String>> userRoleMap = new HashMap<User, List<String>>();
+		Map<User, List<Permission>> userPermissionMap = new HashMap<User, List<Permission>>();
+		for (User user : getCachedKeys(userRoles)) {
+			List<String> roles = (List<String>) userRoles.getNoCallback(user);
+			Map<String, Permission> grants = (Map<String, Permission>) userPermissions.getNoCallback(user);
+			if (roles != null && grants != null && rolePermissionMap.keySet().containsAll(roles)) {
+				users.add(user);
+				userRoleMap.put(user, new ArrayList<String>(roles));
+				userPermissionMap.put(user, new ArrayList<Permission>(grants.values()));
+			}
+		}
+		return new SecuritySnapshot(users, userRoleMap, userPermissionMap, rolePermissionMap);
+	}
+	
+	/** Writes a snapshot of this security context's caches to the INIT_SNAPSHOT_FILE, 
+	 * tagged with the version of the security data reflected in those caches 
+	 * (see {@link #getCacheVersion()}). 
+	 * 
+	 * <p>This method is called when the context is shutdown, and periodically if the
+	 * INIT_SNAPSHOT_INTERVAL property is set.
+	 * 
+	 * @throws IOException if the snapshot could not be written, or the version of the cached data is not known
+	 * @throws IllegalStateException if the INIT_SNAPSHOT_FILE property is not set
+	 */
+	public void writeSnapshot() throws IOException {
+		String filename = (String) properties.get(INIT_SNAPSHOT_FILE);
+		if (filename == null) {
+			throw new IllegalStateException(INIT_SNAPSHOT_FILE + " not set");
+		}
+		// the version is read before the caches; entries updated while the snapshot is 
+		// being taken will be newer than this version, but none will be older  
+		long version = cacheVersion.get();
+		if (version == -1) {
+			throw new IOException("Version of cached security data is not known; snapshot not written");
+		}
+		SecuritySnapshot snapshot = getSecuritySnapshot();
+		SecuritySnapshotFile.write(new File(filename), snapshot, version);
+		logger.debug("Wrote security snapshot '" + filename + "' (" + snapshot + ") at version " + version);
+	}
+	
+	/** Replaces the caches in this security context with the snapshot held in the INIT_SNAPSHOT_FILE,
+	 * if that snapshot exists and is current.
+	 * 
+	 * @return true if the snapshot was restored, false otherwise
+	 */
+	private boolean restoreSnapshot() {
+		String filename = (String) properties.get(INIT_SNAPSHOT_FILE);
+		if (filename == null) {
+			return false;
+		}
+		try {
+			long version = ((SecurityChangeSource) properties.get(INIT_CHANGE_SOURCE)).getVersion();
+			SecuritySnapshot snapshot = SecuritySnapshotFile.read(new File(filename), version);
+			if (snapshot == null) {
+				logger.info("Security snapshot '" + filename + "' is missing or out of date; not restored");
+				return false;
+			}
+			swapCaches(snapshot);
+			cacheVersion.set(version);
+			logger.info("Restored security snapshot '" + filename + "' (" + snapshot + ") at version " + version);
+			return true;
+		} catch (IOException ioe) {
+			logger.warn("Could not restore security snapshot '" + filename + "'", ioe);
+			return false;
+		}
+	}
+
+	/** Creates a new set of caches, optionally populated from a snapshot, and replaces the 
+	 * caches in this security context with them.
+	 * 
+	 * @param snapshot the data to populate the new caches with, or null to create empty caches
+	 */
+    @SuppressWarnings("unchecked")
+	private void swapCaches(SecuritySnapshot snapshot) {
 		int cacheSize = Integer.MAX_VALUE;
 		int cacheExpiry = Integer.MAX_VALUE;
         if (properties.get(INIT_USER_CACHE_SIZE) != null && properties.get(INIT_USER_CACHE_EXPIRY) != null) {
@@ -674,24 +1243,300 @@ public class SecurityContext {
             cacheExpiry = Integer.parseInt((String) properties.get(INIT_USER_CACHE_EXPIRY));
         }
 
+        // caches are built before being assigned, so that concurrent permission checks 
+        // see either the old or the new caches, but not a mixture of the two
         UserPermissionCallback userPermissionCallback = new UserPermissionCallback(this.securityLoader);
-        userPermissionCache = new MRUCache(cacheSize, cacheExpiry, userPermissionCallback );
+        MRUCache<User, Map<String, Permission>> newUserPermissionCache = new MRUCache(cacheSize, cacheExpiry, userPermissionCallback );
 
 		UserRoleCallback userRoleCallback = new UserRoleCallback (this.securityLoader);
-		userRoleCache = new MRUCache(cacheSize, cacheExpiry, userRoleCallback );
+		MRUCache<User, List<String>> newUserRoleCache = new MRUCache(cacheSize, cacheExpiry, userRoleCallback );
 
 		RolePermissionCallback rolePermissionCallback = new RolePermissionCallback (this.securityLoader);
-		rolePermissionCache = new MRUCache(cacheSize, cacheExpiry, rolePermissionCallback );
+		MRUCache<String, Map<String, Permission>> newRolePermissionCache = new MRUCache(cacheSize, cacheExpiry, rolePermissionCallback );
 
 		UserCallback userCallback = new UserCallback (this.securityLoader);
-		userCache = new MRUCache(cacheSize, cacheExpiry, userCallback );
-
-		try {
-			securityLoader.resetSecurityContext();	
-		} catch (IOException ioe) {
-			throw (IllegalArgumentException) new IllegalArgumentException(
-			  "Cannot initialise security Context").initCause(ioe);
+		MRUCache<Long, User> newUserCache = new MRUCache(cacheSize, cacheExpiry, userCallback );
+		
+		EffectivePermissionCallback effectivePermissionCallback = new EffectivePermissionCallback(
+			newUserPermissionCache, newUserRoleCache, newRolePermissionCache);
+		MRUCache<User, EffectivePermissions> newEffectivePermissionCache = new MRUCache(cacheSize, cacheExpiry, effectivePermissionCallback );
+		
+		if (snapshot != null) {
+			// the MRUCaches are synchronized, so the maps are assembled in parallel 
+			// before the caches are populated 
+			Map<String, Map<String, Permission>> rolePermissions = new HashMap<String, Map<String, Permission>>();
+			for (Map.Entry<String, List<Permission>> entry : snapshot.getRolePermissions().entrySet()) {
+				rolePermissions.put(entry.getKey(), toPermissionMap("Role '" + entry.getKey() + "'", entry.getValue()));
+			}
+			List<User> users = new ArrayList<User>();
+			for (User user : snapshot.getUsers()) {
+				List<String> roles = snapshot.getUserRoles().get(user);
+				if (snapshot.getUserPermissions().containsKey(user) && roles != null && 
+				  rolePermissions.keySet().containsAll(roles)) {
+					users.add(user);
+				}
+			}
+			ConcurrentMap<User, Map<String, Permission>> userPermissions = users.parallelStream()
+				.collect(Collectors.toConcurrentMap(u -> u, 
+				  u -> toPermissionMap("User '" + u + "'", snapshot.getUserPermissions().get(u)), (a, b) -> a));
+			ConcurrentMap<User, EffectivePermissions> effectivePermissions = users.parallelStream()
+				.collect(Collectors.toConcurrentMap(u -> u, 
+				  u -> buildEffectivePermissions(u, userPermissions.get(u), snapshot.getUserRoles().get(u), rolePermissions), (a, b) -> a));
+			
+			preloadCache(newRolePermissionCache, rolePermissions);
+			preloadCache(newUserPermissionCache, userPermissions);
+			for (User user : users) {
+				preloadCache(newUserRoleCache, user, snapshot.getUserRoles().get(user));
+			}
+			preloadCache(newEffectivePermissionCache, effectivePermissions);
+		}
+		
+		ResourceCriteriaDecisionCache newDecisionCache = null;
+		if (properties.get(INIT_DECISION_CACHE_EXPIRY) != null) {
+			int decisionCacheSize = properties.get(INIT_DECISION_CACHE_SIZE) == null ? 10000 : 
+			  Integer.parseInt((String) properties.get(INIT_DECISION_CACHE_SIZE));
+			newDecisionCache = new ResourceCriteriaDecisionCache(decisionCacheSize, 
+			  Integer.parseInt((String) properties.get(INIT_DECISION_CACHE_EXPIRY)));
+		}
+		
+		effectivePermissionCache = newEffectivePermissionCache;
+		decisionCache = newDecisionCache;
+		userPermissionCache = newUserPermissionCache;
+		userRoleCache = newUserRoleCache;
+		rolePermissionCache = newRolePermissionCache;
+		userCache = newUserCache;
+    }
+	
+	/** Adds all entries in a map to an MRUCache. Entries are added using the MRUCache's 
+	 * get() method, so that they are subject to the cache's size and expiry policies. */
+	private static <K, V> void preloadCache(MRUCache<K, V> cache, Map<K, V> values) {
+		for (Map.Entry<K, V> entry : values.entrySet()) {
+			preloadCache(cache, entry.getKey(), entry.getValue());
 		}
+	}
+	
+	/** Adds an entry to an MRUCache. */
+	private static <K, V> void preloadCache(MRUCache<K, V> cache, K key, V value) {
+		cache.get(key, k -> value);
+	}
+
+    /** Reloads the roles and permissions of a single user in the background. 
+     * 
+     * <p>Permission checks for this user continue to use the existing cache entries
+     * until the new entries have been loaded. 
+     * 
+     * @param user the user to reload 
+     * 
+     * @return a Future which completes when the user has been reloaded
+     */
+    public Future<?> invalidateUser(User user) {
+        if (user == null) { throw new NullPointerException("Null user"); }
+        return refresh(Collections.singleton(user), Collections.<String>emptySet(), null);
+    }
+
+    /** Reloads the roles and permissions of all cached users with the supplied username
+     * in the background. The username is compared case-insensitively if this
+     * security context is case-insensitive.
+     * 
+     * @param username the username of the users to reload 
+     * 
+     * @return a Future which completes when the users have been reloaded
+     */
+    public Future<?> invalidateUser(String username) {
+        if (username == null) { throw new NullPointerException("Null username"); }
+        boolean caseInsensitive = "true".equals(properties.get(INIT_CASE_INSENSITIVE));
+        Set<User> users = new HashSet<User>();
+        for (User user : getCachedKeys(userRoleCache)) {
+            if (caseInsensitive ? username.equalsIgnoreCase(user.getUsername()) : username.equals(user.getUsername())) {
+                users.add(user);
+            }
+        }
+        return refresh(users, Collections.<String>emptySet(), null);
+    }
+
+    /** Reloads the permissions of a role in the background, and recalculates the 
+     * effective permissions of every cached user with that role. 
+     * 
+     * <p>Changes to the membership of a role should be applied using 
+     * {@link #invalidateUser(User)} for each affected user.
+     * 
+     * @param role the role to reload 
+     * 
+     * @return a Future which completes when the role has been reloaded
+     */
+    public Future<?> invalidateRole(String role) {
+        if (role == null) { throw new NullPointerException("Null role"); }
+        return refresh(Collections.<User>emptySet(), Collections.singleton(role), null);
+    }
+
+    /** Reloads every cached user and role that holds a permission on the supplied resource 
+     * in the background. 
+     * 
+     * <p>Users and roles that are granted a permission on this resource for the first time 
+     * should be invalidated using {@link #invalidateUser(User)} or {@link #invalidateRole(String)}.
+     * 
+     * @param resource the resource 
+     * 
+     * @return a Future which completes when the users and roles have been reloaded
+     */
+    public Future<?> invalidateResource(String resource) {
+        if (resource == null) { throw new NullPointerException("Null resource"); }
+        return refresh(null, null, resource);
+    }
+
+    /** Reloads every cached user and role in the background. Unlike
+     * {@link #resetSecurityContext()}, the existing cache entries continue to be used
+     * until they have been reloaded.
+     * 
+     * @return a Future which completes when all users and roles have been reloaded
+     */
+    public Future<?> invalidateAll() {
+        return refresh(null, null, null);
+    }
+
+    /** Applies a change notification to this security context. 
+     * 
+     * @param change the change
+     * 
+     * @return a Future which completes when the affected users and roles have been reloaded
+     * 
+     * @see SecurityChangeWatcher
+     */
+    public Future<?> invalidate(SecurityChange change) {
+        switch (change.getChangeType()) {
+            case USER: return invalidateUser(change.getName());
+            case ROLE: return invalidateRole(change.getName());
+            case RESOURCE: return invalidateResource(change.getName());
+            case ALL: return invalidateAll();
+            default: throw new IllegalArgumentException("Unknown change type '" + change.getChangeType() + "'");
+        }
+    }
+
+    /** Stops the background threads used by this security context, and writes a snapshot 
+     * of its caches if the INIT_SNAPSHOT_FILE property is set. 
+     */
+    public synchronized void shutdown() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            snapshotExecutor = null;
+        }
+        if (properties.get(INIT_SNAPSHOT_FILE) != null) {
+            try {
+                writeSnapshot();
+            } catch (IOException ioe) {
+                logger.error("Could not write security snapshot", ioe);
+            }
+        }
+        if (invalidationExecutor != null) {
+            invalidationExecutor.shutdown();
+            invalidationExecutor = null;
+        }
+    }
+    
+    /** Reloads users and roles in the background. 
+     * 
+     * @param users users to reload, or null to reload all cached users (or all cached users 
+     *   holding a permission on the resource, if resource is non-null)
+     * @param roles roles to reload, or null to reload all cached roles (or all cached roles 
+     *   holding a permission on the resource, if resource is non-null)
+     * @param resource if non-null, the resource used to select users and roles to reload
+     *  
+     * @return a Future which completes when the users and roles have been reloaded
+     */
+    private synchronized Future<?> refresh(final Set<User> users, final Set<String> roles, final String resource) {
+        if (invalidationExecutor == null) {
+            invalidationExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "SecurityContext-invalidation");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return invalidationExecutor.submit(() -> {
+            try {
+                reload(users, roles, resource);
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Could not reload security context", ioe);
+            }
+        });
+    }
+    
+    /** Reloads users and roles. See {@link #refresh(Set, Set, String)}. */
+    @SuppressWarnings("unchecked")
+    private void reload(Set<User> users, Set<String> roles, String resource) throws IOException {
+        // use the same set of caches throughout, in case the context is reset concurrently
+        MRUCache<User, Map<String, Permission>> userPermissions = userPermissionCache;
+        MRUCache<User, List<String>> userRoles = userRoleCache;
+        MRUCache<String, Map<String, Permission>> rolePermissions = rolePermissionCache;
+        MRUCache<User, EffectivePermissions> effectivePermissions = effectivePermissionCache;
+        
+        if (users == null) {
+            users = new HashSet<User>();
+            for (User user : getCachedKeys(userPermissions)) {
+                Map<String, Permission> grants = (Map<String, Permission>) userPermissions.getNoCallback(user);
+                if (resource == null || (grants != null && hasResource(grants, resource))) {
+                    users.add(user);
+                }
+            }
+        }
+        if (roles == null) {
+            roles = new HashSet<String>();
+            for (String role : getCachedKeys(rolePermissions)) {
+                Map<String, Permission> grants = (Map<String, Permission>) rolePermissions.getNoCallback(role);
+                if (resource == null || (grants != null && hasResource(grants, resource))) {
+                    roles.add(role);
+                }
+            }
+        }
+        
+        for (String role : roles) {
+            replaceCacheEntry(rolePermissions, role, toPermissionMap("Role '" + role + "'", securityLoader.loadRolePermissions(role)));
+        }
+        for (User user : users) {
+            replaceCacheEntry(userPermissions, user, toPermissionMap("User '" + user + "'", securityLoader.loadUserPermissions(user)));
+            replaceCacheEntry(userRoles, user, securityLoader.loadUserRoles(user));
+        }
+        
+        // recalculate effective permissions of the reloaded users, and of any cached users with a reloaded role
+        Set<User> affectedUsers = new HashSet<User>(users);
+        if (!roles.isEmpty()) {
+            for (User user : getCachedKeys(effectivePermissions)) {
+                List<String> cachedRoles = (List<String>) userRoles.getNoCallback(user);
+                if (cachedRoles != null && !Collections.disjoint(cachedRoles, roles)) {
+                    affectedUsers.add(user);
+                }
+            }
+        }
+        for (User user : affectedUsers) {
+            replaceCacheEntry(effectivePermissions, user, 
+              buildEffectivePermissions(user, userPermissions.get(user), userRoles.get(user), rolePermissions));
+        }
+    }
+    
+    /** Returns true if any of the supplied permissions apply to a resource */
+    private static boolean hasResource(Map<String, Permission> permissions, String resource) {
+        for (Permission permission : permissions.values()) {
+            if (resource.equals(permission.getResource())) { return true; }
+        }
+        return false;
+    }
+    
+    /** Returns a copy of the keys in an MRUCache */
+    @SuppressWarnings("unchecked")
+    private static <K> List<K> getCachedKeys(MRUCache<K, ?> cache) {
+        synchronized (cache) {
+            return new ArrayList<K>((Collection<K>) cache.keySet());
+        }
+    }
+
+    /** Replaces an entry in an MRUCache, or adds it if it is not already in the cache */
+    private static <K, V> void replaceCacheEntry(MRUCache<K, V> cache, K key, V value) {
+        synchronized (cache) {
+            if (cache.containsKey(key)) {
+                cache.put(key, value);
+            } else {
+                preloadCache(cache, key, value);
+            }
+        }
     }
 
     /**
@@ -164,6 +164,36 @@ public interface SecurityLoader
 
 	/** Informs any delegate security contexts to reset themselves. */
 	public void resetSecurityContext() throws IOException;
+
+    /**
+     * Return all users, user roles, user permissions and role permissions in this 
+     * security context, used to preload the SecurityContext caches.
+     * 
+     * <p>The default implementation of this method retrieves this information one user
+     * and one role at a time; implementations should override this method to retrieve
+     * this information using a small number of set-based queries.
+     * 
+     * @return a snapshot of this security context
+     */
+    default public SecuritySnapshot loadSecuritySnapshot()
+        throws IOException
+    {
+        List<User> users = loadAllUsers();
+        Map<User, List<String>> userRoles = new HashMap<User, List<String>>();
+        Map<User, List<Permission>> userPermissions = new HashMap<User, List<Permission>>();
+        Map<String, List<Permission>> rolePermissions = new HashMap<String, List<Permission>>();
+        for (User user : users) {
+            List<String> roles = loadUserRoles(user);
+            userRoles.put(user, roles);
+            userPermissions.put(user, loadUserPermissions(user));
+            for (String role : roles) {
+                if (!rolePermissions.containsKey(role)) {
+                    rolePermissions.put(role, loadRolePermissions(role));
+                }
+            }
+        }
+        return new SecuritySnapshot(users, userRoles, userPermissions, rolePermissions);
+    }
 	
     /** Persists the role and permission information recorded for this user to
      * the database. Existing role and permission information in the database will be
@@ -0,0 +1,92 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The complete set of users, user roles, user permissions and role permissions
+ * known to a SecurityLoader, used to preload a SecurityContext in a single pass.
+ *
+ * <p>Users that have no roles or permissions should still be included in the
+ * user role and user permission maps (with empty lists), and every role referenced by
+ * a user should be included in the role permission map, otherwise the
+ * SecurityContext will fall back to loading that information from the SecurityLoader
+ * when it is first required.
+ *
+ * <p>Instances of this class are immutable.
+ *
+ * @see SecurityLoader#loadSecuritySnapshot()
+ * @see SecurityContext#preloadSecurityContext()
+ *
+ * @author knoxg
+ */
+public class SecuritySnapshot implements Serializable {
+
+	/** generated serialVersionUID */
+	private static final long serialVersionUID = 4315067432154302896L;
+
+	/** The users in this snapshot */
+	private List<User> users;
+
+	/** Maps users to the names of their roles */
+	private Map<User, List<String>> userRoles;
+
+	/** Maps users to their (user-based) permissions */
+	private Map<User, List<Permission>> userPermissions;
+
+	/** Maps role names to their (role-based) permissions */
+	private Map<String, List<Permission>> rolePermissions;
+
+	/** Create a new SecuritySnapshot
+	 *
+	 * @param users the users in this snapshot
+	 * @param userRoles a map of users to the names of their roles
+	 * @param userPermissions a map of users to their user-based permissions
+	 * @param rolePermissions a map of role names to their role-based permissions
+	 */
+	public SecuritySnapshot(List<User> users, Map<User, List<String>> userRoles,
+		Map<User, List<Permission>> userPermissions, Map<String, List<Permission>> rolePermissions)
+	{
+		if (users == null) { throw new NullPointerException("null users"); }
+		if (userRoles == null) { throw new NullPointerException("null userRoles"); }
+		if (userPermissions == null) { throw new NullPointerException("null userPermissions"); }
+		if (rolePermissions == null) { throw new NullPointerException("null rolePermissions"); }
+		this.users = Collections.unmodifiableList(new ArrayList<User>(users));
+		this.userRoles = Collections.unmodifiableMap(new HashMap<User, List<String>>(userRoles));
+		this.userPermissions = Collections.unmodifiableMap(new HashMap<User, List<Permission>>(userPermissions));
+		this.rolePermissions = Collections.unmodifiableMap(new HashMap<String, List<Permission>>(rolePermissions));
+	}
+
+	/** Returns the users in this snapshot */
+	public List<User> getUsers() {
+		return users;
+	}
+
+	/** Returns a map of users to the names of their roles */
+	public Map<User, List<String>> getUserRoles() {
+		return userRoles;
+	}
+
+	/** Returns a map of users to their user-based permissions */
+	public Map<User, List<Permission>> getUserPermissions() {
+		return userPermissions;
+	}
+
+	/** Returns a map of role names to their role-based permissions */
+	public Map<String, List<Permission>> getRolePermissions() {
+		return rolePermissions;
+	}
+
+	/** Returns a string representation of this snapshot, for debugging */
+	public String toString() {
+		return users.size() + " users, " + rolePermissions.size() + " roles";
+	}
+}
@@ -0,0 +1,123 @@
+package com.randomnoun.common.security;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.randomnoun.common.io.ByteBufferInputStream;
+
+/**
+ * Reads and writes SecuritySnapshots to disk, so that a SecurityContext can be
+ * restored without querying the SecurityLoader after a restart.
+ *
+ * <p>Each file contains a header holding a data version (e.g. the version returned by a
+ * {@link SecurityChangeSource}), followed by the serialised snapshot. A snapshot is only
+ * restored if the data version in the file matches the current data version.
+ *
+ * <p>Files are written to a temporary file which then replaces the target file, so that
+ * a partially-written file is never read. Files are read by memory-mapping them.
+ *
+ * <p>Only the security, expression and collection classes that make up a snapshot are 
+ * deserialised; ResourceCriteria subclasses must be in the com.randomnoun.common.security 
+ * package (or its subpackages) to be restored.
+ *
+ * @see SecurityContext#INIT_SNAPSHOT_FILE
+ *
+ * @author knoxg
+ */
+public class SecuritySnapshotFile {
+
+	/** Identifies snapshot files ('RNSS') */
+	private static final int MAGIC = 0x524E5353;
+
+	/** The format of snapshot files written by this class */
+	private static final int FORMAT_VERSION = 1;
+
+	/** The length of the file header, in bytes */
+	private static final int HEADER_LENGTH = 16;
+
+	/** The classes that may be deserialised from a snapshot file: the snapshot, the security
+	 * classes it contains (including the parsed expressions held by ResourceCriteriaImpl), 
+	 * and the JDK classes used to hold them. */
+	private static final ObjectInputFilter SNAPSHOT_FILTER = ObjectInputFilter.Config.createFilter(
+		"com.randomnoun.common.security.**;com.randomnoun.common.jexl.ast.*;" +
+		"java.util.ArrayList;java.util.LinkedList;java.util.Vector;java.util.HashMap;java.util.LinkedHashMap;java.util.TreeMap;" +
+		"java.util.HashSet;java.util.LinkedHashSet;java.util.TreeSet;java.util.Map$Entry;java.util.Collections$*;" +
+		"java.util.Locale;java.lang.*;java.math.*;!*");
+
+	/** Write a snapshot to a file.
+	 *
+	 * @param file the file to write
+	 * @param snapshot the snapshot to write
+	 * @param dataVersion the version of the data contained in the snapshot
+	 *
+	 * @throws IOException if the file could not be written
+	 */
+	public static void write(File file, SecuritySnapshot snapshot, long dataVersion) throws IOException {
+		Path path = file.toPath().toAbsolutePath();
+		Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+				DataOutputStream dos = new DataOutputStream(os);
+				dos.writeInt(MAGIC);
+				dos.writeInt(FORMAT_VERSION);
+				dos.writeLong(dataVersion);
+				ObjectOutputStream oos = new ObjectOutputStream(dos);
+				oos.writeObject(snapshot);
+				oos.flush();
+			}
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	/** Read a snapshot from a file, if it exists and contains data of the expected version.
+	 *
+	 * @param file the file to read
+	 * @param dataVersion the expected data version
+	 *
+	 * @return the snapshot, or null if the file does not exist, or contains a different
+	 *   version of the data
+	 *
+	 * @throws IOException if the file exists but could not be read, or contains classes
+	 *   that are not permitted in a snapshot
+	 */
+	public static SecuritySnapshot read(File file, long dataVersion) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_LENGTH) {
+				throw new IOException("Truncated security snapshot '" + file + "'");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+				throw new IOException("Unrecognised security snapshot '" + file + "'");
+			}
+			if (buffer.getLong() != dataVersion) {
+				return null;
+			}
+			ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(buffer));
+			ois.setObjectInputFilter(SNAPSHOT_FILTER);
+			return (SecuritySnapshot) ois.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Unrecognised security snapshot '" + file + "'", e);
+		}
+	}
+}
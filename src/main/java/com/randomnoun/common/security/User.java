@@ -154,6 +154,7 @@ public class User
     {
     	// hmm. surprised that this worked in the past.
         // return System.identityHashCode(username + "\u0000" + customerId);
-    	return new String(username + "\u0000" + customerId).hashCode();
+    	// combines the same fields as equals() without allocating a String on every cache lookup
+    	return 31 * (username == null ? 0 : username.hashCode()) + (int) (customerId ^ (customerId >>> 32));
     }
 }
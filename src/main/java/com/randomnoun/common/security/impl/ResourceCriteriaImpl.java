@@ -7,13 +7,17 @@ package com.randomnoun.common.security.impl;
 import java.io.StringReader;
 import java.util.*;
 
+import com.randomnoun.common.jexl.ast.FunctionCall;
+import com.randomnoun.common.jexl.ast.Name;
 import com.randomnoun.common.jexl.ast.TopLevelExpression;
+import com.randomnoun.common.jexl.eval.BatchEvaluator;
 import com.randomnoun.common.jexl.eval.EvalContext;
 import com.randomnoun.common.jexl.eval.EvalFunction;
 import com.randomnoun.common.jexl.eval.Evaluator;
 import com.randomnoun.common.jexl.parser.ExpressionParser;
 import com.randomnoun.common.jexl.parser.ParseException;
 import com.randomnoun.common.jexl.parser.TokenMgrError;
+import com.randomnoun.common.jexl.visitor.GJDepthFirst;
 /*
 import com.randomnoun.common.jexl.sql.function.AggregateFunction;
 import com.randomnoun.common.jexl.sql.function.BetweenFunction;
@@ -40,8 +44,29 @@ public class ResourceCriteriaImpl extends ResourceCriteria
     /** generated serialVerisonUID */
 	private static final long serialVersionUID = -8307206866854674839L;
 	
+	/** Used to evaluate lists of criteria contexts; this splits large lists across 
+	 * the common ForkJoinPool */
+	private static final BatchEvaluator batchEvaluator = new BatchEvaluator();
+	
 	/** The expression used to evaluate a criteria context. */
     private TopLevelExpression expression;
+    
+    /** The names of the variables referenced by the expression, or null if the expression
+     * contains function calls (which may read any variable in the criteria context) */
+    private Set<String> referencedVariables;
+    
+    /** Collects the base names of the variables referenced in an expression. Function calls
+     * are recorded as a null element, since functions may read any variable. */
+    private static class VariableCollector extends GJDepthFirst<Object, Set<String>> {
+        public Object visit(Name n, Set<String> names) {
+            names.add(n.nodeToken.tokenImage);
+            return null;
+        }
+        public Object visit(FunctionCall n, Set<String> names) {
+            names.add(null);
+            return super.visit(n, names);
+        }
+    }
 
     /**
      * Construct a new ResourceCriteriaImpl object. The criteria is parsed using
@@ -65,9 +90,26 @@ public class ResourceCriteriaImpl extends ResourceCriteria
                     "Illegal expression found in security table: '" + criteriaString +
                     "', Error: " + pe.getMessage());
             }
+            Set<String> names = new HashSet<String>();
+            expression.accept(new VariableCollector(), names);
+            referencedVariables = names.contains(null) ? null : Collections.unmodifiableSet(names);
+        } else {
+            referencedVariables = Collections.emptySet();
         }
     }
     
+    /** Returns the names of the variables referenced by this criteria, or null if the 
+     * criteria contains function calls.
+     * 
+     * {@inheritdoc}
+     * 
+     * @return {@inheritdoc}
+     */
+    public Set<String> getReferencedVariables()
+    {
+        return referencedVariables;
+    }
+    
     /** Convert Java expression String to a TopLevelExpression */
     public static TopLevelExpression stringToExpression(String expressionString)
         throws java.text.ParseException
@@ -131,4 +173,28 @@ public class ResourceCriteriaImpl extends ResourceCriteria
         return ((Boolean) result).booleanValue();
         // return ExpressionUtils.evaluateBooleanExpression(expression, evalContext);
     }
+
+    /**
+     * Evaluates a list of criteria contexts against the criteria expression
+     * stored in this object, using a {@link BatchEvaluator}.
+     *
+     * {@inheritdoc}
+     *
+     * @param criteriaContexts {@inheritdoc}
+     *
+     * @return {@inheritdoc}
+     */
+    public BitSet evaluate(List<Map<String, Object>> criteriaContexts)
+    {
+        if (expression == null) {
+            // always return true for null expressions
+            BitSet result = new BitSet(criteriaContexts.size());
+            result.set(0, criteriaContexts.size());
+            return result;
+        }
+        EvalContext evalContext = new EvalContext();
+        evalContext.setFunctions(new HashMap<String, EvalFunction>());
+        evalContext.setVariables(new HashMap<String, Object>());
+        return batchEvaluator.filter(expression, evalContext, criteriaContexts);
+    }
 }
@@ -0,0 +1,94 @@
+package com.randomnoun.common.security.impl;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.randomnoun.common.security.SecurityChange;
+import com.randomnoun.common.security.SecurityChangeSource;
+
+/**
+ * A {@link SecurityChangeSource} which reads a version column from a JDBC datasource.
+ *
+ * <p>The version query must return a single numeric value, e.g.
+ *
+ * <pre style="code">
+ *   SELECT MAX(version) FROM securityChange
+ * </pre>
+ *
+ * <p>The (optional) change query takes the previous version as a parameter, and returns
+ * a changeType column (containing 'USER', 'ROLE', 'RESOURCE' or 'ALL') and a name column, e.g.
+ *
+ * <pre style="code">
+ *   SELECT changeType, name FROM securityChange WHERE version &gt; ?
+ * </pre>
+ *
+ * <p>If no change query is supplied, then all users and roles are reloaded whenever the version changes.
+ *
+ * @author knoxg
+ */
+public class SpringSecurityChangeSource implements SecurityChangeSource {
+
+	/** The JdbcTemplate used to read versions and changes */
+	private JdbcTemplate jt;
+
+	/** SQL used to retrieve the current version */
+	private String versionSql;
+
+	/** SQL used to retrieve the changes since a version, or null */
+	private String changeSql;
+
+	/** Create a new SpringSecurityChangeSource.
+	 *
+	 * @param jt the JdbcTemplate used to read versions and changes
+	 * @param versionSql SQL used to retrieve the current version
+	 * @param changeSql SQL used to retrieve the changes since a version, or null
+	 */
+	public SpringSecurityChangeSource(JdbcTemplate jt, String versionSql, String changeSql) {
+		if (jt == null) { throw new NullPointerException("null jt"); }
+		if (versionSql == null) { throw new NullPointerException("null versionSql"); }
+		this.jt = jt;
+		this.versionSql = versionSql;
+		this.changeSql = changeSql;
+	}
+
+	/** {@inheritDoc}
+	 *
+	 * @throws IOException if an error occured loading from the database. This IOException
+	 *   will always contain a spring DataAccessException which can be accessed via
+	 *   {@link java.io.Throwable#getCause} method.
+	 */
+	public long getVersion() throws IOException {
+		try {
+			Long version = jt.queryForObject(versionSql, new Object[0], Long.class);
+			return version == null ? 0 : version.longValue();
+		} catch (DataAccessException dae) {
+			throw new IOException("Could not read security version", dae);
+		}
+	}
+
+	/** {@inheritDoc}
+	 *
+	 * @throws IOException if an error occured loading from the database. This IOException
+	 *   will always contain a spring DataAccessException which can be accessed via
+	 *   {@link java.io.Throwable#getCause} method.
+	 */
+	public List<SecurityChange> getChanges(long sinceVersion) throws IOException {
+		if (changeSql == null) {
+			return null;
+		}
+		try {
+			return jt.query(changeSql, new Object[] { Long.valueOf(sinceVersion) }, (rs, rowNum) ->
+				new SecurityChange(SecurityChange.ChangeType.valueOf(rs.getString("changeType").toUpperCase()),
+				  rs.getString("name")));
+		} catch (DataAccessException dae) {
+			throw new IOException("Could not read security changes", dae);
+		}
+	}
+}
@@ -5,19 +5,23 @@ package com.randomnoun.common.security.impl;
  */
 
 import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.*;
 
 import com.randomnoun.common.CamelCaser;
-import com.randomnoun.common.Struct;
 import com.randomnoun.common.Text;
 import com.randomnoun.common.jexl.sql.SqlGenerator;
 import com.randomnoun.common.security.Permission;
+import com.randomnoun.common.security.ResourceCriteria;
 import com.randomnoun.common.security.SecurityContext;
 import com.randomnoun.common.security.SecurityLoader;
+import com.randomnoun.common.security.SecuritySnapshot;
 import com.randomnoun.common.security.User;
 import com.randomnoun.common.security.impl.ResourceCriteriaImpl;
 import com.randomnoun.common.security.impl.SpringSecurityLoaderImpl;
@@ -60,12 +64,17 @@ public class SpringSecurityLoaderImpl
 	/** Properties used in this loader */
 	private Map<String, Object> properties = null;
     
-	/** Used as parameter to {@link #convertPermissionList(List, int)} method */
+	/** Used as parameter to the {@link PermissionRowMapper} constructor */
 	private static final int PERMISSION_USER = 1;
-	/** Used as parameter to {@link #convertPermissionList(List, int)} method */
+	/** Used as parameter to the {@link PermissionRowMapper} constructor */
 	private static final int PERMISSION_ROLE = 2;
-	/** Used as parameter to {@link #convertPermissionList(List, int)} method */
+	/** Used as parameter to the {@link PermissionRowMapper} constructor */
 	private static final int PERMISSION_NONE = 3;
+	
+	/** Parsed resource criteria, keyed by criteria string. Permissions with the same 
+	 * criteria string share the same ResourceCriteria object. Cleared when the security 
+	 * context is reset. */
+	private final Map<String, ResourceCriteria> resourceCriteriaCache = new ConcurrentHashMap<String, ResourceCriteria>();
     
 	/** Initialisation property key to set JdbcTemplate. */
 	public final static String INIT_JDBCTEMPLATE = "jdbcTemplate";
@@ -86,7 +95,8 @@ public class SpringSecurityLoaderImpl
 	/** Column renamer for the USERS table */
 	public final CamelCaser userCamelCaser = new CamelCaser("userId,name");
     
-	/** Column renamer for the PERMISSION table */
+	/** Column renamer for the PERMISSION table. No longer used by this class, since permissions
+	 * are now read using a {@link PermissionRowMapper} */
 	public final CamelCaser permissionCamelCaser = new CamelCaser("roleName,userId,activityName,resourceName,resourceCriteria");
     
 	/** Column renamer for the SECURITYAUDITS table */    
@@ -288,14 +298,13 @@ public class SpringSecurityLoaderImpl
 		  " AND " + "(" + securityTable() + ".permissionId = permission.permissionId) " +
 		  " AND " + "(permission.resourceId = resources.resourceId)";
 		List<Object> sqlParams = new ArrayList<Object>(2);  
-		List<Map<String, Object>> list = jt.query(loadAllRolePermissionsSql,
+		List<Permission> list = jt.query(loadAllRolePermissionsSql,
 		  sqlParams.toArray(),
-		  new ColumnMapRowMapper());
+		  new PermissionRowMapper(PERMISSION_ROLE));
 		if (logger.isDebugEnabled()) {
-			logger.debug(Struct.structuredListToString("loadAllRolePermissions", list));
+			logger.debug("loadAllRolePermissions: " + list.size() + " permissions");
 		}
-		permissionCamelCaser.renameList(list);
-		return convertPermissionList(list, PERMISSION_ROLE);
+		return list;
 	}
 
 	/** Retrieve per-user permission objects.
@@ -323,13 +332,12 @@ public class SpringSecurityLoaderImpl
 		  " AND (permission.resourceId = resources.resourceId) ORDER BY resourceName, activityName";
 		List<Object> sqlParams = new ArrayList<Object>(2);  
 		sqlParams.add(lower(user.getUsername()));
-		List<Map<String, Object>> list = jt.query(sqlPermissions, sqlParams.toArray(), new ColumnMapRowMapper());
+		List<Permission> list = jt.query(sqlPermissions, sqlParams.toArray(), new PermissionRowMapper(user));
 		
 		if (logger.isDebugEnabled()) {
-		  logger.debug(Struct.structuredListToString("loadAllUserPermissions [2]", list));
+		  logger.debug("loadUserPermissions: " + list.size() + " permissions for user '" + user.getUsername() + "'");
 		}
-		permissionCamelCaser.renameList(list);
-		return convertPermissionList(list, PERMISSION_USER);                
+		return list;
 	}
     
 
@@ -377,9 +385,7 @@ public class SpringSecurityLoaderImpl
 		  " ORDER BY resourceName, activityName";
 		List<Object> sqlParams = new ArrayList<Object>(2);
 		sqlParams.add(toSequenceType(roleId));
-		List<Map<String, Object>> list = jt.query(sql, sqlParams.toArray(), new ColumnMapRowMapper());
-		permissionCamelCaser.renameList(list);
-		return convertPermissionList(list, PERMISSION_ROLE);
+		return jt.query(sql, sqlParams.toArray(), new PermissionRowMapper(PERMISSION_ROLE));
 	}
 
 	/**
@@ -407,20 +413,21 @@ public class SpringSecurityLoaderImpl
 			" AND (permission.resourceId = resources.resourceId)";
 		List<Object> sqlParams = new ArrayList<Object>(2);
 		sqlParams.add(user.getUsername());
-		List<Map<String, Object>> list = jt.query(sql, sqlParams.toArray(), new ColumnMapRowMapper());
-                
+		
 		// take out duplicates
 		// Can't use DISTINCT on queries that contain CLOBs. Goddamn oracle.
-		ArrayList<Map<String, Object>> list2 = new ArrayList<Map<String, Object>>();
-		for (int x = 0; x < list.size(); x++) {
-			Map<String, Object> row = list.get(x);
-			if (!list2.contains(row)) {
-				list2.add(row);   
+		final Map<String, Permission> permissions = new LinkedHashMap<String, Permission>();
+		final PermissionRowMapper rowMapper = new PermissionRowMapper(PERMISSION_NONE); // role perm here ?
+		jt.query(sql, sqlParams.toArray(), new RowCallbackHandler() {
+			public void processRow(ResultSet rs) throws SQLException {
+				String key = rs.getString("activityName") + "\u0000" + rs.getString("resourceName") + "\u0000" + 
+				  rs.getString("resourceCriteria");
+				if (!permissions.containsKey(key)) {
+					permissions.put(key, rowMapper.mapRow(rs, permissions.size()));
+				}
 			}
-		}
-		permissionCamelCaser.renameList(list2);
-		return convertPermissionList(list2, PERMISSION_NONE); // role perm here ?
-		          
+		});
+		return new ArrayList<Permission>(permissions.values());
 	}
 
 
@@ -439,60 +446,94 @@ public class SpringSecurityLoaderImpl
 		  " permission.resourceId = resources.resourceId " +
 		  "ORDER BY resourceName, activityName";
 		List<Object> sqlParams = new ArrayList<Object>(2);
-		List<Map<String, Object>> list = jt.query(sql, sqlParams.toArray(), new ColumnMapRowMapper());
-		permissionCamelCaser.renameList(list);
-		return convertPermissionList(list, PERMISSION_NONE);
+		return jt.query(sql, sqlParams.toArray(), new PermissionRowMapper(PERMISSION_NONE));
 	}
     
 
 
-	/** Private method to convert a list of PERMISSION rows (as returned by Spring)
-	 *  into Permission Objects.
-	 *
-	 * <p>On reflection, probably should have used a Spring RowMapper for this. Oh well. It works.
-	 *
-	 * @param list  The list to convert
-	 * @return  A List of Permission objects
+	/** Maps rows from the PERMISSION and RESOURCES tables (and optionally the
+	 * SECURITYTABLE and ROLETABLE tables) into Permission objects.
+	 * 
+	 * <p>The row must contain activityName and resourceName columns. Role permissions
+	 * also require roleName and resourceCriteria columns; user permissions require a 
+	 * resourceCriteria column, and a userId column if no User is supplied to the constructor.
+	 * 
+	 * <p>Each distinct resourceCriteria string is only parsed once; see {@link #getResourceCriteria(String)}.
 	 */
-	private List<Permission> convertPermissionList(List<Map<String, Object>> list, int permissionType)
-	{
-		String resourceType;
-		String expressionString;
-		Permission permission;
-		List<Permission> result = new ArrayList<Permission>(list.size());
-        
-		for (Iterator<Map<String, Object>> i = list.iterator(); i.hasNext(); ) {
-			Map<String, Object> map = i.next();
-			resourceType = (String) map.get("resourceName");
-			expressionString = (String) map.get("resourceCriteria");
-			ResourceCriteriaImpl resourceCriteriaImpl = null;
-			if (expressionString != null && !expressionString.equals("")) {
-				try {
-					resourceCriteriaImpl = new ResourceCriteriaImpl(expressionString);
-				} catch (Exception ce) {
-					throw new DataIntegrityViolationException(
-						"Invalid criteria found in SECURITY.RESOURCECRITERIA: '" +
-						expressionString + "'", ce);
-				}
+	private class PermissionRowMapper implements RowMapper<Permission> {
+		
+		/** One of the PERMISSION_* constants */
+		private int permissionType;
+		
+		/** For user permissions, the user that owns the permission, or null to read the userId column */
+		private User user;
+		
+		/** Create a RowMapper for role permissions, or permissions that are not assigned to
+		 * a user or role.
+		 *  
+		 * @param permissionType one of the PERMISSION_* constants
+		 */
+		public PermissionRowMapper(int permissionType) {
+			if (permissionType != PERMISSION_USER && permissionType != PERMISSION_ROLE && permissionType != PERMISSION_NONE) {
+				throw new IllegalArgumentException("Unknown permission type '" + permissionType + "'");
 			}
-			
+			this.permissionType = permissionType;
+		}
+		
+		/** Create a RowMapper for the permissions of a single user 
+		 * 
+		 * @param user the user
+		 */
+		public PermissionRowMapper(User user) {
+			this.permissionType = PERMISSION_USER;
+			this.user = user;
+		}
+		
+		public Permission mapRow(ResultSet rs, int rowNum) throws SQLException {
+			String activityName = rs.getString("activityName");
+			String resourceName = rs.getString("resourceName");
 			if (permissionType == PERMISSION_ROLE) {
-				permission = new Permission((String)map.get("roleName"),
-				  (String)map.get("activityName"), resourceType, resourceCriteriaImpl);
+				return new Permission(rs.getString("roleName"), activityName, resourceName,
+				  getResourceCriteria(rs.getString("resourceCriteria")));
 			} else if (permissionType == PERMISSION_USER) {
-				User user = new User();
-				user.setUsername((String) map.get("userId"));
-				permission = new Permission( user,
-				  (String)map.get("activityName"), resourceType, resourceCriteriaImpl);
-			} else if (permissionType == PERMISSION_NONE) {
-				permission = new Permission((String)map.get("activityName"), resourceType);
-				
+				User permissionUser = user;
+				if (permissionUser == null) {
+					permissionUser = new User();
+					permissionUser.setUsername(rs.getString("userId"));
+				}
+				return new Permission(permissionUser, activityName, resourceName, 
+				  getResourceCriteria(rs.getString("resourceCriteria")));
 			} else {
-				throw new IllegalArgumentException("Unknown permission type '" + permissionType + "'");
+				return new Permission(activityName, resourceName);
 			}
-			result.add(permission);
 		}
-		return result;
+	}
+	
+	/** Returns the parsed ResourceCriteria for a criteria string. ResourceCriteria objects are 
+	 * immutable, so the same object is returned for every permission with the same criteria string. 
+	 * 
+	 * @param expressionString the criteria string, as stored in SECURITY.RESOURCECRITERIA
+	 * 
+	 * @return the parsed criteria, or null if expressionString is null or empty
+	 * 
+	 * @throws DataIntegrityViolationException if the criteria string could not be parsed
+	 */
+	private ResourceCriteria getResourceCriteria(String expressionString) {
+		if (expressionString == null || expressionString.equals("")) {
+			return null;
+		}
+		ResourceCriteria resourceCriteria = resourceCriteriaCache.get(expressionString);
+		if (resourceCriteria == null) {
+			try {
+				resourceCriteria = new ResourceCriteriaImpl(expressionString);
+			} catch (Exception ce) {
+				throw new DataIntegrityViolationException(
+					"Invalid criteria found in SECURITY.RESOURCECRITERIA: '" +
+					expressionString + "'", ce);
+			}
+			resourceCriteriaCache.put(expressionString, resourceCriteria);
+		}
+		return resourceCriteria;
 	}
 
 	// if you want to do this, subclass it
@@ -520,6 +561,85 @@ public class SpringSecurityLoaderImpl
 		
 	}
 	
+	/** Retrieve all users, user roles, user permissions and role permissions 
+	 * using a fixed number of set-based queries, rather than querying each user separately. 
+	 * 
+	 * <p>User role and user permission rows that refer to users that are not in the 
+	 * users table are ignored.
+	 *
+	 * {@inheritDoc}
+	 *
+	 * @throws IOException if an error occured loading from the database. This IOException
+	 *   will always contain a spring DataAccessException which can be accessed via
+	 *   {@link java.io.Throwable#getCause} method.
+	 *
+	 * @see com.randomnoun.common.security.SecurityLoader#loadSecuritySnapshot()
+	 */
+	public SecuritySnapshot loadSecuritySnapshot()
+		throws IOException
+	{
+		JdbcTemplate jt = (JdbcTemplate) properties.get("jdbcTemplate");
+		
+		List<User> users = loadAllUsers();
+		Map<String, User> usersByName = new HashMap<String, User>();
+		Map<User, List<String>> userRoles = new HashMap<User, List<String>>();
+		Map<User, List<Permission>> userPermissions = new HashMap<User, List<Permission>>();
+		for (User user : users) {
+			usersByName.put(lower(user.getUsername()), user);
+			userRoles.put(user, new ArrayList<String>());
+			userPermissions.put(user, new ArrayList<Permission>());
+		}
+		
+		// roles without permissions are still included in the snapshot
+		Map<String, List<Permission>> rolePermissions = new HashMap<String, List<Permission>>();
+		for (String role : loadAllRoles()) {
+			rolePermissions.put(role, new ArrayList<Permission>());
+		}
+		for (Permission permission : loadAllRolePermissions()) {
+			List<Permission> permissions = rolePermissions.get(permission.getRole());
+			if (permissions == null) {
+				permissions = new ArrayList<Permission>();
+				rolePermissions.put(permission.getRole(), permissions);
+			}
+			permissions.add(permission);
+		}
+		
+		String userRoleSql = "SELECT " + userRoleTable() + ".userId, roleName " + 
+		  " FROM " + roleTable() + "," + userRoleTable() + 		  
+		  " WHERE " +
+		  roleTable() + ".roleId = " + userRoleTable() + ".roleId ";
+		List<String[]> userRoleList = jt.query(userRoleSql, 
+		  (rs, rowNum) -> new String[] { rs.getString("userId"), rs.getString("roleName") });
+		for (String[] row : userRoleList) {
+			User user = row[0] == null ? null : usersByName.get(lower(row[0]));
+			if (user != null) {
+				userRoles.get(user).add(row[1]);
+			}
+		}
+		
+		String userPermissionSql = 
+		  "SELECT " + securityTable() + ".userId, activityName, resourceName, resourceCriteria " +
+		  "FROM " + securityTable() + ", permission, resources " + 
+		  "WHERE " +
+		  " " + securityTable() + ".roleId IS NULL " +
+		  " AND (" + securityTable() + ".permissionId = permission.permissionId) " +
+		  " AND (permission.resourceId = resources.resourceId) ORDER BY resourceName, activityName";
+		List<Permission> userPermissionList = jt.query(userPermissionSql, new PermissionRowMapper(PERMISSION_USER));
+		for (Permission permission : userPermissionList) {
+			String username = permission.getUser().getUsername();
+			User user = username == null ? null : usersByName.get(lower(username));
+			if (user != null) {
+				userPermissions.get(user).add(permission);
+			}
+		}
+		
+		if (logger.isDebugEnabled()) {
+			logger.debug("loadSecuritySnapshot: " + users.size() + " users, " + userRoleList.size() + 
+			  " user roles, " + userPermissionList.size() + " user permissions");
+		}
+		return new SecuritySnapshot(users, userRoles, userPermissions, rolePermissions);
+	}
+	
 	/** Retrieve a list of users in the current application context.
 	 *
 	 * {@inheritDoc}
@@ -665,10 +785,10 @@ public class SpringSecurityLoaderImpl
 
 	/** Resets the security context. 
 	 * 
-	 * <p>This security context holds no state, so this method does nothing.
+	 * <p>This clears the parsed resource criteria held by this loader.
 	 */
 	public void resetSecurityContext() {
-		// no action necessary
+		resourceCriteriaCache.clear();
 	}
 
 	public void saveUserRolesAndPermissions(User user, List<String> roles, List<Permission> userPermissions) throws IOException 
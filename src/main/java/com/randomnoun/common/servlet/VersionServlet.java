@@ -8,6 +8,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import jakarta.servlet.ServletException;
@@ -18,6 +22,8 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
 
+import com.randomnoun.common.spring.JdbcStatistics;
+
 /**
  * Reads the contents of the build.properties file in the 
  * current application and sends it to the browser in a 
@@ -64,6 +70,11 @@ import org.json.JSONObject;
  * this should exist on docker containers built by bamboo. If this exists, it is also 
  * included in the JSON output under the "/etc/build.properties" key.
  * 
+ * <p>If the servlet's <code>includeJdbcStatistics</code> init-param is set to <code>true</code>, 
+ * snapshots of any statistics registered using {@link JdbcStatistics#register(String, JdbcStatistics)}
+ * are included in the JSON output under the "jdbcStatistics" key. As this exposes SQL statements, 
+ * this should only be enabled where the servlet is not publicly accessible.
+ * 
  * 
  * @author knoxg
  * @see <a href="http://www.randomnoun.com/wp/2013/09/24/webapp-versions-v1-0/">http://www.randomnoun.com/wp/2013/09/24/webapp-versions-v1-0/</a>
@@ -77,6 +88,16 @@ public class VersionServlet extends HttpServlet {
 	/** Logger for this class */
     public static final Logger logger = Logger.getLogger(VersionServlet.class);
 
+    /** If true, include registered JdbcStatistics in the output */
+    private boolean includeJdbcStatistics = false;
+    
+    /** Reads the servlet's init-params
+     * 
+     * @see jakarta.servlet.GenericServlet#init()
+     */
+    public void init() throws ServletException {
+    	includeJdbcStatistics = "true".equals(getInitParameter("includeJdbcStatistics"));
+    }
     
 	/** Post method; just defers to get
 	 * 
@@ -157,6 +178,18 @@ public class VersionServlet extends HttpServlet {
     		props.put("/etc/build.properties", etcProps);
     	}
     	
+    	if (includeJdbcStatistics) {
+    		Map<String, Object> jdbcStatistics = new LinkedHashMap<String, Object>();
+    		for (Map.Entry<String, JdbcStatistics> e : JdbcStatistics.getRegisteredStatistics().entrySet()) {
+    			List<Map<String, Object>> snapshots = new ArrayList<Map<String, Object>>();
+    			for (JdbcStatistics.Snapshot snapshot : e.getValue().getSnapshots()) {
+    				snapshots.add(snapshot.toMap());
+    			}
+    			jdbcStatistics.put(e.getKey(), snapshots);
+    		}
+    		props.put("jdbcStatistics", jdbcStatistics);
+    	}
+    	
     	response.setHeader("Content-Type", "application/json");
     	response.setStatus(HttpServletResponse.SC_OK);
     	response.getWriter().println(new JSONObject(props).toString());
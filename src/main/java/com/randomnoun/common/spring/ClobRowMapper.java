@@ -5,6 +5,11 @@ package com.randomnoun.common.spring;
  */
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.*;
 import java.util.*;
 
@@ -18,7 +23,6 @@ import org.springframework.jdbc.support.MetaDataAccessException;
 import org.springframework.jdbc.support.lob.DefaultLobHandler;
 import org.springframework.jdbc.support.lob.LobHandler;
 
-import com.randomnoun.common.StreamUtil;
 import com.randomnoun.common.spring.ClobRowMapper;
 
 /**
@@ -29,6 +33,11 @@ import com.randomnoun.common.spring.ClobRowMapper;
  *
  * <p>LobHandlers aren't required in recent Oracle drivers, so this entire class is 
  * probably obsolete these days.
+ * 
+ * <p>The way CLOB and BLOB values are represented in the returned Map can be changed
+ * using {@link #setLobStrategy(LobStrategy)}; by default CLOBs are read into Strings.
+ * Column labels are read once per ResultSet, so a single instance of this class
+ * should be used for all rows in a ResultSet.
  *
  * 
  * @author knoxg
@@ -42,6 +51,76 @@ public class ClobRowMapper implements RowMapper<Map<String, Object>>
     /** Oracle Large OBject handler. */
     final LobHandler lobHandler; 
 
+    /** How LOB values are represented in the rows returned by this mapper */
+    public enum LobStrategy {
+        /** CLOBs are read into Strings. BLOBs are left as the object returned by the JDBC driver. */
+        STRING,
+        
+        /** CLOBs and BLOBs are returned as {@link LobSupplier}s, which can only be read 
+         * while the ResultSet is being extracted. */
+        SUPPLIER,
+        
+        /** CLOBs and BLOBs larger than the spill threshold are written to temporary files, and 
+         * returned as File objects. Smaller CLOBs are read into Strings, and smaller BLOBs into 
+         * byte arrays. The caller is responsible for deleting these files. */
+        FILE
+    }
+    
+    /** Provides streams over a CLOB or BLOB value. 
+     * 
+     * @param <T> a Reader for CLOBs, or an InputStream for BLOBs
+     */
+    public interface LobSupplier<T> {
+        /** Returns a new stream over the LOB. This is only valid whilst the ResultSet 
+         * that contained the LOB is open. */
+        public T get() throws SQLException;
+        
+        /** Returns the length of the LOB, in characters for CLOBs, or bytes for BLOBs */
+        public long length() throws SQLException;
+    }
+    
+    /** A LobSupplier for CLOBs */
+    private static class ClobSupplier implements LobSupplier<Reader> {
+        private final Clob clob;
+        ClobSupplier(Clob clob) { this.clob = clob; }
+        public Reader get() throws SQLException { return clob.getCharacterStream(); }
+        public long length() throws SQLException { return clob.length(); }
+    }
+
+    /** A LobSupplier for BLOBs */
+    private static class BlobSupplier implements LobSupplier<InputStream> {
+        private final Blob blob;
+        BlobSupplier(Blob blob) { this.blob = blob; }
+        public InputStream get() throws SQLException { return blob.getBinaryStream(); }
+        public long length() throws SQLException { return blob.length(); }
+    }
+    
+    /** The column labels of a ResultSet */
+    private static class Columns {
+        // weakly held, so that this mapper doesn't keep closed ResultSets reachable
+        final WeakReference<ResultSet> resultSet;
+        final String[] keys;
+        Columns(ResultSet resultSet, String[] keys) {
+            this.resultSet = new WeakReference<ResultSet>(resultSet);
+            this.keys = keys;
+        }
+    }
+    
+    /** Buffer size used when reading LOBs */
+    private static final int BUFFER_SIZE = 8192;
+    
+    /** How LOBs are represented in the returned rows */
+    private LobStrategy lobStrategy = LobStrategy.STRING;
+    
+    /** LOBs larger than this are written to temporary files, when using the FILE strategy */
+    private long spillThreshold = 1024 * 1024;
+    
+    /** Directory for temporary files, or null for the default temporary-file directory */
+    private File spillDirectory;
+    
+    /** Column labels of the last ResultSet mapped */
+    private volatile Columns columns;
+
     public String detectDatabase(DataSource ds) {
         logger.debug("Looking up default SQLErrorCodes for DataSource");
         String dbName = "unknown";
@@ -112,38 +191,186 @@ public class ClobRowMapper implements RowMapper<Map<String, Object>>
         */
     }
 
+    /** Creates a new ClobRowMapper object, which represents LOBs using the supplied strategy */
+    public ClobRowMapper(JdbcTemplate jt, LobStrategy lobStrategy)
+    {
+        this(jt);
+        setLobStrategy(lobStrategy);
+    }
+    
+    /** Sets how CLOB and BLOB values are represented in the returned rows. Defaults to {@link LobStrategy#STRING}. */
+    public void setLobStrategy(LobStrategy lobStrategy) {
+        if (lobStrategy == null) { throw new NullPointerException("null lobStrategy"); }
+        this.lobStrategy = lobStrategy;
+    }
+    
+    public LobStrategy getLobStrategy() {
+        return lobStrategy;
+    }
+
+    /** Sets the size above which LOBs are written to temporary files when using the {@link LobStrategy#FILE} 
+     * strategy; in characters for CLOBs, or bytes for BLOBs. Defaults to 1MB. */
+    public void setSpillThreshold(long spillThreshold) {
+        if (spillThreshold < 0) { throw new IllegalArgumentException("spillThreshold must be >= 0"); }
+        this.spillThreshold = spillThreshold;
+    }
+
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+    
+    /** Sets the directory that temporary files are written to when using the {@link LobStrategy#FILE} 
+     * strategy. Defaults to null, which uses the system temporary-file directory. */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /** Returns the (uppercased) column labels of a ResultSet, which are only retrieved
+     * from the ResultSetMetaData for the first row of each ResultSet. */
+    private String[] getKeys(ResultSet rs) throws SQLException {
+        Columns c = columns;
+        if (c == null || c.resultSet.get() != rs) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            String[] keys = new String[metaData.getColumnCount()];
+            for (int i = 0; i < keys.length; i++) {
+                // key.toUpperCase required for SqlServer; DB2 & Oracle will automatically
+                // do this anyway
+                keys[i] = metaData.getColumnLabel(i + 1).toUpperCase();
+            }
+            c = new Columns(rs, keys);
+            columns = c;
+        }
+        return c.keys;
+    }
+
     /** Map rows to a disconnected HashMap representation */
     public Map<String, Object> mapRow(ResultSet rs, int rowNum)
         throws SQLException
     {
-        Map<String, Object> row = new HashMap<String, Object>();
-        String key;
+        String[] keys = getKeys(rs);
+        Map<String, Object> row = new HashMap<String, Object>(keys.length * 4 / 3 + 1);
         Object value;
 
-        ResultSetMetaData metaData = rs.getMetaData();
-        int columnCount = metaData.getColumnCount();
-
-        for (int i = 1; i <= columnCount; i++) {
-			// key.toUpperCase required for SqlServer; DB2 & Oracle will automatically
-			// do this anyway
-            key = metaData.getColumnLabel(i).toUpperCase();  
+        for (int i = 1; i <= keys.length; i++) {
             value = rs.getObject(i);
-            if (value != null && value.getClass().getName().equals("oracle.sql.CLOB")) {
+            if (value != null && lobStrategy == LobStrategy.STRING && value.getClass().getName().equals("oracle.sql.CLOB")) {
                 value = lobHandler.getClobAsString(rs, i);
-            } else if (value instanceof java.sql.Clob) {
-                Clob clob = (Clob) value;
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            } else if (value instanceof Clob) {
+                value = getClobValue((Clob) value);
+            } else if (value instanceof Blob && lobStrategy != LobStrategy.STRING) {
+                value = getBlobValue((Blob) value);
+            }
+            row.put(keys[i - 1], value);
+        }
+
+        return row;
+    }
+    
+    private Object getClobValue(Clob clob) throws SQLException {
+        switch (lobStrategy) {
+            case SUPPLIER:
+                return new ClobSupplier(clob);
+                
+            case FILE:
+                if (clob.length() > spillThreshold) {
+                    try {
+                        Path path = createSpillFile(".txt");
+                        try (Reader r = clob.getCharacterStream(); 
+                            Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) 
+                        {
+                            char[] buf = new char[BUFFER_SIZE];
+                            int n;
+                            while ((n = r.read(buf)) != -1) { w.write(buf, 0, n); }
+                        } catch (IOException | SQLException e) {
+                            Files.deleteIfExists(path);
+                            throw e;
+                        }
+                        return path.toFile();
+                    } catch (IOException ioe) {
+                        throw new SQLException("IO error transferring CLOB", ioe);
+                    } finally {
+                        free(clob);
+                    }
+                }
+                // fall through
+                
+            case STRING:
+            default:
                 try {
-                    StreamUtil.copyStream(clob.getAsciiStream(), baos, 1024);
+                    return readClob(clob);
+                } finally {
+                    free(clob);
+                }
+        }
+    }
+
+    private Object getBlobValue(Blob blob) throws SQLException {
+        switch (lobStrategy) {
+            case SUPPLIER:
+                return new BlobSupplier(blob);
+                
+            case FILE:
+                try {
+                    long length = blob.length();
+                    if (length > spillThreshold) {
+                        Path path = createSpillFile(".bin");
+                        try (InputStream is = blob.getBinaryStream()) {
+                            Files.copy(is, path, StandardCopyOption.REPLACE_EXISTING);
+                        } catch (IOException | SQLException e) {
+                            Files.deleteIfExists(path);
+                            throw e;
+                        }
+                        return path.toFile();
+                    } else if (length > Integer.MAX_VALUE) {
+                        throw new SQLException("BLOB of " + length + " bytes is too large to read into a byte array");
+                    } else {
+                        return length == 0 ? new byte[0] : blob.getBytes(1, (int) length);
+                    }
                 } catch (IOException ioe) {
-                    throw (SQLException) new SQLException("IO error transferring CLOB").initCause(ioe);
+                    throw new SQLException("IO error transferring BLOB", ioe);
+                } finally {
+                    free(blob);
                 }
                 
-                value = baos.toString();
-            }
-            row.put(key, value);
+            default:
+                return blob;
+        }
+    }
+    
+    /** Reads a CLOB into a String, using a buffer sized to the length of the CLOB */
+    private static String readClob(Clob clob) throws SQLException {
+        long length = clob.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new SQLException("CLOB of " + length + " characters is too large to read into a String");
+        }
+        if (length == 0) { return ""; }
+        StringBuilder sb = new StringBuilder((int) length);
+        char[] buf = new char[(int) Math.min(length, BUFFER_SIZE)];
+        try (Reader r = clob.getCharacterStream()) {
+            int n;
+            while ((n = r.read(buf)) != -1) { sb.append(buf, 0, n); }
+        } catch (IOException ioe) {
+            throw new SQLException("IO error transferring CLOB", ioe);
+        }
+        return sb.toString();
+    }
+    
+    private Path createSpillFile(String suffix) throws IOException {
+        return spillDirectory == null ? Files.createTempFile("lob", suffix) :
+            Files.createTempFile(spillDirectory.toPath(), "lob", suffix);
+    }
+    
+    /** Release resources held by a LOB that has been read into memory or a file */
+    private void free(Object lob) {
+        try {
+            if (lob instanceof Clob) { ((Clob) lob).free(); } else { ((Blob) lob).free(); }
+        } catch (SQLException | AbstractMethodError e) {
+            // pre-JDBC4 drivers, or LOBs that can't be freed; resources are released when the ResultSet is closed
+            logger.debug("Could not free LOB", e);
         }
-
-        return row;
     }
 }
@@ -0,0 +1,498 @@
+package com.randomnoun.common.spring;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.rowset.SqlRowSet;
+
+/**
+ * Timing and row-count statistics for statements executed through a {@link JdbcTemplateWithArguments}.
+ *
+ * <p>Statistics are kept per SQL fingerprint; i.e. the SQL with literals replaced by '?',
+ * whitespace collapsed, and IN lists collapsed to a single parameter, so that statements that
+ * differ only in their literal values are recorded together. For each fingerprint, this class records
+ * the number of executions and errors, rows returned (or updated), time spent executing the statement
+ * (until the first row is available), time spent fetching and mapping rows, and a histogram of
+ * total elapsed times. Recording is lock-free.
+ *
+ * <p>Statements that take longer than the slow query threshold are logged, along with their
+ * bound arguments.
+ *
+ * <p>Statistics can be retrieved using {@link #getSnapshots()}. Instances can be registered
+ * under a name using {@link #register(String, JdbcStatistics)}, so that they can be found by
+ * (for example) the {@link com.randomnoun.common.servlet.VersionServlet}.
+ *
+ * <pre style="code">
+ *   JdbcStatistics statistics = new JdbcStatistics();
+ *   statistics.setSlowQueryThreshold(500, TimeUnit.MILLISECONDS);
+ *   JdbcStatistics.register("main", statistics);
+ *   JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(new JdbcTemplate(dataSource));
+ *   jt.setStatistics(statistics);
+ * </pre>
+ *
+ * @author knoxg
+ */
+public class JdbcStatistics {
+
+	/** Logger for this class */
+	public static final Logger logger = Logger.getLogger(JdbcStatistics.class);
+
+	/** Number of histogram buckets; bucket n holds times below 2^n microseconds */
+	private static final int BUCKETS = 32;
+
+	/** Fingerprint used once maxFingerprints statements are being recorded */
+	public static final String OTHER_FINGERPRINT = "(other)";
+
+	/** Maximum length of a bound argument in the slow query log */
+	private static final int MAX_ARGUMENT_LENGTH = 100;
+
+	/** Maximum number of fingerprints memoised by {@link #getFingerprint(String)} */
+	private static final int MAX_MEMOISED_FINGERPRINTS = 10000;
+
+	/** Maximum length of a statement whose fingerprint is memoised */
+	private static final int MAX_MEMOISED_SQL_LENGTH = 4096;
+
+	/** Repeated spaces left by removed comments */
+	private static final Pattern REPEATED_SPACES = Pattern.compile("  +");
+
+	/** Parenthesised lists of parameters */
+	private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+
+	/** Memoised fingerprints, keyed by SQL */
+	private static final Map<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+
+	/** Registered statistics */
+	private static final Map<String, JdbcStatistics> registry = new ConcurrentHashMap<String, JdbcStatistics>();
+
+	/** Statistics for a single fingerprint */
+	private static class StatementStatistics {
+		final String fingerprint;
+		final LongAdder count = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		final LongAdder executeNanos = new LongAdder();
+		final LongAdder fetchNanos = new LongAdder();
+		final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		final LongAccumulator maxRows = new LongAccumulator(Math::max, 0);
+		final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		StatementStatistics(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/** An immutable snapshot of the statistics for a fingerprint */
+	public static class Snapshot {
+		private final String fingerprint;
+		private final long count, errors, rows, maxRows, executeNanos, fetchNanos, maxNanos;
+		private final long[] histogram;
+
+		Snapshot(StatementStatistics ss) {
+			fingerprint = ss.fingerprint;
+			count = ss.count.sum();
+			errors = ss.errors.sum();
+			rows = ss.rows.sum();
+			maxRows = ss.maxRows.get();
+			executeNanos = ss.executeNanos.sum();
+			fetchNanos = ss.fetchNanos.sum();
+			maxNanos = ss.maxNanos.get();
+			histogram = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) { histogram[i] = ss.histogram.get(i); }
+		}
+
+		/** The SQL fingerprint */
+		public String getFingerprint() { return fingerprint; }
+		/** The number of times statements with this fingerprint were executed */
+		public long getCount() { return count; }
+		/** The number of executions that threw an exception */
+		public long getErrors() { return errors; }
+		/** The total number of rows returned by queries, or updated by updates */
+		public long getRows() { return rows; }
+		/** The maximum number of rows returned or updated by a single execution */
+		public long getMaxRows() { return maxRows; }
+		/** The total time spent executing statements, until their first row was available */
+		public long getExecuteTime(TimeUnit unit) { return unit.convert(executeNanos, TimeUnit.NANOSECONDS); }
+		/** The total time spent fetching and mapping rows, after the first row was available */
+		public long getFetchTime(TimeUnit unit) { return unit.convert(fetchNanos, TimeUnit.NANOSECONDS); }
+		/** The total elapsed time */
+		public long getTotalTime(TimeUnit unit) { return unit.convert(executeNanos + fetchNanos, TimeUnit.NANOSECONDS); }
+		/** The maximum elapsed time of a single execution */
+		public long getMaxTime(TimeUnit unit) { return unit.convert(maxNanos, TimeUnit.NANOSECONDS); }
+
+		/** Returns an upper bound on the elapsed time of the supplied percentile of executions.
+		 * As times are recorded in power-of-two buckets, this may be up to twice the actual time.
+		 *
+		 * @param percentile a percentile between 0 and 100
+		 * @param unit the unit of the returned value
+		 */
+		public long getPercentileTime(double percentile, TimeUnit unit) {
+			long total = 0;
+			for (long c : histogram) { total += c; }
+			if (total == 0) { return 0; }
+			long target = (long) Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += histogram[i];
+				if (seen >= Math.max(target, 1)) {
+					return unit.convert(Math.min(1L << i, TimeUnit.NANOSECONDS.toMicros(maxNanos)), TimeUnit.MICROSECONDS);
+				}
+			}
+			return unit.convert(maxNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/** Returns the counts of executions in each histogram bucket; bucket n holds executions
+		 * that took less than 2^n microseconds (and at least 2^(n-1) microseconds) */
+		public long[] getHistogram() { return histogram.clone(); }
+
+		/** Returns this snapshot as a Map, suitable for converting to JSON. Times are in milliseconds. */
+		public Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("fingerprint", fingerprint);
+			map.put("count", count);
+			map.put("errors", errors);
+			map.put("rows", rows);
+			map.put("maxRows", maxRows);
+			map.put("executeTime", getExecuteTime(TimeUnit.MILLISECONDS));
+			map.put("fetchTime", getFetchTime(TimeUnit.MILLISECONDS));
+			map.put("maxTime", getMaxTime(TimeUnit.MILLISECONDS));
+			map.put("p50Time", getPercentileTime(50, TimeUnit.MILLISECONDS));
+			map.put("p90Time", getPercentileTime(90, TimeUnit.MILLISECONDS));
+			map.put("p99Time", getPercentileTime(99, TimeUnit.MILLISECONDS));
+			return map;
+		}
+
+		public String toString() {
+			return toMap().toString();
+		}
+	}
+
+	/** Records a single execution of a statement. Timers are not thread-safe, and should
+	 * only be used by the thread executing the statement. */
+	public class Timer {
+		private final String sql;
+		private final Object args;
+		private final long start = System.nanoTime();
+		private long firstRow;
+		private long rows = -1;
+
+		Timer(String sql, Object args) {
+			this.sql = sql;
+			this.args = args;
+		}
+
+		/** Called when the first row is available; the time before this is the execute time */
+		private void row() {
+			if (rows == -1) {
+				firstRow = System.nanoTime();
+				rows = 0;
+			}
+			rows++;
+		}
+
+		/** Returns a RowMapper which records the number of rows mapped */
+		public <T> RowMapper<T> wrap(final RowMapper<T> rowMapper) {
+			return new RowMapper<T>() {
+				public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+					row();
+					return rowMapper.mapRow(rs, rowNum);
+				}
+			};
+		}
+
+		/** Returns a RowCallbackHandler which records the number of rows processed */
+		public RowCallbackHandler wrap(final RowCallbackHandler rch) {
+			return new RowCallbackHandler() {
+				public void processRow(ResultSet rs) throws SQLException {
+					row();
+					rch.processRow(rs);
+				}
+			};
+		}
+
+		/** Returns a ResultSetExtractor which records when the ResultSet became available. Rows are
+		 * counted if the extractor returns a Collection. */
+		public <T> ResultSetExtractor<T> wrap(final ResultSetExtractor<T> rse) {
+			return new ResultSetExtractor<T>() {
+				public T extractData(ResultSet rs) throws SQLException {
+					firstRow = System.nanoTime();
+					rows = 0;
+					return rse.extractData(rs);
+				}
+			};
+		}
+
+		/** Records a completed query, or a statement that does not return a row count.
+		 *
+		 * @param result the result of the execution; if rows have not been counted through a wrapped 
+		 *   callback, and this is a Collection or SqlRowSet, its size is used as the number of rows
+		 */
+		public void stop(Object result) {
+			long end = System.nanoTime();
+			if (rows <= 0) {
+				if (result instanceof Collection) {
+					rows = ((Collection<?>) result).size();
+				} else if (result instanceof SqlRowSet) {
+					SqlRowSet rowSet = (SqlRowSet) result;
+					rows = rowSet.last() ? rowSet.getRow() : 0;
+					rowSet.beforeFirst();
+				}
+			}
+			record(this, end, false);
+		}
+
+		/** Records a completed update or batch update.
+		 *
+		 * @param rowCount the number of rows updated
+		 */
+		public void stopUpdate(long rowCount) {
+			long end = System.nanoTime();
+			rows = Math.max(0, rowCount);
+			record(this, end, false);
+		}
+
+		/** Records an execution that threw an exception */
+		public void stop(Throwable t) {
+			record(this, System.nanoTime(), true);
+		}
+	}
+
+	/** Statistics, keyed by fingerprint */
+	private final Map<String, StatementStatistics> statistics = new ConcurrentHashMap<String, StatementStatistics>();
+
+	/** The maximum number of fingerprints recorded */
+	private int maxFingerprints = 1000;
+
+	/** Statements that take longer than this are logged; negative to disable */
+	private long slowQueryThresholdNanos = TimeUnit.SECONDS.toNanos(1);
+
+	/** The number of statements logged as slow */
+	private final AtomicLong slowQueries = new AtomicLong();
+
+	/** Sets the maximum number of distinct fingerprints recorded (default 1000); statements with
+	 * other fingerprints are recorded under {@link #OTHER_FINGERPRINT} */
+	public void setMaxFingerprints(int maxFingerprints) {
+		if (maxFingerprints < 1) { throw new IllegalArgumentException("maxFingerprints must be >= 1"); }
+		this.maxFingerprints = maxFingerprints;
+	}
+
+	public int getMaxFingerprints() {
+		return maxFingerprints;
+	}
+
+	/** Sets the time above which statements are logged, with their arguments (default 1 second).
+	 *
+	 * @param threshold the threshold, or a negative number to disable slow query logging
+	 * @param unit the unit of threshold
+	 */
+	public void setSlowQueryThreshold(long threshold, TimeUnit unit) {
+		this.slowQueryThresholdNanos = threshold < 0 ? -1 : unit.toNanos(threshold);
+	}
+
+	public long getSlowQueryThreshold(TimeUnit unit) {
+		return slowQueryThresholdNanos < 0 ? -1 : unit.convert(slowQueryThresholdNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/** Returns the number of statements logged as slow */
+	public long getSlowQueries() {
+		return slowQueries.get();
+	}
+
+	/** Starts timing a statement
+	 *
+	 * @param sql the SQL executed
+	 * @param args the bound arguments; an Object[], a List of Object[]s for batches, or null
+	 *
+	 * @return a Timer, which must be stopped once the statement completes
+	 */
+	public Timer start(String sql, Object args) {
+		return new Timer(sql, args);
+	}
+
+	private void record(Timer timer, long end, boolean error) {
+		long elapsed = end - timer.start;
+		long execute = timer.firstRow == 0 ? elapsed : timer.firstRow - timer.start;
+		long rows = Math.max(0, timer.rows);
+
+		StatementStatistics ss = getStatementStatistics(timer.sql);
+		ss.count.increment();
+		if (error) { ss.errors.increment(); }
+		ss.rows.add(rows);
+		ss.maxRows.accumulate(rows);
+		ss.executeNanos.add(execute);
+		ss.fetchNanos.add(elapsed - execute);
+		ss.maxNanos.accumulate(elapsed);
+		long micros = TimeUnit.NANOSECONDS.toMicros(elapsed);
+		ss.histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+
+		if (slowQueryThresholdNanos >= 0 && elapsed > slowQueryThresholdNanos) {
+			slowQueries.incrementAndGet();
+			logger.warn("Slow statement (" + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms total, " +
+				TimeUnit.NANOSECONDS.toMillis(execute) + "ms execute, " + rows + " rows" + (error ? ", failed" : "") + "): " +
+				timer.sql + (timer.args == null ? "" : "; args=" + formatArguments(timer.args)));
+		}
+	}
+
+	private StatementStatistics getStatementStatistics(String sql) {
+		String fingerprint = getFingerprint(sql);
+		StatementStatistics ss = statistics.get(fingerprint);
+		if (ss == null) {
+			if (statistics.size() >= maxFingerprints) { fingerprint = OTHER_FINGERPRINT; }
+			ss = statistics.computeIfAbsent(fingerprint, StatementStatistics::new);
+		}
+		return ss;
+	}
+
+	/** Returns snapshots of the statistics for each fingerprint, ordered by descending total time */
+	public List<Snapshot> getSnapshots() {
+		List<Snapshot> snapshots = new ArrayList<Snapshot>();
+		for (StatementStatistics ss : statistics.values()) {
+			snapshots.add(new Snapshot(ss));
+		}
+		Collections.sort(snapshots, (a, b) -> Long.compare(b.executeNanos + b.fetchNanos, a.executeNanos + a.fetchNanos));
+		return snapshots;
+	}
+
+	/** Discards all statistics */
+	public void reset() {
+		statistics.clear();
+		slowQueries.set(0);
+	}
+
+	/** Registers statistics under a name, replacing any statistics previously registered under that name */
+	public static void register(String name, JdbcStatistics statistics) {
+		if (statistics == null) { throw new NullPointerException("null statistics"); }
+		registry.put(name, statistics);
+	}
+
+	/** Removes registered statistics */
+	public static void unregister(String name) {
+		registry.remove(name);
+	}
+
+	/** Returns all registered statistics, keyed by name */
+	public static Map<String, JdbcStatistics> getRegisteredStatistics() {
+		return Collections.unmodifiableMap(registry);
+	}
+
+	/** Returns the fingerprint of a statement; string and numeric literals are replaced with '?',
+	 * IN lists of literals or parameters are replaced with a single '?', comments are removed and
+	 * whitespace is collapsed.
+	 * 
+	 * <p>Fingerprints of recently-seen statements are memoised.
+	 *
+	 * @param sql the statement
+	 *
+	 * @return the fingerprint
+	 */
+	public static String getFingerprint(String sql) {
+		String fingerprint = fingerprints.get(sql);
+		if (fingerprint == null) {
+			fingerprint = computeFingerprint(sql);
+			if (sql.length() <= MAX_MEMOISED_SQL_LENGTH) {
+				// statements with inlined literals may never repeat, so start again once the map is full
+				if (fingerprints.size() >= MAX_MEMOISED_FINGERPRINTS) { fingerprints.clear(); }
+				fingerprints.put(sql, fingerprint);
+			}
+		}
+		return fingerprint;
+	}
+
+	private static String computeFingerprint(String sql) {
+		int len = sql.length();
+		StringBuilder sb = new StringBuilder(len);
+		int pos = 0;
+		while (pos < len) {
+			char ch = sql.charAt(pos);
+			if (Character.isWhitespace(ch)) {
+				while (pos < len && Character.isWhitespace(sql.charAt(pos))) { pos++; }
+				if (sb.length() > 0) { sb.append(' '); }
+			} else if (ch == '\'') {
+				pos++;
+				while (pos < len) {
+					char c = sql.charAt(pos);
+					if (c == '\\') {
+						pos += 2;
+					} else if (c == '\'') {
+						// doubled quotes are part of the literal
+						if (pos + 1 < len && sql.charAt(pos + 1) == '\'') { pos += 2; } else { break; }
+					} else {
+						pos++;
+					}
+				}
+				pos++;
+				sb.append('?');
+			} else if ((ch == '-' && sql.startsWith("--", pos)) || (ch == '/' && sql.startsWith("/*", pos))) {
+				int end = ch == '-' ? sql.indexOf('\n', pos) : sql.indexOf("*/", pos + 2);
+				pos = end == -1 ? len : end + (ch == '-' ? 1 : 2);
+				if (sb.length() > 0) { sb.append(' '); }
+			} else if (Character.isDigit(ch) && (sb.length() == 0 || !isWordChar(sb.charAt(sb.length() - 1)))) {
+				while (pos < len && (isWordChar(sql.charAt(pos)) || sql.charAt(pos) == '.')) { pos++; }
+				sb.append('?');
+			} else if (isWordChar(ch)) {
+				while (pos < len && isWordChar(sql.charAt(pos))) { sb.append(sql.charAt(pos++)); }
+			} else {
+				sb.append(ch);
+				pos++;
+			}
+		}
+		// collapse repeated whitespace left by comments, and lists of parameters
+		String fingerprint = REPEATED_SPACES.matcher(sb.toString().trim()).replaceAll(" ");
+		return PARAMETER_LIST.matcher(fingerprint).replaceAll("(?)");
+	}
+
+	private static boolean isWordChar(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+	}
+
+	/** Formats bound arguments for the slow query log, truncating long values */
+	private static String formatArguments(Object args) {
+		if (args instanceof Object[]) {
+			Object[] array = (Object[]) args;
+			StringBuilder sb = new StringBuilder("[");
+			for (int i = 0; i < array.length; i++) {
+				if (i > 0) { sb.append(", "); }
+				sb.append(formatArgument(array[i]));
+			}
+			return sb.append("]").toString();
+		} else if (args instanceof List) {
+			// batch arguments
+			List<?> list = (List<?>) args;
+			return list.size() + " batches" + (list.isEmpty() ? "" : ", first " + formatArguments(list.get(0)));
+		}
+		return formatArgument(args);
+	}
+
+	private static String formatArgument(Object arg) {
+		if (arg instanceof byte[]) {
+			return "byte[" + ((byte[]) arg).length + "]";
+		} else if (arg instanceof Object[]) {
+			return Arrays.deepToString((Object[]) arg);
+		}
+		String s = String.valueOf(arg);
+		if (arg instanceof CharSequence) { s = "'" + s + "'"; }
+		return s.length() > MAX_ARGUMENT_LENGTH ? s.substring(0, MAX_ARGUMENT_LENGTH) + "..." : s;
+	}
+
+}
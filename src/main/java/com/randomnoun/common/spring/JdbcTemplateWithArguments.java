@@ -1,8 +1,17 @@
 package com.randomnoun.common.spring;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 import javax.sql.DataSource;
 
@@ -20,10 +29,14 @@ import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SqlParameter;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.SqlRowSetResultSetExtractor;
 import org.springframework.jdbc.core.StatementCallback;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.jdbc.support.SQLExceptionTranslator;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.randomnoun.common.db.SqlWithArguments;
 
@@ -43,16 +56,44 @@ import com.randomnoun.common.db.SqlWithArguments;
  * <p>This class will also recognise SelectFromResultSetExtractors and SelectFromRowMappers and will
  * add the appropriate SELECTs and FROMs to the SQL before it is executed.
  * 
+ * <p>If a {@link QueryResultCache} is supplied, the SqlWithArguments query methods that take a 
+ * time-to-live will return cached results, which are invalidated when the tables they were read from
+ * are modified through this JdbcTemplate. Statements executed through ConnectionCallbacks, StatementCallbacks,
+ * PreparedStatementCreators and CallableStatements invalidate all cached results. Cached results cannot be modified.
+ * 
+ * <p>If a Spring-managed transaction is active, modified tables are invalidated again when the transaction 
+ * completes (as other threads may have cached their uncommitted state in the meantime), and queries made after 
+ * the transaction has modified a table bypass the cache, as their results may include uncommitted changes.
+ * 
+ * <p>If a {@link JdbcStatistics} object is supplied, the time taken and the number of rows returned 
+ * by each statement executed through this JdbcTemplate is recorded in it. Statements executed through
+ * ConnectionCallbacks and StatementCallbacks are not recorded.
+ * 
+ * <p>Queries with large results can be executed using the <code>streamQuery</code> methods, which
+ * configure the JDBC driver to stream rows rather than hold the entire result in memory; 
+ * see {@link ResultSetStreamer}.
+ * 
  * @author knoxg
  */
 public class JdbcTemplateWithArguments extends JdbcTemplate {
 
 	JdbcTemplate jt;
+	
+	/** Cached query results, or null if results are not cached */
+	QueryResultCache queryCache;
+	
+	/** Statement statistics, or null if statistics are not recorded */
+	JdbcStatistics statistics;
+	
+	/** Executes streaming queries */
+	ResultSetStreamer resultSetStreamer;
+	
 	public JdbcTemplateWithArguments(JdbcTemplate jt) {
 		if (jt instanceof JdbcTemplateWithArguments) {
 			throw new IllegalStateException("Cannot wrap a JdbcTemplateWithArguments with a JdbcTemplateWithArguments"); 
 		}
 		this.jt = jt;
+		this.resultSetStreamer = new ResultSetStreamer(jt);
 	}
 
 	/** Adds 'SELECT' and 'FROM' clauses to the supplied SQL if the caller has also supplied a SelectFromResultSetExtractor */ 
@@ -74,6 +115,192 @@ public class JdbcTemplateWithArguments extends JdbcTemplate {
 	}
 
 	
+	/** Sets the cache used by the query methods that take a time-to-live. 
+	 * 
+	 * @param queryCache the cache, or null to disable caching
+	 */
+	public void setQueryResultCache(QueryResultCache queryCache) {
+		this.queryCache = queryCache;
+	}
+	public QueryResultCache getQueryResultCache() {
+		return queryCache;
+	}
+	
+	/** Returns the object used to execute streaming queries, which can be used to configure 
+	 * fetch sizes or the database type */
+	public ResultSetStreamer getResultSetStreamer() {
+		return resultSetStreamer;
+	}
+	
+	/** Sets the object used to record statement timings and row counts. 
+	 * 
+	 * @param statistics the statistics, or null to disable recording
+	 */
+	public void setStatistics(JdbcStatistics statistics) {
+		this.statistics = statistics;
+	}
+	public JdbcStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/** Executes a query, recording its statistics if enabled.
+	 * 
+	 * @param sql the SQL being executed
+	 * @param args the bound arguments, if known
+	 * @param action executes the statement; supplied a Timer if statistics are enabled, or null otherwise
+	 */
+	private <T> T timed(String sql, Object args, Function<JdbcStatistics.Timer, T> action) {
+		return timed(sql, args, action, null);
+	}
+	
+	/** Executes a statement, recording its statistics if enabled.
+	 * 
+	 * @param sql the SQL being executed
+	 * @param args the bound arguments, if known
+	 * @param action executes the statement; supplied a Timer if statistics are enabled, or null otherwise
+	 * @param rowCount returns the number of rows updated from the result of an update, or null 
+	 *   if the statement is a query, whose rows are counted by the Timer
+	 */
+	private <T> T timed(String sql, Object args, Function<JdbcStatistics.Timer, T> action, ToLongFunction<T> rowCount) {
+		if (statistics == null) {
+			return action.apply(null);
+		}
+		JdbcStatistics.Timer timer = statistics.start(sql, args);
+		T result;
+		try {
+			result = action.apply(timer);
+		} catch (RuntimeException | Error e) {
+			timer.stop(e);
+			throw e;
+		}
+		if (rowCount == null) {
+			timer.stop(result);
+		} else {
+			timer.stopUpdate(rowCount.applyAsLong(result));
+		}
+		return result;
+	}
+	
+	/** Returns the total number of rows updated by a batch update */
+	private static long sum(int[] rowCounts) {
+		long sum = 0;
+		// ignore Statement.SUCCESS_NO_INFO and EXECUTE_FAILED
+		for (int r : rowCounts) { sum += Math.max(0, r); }
+		return sum;
+	}
+	private static long sum(int[][] rowCounts) {
+		long sum = 0;
+		for (int[] r : rowCounts) { sum += sum(r); }
+		return sum;
+	}
+	
+	/** Returns the SQL recorded for a batch of statements; the distinct fingerprints of the 
+	 * statements, so that batches of similar statements are recorded together */
+	private static String getBatchSql(String[] sql) {
+		Set<String> fingerprints = new LinkedHashSet<String>();
+		for (String s : sql) { fingerprints.add(JdbcStatistics.getFingerprint(s)); }
+		return String.join("; ", fingerprints);
+	}
+	
+	private static <T> RowMapper<T> wrap(JdbcStatistics.Timer timer, RowMapper<T> rowMapper) {
+		return timer == null ? rowMapper : timer.wrap(rowMapper);
+	}
+	private static RowCallbackHandler wrap(JdbcStatistics.Timer timer, RowCallbackHandler rch) {
+		return timer == null ? rch : timer.wrap(rch);
+	}
+	private static <T> ResultSetExtractor<T> wrap(JdbcStatistics.Timer timer, ResultSetExtractor<T> rse) {
+		return timer == null ? rse : timer.wrap(rse);
+	}
+	
+	/** Returns the SQL of a PreparedStatementCreator or CallableStatementCreator, if available */
+	private static String getSql(Object creator) {
+		return creator instanceof SqlProvider ? ((SqlProvider) creator).getSql() : "(" + creator.getClass().getName() + ")";
+	}
+	
+	/** Returns a cached result, or loads it if results are not cached */
+	private <T> T getCached(Object resultType, String sql, SqlWithArguments sqlWithArgs, long ttl, TimeUnit unit, Supplier<T> loader) {
+		// results read by a transaction that has modified tables may include uncommitted changes
+		if (queryCache == null || TransactionSynchronizationManager.hasResource(queryCache)) {
+			return loader.get();
+		}
+		// copy the arguments, as SqlWithArguments is mutable
+		Object[] args = sqlWithArgs.getArgs();
+		int[] argTypes = sqlWithArgs.getArgTypes();
+		SqlWithArguments key = new SqlWithArguments(sql, args == null ? null : args.clone(), argTypes == null ? null : argTypes.clone());
+		return queryCache.get(Arrays.asList(resultType, key), ttl, unit, QueryResultCache.getTables(sql), loader);
+	}
+	
+	/** Invalidates cached results read from the table modified by the supplied SQL, 
+	 * and again when the current transaction completes */
+	private void invalidate(String sql) {
+		if (queryCache != null) {
+			queryCache.invalidateSql(sql);
+			TransactionInvalidations invalidations = getTransactionInvalidations();
+			if (invalidations != null) { invalidations.sqls.add(sql); }
+		}
+	}
+
+	/** Invalidates all cached results, and again when the current transaction completes; 
+	 * used when the SQL executed is unknown */
+	private void invalidateAll() {
+		if (queryCache != null) {
+			queryCache.invalidateAll();
+			TransactionInvalidations invalidations = getTransactionInvalidations();
+			if (invalidations != null) { invalidations.all = true; }
+		}
+	}
+	
+	/** Cached results to invalidate when a transaction completes. Bound to the transaction 
+	 * as a resource keyed by the QueryResultCache, which also marks the transaction as having 
+	 * modified tables. */
+	private static class TransactionInvalidations implements TransactionSynchronization {
+		QueryResultCache queryCache;
+		Set<String> sqls = new LinkedHashSet<String>();
+		boolean all = false;
+		
+		TransactionInvalidations(QueryResultCache queryCache) {
+			this.queryCache = queryCache;
+		}
+		
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(queryCache);
+			if (all) {
+				queryCache.invalidateAll();
+			} else {
+				for (String sql : sqls) { queryCache.invalidateSql(sql); }
+			}
+		}
+	}
+	
+	/** Returns the results to invalidate when the current transaction completes, or null if 
+	 * transaction synchronization is not active */
+	private TransactionInvalidations getTransactionInvalidations() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		TransactionInvalidations invalidations = (TransactionInvalidations) TransactionSynchronizationManager.getResource(queryCache);
+		if (invalidations == null) {
+			invalidations = new TransactionInvalidations(queryCache);
+			TransactionSynchronizationManager.bindResource(queryCache, invalidations);
+			TransactionSynchronizationManager.registerSynchronization(invalidations);
+		}
+		return invalidations;
+	}
+	
+	private static <T> List<T> unmodifiableList(List<T> list) {
+		return list == null ? null : Collections.unmodifiableList(list);
+	}
+
+	private static List<Map<String, Object>> unmodifiableRows(List<Map<String, Object>> rows) {
+		if (rows == null) { return null; }
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(rows.size());
+		for (Map<String, Object> row : rows) {
+			result.add(Collections.unmodifiableMap(row));
+		}
+		return Collections.unmodifiableList(result);
+	}
+	
 	public void setDataSource(DataSource dataSource) {
 		jt.setDataSource(dataSource);
 	}
@@ -150,67 +377,95 @@ public class JdbcTemplateWithArguments extends JdbcTemplate {
 		return jt.isResultsMapCaseInsensitive();
 	}
 	public <T> T execute(ConnectionCallback<T> action) throws DataAccessException {
-		return jt.execute(action);
+		try {
+			return jt.execute(action);
+		} finally {
+			invalidateAll();
+		}
 	}
 	public <T> T execute(StatementCallback<T> action) throws DataAccessException {
-		return jt.execute(action);
+		try {
+			return jt.execute(action);
+		} finally {
+			invalidateAll();
+		}
 	}
 	public void execute(String sql) throws DataAccessException {
-		jt.execute(sql);
+		try {
+			timed(sql, null, t -> { jt.execute(sql); return null; });
+		} finally {
+			invalidate(sql);
+		}
 	}
 	public <T> T query(String sql, ResultSetExtractor<T> rse) throws DataAccessException {
-		sql = getSelectFromSql(sql, rse);
-		return jt.query(sql, rse);
+		final String selectSql = getSelectFromSql(sql, rse);
+		return timed(selectSql, null, t -> jt.query(selectSql, wrap(t, rse)));
 	}
 	public void query(String sql, RowCallbackHandler rch) throws DataAccessException {
-		jt.query(sql, rch);
+		timed(sql, null, t -> { jt.query(sql, wrap(t, rch)); return null; });
 	}
 	public <T> List<T> query(String sql, RowMapper<T> rowMapper) throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.query(sql, rowMapper);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, null, t -> jt.query(selectSql, wrap(t, rowMapper)));
 	}
 	public Map<String, Object> queryForMap(String sql) throws DataAccessException {
-		return jt.queryForMap(sql);
+		return timed(sql, null, t -> jt.queryForObject(sql, wrap(t, getColumnMapRowMapper())));
 	}
 	public <T> T queryForObject(String sql, RowMapper<T> rowMapper) throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.queryForObject(sql, rowMapper);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, null, t -> jt.queryForObject(selectSql, wrap(t, rowMapper)));
 	}
 	public <T> T queryForObject(String sql, Class<T> requiredType) throws DataAccessException {
-		return jt.queryForObject(sql, requiredType);
+		return timed(sql, null, t -> jt.queryForObject(sql, wrap(t, getSingleColumnRowMapper(requiredType))));
 	}
 	public <T> List<T> queryForList(String sql, Class<T> elementType) throws DataAccessException {
-		return jt.queryForList(sql, elementType);
+		return timed(sql, null, t -> jt.query(sql, wrap(t, getSingleColumnRowMapper(elementType))));
 	}
 	public List<Map<String, Object>> queryForList(String sql) throws DataAccessException {
-		return jt.queryForList(sql);
+		return timed(sql, null, t -> jt.query(sql, wrap(t, getColumnMapRowMapper())));
 	}
 	public SqlRowSet queryForRowSet(String sql) throws DataAccessException {
-		return jt.queryForRowSet(sql);
+		return timed(sql, null, t -> jt.query(sql, wrap(t, new SqlRowSetResultSetExtractor())));
 	}
 	public int update(String sql) throws DataAccessException {
-		return jt.update(sql);
+		try {
+			return timed(sql, null, t -> jt.update(sql), r -> r);
+		} finally {
+			invalidate(sql);
+		}
 	}
 	public int[] batchUpdate(String... sql) throws DataAccessException {
-		return jt.batchUpdate(sql);
+		try {
+			return timed(statistics == null ? null : getBatchSql(sql), null, t -> jt.batchUpdate(sql), JdbcTemplateWithArguments::sum);
+		} finally {
+			for (String s : sql) { invalidate(s); }
+		}
 	}
 	public <T> T execute(PreparedStatementCreator psc, PreparedStatementCallback<T> action) throws DataAccessException {
-		return jt.execute(psc, action);
+		try {
+			return timed(getSql(psc), null, t -> jt.execute(psc, action));
+		} finally {
+			invalidateAll();
+		}
 	}
 	public <T> T execute(String sql, PreparedStatementCallback<T> action) throws DataAccessException {
-		return jt.execute(sql, action);
+		try {
+			return timed(sql, null, t -> jt.execute(sql, action));
+		} finally {
+			invalidate(sql);
+		}
 	}
 	
 	public <T> T query(PreparedStatementCreator psc, PreparedStatementSetter pss, ResultSetExtractor<T> rse)
 			throws DataAccessException {
-		return jt.query(psc, pss, rse);
+		return timed(getSql(psc), null, t -> jt.query(psc, pss, wrap(t, rse)));
 	}
 	public <T> T query(PreparedStatementCreator psc, ResultSetExtractor<T> rse) throws DataAccessException {
-		return jt.query(psc, rse);
+		return timed(getSql(psc), null, t -> jt.query(psc, wrap(t, rse)));
 	}
 	public <T> T query(String sql, PreparedStatementSetter pss, ResultSetExtractor<T> rse) throws DataAccessException {
-		sql = getSelectFromSql(sql, rse);
-		return jt.query(sql, pss, rse);
+		final String selectSql = getSelectFromSql(sql, rse);
+		return timed(selectSql, null, t -> jt.query(selectSql, pss, wrap(t, rse)));
 	}
 	
 	/** Calls {@link JdbcTemplate#query(String, Object[], ResultSetExtractor)}
@@ -218,183 +473,296 @@ public class JdbcTemplateWithArguments extends JdbcTemplate {
 	 */ 
 	public <T> T query(SqlWithArguments sqlWithArgs, ResultSetExtractor<T> rse)
 			throws DataAccessException {
-		String sql = getSelectFromSql(sqlWithArgs.getSql(), rse);
-		return jt.query(sql, sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), rse);
+		final String sql = getSelectFromSql(sqlWithArgs.getSql(), rse);
+		return timed(sql, sqlWithArgs.getArgs(), t -> jt.query(sql, sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, rse)));
 	}
 	public <T> T query(String sql, Object[] args, int[] argTypes, ResultSetExtractor<T> rse)
 			throws DataAccessException {
-		sql = getSelectFromSql(sql, rse);
-		return jt.query(sql, args, argTypes, rse);
+		final String selectSql = getSelectFromSql(sql, rse);
+		return timed(selectSql, args, t -> jt.query(selectSql, args, argTypes, wrap(t, rse)));
 	}
 	public <T> T query(String sql, Object[] args, ResultSetExtractor<T> rse) throws DataAccessException {
-		sql = getSelectFromSql(sql, rse);
-		return jt.query(sql, args, rse);
+		final String selectSql = getSelectFromSql(sql, rse);
+		return timed(selectSql, args, t -> jt.query(selectSql, args, wrap(t, rse)));
 	}
 	public <T> T query(String sql, ResultSetExtractor<T> rse, Object... args) throws DataAccessException {
-		sql = getSelectFromSql(sql, rse);
-		return jt.query(sql, rse, args);
+		final String selectSql = getSelectFromSql(sql, rse);
+		return timed(selectSql, args, t -> jt.query(selectSql, wrap(t, rse), args));
 	}
 	public void query(PreparedStatementCreator psc, RowCallbackHandler rch) throws DataAccessException {
-		jt.query(psc, rch);
+		timed(getSql(psc), null, t -> { jt.query(psc, wrap(t, rch)); return null; });
 	}
 	public void query(String sql, PreparedStatementSetter pss, RowCallbackHandler rch) throws DataAccessException {
-		jt.query(sql, pss, rch);
+		timed(sql, null, t -> { jt.query(sql, pss, wrap(t, rch)); return null; });
 	}
 	/** Calls {@link JdbcTemplate#query(String, Object[], int[], RowCallbackHandler)}
 	 * @see JdbcTemplate#query(String, Object[], int[], RowCallbackHandler)
 	 */ 
 	public void query(SqlWithArguments sqlWithArgs, RowCallbackHandler rch) throws DataAccessException {
-		jt.query(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), rch);
+		timed(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), t -> { jt.query(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, rch)); return null; });
 	}
 	public void query(String sql, Object[] args, int[] argTypes, RowCallbackHandler rch) throws DataAccessException {
-		jt.query(sql, args, argTypes, rch);
+		timed(sql, args, t -> { jt.query(sql, args, argTypes, wrap(t, rch)); return null; });
 	}
 	public void query(String sql, Object[] args, RowCallbackHandler rch) throws DataAccessException {
-		jt.query(sql, args, rch);
+		timed(sql, args, t -> { jt.query(sql, args, wrap(t, rch)); return null; });
 	}
 	public void query(String sql, RowCallbackHandler rch, Object... args) throws DataAccessException {
-		jt.query(sql, rch, args);
+		timed(sql, args, t -> { jt.query(sql, wrap(t, rch), args); return null; });
+	}
+	/** Streams the results of a query to a RowCallbackHandler, without holding the entire result
+	 * in memory.
+	 * 
+	 * @see ResultSetStreamer#query(String, Object[], int[], RowCallbackHandler)
+	 */
+	public void streamQuery(final SqlWithArguments sqlWithArgs, final RowCallbackHandler rch) throws DataAccessException {
+		timed(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), t -> { resultSetStreamer.query(sqlWithArgs.getSql(), 
+			sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, rch)); return null; });
+	}
+	/** Streams the results of a query to a ResultSetExtractor, without holding the entire result
+	 * in memory (although the extractor itself may do so).
+	 * 
+	 * @see ResultSetStreamer#query(String, Object[], int[], ResultSetExtractor)
+	 */
+	public <T> T streamQuery(final SqlWithArguments sqlWithArgs, final ResultSetExtractor<T> rse) throws DataAccessException {
+		final String sql = getSelectFromSql(sqlWithArgs.getSql(), rse);
+		return timed(sql, sqlWithArgs.getArgs(), t -> resultSetStreamer.query(sql, 
+			sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, rse)));
 	}
 	public <T> List<T> query(PreparedStatementCreator psc, RowMapper<T> rowMapper) throws DataAccessException {
-		return jt.query(psc, rowMapper);
+		return timed(getSql(psc), null, t -> jt.query(psc, wrap(t, rowMapper)));
 	}
 	public <T> List<T> query(String sql, PreparedStatementSetter pss, RowMapper<T> rowMapper)
 			throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.query(sql, pss, rowMapper);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, null, t -> jt.query(selectSql, pss, wrap(t, rowMapper)));
 	}
 	
 	/** Calls {@link JdbcTemplate#query(String, Object[], RowMapper)}
 	 * @see JdbcTemplate#query(String, Object[], RowMapper) */ 
 	public <T> List<T> query(SqlWithArguments sqlWithArgs, RowMapper<T> rowMapper)
 			throws DataAccessException {
+		final String sql = getSelectFromSql(sqlWithArgs.getSql(), rowMapper);
+		return timed(sql, sqlWithArgs.getArgs(), t -> jt.query(sql, sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, rowMapper)));
+	}
+	/** Calls {@link #query(SqlWithArguments, RowMapper)}, returning a cached result if
+	 * a QueryResultCache has been set. 
+	 * 
+	 * @param cacheKey identifies the rows returned by the RowMapper; results are cached per SQL, 
+	 *   arguments and cacheKey, so RowMappers supplied with the same cacheKey must map rows in the same way.
+	 * @param ttl how long the result may be cached for
+	 * @param unit the unit of ttl
+	 * 
+	 * @return an unmodifiable List
+	 */ 
+	public <T> List<T> query(final SqlWithArguments sqlWithArgs, final RowMapper<T> rowMapper, Object cacheKey, long ttl, TimeUnit unit)
+			throws DataAccessException {
+		if (cacheKey == null) { throw new NullPointerException("null cacheKey"); }
 		String sql = getSelectFromSql(sqlWithArgs.getSql(), rowMapper);
-		return jt.query(sql, sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), rowMapper);
+		return getCached(Arrays.asList(RowMapper.class, cacheKey), sql, sqlWithArgs, ttl, unit, () -> unmodifiableList(query(sqlWithArgs, rowMapper)));
 	}
 	public <T> List<T> query(String sql, Object[] args, int[] argTypes, RowMapper<T> rowMapper)
 			throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.query(sql, args, argTypes, rowMapper);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, args, t -> jt.query(selectSql, args, argTypes, wrap(t, rowMapper)));
 	}
 	public <T> List<T> query(String sql, Object[] args, RowMapper<T> rowMapper) throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.query(sql, args, rowMapper);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, args, t -> jt.query(selectSql, args, wrap(t, rowMapper)));
 	}
 	public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.query(sql, rowMapper, args);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, args, t -> jt.query(selectSql, wrap(t, rowMapper), args));
 	}
 	public <T> T queryForObject(String sql, Object[] args, int[] argTypes, RowMapper<T> rowMapper)
 			throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.queryForObject(sql, args, argTypes, rowMapper);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, args, t -> jt.queryForObject(selectSql, args, argTypes, wrap(t, rowMapper)));
 	}
 	public <T> T queryForObject(String sql, Object[] args, RowMapper<T> rowMapper) throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.queryForObject(sql, args, rowMapper);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, args, t -> jt.queryForObject(selectSql, args, wrap(t, rowMapper)));
 	}
 	public <T> T queryForObject(String sql, RowMapper<T> rowMapper, Object... args) throws DataAccessException {
-		sql = getSelectFromSql(sql, rowMapper);
-		return jt.queryForObject(sql, rowMapper, args);
+		final String selectSql = getSelectFromSql(sql, rowMapper);
+		return timed(selectSql, args, t -> jt.queryForObject(selectSql, wrap(t, rowMapper), args));
 	}
 	/** Calls {@link JdbcTemplate#queryForObject(String, Object[], int[], Class)}
 	 * @see JdbcTemplate#queryForObject(String, Object[], int[], Class) 
 	 */ 
 	public <T> T queryForObject(SqlWithArguments sqlWithArgs, Class<T> requiredType)
 			throws DataAccessException {
-		return jt.queryForObject(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), requiredType);
+		return timed(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), t -> jt.queryForObject(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, getSingleColumnRowMapper(requiredType))));
+	}
+	/** Calls {@link #queryForObject(SqlWithArguments, Class)}, returning a cached result if
+	 * a QueryResultCache has been set.
+	 * 
+	 * @param ttl how long the result may be cached for
+	 * @param unit the unit of ttl
+	 */ 
+	public <T> T queryForObject(final SqlWithArguments sqlWithArgs, final Class<T> requiredType, long ttl, TimeUnit unit)
+			throws DataAccessException {
+		return getCached(Arrays.asList(Object.class, requiredType), sqlWithArgs.getSql(), sqlWithArgs, ttl, unit, () -> queryForObject(sqlWithArgs, requiredType));
 	}
 	public <T> T queryForObject(String sql, Object[] args, int[] argTypes, Class<T> requiredType)
 			throws DataAccessException {
-		return jt.queryForObject(sql, args, argTypes, requiredType);
+		return timed(sql, args, t -> jt.queryForObject(sql, args, argTypes, wrap(t, getSingleColumnRowMapper(requiredType))));
 	}
 	public <T> T queryForObject(String sql, Object[] args, Class<T> requiredType) throws DataAccessException {
-		return jt.queryForObject(sql, args, requiredType);
+		return timed(sql, args, t -> jt.queryForObject(sql, args, wrap(t, getSingleColumnRowMapper(requiredType))));
 	}
 	public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) throws DataAccessException {
-		return jt.queryForObject(sql, requiredType, args);
+		return timed(sql, args, t -> jt.queryForObject(sql, wrap(t, getSingleColumnRowMapper(requiredType)), args));
 	}
 	/** Calls {@link JdbcTemplate#queryForMap(String, Object[], int[])}
 	 * @see JdbcTemplate#queryForMap(String, Object[], int[]) 
 	 */ 
 	public Map<String, Object> queryForMap(SqlWithArguments sqlWithArgs) throws DataAccessException {
-		return jt.queryForMap(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes());
+		return timed(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), t -> jt.queryForObject(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, getColumnMapRowMapper())));
+	}
+	/** Calls {@link #queryForMap(SqlWithArguments)}, returning a cached result if
+	 * a QueryResultCache has been set.
+	 * 
+	 * @param ttl how long the result may be cached for
+	 * @param unit the unit of ttl
+	 * 
+	 * @return an unmodifiable Map
+	 */ 
+	public Map<String, Object> queryForMap(final SqlWithArguments sqlWithArgs, long ttl, TimeUnit unit) throws DataAccessException {
+		return getCached(Map.class, sqlWithArgs.getSql(), sqlWithArgs, ttl, unit, () -> Collections.unmodifiableMap(queryForMap(sqlWithArgs)));
 	}
 	public Map<String, Object> queryForMap(String sql, Object[] args, int[] argTypes) throws DataAccessException {
-		return jt.queryForMap(sql, args, argTypes);
+		return timed(sql, args, t -> jt.queryForObject(sql, args, argTypes, wrap(t, getColumnMapRowMapper())));
 	}
 	public Map<String, Object> queryForMap(String sql, Object... args) throws DataAccessException {
-		return jt.queryForMap(sql, args);
+		return timed(sql, args, t -> jt.queryForObject(sql, wrap(t, getColumnMapRowMapper()), args));
 	}
 	/** Calls {@link JdbcTemplate#queryForList(String, Object[], int[], Class)}
 	 * @see JdbcTemplate#queryForList(String, Object[], int[], Class)) 
 	 */ 
 	public <T> List<T> queryForList(SqlWithArguments sqlWithArgs, Class<T> elementType)
 			throws DataAccessException {
-		return jt.queryForList(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), elementType);
+		return timed(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), t -> jt.query(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, getSingleColumnRowMapper(elementType))));
+	}
+	/** Calls {@link #queryForList(SqlWithArguments, Class)}, returning a cached result if
+	 * a QueryResultCache has been set.
+	 * 
+	 * @param ttl how long the result may be cached for
+	 * @param unit the unit of ttl
+	 * 
+	 * @return an unmodifiable List
+	 */ 
+	public <T> List<T> queryForList(final SqlWithArguments sqlWithArgs, final Class<T> elementType, long ttl, TimeUnit unit)
+			throws DataAccessException {
+		return getCached(Arrays.asList(List.class, elementType), sqlWithArgs.getSql(), sqlWithArgs, ttl, unit, 
+			() -> unmodifiableList(queryForList(sqlWithArgs, elementType)));
 	}
 	public <T> List<T> queryForList(String sql, Object[] args, int[] argTypes, Class<T> elementType)
 			throws DataAccessException {
-		return jt.queryForList(sql, args, argTypes, elementType);
+		return timed(sql, args, t -> jt.query(sql, args, argTypes, wrap(t, getSingleColumnRowMapper(elementType))));
 	}
 	public <T> List<T> queryForList(String sql, Object[] args, Class<T> elementType) throws DataAccessException {
-		return jt.queryForList(sql, args, elementType);
+		return timed(sql, args, t -> jt.query(sql, args, wrap(t, getSingleColumnRowMapper(elementType))));
 	}
 	public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) throws DataAccessException {
-		return jt.queryForList(sql, elementType, args);
+		return timed(sql, args, t -> jt.query(sql, wrap(t, getSingleColumnRowMapper(elementType)), args));
 	}
 	/** Calls {@link JdbcTemplate#queryForList(String, Object[], int[])}
 	 * @see JdbcTemplate#queryForList(String, Object[], int[])}
 	 */ 
 	public List<Map<String, Object>> queryForList(SqlWithArguments sqlWithArgs)
 			throws DataAccessException {
-		return jt.queryForList(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes());
+		return timed(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), t -> jt.query(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, getColumnMapRowMapper())));
+	}
+	/** Calls {@link #queryForList(SqlWithArguments)}, returning a cached result if
+	 * a QueryResultCache has been set.
+	 * 
+	 * @param ttl how long the result may be cached for
+	 * @param unit the unit of ttl
+	 * 
+	 * @return an unmodifiable List of unmodifiable Maps
+	 */ 
+	public List<Map<String, Object>> queryForList(final SqlWithArguments sqlWithArgs, long ttl, TimeUnit unit)
+			throws DataAccessException {
+		return getCached(List.class, sqlWithArgs.getSql(), sqlWithArgs, ttl, unit, () -> unmodifiableRows(queryForList(sqlWithArgs)));
 	}
 	public List<Map<String, Object>> queryForList(String sql, Object[] args, int[] argTypes)
 			throws DataAccessException {
-		return jt.queryForList(sql, args, argTypes);
+		return timed(sql, args, t -> jt.query(sql, args, argTypes, wrap(t, getColumnMapRowMapper())));
 	}
 	public List<Map<String, Object>> queryForList(String sql, Object... args) throws DataAccessException {
-		return jt.queryForList(sql, args);
+		return timed(sql, args, t -> jt.query(sql, wrap(t, getColumnMapRowMapper()), args));
 	}
 	/** Calls {@link JdbcTemplate#queryForRowSet(String, Object[], int[])}
 	 * @see JdbcTemplate#queryForRowSet(String, Object[], int[]) 
 	 */ 
 	public SqlRowSet queryForRowSet(SqlWithArguments sqlWithArgs) throws DataAccessException {
-		return jt.queryForRowSet(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes());
+		return timed(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), t -> jt.query(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes(), wrap(t, new SqlRowSetResultSetExtractor())));
 	}
 	public SqlRowSet queryForRowSet(String sql, Object[] args, int[] argTypes) throws DataAccessException {
-		return jt.queryForRowSet(sql, args, argTypes);
+		return timed(sql, args, t -> jt.query(sql, args, argTypes, wrap(t, new SqlRowSetResultSetExtractor())));
 	}
 	public SqlRowSet queryForRowSet(String sql, Object... args) throws DataAccessException {
-		return jt.queryForRowSet(sql, args);
+		return timed(sql, args, t -> jt.query(sql, wrap(t, new SqlRowSetResultSetExtractor()), args));
 	}
 	public int update(PreparedStatementCreator psc) throws DataAccessException {
-		return jt.update(psc);
+		try {
+			return timed(getSql(psc), null, t -> jt.update(psc), r -> r);
+		} finally {
+			invalidateAll();
+		}
 	}
 	public int update(PreparedStatementCreator psc, KeyHolder generatedKeyHolder) throws DataAccessException {
-		return jt.update(psc, generatedKeyHolder);
+		try {
+			return timed(getSql(psc), null, t -> jt.update(psc, generatedKeyHolder), r -> r);
+		} finally {
+			invalidateAll();
+		}
 	}
 	public int update(String sql, PreparedStatementSetter pss) throws DataAccessException {
-		return jt.update(sql, pss);
+		try {
+			return timed(sql, null, t -> jt.update(sql, pss), r -> r);
+		} finally {
+			invalidate(sql);
+		}
 	}
 	/** Calls {@link JdbcTemplate#update(String, Object[], int[])}
 	 * @see JdbcTemplate#update(String, Object[], int[]) 
 	 */ 
 	public int update(SqlWithArguments sqlWithArgs) throws DataAccessException {
-		return jt.update(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes());
+		try {
+			return timed(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), t -> jt.update(sqlWithArgs.getSql(), sqlWithArgs.getArgs(), sqlWithArgs.getArgTypes()), r -> r);
+		} finally {
+			invalidate(sqlWithArgs.getSql());
+		}
 	}
 	public int update(String sql, Object[] args, int[] argTypes) throws DataAccessException {
-		return jt.update(sql, args, argTypes);
+		try {
+			return timed(sql, args, t -> jt.update(sql, args, argTypes), r -> r);
+		} finally {
+			invalidate(sql);
+		}
 	}
 	public int update(String sql, Object... args) throws DataAccessException {
-		return jt.update(sql, args);
+		try {
+			return timed(sql, args, t -> jt.update(sql, args), r -> r);
+		} finally {
+			invalidate(sql);
+		}
 	}
 	public int[] batchUpdate(String sql, BatchPreparedStatementSetter pss) throws DataAccessException {
-		return jt.batchUpdate(sql, pss);
+		try {
+			return timed(sql, null, t -> jt.batchUpdate(sql, pss), JdbcTemplateWithArguments::sum);
+		} finally {
+			invalidate(sql);
+		}
 	}
 	public int[] batchUpdate(String sql, List<Object[]> batchArgs) throws DataAccessException {
-		return jt.batchUpdate(sql, batchArgs);
+		try {
+			return timed(sql, batchArgs, t -> jt.batchUpdate(sql, batchArgs), JdbcTemplateWithArguments::sum);
+		} finally {
+			invalidate(sql);
+		}
 	}
 	/* could supply a list of SqlWithArguments and assume the sql & types are identical for all, but 
 	 * probably safer just to leave this 
@@ -403,21 +771,41 @@ public class JdbcTemplateWithArguments extends JdbcTemplate {
 	}
 	*/
 	public int[] batchUpdate(String sql, List<Object[]> batchArgs, int[] argTypes) throws DataAccessException {
-		return jt.batchUpdate(sql, batchArgs, argTypes);
+		try {
+			return timed(sql, batchArgs, t -> jt.batchUpdate(sql, batchArgs, argTypes), JdbcTemplateWithArguments::sum);
+		} finally {
+			invalidate(sql);
+		}
 	}
 	public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
 			ParameterizedPreparedStatementSetter<T> pss) throws DataAccessException {
-		return jt.batchUpdate(sql, batchArgs, batchSize, pss);
+		try {
+			return timed(sql, batchArgs, t -> jt.batchUpdate(sql, batchArgs, batchSize, pss), JdbcTemplateWithArguments::sum);
+		} finally {
+			invalidate(sql);
+		}
 	}
 	public <T> T execute(CallableStatementCreator csc, CallableStatementCallback<T> action) throws DataAccessException {
-		return jt.execute(csc, action);
+		try {
+			return timed(getSql(csc), null, t -> jt.execute(csc, action));
+		} finally {
+			invalidateAll();
+		}
 	}
 	public <T> T execute(String callString, CallableStatementCallback<T> action) throws DataAccessException {
-		return jt.execute(callString, action);
+		try {
+			return timed(callString, null, t -> jt.execute(callString, action));
+		} finally {
+			invalidateAll();
+		}
 	}
 	public Map<String, Object> call(CallableStatementCreator csc, List<SqlParameter> declaredParameters)
 			throws DataAccessException {
-		return jt.call(csc, declaredParameters);
+		try {
+			return timed(getSql(csc), null, t -> jt.call(csc, declaredParameters));
+		} finally {
+			invalidateAll();
+		}
 	}
 	
 }
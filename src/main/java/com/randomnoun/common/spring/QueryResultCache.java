@@ -0,0 +1,380 @@
+package com.randomnoun.common.spring;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A size-bounded cache of query results, used by {@link JdbcTemplateWithArguments}.
+ *
+ * <p>Each result is cached for a time-to-live supplied by the caller, and is tagged with
+ * the tables it was read from. Results are invalidated when a table they were read from is
+ * modified through the JdbcTemplateWithArguments that the cache is attached to,
+ * or when {@link #invalidate(String)} is called. Writes made by other processes or through
+ * other JdbcTemplates are not detected, so the time-to-live should reflect how stale a
+ * result is allowed to become.
+ *
+ * <p>When the cache is full, the least-recently used result is evicted.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author knoxg
+ */
+public class QueryResultCache {
+
+	/** Logger for this class */
+	public static final Logger logger = Logger.getLogger(QueryResultCache.class);
+
+	/** A cached result */
+	private static class Entry {
+		Object value;
+		long loadedAt;
+		String[] tables;
+		long[] generations;
+		long globalGeneration;
+	}
+
+	/** The maximum number of cached results */
+	private final int maxEntries;
+
+	/** Cached results, in least-recently used order */
+	private final LinkedHashMap<Object, Entry> entries;
+
+	/** Incremented each time a table is modified; keyed by lower-cased unqualified table name */
+	private final Map<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+	/** Incremented when all tables are invalidated */
+	private final AtomicLong globalGeneration = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/** Create a new QueryResultCache
+	 *
+	 * @param maxEntries the maximum number of results held in the cache
+	 */
+	public QueryResultCache(final int maxEntries) {
+		if (maxEntries < 1) { throw new IllegalArgumentException("maxEntries must be >= 1"); }
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/** Returns a cached result, or loads and caches the result if it is not cached, was loaded
+	 * longer ago than the supplied time-to-live, or one of its tables has been modified since it was cached.
+	 *
+	 * @param key the cache key; must implement equals() and hashCode(), and must not be modified after it is supplied
+	 * @param ttl the maximum age of a cached result
+	 * @param unit the unit of ttl
+	 * @param tables the tables that the result is read from
+	 * @param loader supplies the result. The result should not be modified once it has been supplied.
+	 *
+	 * @return the result
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key, long ttl, TimeUnit unit, Collection<String> tables, Supplier<T> loader) {
+		long now = System.nanoTime();
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		if (entry != null && isValid(entry, now, unit.toNanos(ttl))) {
+			hits.incrementAndGet();
+			return (T) entry.value;
+		}
+		misses.incrementAndGet();
+
+		// generations are read before the result is loaded, so that a table modified during
+		// the load invalidates the result
+		entry = new Entry();
+		entry.globalGeneration = globalGeneration.get();
+		entry.tables = new String[tables.size()];
+		entry.generations = new long[entry.tables.length];
+		int i = 0;
+		for (String table : tables) {
+			entry.tables[i] = normaliseTable(table);
+			entry.generations[i] = getGeneration(entry.tables[i]).get();
+			i++;
+		}
+		T value = loader.get();
+		entry.value = value;
+		entry.loadedAt = now;
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+		return value;
+	}
+
+	private boolean isValid(Entry entry, long now, long ttlNanos) {
+		if (now - entry.loadedAt >= ttlNanos || entry.globalGeneration != globalGeneration.get()) {
+			return false;
+		}
+		for (int i = 0; i < entry.tables.length; i++) {
+			if (entry.generations[i] != getGeneration(entry.tables[i]).get()) { return false; }
+		}
+		return true;
+	}
+
+	private AtomicLong getGeneration(String table) {
+		AtomicLong generation = generations.get(table);
+		if (generation == null) {
+			generation = generations.computeIfAbsent(table, t -> new AtomicLong());
+		}
+		return generation;
+	}
+
+	/** Invalidates all results read from a table
+	 *
+	 * @param table the table name, which may be qualified with a schema name
+	 */
+	public void invalidate(String table) {
+		String name = normaliseTable(table);
+		if (logger.isDebugEnabled()) { logger.debug("Invalidating results for table '" + name + "'"); }
+		getGeneration(name).incrementAndGet();
+	}
+
+	/** Invalidates all results */
+	public void invalidateAll() {
+		logger.debug("Invalidating all results");
+		globalGeneration.incrementAndGet();
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/** Invalidates the results affected by a statement which may have modified the database.
+	 * If the table modified by the statement cannot be determined, all results are invalidated.
+	 *
+	 * @param sql the statement
+	 */
+	public void invalidateSql(String sql) {
+		String table = getModifiedTable(sql);
+		if (table == null) {
+			invalidateAll();
+		} else if (!table.isEmpty()) {
+			invalidate(table);
+		}
+	}
+
+	/** Returns the number of results in the cache, which may include expired or invalidated results */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/** Returns the number of results that were returned from the cache */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** Returns the number of results that were loaded */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/** Returns the unqualified, unquoted, lower-cased table name */
+	private static String normaliseTable(String table) {
+		int pos = table.lastIndexOf('.');
+		String name = pos == -1 ? table : table.substring(pos + 1);
+		if (name.length() > 1 && isQuote(name.charAt(0))) {
+			name = name.substring(1, name.length() - 1);
+		}
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	/** Returns the tables named in the FROM and JOIN clauses of a query, including those in subqueries.
+	 * Tables referenced indirectly (e.g. through views or functions) are not included.
+	 *
+	 * @param sql the query
+	 *
+	 * @return the (unqualified, lower-cased) table names
+	 */
+	public static Set<String> getTables(String sql) {
+		Set<String> tables = new LinkedHashSet<String>();
+		List<String> tokens = tokenize(sql);
+		// true at each parenthesis depth whilst within a FROM clause
+		List<Boolean> inFrom = new ArrayList<Boolean>();
+		inFrom.add(false);
+		for (int i = 0; i < tokens.size(); i++) {
+			String token = tokens.get(i);
+			int depth = inFrom.size() - 1;
+			if (token.equals("(")) {
+				inFrom.add(false);
+			} else if (token.equals(")")) {
+				if (depth > 0) { inFrom.remove(depth); }
+			} else if (token.equals("FROM") || token.equals("JOIN") || (token.equals(",") && inFrom.get(depth))) {
+				inFrom.set(depth, !token.equals("JOIN") || inFrom.get(depth));
+				if (i + 1 < tokens.size() && isName(tokens.get(i + 1))) {
+					tables.add(normaliseTable(readName(tokens, i + 1)));
+				}
+			} else if (isClauseKeyword(token)) {
+				inFrom.set(depth, false);
+			}
+		}
+		return tables;
+	}
+
+	/** Returns the table modified by a statement, an empty String if the statement does
+	 * not modify any tables, or null if the table could not be determined */
+	static String getModifiedTable(String sql) {
+		List<String> tokens = tokenize(sql);
+		if (tokens.isEmpty()) { return ""; }
+		int i = 1;
+		switch (tokens.get(0)) {
+			case "SELECT":
+			case "SHOW":
+			case "DESCRIBE":
+			case "EXPLAIN":
+			case "SET":
+			case "USE":
+			case "COMMIT":
+			case "ROLLBACK":
+				return "";
+
+			case "INSERT":
+			case "REPLACE":
+			case "MERGE":
+			case "UPDATE":
+				i = skip(tokens, i, "LOW_PRIORITY", "DELAYED", "HIGH_PRIORITY", "IGNORE", "INTO");
+				break;
+
+			case "DELETE":
+				i = skip(tokens, i, "LOW_PRIORITY", "QUICK", "IGNORE");
+				if (i < tokens.size() && !tokens.get(i).equals("FROM")) { return null; } // multiple-table DELETE
+				i++;
+				break;
+
+			case "ALTER":
+			case "DROP":
+				// other objects (e.g. views) may be used by any query
+				if (tokens.size() < 2 || !tokens.get(1).equals("TABLE")) { return null; }
+				// fall through
+			case "TRUNCATE":
+				i = skip(tokens, i, "TABLE", "IF", "EXISTS");
+				break;
+
+			default:
+				return null;
+		}
+		if (i >= tokens.size() || !isName(tokens.get(i))) { return null; }
+		String table = readName(tokens, i);
+		i += table.split("\\.", -1).length * 2 - 1;
+		if (tokens.get(0).equals("UPDATE")) {
+			// multiple-table UPDATEs
+			while (i < tokens.size() && !tokens.get(i).equals("SET")) {
+				if (tokens.get(i).equals(",") || tokens.get(i).equals("JOIN")) { return null; }
+				i++;
+			}
+		} else if (i < tokens.size() && tokens.get(i).equals(",")) {
+			// multiple DROPs
+			return null;
+		}
+		return normaliseTable(table);
+	}
+
+	private static int skip(List<String> tokens, int i, String... keywords) {
+		boolean found = true;
+		while (i < tokens.size() && found) {
+			found = false;
+			for (String keyword : keywords) {
+				if (keyword.equals(tokens.get(i))) { found = true; i++; break; }
+			}
+		}
+		return i;
+	}
+
+	/** Returns a (possibly qualified) name starting at the supplied token */
+	private static String readName(List<String> tokens, int i) {
+		StringBuilder sb = new StringBuilder(tokens.get(i));
+		while (i + 2 < tokens.size() && tokens.get(i + 1).equals(".") && isName(tokens.get(i + 2))) {
+			sb.append('.').append(tokens.get(i + 2));
+			i += 2;
+		}
+		return sb.toString();
+	}
+
+	private static boolean isName(String token) {
+		char ch = token.charAt(0);
+		return isQuote(ch) || ((Character.isLetterOrDigit(ch) || ch == '_' || ch == '$') && !isClauseKeyword(token) && !token.equals("SELECT"));
+	}
+
+	private static boolean isQuote(char ch) {
+		return ch == '`' || ch == '"' || ch == '[';
+	}
+
+	/** Keywords which end a FROM clause */
+	private static boolean isClauseKeyword(String token) {
+		switch (token) {
+			case "WHERE": case "GROUP": case "HAVING": case "ORDER": case "LIMIT": case "UNION":
+			case "SET": case "VALUES": case "SELECT": case "FOR": case "WINDOW":
+			case "INTERSECT": case "EXCEPT": case "MINUS": case "INTO": case "OFFSET": case "FETCH":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/** Splits SQL into tokens. Unquoted words are upper-cased, quoted identifiers retain their quotes,
+	 * string literals and comments are omitted, and any other character is returned on its own. */
+	private static List<String> tokenize(String sql) {
+		List<String> tokens = new ArrayList<String>();
+		int len = sql.length();
+		int pos = 0;
+		while (pos < len) {
+			char ch = sql.charAt(pos);
+			int start = pos;
+			if (Character.isWhitespace(ch)) {
+				pos++;
+			} else if (ch == '\'') {
+				pos++;
+				while (pos < len && sql.charAt(pos) != '\'') {
+					if (sql.charAt(pos) == '\\') { pos++; }
+					pos++;
+				}
+				pos++;
+			} else if ((ch == '-' && sql.startsWith("--", pos)) || ch == '#') {
+				while (pos < len && sql.charAt(pos) != '\n') { pos++; }
+			} else if (ch == '/' && sql.startsWith("/*", pos)) {
+				int end = sql.indexOf("*/", pos + 2);
+				pos = end == -1 ? len : end + 2;
+			} else if (isQuote(ch)) {
+				int end = sql.indexOf(ch == '[' ? ']' : ch, pos + 1);
+				pos = end == -1 ? len : end + 1;
+				tokens.add(sql.substring(start, pos));
+			} else if (Character.isLetterOrDigit(ch) || ch == '_' || ch == '$') {
+				while (pos < len && (Character.isLetterOrDigit(sql.charAt(pos)) || sql.charAt(pos) == '_' || sql.charAt(pos) == '$')) { pos++; }
+				tokens.add(sql.substring(start, pos).toUpperCase(Locale.ROOT));
+			} else {
+				pos++;
+				tokens.add(String.valueOf(ch));
+			}
+		}
+		return tokens;
+	}
+
+}
@@ -0,0 +1,321 @@
+package com.randomnoun.common.spring;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ArgumentTypePreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import com.randomnoun.common.db.enums.DatabaseTypeEnum;
+
+/**
+ * Executes queries whose results are too large to hold in memory, configuring the JDBC driver
+ * so that rows are streamed from the database rather than buffered by the driver.
+ *
+ * <p>The driver is configured according to the type of database:
+ * <ul>
+ * <li>MySQL Connector/J streams rows one at a time (by setting the fetch size to Integer.MIN_VALUE),
+ *   unless the connection was opened with <code>useCursorFetch=true</code>, in which case a server-side
+ *   cursor is used. While rows are being streamed, no other statements can be executed on the connection.
+ * <li>The MariaDB driver streams rows in batches of the fetch size.
+ * <li>Oracle, SQL Server and Firebird fetch rows from a server-side cursor in batches of the fetch size.
+ * <li>PostgreSQL only uses a cursor outside of auto-commit mode, so auto-commit is disabled whilst
+ *   the query is executing if necessary.
+ * </ul>
+ *
+ * <p>Where the driver fetches batches of rows, the fetch size is adapted to the width of the rows:
+ * the width of a row is estimated from the result set metadata and the fetch size is adjusted so that
+ * each batch is approximately {@link #setFetchBytes(int)} bytes. The estimated width is remembered for each
+ * SQL statement, and is used as the initial fetch size the next time the statement is executed.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author knoxg
+ */
+public class ResultSetStreamer {
+
+	/** Logger for this class */
+	public static final Logger logger = Logger.getLogger(ResultSetStreamer.class);
+
+	/** The fetch size used when the width of a row is not yet known */
+	private static final int INITIAL_FETCH_SIZE = 100;
+
+	/** The maximum number of statements whose row widths are remembered */
+	private static final int MAX_ROW_WIDTHS = 1000;
+
+	/** The width assumed for columns whose size is unknown or unbounded (e.g. LOBs and LONG columns) */
+	private static final int UNMEASURED_COLUMN_WIDTH = 4000;
+
+	/** How rows are streamed by a driver */
+	private enum StreamMode {
+		/** One row at a time, using fetch size Integer.MIN_VALUE (MySQL Connector/J) */
+		ROW,
+		/** In batches of the fetch size */
+		FETCH_SIZE,
+		/** In batches of the fetch size, but only outside of auto-commit mode (PostgreSQL) */
+		FETCH_SIZE_NO_AUTOCOMMIT
+	}
+
+	private final JdbcTemplate jt;
+
+	/** The database type, or null if not yet detected */
+	private volatile DatabaseTypeEnum databaseType;
+
+	/** How rows are streamed, or null if not yet detected */
+	private volatile StreamMode streamMode;
+
+	private int fetchBytes = 1024 * 1024;
+	private int minFetchSize = 10;
+	private int maxFetchSize = 10000;
+
+	/** Average row widths, in bytes, keyed by SQL */
+	private final Map<String, Integer> rowWidths = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > MAX_ROW_WIDTHS;
+		}
+	};
+
+	/** Create a new ResultSetStreamer
+	 *
+	 * @param jt the JdbcTemplate used to obtain connections
+	 */
+	public ResultSetStreamer(JdbcTemplate jt) {
+		if (jt == null) { throw new NullPointerException("null jt"); }
+		this.jt = jt;
+	}
+
+	/** Sets the type of database; if not set, it is determined from the database metadata */
+	public void setDatabaseType(DatabaseTypeEnum databaseType) {
+		this.databaseType = databaseType;
+		this.streamMode = null;
+	}
+
+	/** Sets the approximate number of bytes fetched in each batch of rows (default 1MB) */
+	public void setFetchBytes(int fetchBytes) {
+		if (fetchBytes < 1) { throw new IllegalArgumentException("fetchBytes must be >= 1"); }
+		this.fetchBytes = fetchBytes;
+	}
+
+	/** Sets the minimum and maximum fetch sizes (default 10 and 10000) */
+	public void setFetchSizeRange(int minFetchSize, int maxFetchSize) {
+		if (minFetchSize < 1 || maxFetchSize < minFetchSize) { throw new IllegalArgumentException("invalid fetch size range"); }
+		this.minFetchSize = minFetchSize;
+		this.maxFetchSize = maxFetchSize;
+	}
+
+	/** Returns the database type, detecting it if it has not been set */
+	public DatabaseTypeEnum getDatabaseType() {
+		if (databaseType == null) {
+			jt.execute(new ConnectionCallback<Object>() {
+				public Object doInConnection(Connection conn) throws SQLException {
+					detect(conn.getMetaData());
+					return null;
+				}
+			});
+		}
+		return databaseType;
+	}
+
+	/** Streams the results of a query to a RowCallbackHandler
+	 *
+	 * @param sql the query
+	 * @param args the query arguments, or null
+	 * @param argTypes the {@link java.sql.Types} of the arguments, or null
+	 * @param rch the handler for each row
+	 */
+	public void query(String sql, Object[] args, int[] argTypes, final RowCallbackHandler rch) {
+		if (rch == null) { throw new NullPointerException("null rch"); }
+		this.<Object>execute(sql, args, argTypes, null, rch);
+	}
+
+	/** Streams the results of a query to a ResultSetExtractor, such as a
+	 * {@link StructuredListResultSetExtractor} or a {@link StructuredMapCallbackHandlerResultSetExtractor}.
+	 *
+	 * @param sql the query
+	 * @param args the query arguments, or null
+	 * @param argTypes the {@link java.sql.Types} of the arguments, or null
+	 * @param rse the extractor
+	 *
+	 * @return the object returned by the extractor
+	 */
+	public <T> T query(String sql, Object[] args, int[] argTypes, ResultSetExtractor<T> rse) {
+		if (rse == null) { throw new NullPointerException("null rse"); }
+		return execute(sql, args, argTypes, rse, null);
+	}
+
+	private <T> T execute(final String sql, final Object[] args, final int[] argTypes,
+		final ResultSetExtractor<T> rse, final RowCallbackHandler rch)
+	{
+		return jt.execute(new ConnectionCallback<T>() {
+			public T doInConnection(Connection conn) throws SQLException {
+				if (streamMode == null) { detect(conn.getMetaData()); }
+				StreamMode mode = streamMode;
+				boolean restoreAutoCommit = false;
+				boolean success = false;
+				if (mode == StreamMode.FETCH_SIZE_NO_AUTOCOMMIT && conn.getAutoCommit()) {
+					conn.setAutoCommit(false);
+					restoreAutoCommit = true;
+				}
+				try {
+					PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+					try {
+						Integer rowWidth;
+						synchronized (rowWidths) { rowWidth = rowWidths.get(sql); }
+						ps.setFetchSize(mode == StreamMode.ROW ? Integer.MIN_VALUE : getFetchSize(rowWidth));
+						if (jt.getMaxRows() > 0) { ps.setMaxRows(jt.getMaxRows()); }
+						if (jt.getQueryTimeout() > 0) { ps.setQueryTimeout(jt.getQueryTimeout()); }
+						if (args != null) {
+							PreparedStatementSetter pss = argTypes == null ? new ArgumentPreparedStatementSetter(args) :
+								new ArgumentTypePreparedStatementSetter(args, argTypes);
+							pss.setValues(ps);
+						}
+						ResultSet rs = ps.executeQuery();
+						try {
+							if (mode != StreamMode.ROW) { adaptFetchSize(sql, rs, rowWidth); }
+							T result = null;
+							if (rch != null) {
+								while (rs.next()) {
+									rch.processRow(rs);
+								}
+							} else {
+								result = rse.extractData(rs);
+							}
+							success = true;
+							return result;
+						} finally {
+							rs.close();
+						}
+					} finally {
+						ps.close();
+					}
+				} finally {
+					if (restoreAutoCommit) {
+						try {
+							if (success) { conn.commit(); } else { conn.rollback(); }
+						} finally {
+							conn.setAutoCommit(true);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/** Determines the database type and streaming mode from the database metadata */
+	private void detect(DatabaseMetaData dbmd) throws SQLException {
+		String productName = dbmd.getDatabaseProductName();
+		String driverName = dbmd.getDriverName();
+		if (databaseType == null) {
+			databaseType = getDatabaseType(productName);
+		}
+		StreamMode mode = StreamMode.FETCH_SIZE;
+		if (databaseType == DatabaseTypeEnum.MYSQL) {
+			String url = dbmd.getURL();
+			boolean mariadb = driverName != null && driverName.toLowerCase().contains("mariadb");
+			boolean cursorFetch = url != null && url.toLowerCase().contains("usecursorfetch=true");
+			mode = mariadb || cursorFetch ? StreamMode.FETCH_SIZE : StreamMode.ROW;
+		} else if (productName != null && productName.toLowerCase().contains("postgresql")) {
+			mode = StreamMode.FETCH_SIZE_NO_AUTOCOMMIT;
+		}
+		logger.debug("Streaming " + databaseType + " (" + productName + ", " + driverName + ") results using " + mode);
+		streamMode = mode;
+	}
+
+	/** Returns the DatabaseTypeEnum for a database product name, as returned by
+	 * {@link DatabaseMetaData#getDatabaseProductName()}.
+	 *
+	 * @param productName the database product name
+	 *
+	 * @return the database type, or GENERIC if the product is not recognised
+	 */
+	public static DatabaseTypeEnum getDatabaseType(String productName) {
+		String name = productName == null ? "" : productName.toLowerCase();
+		if (name.contains("mysql") || name.contains("mariadb")) {
+			return DatabaseTypeEnum.MYSQL;
+		} else if (name.contains("oracle")) {
+			return DatabaseTypeEnum.ORACLE;
+		} else if (name.contains("sql server")) {
+			return DatabaseTypeEnum.SQLSERVER;
+		} else if (name.contains("firebird")) {
+			return DatabaseTypeEnum.FIREBIRD;
+		}
+		return DatabaseTypeEnum.GENERIC;
+	}
+
+	/** Returns the fetch size for rows of the supplied width
+	 *
+	 * @param rowWidth the average row width in bytes, or null if not known
+	 */
+	int getFetchSize(Integer rowWidth) {
+		if (rowWidth == null) {
+			// unknown width; start small, and adapt once the width is estimated
+			return Math.max(minFetchSize, Math.min(maxFetchSize, INITIAL_FETCH_SIZE));
+		}
+		return (int) Math.max(minFetchSize, Math.min(maxFetchSize, fetchBytes / Math.max(1, rowWidth)));
+	}
+
+	/** Estimates the width of the rows of a ResultSet from its metadata, remembers it for the next
+	 * execution of the statement, and adapts the fetch size of the ResultSet
+	 *
+	 * @param sql the query
+	 * @param rs the query results
+	 * @param previousRowWidth the remembered row width used to set the initial fetch size, or null
+	 */
+	private void adaptFetchSize(String sql, ResultSet rs, Integer previousRowWidth) throws SQLException {
+		ResultSetMetaData md = rs.getMetaData();
+		long width = 0;
+		for (int i = 1; i <= md.getColumnCount(); i++) {
+			width += getColumnWidth(md, i);
+		}
+		int rowWidth = (int) Math.max(1, Math.min(Integer.MAX_VALUE, width));
+		synchronized (rowWidths) { rowWidths.put(sql, rowWidth); }
+		int fetchSize = getFetchSize(rowWidth);
+		if (fetchSize != getFetchSize(previousRowWidth)) {
+			try {
+				rs.setFetchSize(fetchSize);
+				if (logger.isDebugEnabled()) { logger.debug("Adapted fetch size to " + fetchSize + " for row width " + rowWidth); }
+			} catch (SQLException sqle) {
+				// the fetch size is only a hint
+				logger.debug("Could not set fetch size", sqle);
+			}
+		}
+	}
+
+	/** Returns the approximate size of a column value, in bytes */
+	private static int getColumnWidth(ResultSetMetaData md, int column) throws SQLException {
+		int size;
+		switch (md.getColumnType(column)) {
+			case Types.BLOB: case Types.CLOB: case Types.NCLOB: case Types.SQLXML:
+			case Types.LONGVARCHAR: case Types.LONGNVARCHAR: case Types.LONGVARBINARY:
+				return UNMEASURED_COLUMN_WIDTH;
+			case Types.CHAR: case Types.VARCHAR: case Types.NCHAR: case Types.NVARCHAR:
+				size = md.getColumnDisplaySize(column);
+				return size <= 0 ? UNMEASURED_COLUMN_WIDTH : (int) Math.min(UNMEASURED_COLUMN_WIDTH, size * 2L);
+			case Types.BINARY: case Types.VARBINARY:
+				size = md.getPrecision(column);
+				return size <= 0 ? UNMEASURED_COLUMN_WIDTH : Math.min(UNMEASURED_COLUMN_WIDTH, size);
+			default:
+				return 8;
+		}
+	}
+
+}
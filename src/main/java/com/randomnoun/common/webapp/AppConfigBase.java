@@ -13,6 +13,7 @@ import java.io.InputStreamReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -37,6 +38,8 @@ import com.randomnoun.common.PropertyParser;
 import com.randomnoun.common.Struct;
 import com.randomnoun.common.Text;
 import com.randomnoun.common.jexl.sql.SqlGenerator;
+import com.randomnoun.common.security.EffectivePermissions;
+import com.randomnoun.common.security.PermissionId;
 import com.randomnoun.common.security.SecurityAuthenticator;
 import com.randomnoun.common.security.SecurityContext;
 import com.randomnoun.common.security.SecurityLoader;
@@ -436,6 +439,31 @@ public abstract class AppConfigBase extends Properties {
 		return securityContext.hasPermission(user, permission, resourceContext);
 	}
 
+	/** Determines whether a user 'may have' each of a number of permissions on the application.
+	 * This is equivalent to calling {@link #hasPermission(User, String)} for each permission, 
+	 * but the user's permissions are only retrieved from the security context once.
+	 *
+	 * @param user The user we are checking permissions for. 
+	 * @param permissions The permissions we are checking.
+	 * @return a map of each permission to Boolean.TRUE if the user may be authorised to perform 
+	 *   that permission, Boolean.FALSE otherwise
+	 */
+	public Map<String, Boolean> hasPermissions(User user, Collection<String> permissions)
+	{
+		Map<String, Boolean> result = new HashMap<String, Boolean>();
+		if ("false".equals(getProperty("auth.enableSecurityContext"))) { 
+			for (String permission : permissions) { result.put(permission, Boolean.TRUE); }
+			return result;
+		}
+		SecurityContext securityContext = getSecurityContext();
+		EffectivePermissions effectivePermissions = securityContext.getEffectivePermissions(user);
+		for (String permission : permissions) {
+			PermissionId permissionId = securityContext.resolvePermission(permission);
+			result.put(permission, effectivePermissions.isGranted(permissionId.getId()));
+		}
+		return result;
+	}
+
 
 	/** Provides direct access to the datasource for this application. Most applications should use the 
 	 * {@link #getJdbcTemplate()} method instead.
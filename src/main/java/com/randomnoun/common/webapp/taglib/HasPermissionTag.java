@@ -0,0 +1,153 @@
+package com.randomnoun.common.webapp.taglib;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import jakarta.servlet.jsp.*;
+import jakarta.servlet.jsp.tagext.*;
+
+import com.randomnoun.common.security.User;
+
+/**
+ * Custom JSP tag which only includes its body if the current user has a permission.
+ * Decisions are cached in the {@link RequestPermissionCache} for the current request, so
+ * checking the same permission again in the same request costs a single map lookup.
+ *
+ * <p>Attributes defined for this tag (in common-public.tld) are:
+ * <ul>
+ * <li>permission - the permission to check, in 'activity.resource' format
+ * <li>user - the user whose permissions are being checked. If omitted, the user 
+ *     supplied to an earlier permissions or hasPermission tag in the same request is used.
+ * <li>var - if supplied, the name of a page attribute which will be set to
+ *     Boolean.TRUE or Boolean.FALSE
+ * </ul>
+ *
+ * <p><i>e.g.</i>
+ *
+            <pre class="code">
+            &lt;r:hasPermission user="${user}" permission="update.account"&gt;
+              &lt;input type="submit" value="Save" /&gt;
+            &lt;/r:hasPermission&gt;
+            </pre>
+ *
+ * @author  knoxg
+ */
+public class HasPermissionTag
+    extends BodyTagSupport
+{
+    /** Generated serialVersionUID */
+    private static final long serialVersionUID = -2893358409853702964L;
+
+    /** The permission to check */
+    private String permission;
+
+    /** The user whose permissions are being checked, or null */
+    private User user;
+
+    /** The name of the page attribute to set, or null */
+    private String var;
+
+    /** Sets the permission to check
+     *
+     * @param permission the permission to check, in 'activity.resource' format
+     */
+    public void setPermission(String permission)
+    {
+        this.permission = permission;
+    }
+
+    /** Returns the permission to check
+     *
+     * @return the permission to check
+     */
+    public String getPermission()
+    {
+        return permission;
+    }
+
+    /** Sets the user whose permissions are being checked
+     *
+     * @param user the user whose permissions are being checked
+     */
+    public void setUser(User user)
+    {
+        this.user = user;
+    }
+
+    /** Returns the user whose permissions are being checked
+     *
+     * @return the user whose permissions are being checked
+     */
+    public User getUser()
+    {
+        return user;
+    }
+
+    /** Sets the name of the page attribute which will hold the result of the permission check
+     *
+     * @param var the name of the page attribute which will hold the result of the permission check
+     */
+    public void setVar(String var)
+    {
+        this.var = var;
+    }
+
+    /** Returns the name of the page attribute which will hold the result of the permission check
+     *
+     * @return the name of the page attribute which will hold the result of the permission check
+     */
+    public String getVar()
+    {
+        return var;
+    }
+
+    /** doStart tag handler required to fulfill the Tag interface defined in the
+     * <a href="http://java.sun.com/products/jsp/">JSP specification</a>.
+     *
+     * <p>Checks the permission, and includes the body of this tag if it is granted.
+     *
+     * @return BodyTag.EVAL_BODY_INCLUDE if the permission is granted, BodyTag.SKIP_BODY otherwise
+     */
+    public int doStartTag()
+        throws jakarta.servlet.jsp.JspException
+    {
+        if (permission == null) { throw new JspException("permission attribute must be set"); }
+        boolean granted;
+        try {
+            RequestPermissionCache cache = (user == null) 
+                ? RequestPermissionCache.getInstance(pageContext.getRequest()) 
+                : RequestPermissionCache.getInstance(pageContext.getRequest(), user);
+            if (cache == null) { 
+                throw new IllegalStateException("user attribute must be set if no permissions have been checked in this request");
+            }
+            granted = cache.hasPermission(permission);
+        } catch (Throwable t) {
+            // WAS does not log exceptions that occur within tag libraries; log and rethrow
+            t.printStackTrace();
+            throw (JspException) new JspException("Exception occurred in HasPermissionTag").initCause(t);
+        }
+        if (var != null) {
+            pageContext.setAttribute(var, Boolean.valueOf(granted));
+        }
+
+        return granted ? BodyTag.EVAL_BODY_INCLUDE : BodyTag.SKIP_BODY;
+    }
+
+    /** doEnd tag handler required to fulfill the Tag interface defined in the
+     * <a href="http://java.sun.com/products/jsp/">JSP specification</a>.
+     *
+     * <p>This method does nothing, and always returns BodyTag.EVAL_PAGE
+     *
+     * @return BodyTag.EVAL_PAGE
+     */
+    public int doEndTag()
+        throws jakarta.servlet.jsp.JspException
+    {
+        permission = null;
+        user = null;
+        var = null;
+
+        return BodyTag.EVAL_PAGE;
+    }
+}
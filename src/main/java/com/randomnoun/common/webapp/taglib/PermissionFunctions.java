@@ -0,0 +1,37 @@
+package com.randomnoun.common.webapp.taglib;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import jakarta.servlet.ServletRequest;
+
+import com.randomnoun.common.security.User;
+
+/**
+ * EL functions for checking permissions (declared in common-public.tld). 
+ * Decisions are cached in the {@link RequestPermissionCache} for the current request.
+ *
+ * <p><i>e.g.</i>
+ *
+            <pre class="code">
+            &lt;c:if test="${r:hasPermission(pageContext.request, user, 'update.account')}"&gt; ... &lt;/c:if&gt;
+            </pre>
+ *
+ * @author  knoxg
+ */
+public class PermissionFunctions
+{
+    /** Returns true if the user has the supplied permission.
+     *
+     * @param request the current request
+     * @param user the user whose permissions are being checked
+     * @param permission the permission to check, in 'activity.resource' format
+     *
+     * @return true if the user has the supplied permission
+     */
+    public static boolean hasPermission(ServletRequest request, User user, String permission)
+    {
+        return RequestPermissionCache.getInstance(request, user).hasPermission(permission);
+    }
+}
@@ -0,0 +1,166 @@
+package com.randomnoun.common.webapp.taglib;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.*;
+
+import jakarta.servlet.jsp.*;
+import jakarta.servlet.jsp.tagext.*;
+
+import com.randomnoun.common.Text;
+import com.randomnoun.common.security.User;
+
+/**
+ * Custom JSP tag which declares the permissions used by a page, and checks them
+ * for the current user in a single batch. The results are held in a 
+ * {@link RequestPermissionCache} for the remainder of the request, so that later
+ * permission checks in the page (using the hasPermission tag or EL function) 
+ * cost a single map lookup.
+ *
+ * <p>Attributes defined for this tag (in common-public.tld) are:
+ * <ul>
+ * <li>user - the user whose permissions are being checked
+ * <li>permissions - a comma-separated String, or a Collection of Strings, of the
+ *     permissions used by this page
+ * <li>var - if supplied, the name of a page attribute which will be set to the
+ *     RequestPermissionCache
+ * </ul>
+ *
+ * <p><i>e.g.</i>
+ *
+            <pre class="code">
+            &lt;r:permissions user="${user}" permissions="view.account, update.account" var="perms" /&gt;
+            ...
+            &lt;c:if test="${perms['update.account']}"&gt; ... &lt;/c:if&gt;
+            </pre>
+ *
+ * @author  knoxg
+ */
+public class PermissionsTag
+    extends BodyTagSupport
+{
+    /** Generated serialVersionUID */
+    private static final long serialVersionUID = 4153097046417310617L;
+
+    /** The user whose permissions are being checked */
+    private User user;
+
+    /** The permissions used by this page */
+    private Object permissions;
+
+    /** The name of the page attribute to set, or null */
+    private String var;
+
+    /** Sets the user whose permissions are being checked
+     *
+     * @param user the user whose permissions are being checked
+     */
+    public void setUser(User user)
+    {
+        this.user = user;
+    }
+
+    /** Returns the user whose permissions are being checked
+     *
+     * @return the user whose permissions are being checked
+     */
+    public User getUser()
+    {
+        return user;
+    }
+
+    /** Sets the permissions used by this page
+     *
+     * @param permissions a comma-separated String, or a Collection of Strings
+     */
+    public void setPermissions(Object permissions)
+    {
+        this.permissions = permissions;
+    }
+
+    /** Returns the permissions used by this page
+     *
+     * @return the permissions used by this page
+     */
+    public Object getPermissions()
+    {
+        return permissions;
+    }
+
+    /** Sets the name of the page attribute which will hold the permission cache
+     *
+     * @param var the name of the page attribute which will hold the permission cache
+     */
+    public void setVar(String var)
+    {
+        this.var = var;
+    }
+
+    /** Returns the name of the page attribute which will hold the permission cache
+     *
+     * @return the name of the page attribute which will hold the permission cache
+     */
+    public String getVar()
+    {
+        return var;
+    }
+
+    /** doStart tag handler required to fulfill the Tag interface defined in the
+     * <a href="http://java.sun.com/products/jsp/">JSP specification</a>.
+     *
+     * <p>Checks the declared permissions for the user, and stores the results
+     * in the request permission cache. This tag is always empty, and therefore 
+     * must always return BodyTag.SKIP_BODY
+     *
+     * @return BodyTag.SKIP_BODY
+     */
+    @SuppressWarnings("unchecked")
+    public int doStartTag()
+        throws jakarta.servlet.jsp.JspException
+    {
+        if (user == null) { throw new JspException("user attribute must be set"); }
+        try {
+            RequestPermissionCache cache = RequestPermissionCache.getInstance(pageContext.getRequest(), user);
+            if (permissions instanceof String) {
+                List<String> permissionList = new ArrayList<String>();
+                for (String permission : Text.parseCsv((String) permissions)) {
+                    permission = permission.trim();
+                    if (!permission.equals("")) { permissionList.add(permission); }
+                }
+                cache.resolve(permissionList);
+            } else if (permissions instanceof Collection) {
+                cache.resolve((Collection<String>) permissions);
+            } else if (permissions != null) {
+                throw new IllegalArgumentException("Expected String or Collection permissions, found " + permissions.getClass().getName());
+            }
+            if (var != null) {
+                pageContext.setAttribute(var, cache);
+            }
+        } catch (Throwable t) {
+            // WAS does not log exceptions that occur within tag libraries; log and rethrow
+            t.printStackTrace();
+            throw (JspException) new JspException("Exception occurred in PermissionsTag").initCause(t);
+        }
+
+        return BodyTag.SKIP_BODY; // this tag always has an empty body.
+    }
+
+    /** doEnd tag handler required to fulfill the Tag interface defined in the
+     * <a href="http://java.sun.com/products/jsp/">JSP specification</a>.
+     *
+     * <p>This method does nothing, and always returns BodyTag.EVAL_PAGE
+     *
+     * @return BodyTag.EVAL_PAGE
+     */
+    public int doEndTag()
+        throws jakarta.servlet.jsp.JspException
+    {
+        user = null;
+        permissions = null;
+        var = null;
+
+        return BodyTag.EVAL_PAGE;
+    }
+}
@@ -0,0 +1,174 @@
+package com.randomnoun.common.webapp.taglib;
+
+/* (c) 2013 randomnoun. All Rights Reserved. This work is licensed under a
+ * BSD Simplified License. (http://www.randomnoun.com/bsd-simplified.html)
+ */
+
+import java.util.*;
+
+import jakarta.servlet.ServletRequest;
+
+import com.randomnoun.common.security.User;
+import com.randomnoun.common.webapp.AppConfigBase;
+
+/**
+ * Caches the permission decisions made for a user within a single request.
+ *
+ * <p>Decisions are made by {@link AppConfigBase#hasPermission(User, String)} the first time
+ * a permission is checked, and are then returned from this cache for the remainder of
+ * the request. A page can also resolve all the permissions it uses up-front
+ * (see {@link #resolve(Collection)}), which retrieves the user's permissions from the
+ * security context once for the whole batch.
+ *
+ * <p>Only permissions without a resource context are cached.
+ *
+ * <p>This class implements Map, so that decisions can be read using EL;
+ * e.g. <code>${perms['update.account']}</code>. Permissions that have not been resolved
+ * are checked when they are first read from the map; the keys, entries and size of the map
+ * only include permissions that have been resolved. The map cannot be modified
+ * directly.
+ *
+ * <p>Instances of this class are stored in a request attribute, and are not thread-safe.
+ *
+ * @see PermissionsTag
+ * @see HasPermissionTag
+ * @see PermissionFunctions
+ *
+ * @author  knoxg
+ */
+public class RequestPermissionCache extends AbstractMap<String, Boolean>
+{
+    /** The request attribute holding the cache for the current request */
+    public static final String REQUEST_ATTRIBUTE = RequestPermissionCache.class.getName();
+
+    /** The AppConfig used to check permissions */
+    private AppConfigBase appConfig;
+
+    /** The user whose permissions are cached */
+    private User user;
+
+    /** Permission decisions made so far */
+    private Map<String, Boolean> decisions = new HashMap<String, Boolean>();
+
+    /** Create a new cache.
+     *
+     * @param appConfig the AppConfig used to check permissions
+     * @param user the user whose permissions are cached
+     */
+    public RequestPermissionCache(AppConfigBase appConfig, User user)
+    {
+        if (appConfig == null) { throw new NullPointerException("null appConfig"); }
+        if (user == null) { throw new NullPointerException("null user"); }
+        this.appConfig = appConfig;
+        this.user = user;
+    }
+
+    /** Returns the cache for the supplied user in the current request, creating it
+     * if required. If the request currently holds a cache for a different user,
+     * it is replaced. Permissions are checked using the global {@link AppConfigBase#instance}.
+     *
+     * @param request the current request
+     * @param user the user whose permissions are being checked
+     *
+     * @return the permission cache
+     *
+     * @throws IllegalStateException if the AppConfig has not been initialised
+     */
+    public static RequestPermissionCache getInstance(ServletRequest request, User user)
+    {
+        if (user == null) { throw new NullPointerException("null user"); }
+        RequestPermissionCache cache = (RequestPermissionCache) request.getAttribute(REQUEST_ATTRIBUTE);
+        if (cache == null || !cache.user.equals(user)) {
+            if (AppConfigBase.instance == null) {
+                throw new IllegalStateException("AppConfig not initialised");
+            }
+            cache = new RequestPermissionCache(AppConfigBase.instance, user);
+            request.setAttribute(REQUEST_ATTRIBUTE, cache);
+        }
+        return cache;
+    }
+
+    /** Returns the cache in the current request, or null if no cache has been created.
+     *
+     * @param request the current request
+     *
+     * @return the permission cache, or null
+     */
+    public static RequestPermissionCache getInstance(ServletRequest request)
+    {
+        return (RequestPermissionCache) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /** Returns the user whose permissions are cached
+     *
+     * @return the user whose permissions are cached
+     */
+    public User getUser()
+    {
+        return user;
+    }
+
+    /** Returns true if the user has the supplied permission.
+     *
+     * @param permission a permission, in 'activity.resource' format
+     *
+     * @return true if the user has the supplied permission
+     */
+    public boolean hasPermission(String permission)
+    {
+        Boolean decision = decisions.get(permission);
+        if (decision == null) {
+            decision = Boolean.valueOf(appConfig.hasPermission(user, permission));
+            decisions.put(permission, decision);
+        }
+        return decision.booleanValue();
+    }
+
+    /** Checks a number of permissions at once, and caches the results.
+     *
+     * @param permissions a collection of permissions, in 'activity.resource' format
+     */
+    public void resolve(Collection<String> permissions)
+    {
+        List<String> unresolved = new ArrayList<String>();
+        for (String permission : permissions) {
+            if (!decisions.containsKey(permission)) {
+                unresolved.add(permission);
+            }
+        }
+        if (unresolved.size() > 0) {
+            decisions.putAll(appConfig.hasPermissions(user, unresolved));
+        }
+    }
+
+    /** Returns Boolean.TRUE if the user has the supplied permission, Boolean.FALSE otherwise.
+     *
+     * @param key a permission, in 'activity.resource' format
+     *
+     * @return Boolean.TRUE or Boolean.FALSE, or null if the key is not a String
+     */
+    public Boolean get(Object key)
+    {
+        if (!(key instanceof String)) { return null; }
+        return Boolean.valueOf(hasPermission((String) key));
+    }
+
+    /** Returns true if a decision has been made for the supplied permission. Consistent
+     * with {@link #entrySet()}; unresolved permissions can still be read using {@link #get(Object)}.
+     *
+     * @param key a permission, in 'activity.resource' format
+     */
+    public boolean containsKey(Object key)
+    {
+        return decisions.containsKey(key);
+    }
+
+    /** Returns the permission decisions that have been made so far
+     *
+     * @return the permission decisions that have been made so far
+     */
+    public Set<Map.Entry<String, Boolean>> entrySet()
+    {
+        return Collections.unmodifiableMap(decisions).entrySet();
+    }
+}
@@ -0,0 +1,172 @@
+package com.randomnoun.common.db;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.randomnoun.common.Text;
+import com.randomnoun.common.db.to.SchemaTO;
+
+public class SchemaCacheTest {
+
+	private File directory;
+
+	/** A DatabaseReader that creates empty schemas, and counts the number of schemas read */
+	private static class TestDatabaseReader extends DatabaseReader {
+		String fingerprint = "1";
+		int reads = 0;
+
+		TestDatabaseReader() {
+			super((DataSource) Proxy.newProxyInstance(SchemaCacheTest.class.getClassLoader(),
+				new Class<?>[] { DataSource.class }, (proxy, method, args) -> { throw new UnsupportedOperationException(); }));
+		}
+		@Override
+		public String getDataSourceKey() { return "jdbc:test"; }
+		@Override
+		public String getSchemaFingerprint(String schemaName) { return fingerprint; }
+		@Override
+		public SchemaTO readSchema(String schemaName) {
+			reads++;
+			SchemaTO schema = new SchemaTO(db, schemaName);
+			schema.getTable("table" + reads);
+			return schema;
+		}
+		@Override
+		public SchemaTO refreshSchema(SchemaTO schema) {
+			// refreshed in place, as MysqlDatabaseReader does
+			schema.getTable("refreshed");
+			return schema;
+		}
+	}
+
+	/** A class that records whether it has been deserialised */
+	private static class Gadget implements Serializable {
+		private static final long serialVersionUID = 1L;
+		static boolean deserialised = false;
+
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+			deserialised = true;
+			in.defaultReadObject();
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("SchemaCacheTest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		new SchemaCache(directory).clear();
+		directory.delete();
+	}
+
+	@Test
+	public void testGetSchema() {
+		SchemaCache cache = new SchemaCache(directory);
+		TestDatabaseReader dr1 = new TestDatabaseReader();
+		dr1.setSchemaCache(cache);
+		SchemaTO schema = dr1.getSchema("schema");
+		assertEquals(1, dr1.reads);
+
+		// shared between readers, which are each returned a copy that refers to their own database
+		TestDatabaseReader dr2 = new TestDatabaseReader();
+		dr2.setSchemaCache(cache);
+		SchemaTO copy = dr2.getSchema("schema");
+		assertEquals(0, dr2.reads);
+		assertNotSame(schema, copy);
+		assertEquals(schema.getTableNames(), copy.getTableNames());
+		assertSame(dr1.db, schema.getDatabase());
+		assertSame(dr2.db, copy.getDatabase());
+		assertSame(copy, dr2.getSchema("schema"));
+
+		// re-read when the fingerprint changes
+		TestDatabaseReader dr3 = new TestDatabaseReader();
+		dr3.setSchemaCache(cache);
+		dr3.fingerprint = "2";
+		assertNotSame(schema, dr3.getSchema("schema"));
+		assertEquals(1, dr3.reads);
+	}
+
+	@Test
+	public void testPersistence() {
+		TestDatabaseReader dr1 = new TestDatabaseReader();
+		dr1.setSchemaCache(new SchemaCache(directory));
+		dr1.getSchema("schema");
+
+		// a new cache reads the schema from disk
+		TestDatabaseReader dr2 = new TestDatabaseReader();
+		dr2.setSchemaCache(new SchemaCache(directory));
+		SchemaTO schema = dr2.getSchema("schema");
+		assertEquals(0, dr2.reads);
+		assertEquals("schema", schema.getName());
+		assertEquals("table1", schema.getTableNames().get(0));
+
+		// but not if it has changed
+		TestDatabaseReader dr3 = new TestDatabaseReader();
+		dr3.setSchemaCache(new SchemaCache(directory));
+		dr3.fingerprint = "2";
+		dr3.getSchema("schema");
+		assertEquals(1, dr3.reads);
+	}
+
+	@Test
+	public void testRefreshSchema() {
+		SchemaCache cache = new SchemaCache(directory);
+		TestDatabaseReader dr1 = new TestDatabaseReader();
+		dr1.setSchemaCache(cache);
+		SchemaTO schema = dr1.getSchema("schema");
+		TestDatabaseReader dr2 = new TestDatabaseReader();
+		dr2.setSchemaCache(cache);
+		dr2.getSchema("schema");
+
+		// a copy of the shared schema is refreshed, and replaces it in the cache
+		SchemaTO refreshed = dr2.refreshSchema("schema");
+		assertNotSame(schema, refreshed);
+		assertSame(dr2.db, refreshed.getDatabase());
+		assertSame(dr1.db, schema.getDatabase());
+		assertNull(schema.getTableMap().get("refreshed"));
+		assertNotNull(refreshed.getTableMap().get("refreshed"));
+		assertSame(schema, dr1.getSchema("schema"));
+		TestDatabaseReader dr3 = new TestDatabaseReader();
+		dr3.setSchemaCache(cache);
+		SchemaTO copy = dr3.getSchema("schema");
+		assertEquals(0, dr3.reads);
+		assertNotNull(copy.getTableMap().get("refreshed"));
+		assertSame(dr3.db, copy.getDatabase());
+	}
+
+	@Test
+	public void testUnexpectedClass() throws IOException {
+		// a cache file containing a class other than the schema TOs is not deserialised
+		try (OutputStream os = Files.newOutputStream(new File(directory, Text.getMD5("jdbc:test schema") + ".schema").toPath())) {
+			DataOutputStream dos = new DataOutputStream(os);
+			dos.writeInt(0x524E5343);
+			dos.writeInt(1);
+			dos.writeUTF("jdbc:test schema");
+			dos.writeUTF("1");
+			ObjectOutputStream oos = new ObjectOutputStream(dos);
+			oos.writeObject(new Gadget());
+			oos.flush();
+		}
+		TestDatabaseReader dr = new TestDatabaseReader();
+		dr.setSchemaCache(new SchemaCache(directory));
+		assertEquals("table1", dr.getSchema("schema").getTableNames().get(0));
+		assertEquals(1, dr.reads);
+		assertFalse(Gadget.deserialised);
+	}
+}
@@ -4,7 +4,14 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -141,9 +148,74 @@ public class SqlParserTest {
 	}
 
 	@Test
-	public void testConsumeStatements() {
-		//fail("Not yet implemented");
+	public void testConsumeStatements() throws IOException, ParseException {
+		SqlParser p = new SqlParser();
+		
+		// statements and quoted strings spanning several read buffers
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) { sb.append("value ").append(i).append(' '); }
+		String longValue = sb.toString();
+		String s1 = "insert into t values ('" + longValue + "');\n" +
+			"-- a comment\n" +
+			"insert into t values (\"" + longValue + "\");\n";
+		List<String> result = new ArrayList<String>();
+		p.consumeStatements(new StringReader(s1), true, result::add);
+		assertArrayEquals(new String[] {
+			"insert into t values ('" + longValue + "')",
+			"-- a comment",
+			"insert into t values (\"" + longValue + "\")" }, result.toArray(new String[]{}));
+
+		// delimiter commands are case-insensitive, and the delimiter is the remainder of the line
+		String s2 = "Delimiter \t$$\nstatement1; still1$$\ndelimiter ;\nstatement2;\ndelimiters;";
+		result.clear();
+		p.consumeStatements(new StringReader(s2), false, result::add);
+		assertArrayEquals(new String[] {
+			"statement1; still1", 
+			"statement2",
+			"delimiters" }, result.toArray(new String[]{}));
 	}
 
-}
+	@Test
+	public void testConsumeStatementsFromPath() throws IOException, ParseException {
+		SqlParser p = new SqlParser();
+		String s1 = "insert into t values ('caf\u00e9 \u20ac');  -- a comment\n" +
+			"DELIMITER $$\nstatement /* inside */ 2$$ DELIMITER ;\n" +
+			"/* a comment */ statement3; unterminated ";
+		Path path = Files.createTempFile("SqlParserTest", ".sql");
+		try {
+			Files.write(path, s1.getBytes(StandardCharsets.UTF_8));
+			for (boolean includeComments : new boolean[] { true, false }) {
+				assertEquals(p.parseStatements(new StringReader(s1), includeComments), 
+					p.parseStatements(path, includeComments));
+			}
+			
+			final List<String> heads = new ArrayList<String>();
+			p.consumeStatementSequences(path, false, s -> heads.add(s.subSequence(0, 6).toString()));
+			assertEquals(Arrays.asList("insert", "statem", "statem", "unterm"), heads);
+		} finally {
+			Files.delete(path);
+		}
+	}
 
+	@Test
+	public void testMapWindowBoundaries() throws IOException, ParseException {
+		String s1 = "insert into t values ('caf\u00e9 \u20ac;');  -- a comment\n" +
+			"DELIMITER $$\nstatement /* inside; */ 2$$ DELIMITER ;\n" +
+			"update \"t;\" set a = 'it''s';; /* a comment */ statement3; unterminated ";
+		Path path = Files.createTempFile("SqlParserTest", ".sql");
+		try {
+			Files.write(path, s1.getBytes(StandardCharsets.UTF_8));
+			SqlParser p = new SqlParser();
+			List<String> expected = p.parseStatements(new StringReader(s1), true);
+			// every statement, comment, delimiter and multi-byte character straddles a window boundary for some window size
+			for (int windowSize = 1; windowSize <= 17; windowSize++) {
+				p.setMapWindowSize(windowSize);
+				assertEquals("windowSize " + windowSize, expected, p.parseStatements(path, true));
+				assertEquals("windowSize " + windowSize, p.parseStatements(new StringReader(s1), false), p.parseStatements(path, false));
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+}
@@ -0,0 +1,271 @@
+package com.randomnoun.common.db;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import com.randomnoun.common.db.SqlScriptExecutor.StatementClass;
+import com.randomnoun.common.db.SqlScriptExecutor.StatementInfo;
+
+public class SqlScriptExecutorTest {
+
+	/** Returns a DataSource whose statements record the SQL they execute. Batches are
+	 * recorded as a single entry containing the batched statements separated by '|' */
+	private DataSource getRecordingDataSource(final List<String> executed) {
+		return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, (dsProxy, dsMethod, dsArgs) -> {
+			if (!dsMethod.getName().equals("getConnection")) { throw new UnsupportedOperationException(dsMethod.getName()); }
+			return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (cProxy, cMethod, cArgs) -> {
+				if (cMethod.getName().equals("close")) { return null; }
+				if (!cMethod.getName().equals("createStatement")) { throw new UnsupportedOperationException(cMethod.getName()); }
+				final List<String> batch = new ArrayList<String>();
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Statement.class }, (sProxy, sMethod, sArgs) -> {
+					switch (sMethod.getName()) {
+						case "execute":
+							if (((String) sArgs[0]).startsWith("fail")) { throw new SQLException("failed"); }
+							executed.add((String) sArgs[0]); return true;
+						case "addBatch": batch.add((String) sArgs[0]); return null;
+						case "executeBatch": executed.add(String.join("|", batch)); return new int[batch.size()];
+						case "close": return null;
+						default: throw new UnsupportedOperationException(sMethod.getName());
+					}
+				});
+			});
+		});
+	}
+
+	@Test
+	public void testClassify() {
+		StatementInfo info = SqlScriptExecutor.classify("INSERT INTO `db`.`Table1` (a, b) VALUES (1, 2)");
+		assertEquals(StatementClass.INSERT, info.statementClass);
+		assertEquals("db.table1", info.table);
+
+		info = SqlScriptExecutor.classify("insert ignore t1 set a=1");
+		assertEquals(StatementClass.INSERT, info.statementClass);
+		assertEquals("t1", info.table);
+
+		info = SqlScriptExecutor.classify("INSERT INTO t1 (a) SELECT a FROM t2");
+		assertEquals(StatementClass.INSERT, info.statementClass);
+		assertNull(info.table);
+
+		info = SqlScriptExecutor.classify("REPLACE INTO t1 VALUES (1)");
+		assertEquals(StatementClass.REPLACE, info.statementClass);
+		assertEquals("t1", info.table);
+
+		info = SqlScriptExecutor.classify("UPDATE t1 SET a=1 WHERE b=2");
+		assertEquals(StatementClass.UPDATE, info.statementClass);
+		assertEquals("t1", info.table);
+
+		info = SqlScriptExecutor.classify("UPDATE t1, t2 SET t1.a=t2.a");
+		assertEquals(StatementClass.UPDATE, info.statementClass);
+		assertNull(info.table);
+
+		info = SqlScriptExecutor.classify("DELETE FROM t1 WHERE a=1");
+		assertEquals(StatementClass.DELETE, info.statementClass);
+		assertEquals("t1", info.table);
+
+		info = SqlScriptExecutor.classify("DELETE t1 FROM t1 JOIN t2");
+		assertEquals(StatementClass.DELETE, info.statementClass);
+		assertNull(info.table);
+
+		info = SqlScriptExecutor.classify("LOCK TABLES `t1` WRITE, t2 AS x READ");
+		assertEquals(StatementClass.LOCK, info.statementClass);
+		assertEquals(Arrays.asList("t1", "t2"), info.tables);
+
+		assertEquals(StatementClass.UNLOCK, SqlScriptExecutor.classify("UNLOCK TABLES").statementClass);
+		assertEquals(StatementClass.SESSION, SqlScriptExecutor.classify("SET NAMES utf8").statementClass);
+		assertEquals(StatementClass.SESSION, SqlScriptExecutor.classify("use db").statementClass);
+		assertEquals(StatementClass.OTHER, SqlScriptExecutor.classify("CREATE TABLE t1 (a INT)").statementClass);
+		assertEquals(StatementClass.TRANSACTION, SqlScriptExecutor.classify("START TRANSACTION").statementClass);
+		assertEquals(StatementClass.TRANSACTION, SqlScriptExecutor.classify("begin work").statementClass);
+		assertEquals(StatementClass.TRANSACTION, SqlScriptExecutor.classify("commit").statementClass);
+		assertEquals(StatementClass.TRANSACTION, SqlScriptExecutor.classify("ROLLBACK TO SAVEPOINT s1").statementClass);
+		assertEquals(StatementClass.TRANSACTION, SqlScriptExecutor.classify("RELEASE SAVEPOINT s1").statementClass);
+		assertEquals(StatementClass.OTHER, SqlScriptExecutor.classify("START SLAVE").statementClass);
+	}
+
+	/** Returns a DataSource whose connections honour 'SET autocommit', 'START TRANSACTION', 'COMMIT' and 
+	 * 'ROLLBACK', and which adds each INSERT statement to the supplied list when it is committed */
+	private DataSource getTransactionalDataSource(final List<String> committed) {
+		return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, (dsProxy, dsMethod, dsArgs) -> {
+			if (!dsMethod.getName().equals("getConnection")) { throw new UnsupportedOperationException(dsMethod.getName()); }
+			final boolean[] autocommit = new boolean[] { true };
+			final boolean[] inTransaction = new boolean[] { false };
+			final List<String> pending = new ArrayList<String>();
+			return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (cProxy, cMethod, cArgs) -> {
+				if (cMethod.getName().equals("close")) { pending.clear(); return null; }
+				if (!cMethod.getName().equals("createStatement")) { throw new UnsupportedOperationException(cMethod.getName()); }
+				final SqlParser.Consumer<String> execute = sql -> {
+					String s = sql.toUpperCase().replace(" ", "");
+					if (s.equals("SETAUTOCOMMIT=0")) { autocommit[0] = false; }
+					else if (s.equals("SETAUTOCOMMIT=1")) { autocommit[0] = true; committed.addAll(pending); pending.clear(); }
+					else if (s.equals("STARTTRANSACTION")) { inTransaction[0] = true; }
+					else if (s.equals("COMMIT")) { committed.addAll(pending); pending.clear(); inTransaction[0] = false; }
+					else if (s.equals("ROLLBACK")) { pending.clear(); inTransaction[0] = false; }
+					else if (s.startsWith("INSERT")) {
+						if (autocommit[0] && !inTransaction[0]) { committed.add(sql); } else { pending.add(sql); }
+					}
+				};
+				final List<String> batch = new ArrayList<String>();
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Statement.class }, (sProxy, sMethod, sArgs) -> {
+					switch (sMethod.getName()) {
+						case "execute": execute.consume((String) sArgs[0]); return true;
+						case "addBatch": batch.add((String) sArgs[0]); return null;
+						case "executeBatch": for (String sql : batch) { execute.consume(sql); } return new int[batch.size()];
+						case "close": return null;
+						default: throw new UnsupportedOperationException(sMethod.getName());
+					}
+				});
+			});
+		});
+	}
+
+	@Test
+	public void testTransactions() throws Exception {
+		List<String> committed = Collections.synchronizedList(new ArrayList<String>());
+		SqlScriptExecutor executor = new SqlScriptExecutor(getTransactionalDataSource(committed));
+		executor.setConcurrency(3);
+		StringBuilder sb = new StringBuilder("SET autocommit=0;");
+		for (int i = 0; i < 200; i++) {
+			sb.append("INSERT INTO t" + (i % 4) + " VALUES (" + i + ");");
+		}
+		sb.append("COMMIT;");
+		// as written by mysqldump --no-autocommit
+		sb.append("LOCK TABLES t9 WRITE; SET autocommit=0; INSERT INTO t9 VALUES (1); INSERT INTO t9 VALUES (2); UNLOCK TABLES; commit;");
+		// rolled back
+		sb.append("SET autocommit=1; START TRANSACTION; INSERT INTO t1 VALUES (-1); INSERT INTO t2 VALUES (-2); ROLLBACK;");
+		SqlScriptExecutor.Progress progress = executor.execute(new StringReader(sb.toString()));
+		assertEquals(202, committed.size());
+		assertFalse(committed.contains("INSERT INTO t1 VALUES (-1)"));
+		// statements executed on every connection are only counted once
+		assertEquals(progress.getStatementsRead(), progress.getStatementsExecuted());
+		assertEquals(4, progress.getStatementCount(StatementClass.TRANSACTION));
+	}
+
+	@Test
+	public void testParserStopsAfterFailure() throws Exception {
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		SqlScriptExecutor executor = new SqlScriptExecutor(getRecordingDataSource(executed));
+		executor.setQueueSize(1);
+		StringBuilder sb = new StringBuilder("fail here;");
+		for (int i = 0; i < 1000; i++) {
+			sb.append("INSERT INTO t1 VALUES (" + i + ");");
+		}
+		try {
+			executor.execute(new StringReader(sb.toString()));
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			// expected
+		}
+		// the parser thread doesn't block on the full queue
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("SqlScriptExecutor-parser")) {
+				thread.join(5000);
+				assertFalse(thread.isAlive());
+			}
+		}
+	}
+
+	@Test
+	public void testExecute() throws IOException, ParseException, SQLException {
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		SqlScriptExecutor executor = new SqlScriptExecutor(getRecordingDataSource(executed));
+		executor.setBatchSize(2);
+		SqlScriptExecutor.Progress progress = executor.execute(new StringReader(
+			"CREATE TABLE t1 (a INT); /* comment */;" +
+			"INSERT INTO t1 VALUES (1); INSERT INTO t1 VALUES (2); INSERT INTO t1 VALUES (3);" +
+			"UPDATE t1 SET a=4; DROP TABLE t1;"));
+		assertEquals(Arrays.asList(
+			"CREATE TABLE t1 (a INT)",
+			"INSERT INTO t1 VALUES (1)|INSERT INTO t1 VALUES (2)",
+			"INSERT INTO t1 VALUES (3)",
+			"UPDATE t1 SET a=4",
+			"DROP TABLE t1"), executed);
+		assertEquals(6, progress.getStatementsRead());
+		assertEquals(6, progress.getStatementsExecuted());
+		assertEquals(5, progress.getBatchesExecuted());
+		assertEquals(3, progress.getStatementCount(StatementClass.INSERT));
+	}
+
+	@Test
+	public void testExecuteConcurrently() throws IOException, ParseException, SQLException {
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		SqlScriptExecutor executor = new SqlScriptExecutor(getRecordingDataSource(executed));
+		executor.setConcurrency(3);
+		StringBuilder sb = new StringBuilder("SET NAMES utf8;");
+		for (int i = 0; i < 500; i++) {
+			sb.append("INSERT INTO t" + (i % 5) + " VALUES (" + i + ");");
+		}
+		sb.append("LOCK TABLES t9 WRITE; INSERT INTO t9 VALUES (1); UNLOCK TABLES; DROP TABLE t0;");
+		SqlScriptExecutor.Progress progress = executor.execute(new StringReader(sb.toString()));
+		assertEquals(505, progress.getStatementsRead());
+		assertEquals("DROP TABLE t0", executed.get(executed.size() - 1));
+
+		// each table's inserts are executed in order
+		for (int t = 0; t < 5; t++) {
+			int last = -1;
+			for (String sql : executed) {
+				for (String s : sql.split("\\|")) {
+					if (s.startsWith("INSERT INTO t" + t + " ")) {
+						int value = Integer.parseInt(s.substring(s.indexOf('(') + 1, s.indexOf(')')));
+						assertTrue(value > last);
+						last = value;
+					}
+				}
+			}
+			assertTrue(last >= 495);
+		}
+		// session statements are replayed on each concurrent connection
+		assertTrue(Collections.frequency(executed, "SET NAMES utf8") > 1);
+	}
+
+	@Test
+	public void testExecuteFailure() throws IOException, ParseException {
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		SqlScriptExecutor executor = new SqlScriptExecutor(getRecordingDataSource(executed));
+		try {
+			executor.execute(new StringReader("CREATE TABLE t1 (a INT); fail here; DROP TABLE t1;"));
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertEquals("Error executing statement 'fail here': failed", e.getMessage());
+		}
+		assertEquals(Arrays.asList("CREATE TABLE t1 (a INT)"), executed);
+	}
+
+	@Test
+	public void testParserError() throws IOException, ParseException, SQLException {
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		SqlScriptExecutor executor = new SqlScriptExecutor(getRecordingDataSource(executed));
+		// a Reader which fails with an Error part-way through the script
+		Reader reader = new StringReader("CREATE TABLE t1 (a INT); DROP TABLE t1;") {
+			int charsRead = 0;
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				if (charsRead > 0) { throw new StackOverflowError("test"); }
+				int n = super.read(cbuf, off, Math.min(len, 10));
+				charsRead += n;
+				return n;
+			}
+		};
+		try {
+			executor.execute(reader);
+			fail("Expected StackOverflowError");
+		} catch (StackOverflowError e) {
+			assertEquals("test", e.getMessage());
+		}
+	}
+}
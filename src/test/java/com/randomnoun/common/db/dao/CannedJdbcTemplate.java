@@ -0,0 +1,156 @@
+package com.randomnoun.common.db.dao;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+
+/** A JdbcTemplate which returns canned ResultSets for queries containing a fragment of SQL,
+ * and records the queries executed and their arguments */
+class CannedJdbcTemplate extends JdbcTemplate {
+
+	private static class CannedResult {
+		List<String> columns;
+		List<Object[]> rows;
+	}
+
+	private Map<String, CannedResult> results = new LinkedHashMap<String, CannedResult>();
+	List<String> queries = new ArrayList<String>();
+	List<Object[]> queryArgs = new ArrayList<Object[]>();
+
+	/** Returns a DataSource which can't be connected to, for the DatabaseReader constructor */
+	static DataSource getUnconnectedDataSource() {
+		return (DataSource) Proxy.newProxyInstance(CannedJdbcTemplate.class.getClassLoader(),
+			new Class<?>[] { DataSource.class }, (proxy, method, args) -> { throw new UnsupportedOperationException(); });
+	}
+
+	/** Returns the supplied rows for queries containing sqlFragment. Fragments are matched in the 
+	 * order they were first added. */
+	void addResult(String sqlFragment, String[] columns, Object[]... rows) {
+		CannedResult result = new CannedResult();
+		result.columns = new ArrayList<String>();
+		for (String column : columns) { result.columns.add(column.toUpperCase()); }
+		result.rows = Arrays.asList(rows);
+		results.put(sqlFragment, result);
+	}
+
+	private synchronized void record(String sql, Object[] args) {
+		queries.add(sql);
+		queryArgs.add(args == null ? new Object[0] : args);
+	}
+
+	private ResultSet getResultSet(String sql, Object[] args) {
+		record(sql, args);
+		CannedResult match = null;
+		for (Map.Entry<String, CannedResult> entry : results.entrySet()) {
+			if (sql.contains(entry.getKey())) { match = entry.getValue(); break; }
+		}
+		final List<String> columns = match == null ? new ArrayList<String>() : match.columns;
+		final List<Object[]> rows = match == null ? new ArrayList<Object[]>() : match.rows;
+		final int[] row = new int[] { -1 };
+		final Object[] last = new Object[1];
+		return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, (p, m, a) -> {
+			if (m.getName().equals("next")) { return ++row[0] < rows.size(); }
+			if (m.getName().equals("wasNull")) { return last[0] == null; }
+			if (m.getName().equals("close")) { return null; }
+			int index = (a[0] instanceof Integer) ? (Integer) a[0] - 1 : columns.indexOf(((String) a[0]).toUpperCase());
+			if (index == -1) { throw new SQLException("Unknown column '" + a[0] + "'"); }
+			Object value = rows.get(row[0])[index];
+			last[0] = value;
+			switch (m.getName()) {
+				case "getObject": return value;
+				case "getString": return value == null ? null : value.toString();
+				case "getLong": return value == null ? 0L : ((Number) value).longValue();
+				case "getInt": return value == null ? 0 : ((Number) value).intValue();
+				case "getTimestamp": return (Timestamp) value;
+				default: throw new UnsupportedOperationException(m.getName());
+			}
+		});
+	}
+
+	/** Supplies a Connection which records statements, and returns canned ResultSets for prepared statements */
+	@Override
+	public <T> T execute(ConnectionCallback<T> action) {
+		Connection con = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (p, m, a) -> {
+			switch (m.getName()) {
+				case "createStatement": 
+					return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Statement.class }, (ps, sm, sa) -> {
+						switch (sm.getName()) {
+							case "execute": record((String) sa[0], null); return false;
+							case "close": return null;
+							default: throw new UnsupportedOperationException(sm.getName());
+						}
+					});
+				case "prepareStatement":
+					final String sql = (String) a[0];
+					final List<Object> args = new ArrayList<Object>();
+					return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (ps, sm, sa) -> {
+						switch (sm.getName()) {
+							case "setObject": args.add(sa[1]); return null;
+							case "executeQuery": return getResultSet(sql, args.toArray());
+							case "close": return null;
+							default: throw new UnsupportedOperationException(sm.getName());
+						}
+					});
+				default: throw new UnsupportedOperationException(m.getName());
+			}
+		});
+		try {
+			return action.doInConnection(con);
+		} catch (SQLException sqle) {
+			throw new IllegalStateException(sqle);
+		}
+	}
+
+	@Override
+	public <T> T query(String sql, Object[] args, ResultSetExtractor<T> rse) {
+		try {
+			return rse.extractData(getResultSet(sql, args));
+		} catch (SQLException sqle) {
+			throw new IllegalStateException(sqle);
+		}
+	}
+
+	@Override
+	public <T> List<T> query(String sql, Object[] args, RowMapper<T> rowMapper) {
+		ResultSet rs = getResultSet(sql, args);
+		List<T> result = new ArrayList<T>();
+		try {
+			while (rs.next()) { result.add(rowMapper.mapRow(rs, result.size())); }
+		} catch (SQLException sqle) {
+			throw new IllegalStateException(sqle);
+		}
+		return result;
+	}
+
+	@Override
+	public <T> T queryForObject(String sql, Class<T> requiredType) {
+		return queryForObject(sql, new Object[0], requiredType);
+	}
+
+	@Override
+	public <T> T queryForObject(String sql, Object[] args, Class<T> requiredType) {
+		ResultSet rs = getResultSet(sql, args);
+		try {
+			rs.next();
+			return requiredType.cast(rs.getObject(1));
+		} catch (SQLException sqle) {
+			throw new IllegalStateException(sqle);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.randomnoun.common.db.dao;
+
+import static org.junit.Assert.*;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.randomnoun.common.db.enums.ConstraintTypeEnum;
+import com.randomnoun.common.db.to.SchemaTO;
+import com.randomnoun.common.db.to.TableTO;
+
+public class MysqlDatabaseReaderTest {
+
+	private static final Timestamp READ_TIME = Timestamp.valueOf("2020-01-01 12:00:00");
+	private static final Timestamp CREATE_TIME = Timestamp.valueOf("2019-06-01 09:00:00");
+
+	private MysqlDatabaseReader getReader(CannedJdbcTemplate cjt) {
+		// table states are matched before the columns query, which also contains 'INFORMATION_SCHEMA.COLUMNS'
+		cjt.addResult("COLUMN_CHECKSUM", new String[] { "TABLE_NAME", "CREATE_TIME", "UPDATE_TIME", "COLUMN_CHECKSUM" },
+			new Object[] { "customer", CREATE_TIME, null, 1001L },
+			new Object[] { "orders", CREATE_TIME, null, 2002L },
+			new Object[] { "legacy", CREATE_TIME, null, 3003L });
+		cjt.addResult("NOW()", new String[] { "NOW" }, new Object[] { READ_TIME });
+		cjt.addResult("information_schema.tables", new String[] { "TABLE_NAME" },
+			new Object[] { "customer" }, new Object[] { "orders" }, new Object[] { "legacy" });
+		cjt.addResult("INFORMATION_SCHEMA.COLUMNS", new String[] { "TABLE_NAME", "COLUMN_NAME", "ORDINAL_POSITION", "COLUMN_DEFAULT",
+			"IS_NULLABLE", "DATA_TYPE", "CHARACTER_MAXIMUM_LENGTH", "NUMERIC_PRECISION", "NUMERIC_SCALE", "COLUMN_TYPE", "COLUMN_COMMENT" },
+			new Object[] { "customer", "id", 1, null, "NO", "int", null, 10, 0, "int(10) unsigned", "" },
+			new Object[] { "customer", "name", 2, "", "YES", "varchar", 100, null, null, "varchar(100)", "Customer name" },
+			new Object[] { "legacy", "id", 1, null, "NO", "int", null, 10, 0, "int(10)", "" },
+			new Object[] { "orders", "id", 1, null, "NO", "int", null, 10, 0, "int(10)", "" },
+			new Object[] { "orders", "customerId", 2, null, "NO", "int", null, 10, 0, "int(10)", "" });
+		cjt.addResult("INFORMATION_SCHEMA.TABLE_CONSTRAINTS", new String[] { "TABLE_NAME", "CONSTRAINT_NAME", "CONSTRAINT_TYPE",
+			"COLUMN_NAME", "ORDINAL_POSITION", "REFERENCED_TABLE_NAME", "REFERENCED_COLUMN_NAME" },
+			new Object[] { "customer", "PRIMARY", "PRIMARY KEY", "id", 1, null, null },
+			new Object[] { "orders", "fk_customer", "FOREIGN KEY", "customerId", 1, "customer", "id" },
+			new Object[] { "orders", "PRIMARY", "PRIMARY KEY", "id", 1, null, null });
+		cjt.addResult("INFORMATION_SCHEMA.TRIGGERS", new String[] { "EVENT_OBJECT_TABLE", "TRIGGER_NAME", "EVENT_MANIPULATION",
+			"ACTION_ORDER", "ACTION_STATEMENT", "ACTION_TIMING", "SQL_MODE", "DEFINER" },
+			new Object[] { "legacy", "trg_legacy", "INSERT", 1, "SET NEW.id = 1", "BEFORE", "", "root@localhost" },
+			new Object[] { "orders", "trg_orders", "INSERT", 1, "SET NEW.id = 1", "BEFORE", "", "root@localhost" });
+		cjt.addResult("INFORMATION_SCHEMA.routines", new String[] { "ROUTINE_NAME", "ROUTINE_TYPE", "DATA_TYPE", "CHARACTER_MAXIMUM_LENGTH",
+			"NUMERIC_PRECISION", "NUMERIC_SCALE", "CHARACTER_SET_NAME", "COLLATION_NAME", "ROUTINE_DEFINITION", "IS_DETERMINISTIC",
+			"SECURITY_TYPE", "SQL_MODE", "ROUTINE_COMMENT", "DEFINER" },
+			new Object[] { "orderTotal", "FUNCTION", "decimal", null, 12, 2, null, null, "RETURN 0", "YES", "DEFINER", "", "", "root@localhost" });
+		MysqlDatabaseReader dr = new MysqlDatabaseReader(CannedJdbcTemplate.getUnconnectedDataSource());
+		dr.jt = cjt;
+		return dr;
+	}
+
+	private void assertSchema(SchemaTO s) {
+		assertEquals(new HashSet<String>(Arrays.asList("customer", "orders", "legacy")), s.getTableMap().keySet());
+		TableTO customer = s.getTable("customer");
+		assertEquals(2, customer.getTableColumnMap().size());
+		assertTrue(customer.getTableColumn("id").isPrimaryKey());
+		assertFalse(customer.getTableColumn("name").isPrimaryKey());
+		assertEquals("Customer name", customer.getTableColumn("name").getComments());
+		TableTO orders = s.getTable("orders");
+		assertEquals(ConstraintTypeEnum.FOREIGN, orders.getConstraintMap().get("fk_customer").getConstraintType());
+		assertTrue(orders.getTableColumn("id").isPrimaryKey());
+		assertSame(orders, s.getTriggerMap().get("trg_orders").getTable());
+		assertEquals("FUNCTION", s.getRoutineMap().get("orderTotal").getType());
+		assertEquals(READ_TIME, s.getReadTime());
+		assertEquals(Long.valueOf(2002L), s.getColumnChecksums().get("orders"));
+	}
+
+	@Test
+	public void testReadSchema() {
+		CannedJdbcTemplate cjt = new CannedJdbcTemplate();
+		SchemaTO s = getReader(cjt).readSchema("shop");
+		assertSchema(s);
+
+		// table times are read with the statistics cache disabled, and the variable is reset afterwards
+		int i = cjt.queries.indexOf("SET SESSION information_schema_stats_expiry = 0");
+		assertTrue(i != -1);
+		assertTrue(cjt.queries.get(i + 1).contains("COLUMN_CHECKSUM"));
+		assertEquals("SET SESSION information_schema_stats_expiry = DEFAULT", cjt.queries.get(i + 2));
+	}
+
+	@Test
+	public void testConcurrentReadSchema() {
+		CannedJdbcTemplate cjt = new CannedJdbcTemplate();
+		MysqlDatabaseReader dr = getReader(cjt);
+		dr.setConcurrency(4);
+		SchemaTO s = dr.readSchema("shop");
+		assertSchema(s);
+		// the same queries are run as when reading sequentially
+		CannedJdbcTemplate sequential = new CannedJdbcTemplate();
+		getReader(sequential).readSchema("shop");
+		assertEquals(new HashSet<String>(sequential.queries), new HashSet<String>(cjt.queries));
+		assertEquals(sequential.queries.size(), cjt.queries.size());
+	}
+
+	@Test
+	public void testTableFilter() {
+		CannedJdbcTemplate cjt = new CannedJdbcTemplate();
+		MysqlDatabaseReader dr = getReader(cjt);
+		dr.setTableFilter("cust%");
+		dr.readSchema("shop");
+		for (int i = 0; i < cjt.queries.size(); i++) {
+			String sql = cjt.queries.get(i);
+			if (sql.contains("NOW()") || sql.startsWith("SET ") || sql.contains("INFORMATION_SCHEMA.routines")) { continue; }
+			assertTrue(sql, sql.contains("LIKE ?"));
+			assertTrue(Arrays.asList(cjt.queryArgs.get(i)).contains("cust%"));
+		}
+	}
+
+	@Test
+	public void testSchemaFingerprint() {
+		CannedJdbcTemplate cjt = new CannedJdbcTemplate();
+		cjt.addResult("AS FINGERPRINT", new String[] { "FINGERPRINT" }, new Object[] { "3,2019-06-01 09:00:00/5,1234/1,99/2,88" });
+		MysqlDatabaseReader dr = new MysqlDatabaseReader(CannedJdbcTemplate.getUnconnectedDataSource());
+		dr.jt = cjt;
+		dr.setTableFilter("cust%");
+		assertEquals("cust%/3,2019-06-01 09:00:00/5,1234/1,99/2,88", dr.getSchemaFingerprint("shop"));
+
+		// column definitions are included, and table times are read with the statistics cache disabled
+		assertEquals("SET SESSION information_schema_stats_expiry = 0", cjt.queries.get(0));
+		assertTrue(cjt.queries.get(1).contains("FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = ?"));
+		assertTrue(cjt.queries.get(1).contains("COLUMN_TYPE"));
+		assertEquals(Arrays.asList("shop", "cust%", "shop", "cust%", "shop", "shop", "cust%"), Arrays.asList(cjt.queryArgs.get(1)));
+		assertEquals("SET SESSION information_schema_stats_expiry = DEFAULT", cjt.queries.get(2));
+	}
+
+	@Test
+	public void testRefreshSchema() {
+		CannedJdbcTemplate cjt = new CannedJdbcTemplate();
+		MysqlDatabaseReader dr = getReader(cjt);
+		SchemaTO s = dr.readSchema("shop");
+
+		// 'orders' has been altered without changing its CREATE_TIME, 'invoice' has been created
+		// and 'legacy' has been dropped
+		Timestamp refreshTime = Timestamp.valueOf("2020-01-01 13:00:00");
+		cjt.addResult("COLUMN_CHECKSUM", new String[] { "TABLE_NAME", "CREATE_TIME", "UPDATE_TIME", "COLUMN_CHECKSUM" },
+			new Object[] { "customer", CREATE_TIME, null, 1001L },
+			new Object[] { "orders", CREATE_TIME, null, 2222L },
+			new Object[] { "invoice", Timestamp.valueOf("2020-01-01 12:30:00"), null, 4004L });
+		cjt.addResult("NOW()", new String[] { "NOW" }, new Object[] { refreshTime });
+		cjt.addResult("information_schema.tables", new String[] { "TABLE_NAME" },
+			new Object[] { "orders" }, new Object[] { "invoice" });
+		cjt.addResult("INFORMATION_SCHEMA.COLUMNS", new String[] { "TABLE_NAME", "COLUMN_NAME", "ORDINAL_POSITION", "COLUMN_DEFAULT",
+			"IS_NULLABLE", "DATA_TYPE", "CHARACTER_MAXIMUM_LENGTH", "NUMERIC_PRECISION", "NUMERIC_SCALE", "COLUMN_TYPE", "COLUMN_COMMENT" },
+			new Object[] { "invoice", "id", 1, null, "NO", "int", null, 10, 0, "int(10)", "" },
+			new Object[] { "orders", "id", 1, null, "NO", "int", null, 10, 0, "int(10)", "" },
+			new Object[] { "orders", "customerId", 2, null, "NO", "int", null, 10, 0, "int(10)", "" },
+			new Object[] { "orders", "total", 3, null, "YES", "decimal", null, 12, 2, "decimal(12,2)", "" });
+		cjt.addResult("INFORMATION_SCHEMA.TABLE_CONSTRAINTS", new String[] { "TABLE_NAME", "CONSTRAINT_NAME", "CONSTRAINT_TYPE",
+			"COLUMN_NAME", "ORDINAL_POSITION", "REFERENCED_TABLE_NAME", "REFERENCED_COLUMN_NAME" },
+			new Object[] { "orders", "PRIMARY", "PRIMARY KEY", "id", 1, null, null });
+		cjt.addResult("INFORMATION_SCHEMA.TRIGGERS", new String[] { "EVENT_OBJECT_TABLE", "TRIGGER_NAME", "EVENT_MANIPULATION",
+			"ACTION_ORDER", "ACTION_STATEMENT", "ACTION_TIMING", "SQL_MODE", "DEFINER" });
+		TableTO customer = s.getTable("customer");
+		cjt.queries.clear();
+		cjt.queryArgs.clear();
+
+		assertSame(s, dr.refreshSchema(s));
+		assertEquals(new HashSet<String>(Arrays.asList("customer", "orders", "invoice")), s.getTableMap().keySet());
+		assertSame(customer, s.getTable("customer"));
+		assertEquals(3, s.getTable("orders").getTableColumnMap().size());
+		assertNull(s.getTable("orders").getConstraintMap().get("fk_customer"));
+		assertTrue(s.getTable("invoice").getTableColumnMap().containsKey("id"));
+		assertNull(s.getTriggerMap().get("trg_legacy"));
+		assertNull(s.getTriggerMap().get("trg_orders"));
+		assertEquals(refreshTime, s.getReadTime());
+		assertEquals(Long.valueOf(2222L), s.getColumnChecksums().get("orders"));
+
+		// only the changed tables are re-read
+		int tableQueries = 0;
+		for (int i = 0; i < cjt.queries.size(); i++) {
+			if (cjt.queries.get(i).contains(" IN (?")) {
+				assertEquals(new HashSet<Object>(Arrays.asList("shop", "orders", "invoice")),
+					new HashSet<Object>(Arrays.asList(cjt.queryArgs.get(i))));
+				tableQueries++;
+			}
+		}
+		assertEquals(4, tableQueries);
+	}
+}
@@ -0,0 +1,109 @@
+package com.randomnoun.common.db.dao;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.randomnoun.common.db.enums.ConstraintTypeEnum;
+import com.randomnoun.common.db.to.ConstraintColumnTO;
+import com.randomnoun.common.db.to.ConstraintTO;
+import com.randomnoun.common.db.to.RoutineTO;
+import com.randomnoun.common.db.to.SchemaTO;
+import com.randomnoun.common.db.to.TableColumnTO;
+import com.randomnoun.common.db.to.TableTO;
+import com.randomnoun.common.db.to.TriggerTO;
+
+public class OracleDatabaseReaderTest {
+
+	private OracleDatabaseReader getReader(CannedJdbcTemplate cjt) {
+		cjt.addResult("FROM DUAL", new String[] { "SCHEMA" }, new Object[] { "SCOTT" });
+		cjt.addResult("all_tables", new String[] { "TABLE_NAME" },
+			new Object[] { "DEPT" }, new Object[] { "EMP" });
+		cjt.addResult("all_tab_columns", new String[] { "TABLE_NAME", "COLUMN_NAME", "COLUMN_ID", "NULLABLE", "DATA_TYPE",
+			"DATA_LENGTH", "DATA_PRECISION", "DATA_SCALE", "COMMENTS", "DATA_DEFAULT" },
+			new Object[] { "DEPT", "DEPTNO", 1, "N", "NUMBER", null, 2, 0, null, null },
+			new Object[] { "DEPT", "DNAME", 2, "Y", "VARCHAR2", 14, null, null, "Department name", null },
+			new Object[] { "EMP", "EMPNO", 1, "N", "NUMBER", null, 4, 0, null, null },
+			new Object[] { "EMP", "HIREDATE", 2, "Y", "TIMESTAMP(6)", null, null, 6, null, "SYSTIMESTAMP " },
+			new Object[] { "EMP", "DEPTNO", 3, "Y", "NUMBER", null, 2, 0, null, null });
+		cjt.addResult("all_constraints", new String[] { "TABLE_NAME", "CONSTRAINT_NAME", "CONSTRAINT_TYPE",
+			"COLUMN_NAME", "POSITION", "REFERENCED_TABLE_NAME", "REFERENCED_COLUMN_NAME" },
+			new Object[] { "DEPT", "PK_DEPT", "PRIMARY KEY", "DEPTNO", 1, null, null },
+			new Object[] { "EMP", "FK_DEPTNO", "FOREIGN KEY", "DEPTNO", 1, "DEPT", "DEPTNO" },
+			new Object[] { "EMP", "PK_EMP", "PRIMARY KEY", "EMPNO", 1, null, null });
+		cjt.addResult("all_triggers", new String[] { "TABLE_NAME", "TRIGGER_NAME", "TRIGGERING_EVENT", "ACTION_TIMING", "OWNER", "TRIGGER_BODY" },
+			new Object[] { "EMP", "EMP_AUDIT", "INSERT OR UPDATE", "BEFORE", "SCOTT", "BEGIN NULL; END;" });
+		cjt.addResult("all_source", new String[] { "NAME", "TYPE", "LINE", "TEXT", "DETERMINISTIC", "AUTHID",
+			"DATA_TYPE", "DATA_LENGTH", "DATA_PRECISION", "DATA_SCALE" },
+			new Object[] { "GET_SAL", "FUNCTION", 1, "FUNCTION get_sal(p NUMBER) RETURN NUMBER\n", "YES", "DEFINER", "NUMBER", 22, null, null },
+			new Object[] { "GET_SAL", "FUNCTION", 2, "IS BEGIN RETURN 1; END;", null, null, null, null, null, null },
+			new Object[] { "RAISE_SAL", "PROCEDURE", 1, "PROCEDURE raise_sal IS BEGIN NULL; END;", "NO", "CURRENT_USER", null, null, null, null });
+		OracleDatabaseReader dr = new OracleDatabaseReader(CannedJdbcTemplate.getUnconnectedDataSource());
+		dr.jt = cjt;
+		return dr;
+	}
+
+	@Test
+	public void testGetSchema() {
+		CannedJdbcTemplate cjt = new CannedJdbcTemplate();
+		OracleDatabaseReader dr = getReader(cjt);
+		SchemaTO s = dr.getSchema(null);
+		assertEquals("SCOTT", s.getName());
+		// one query per kind of object, plus the default schema query
+		assertEquals(6, cjt.queries.size());
+
+		assertEquals(2, s.getTableMap().size());
+		TableTO dept = s.getTable("dept");
+		assertEquals(2, dept.getTableColumnMap().size());
+		TableColumnTO deptno = dept.getTableColumn("DEPTNO");
+		assertTrue(deptno.isPrimaryKey());
+		assertFalse(deptno.getNullable());
+		assertEquals("NUMBER(2,0)", deptno.getTypeString());
+		TableColumnTO dname = dept.getTableColumn("DNAME");
+		assertFalse(dname.isPrimaryKey());
+		assertEquals("VARCHAR2(14)", dname.getTypeString());
+		assertEquals("Department name", dname.getComments());
+
+		TableTO emp = s.getTable("EMP");
+		TableColumnTO hiredate = emp.getTableColumn("HIREDATE");
+		assertEquals("TIMESTAMP(6)", hiredate.getTypeString());
+		assertEquals("SYSTIMESTAMP", hiredate.getDefaultValue());
+
+		ConstraintTO fk = emp.getConstraintMap().get("FK_DEPTNO");
+		assertEquals(ConstraintTypeEnum.FOREIGN, fk.getConstraintType());
+		ConstraintColumnTO fkc = fk.getConstraintColumnMap().get("DEPTNO");
+		assertEquals("DEPT", fkc.getRefTableName());
+		assertEquals("DEPTNO", fkc.getRefColumnName());
+		assertTrue(emp.getTableColumn("EMPNO").isPrimaryKey());
+		assertFalse(emp.getTableColumn("DEPTNO").isPrimaryKey());
+
+		TriggerTO trigger = s.getTriggerMap().get("EMP_AUDIT");
+		assertSame(emp, trigger.getTable());
+		assertEquals("INSERT OR UPDATE", trigger.getEventManipulation());
+		assertEquals("BEFORE", trigger.getActionTiming());
+		assertEquals("BEGIN NULL; END;", trigger.getActionStatement());
+
+		assertEquals(2, s.getRoutineMap().size());
+		RoutineTO getSal = s.getRoutineMap().get("GET_SAL");
+		assertEquals("FUNCTION", getSal.getType());
+		assertEquals("NUMBER", getSal.getDataType());
+		assertNull(getSal.getDataTypeNumericPrecision());
+		assertTrue(getSal.isDeterministic());
+		assertEquals("FUNCTION get_sal(p NUMBER) RETURN NUMBER\nIS BEGIN RETURN 1; END;", getSal.getDefinition());
+		RoutineTO raiseSal = s.getRoutineMap().get("RAISE_SAL");
+		assertEquals("INVOKER", raiseSal.getSecurityType());
+		assertFalse(raiseSal.isDeterministic());
+	}
+
+	@Test
+	public void testTableFilter() {
+		CannedJdbcTemplate cjt = new CannedJdbcTemplate();
+		OracleDatabaseReader dr = getReader(cjt);
+		dr.setTableFilter("EMP%");
+		dr.getSchema("scott");
+		for (String sql : cjt.queries) {
+			if (sql.contains("all_source")) { continue; }
+			assertTrue(sql, sql.contains("LIKE ?"));
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.randomnoun.common.db.dao;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.randomnoun.common.db.enums.ConstraintTypeEnum;
+import com.randomnoun.common.db.to.ConstraintTO;
+import com.randomnoun.common.db.to.RoutineTO;
+import com.randomnoun.common.db.to.SchemaTO;
+import com.randomnoun.common.db.to.TableColumnTO;
+import com.randomnoun.common.db.to.TableTO;
+import com.randomnoun.common.db.to.TriggerTO;
+
+public class SqlServerDatabaseReaderTest {
+
+	@Test
+	public void testGetSchema() {
+		CannedJdbcTemplate cjt = new CannedJdbcTemplate();
+		cjt.addResult("SCHEMA_NAME()", new String[] { "SCHEMA" }, new Object[] { "dbo" });
+		cjt.addResult("INFORMATION_SCHEMA.TABLES", new String[] { "TABLE_NAME" },
+			new Object[] { "customer" }, new Object[] { "orders" });
+		cjt.addResult("INFORMATION_SCHEMA.COLUMNS", new String[] { "TABLE_NAME", "COLUMN_NAME", "ORDINAL_POSITION", "COLUMN_DEFAULT",
+			"IS_NULLABLE", "DATA_TYPE", "CHARACTER_MAXIMUM_LENGTH", "NUMERIC_PRECISION", "NUMERIC_SCALE", "COLUMN_COMMENT" },
+			new Object[] { "customer", "id", 1, null, "NO", "int", null, 10, 0, null },
+			new Object[] { "customer", "name", 2, "('')", "YES", "nvarchar", 100, null, null, "Customer name" },
+			new Object[] { "customer", "notes", 3, null, "YES", "nvarchar", -1, null, null, null },
+			new Object[] { "orders", "id", 1, null, "NO", "int", null, 10, 0, null },
+			new Object[] { "orders", "customerId", 2, null, "NO", "int", null, 10, 0, null },
+			new Object[] { "orders", "total", 3, null, "YES", "decimal", null, 12, 2, null });
+		cjt.addResult("INFORMATION_SCHEMA.TABLE_CONSTRAINTS", new String[] { "TABLE_NAME", "CONSTRAINT_NAME", "CONSTRAINT_TYPE",
+			"COLUMN_NAME", "ORDINAL_POSITION", "REFERENCED_TABLE_NAME", "REFERENCED_COLUMN_NAME" },
+			new Object[] { "customer", "PK_customer", "PRIMARY KEY", "id", 1, null, null },
+			new Object[] { "orders", "CK_total", "CHECK", null, null, null, null },
+			new Object[] { "orders", "FK_orders_customer", "FOREIGN KEY", "customerId", 1, "customer", "id" },
+			new Object[] { "orders", "PK_orders", "PRIMARY KEY", "id", 1, null, null });
+		cjt.addResult("sys.triggers", new String[] { "TABLE_NAME", "TRIGGER_NAME", "EVENT_MANIPULATION", "ACTION_TIMING", "ACTION_STATEMENT" },
+			new Object[] { "orders", "trg_orders", "INSERT", "AFTER", "CREATE TRIGGER trg_orders ..." },
+			new Object[] { "orders", "trg_orders", "UPDATE", "AFTER", "CREATE TRIGGER trg_orders ..." });
+		cjt.addResult("INFORMATION_SCHEMA.ROUTINES", new String[] { "ROUTINE_NAME", "ROUTINE_TYPE", "DATA_TYPE", "CHARACTER_MAXIMUM_LENGTH",
+			"NUMERIC_PRECISION", "NUMERIC_SCALE", "COLLATION_NAME", "IS_DETERMINISTIC", "SQL_DATA_ACCESS", "ROUTINE_DEFINITION" },
+			new Object[] { "orderTotal", "FUNCTION", "decimal", null, 12, 2, null, "NO", "READS", "CREATE FUNCTION orderTotal ..." });
+		SqlServerDatabaseReader dr = new SqlServerDatabaseReader(CannedJdbcTemplate.getUnconnectedDataSource());
+		dr.jt = cjt;
+
+		SchemaTO s = dr.getSchema(null);
+		assertEquals("dbo", s.getName());
+		assertEquals(6, cjt.queries.size());
+
+		TableTO customer = s.getTable("customer");
+		assertEquals(3, customer.getTableColumnMap().size());
+		TableColumnTO id = customer.getTableColumn("id");
+		assertTrue(id.isPrimaryKey());
+		assertEquals("int(10,0)", id.getTypeString());
+		TableColumnTO name = customer.getTableColumn("name");
+		assertEquals("nvarchar(100)", name.getTypeString());
+		assertEquals("('')", name.getDefaultValue());
+		assertEquals("Customer name", name.getComments());
+		assertTrue(name.getNullable());
+		assertEquals("nvarchar", customer.getTableColumn("notes").getTypeString());
+
+		TableTO orders = s.getTable("orders");
+		assertEquals("decimal(12,2)", orders.getTableColumn("total").getTypeString());
+		assertTrue(orders.getTableColumn("id").isPrimaryKey());
+		assertFalse(orders.getTableColumn("customerId").isPrimaryKey());
+		ConstraintTO check = orders.getConstraintMap().get("CK_total");
+		assertEquals(ConstraintTypeEnum.CHECK, check.getConstraintType());
+		assertTrue(check.getConstraintColumnMap().isEmpty());
+		ConstraintTO fk = orders.getConstraintMap().get("FK_orders_customer");
+		assertEquals(ConstraintTypeEnum.FOREIGN, fk.getConstraintType());
+		assertEquals("customer", fk.getConstraintColumnMap().get("customerId").getRefTableName());
+
+		assertEquals(1, s.getTriggerMap().size());
+		TriggerTO trigger = s.getTriggerMap().get("trg_orders");
+		assertSame(orders, trigger.getTable());
+		assertEquals("INSERT OR UPDATE", trigger.getEventManipulation());
+		assertEquals("AFTER", trigger.getActionTiming());
+
+		RoutineTO routine = s.getRoutineMap().get("orderTotal");
+		assertEquals("FUNCTION", routine.getType());
+		assertEquals(Long.valueOf(12), routine.getDataTypeNumericPrecision());
+		assertNull(routine.getDataTypeLength());
+		assertEquals("READS", routine.getDataAccess());
+		assertEquals("CREATE FUNCTION orderTotal ...", routine.getDefinition());
+	}
+}
@@ -0,0 +1,161 @@
+package com.randomnoun.common.db.history;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import com.randomnoun.common.db.DatabaseReader;
+import com.randomnoun.common.db.to.SchemaTO;
+import com.randomnoun.common.db.to.TableColumnTO;
+import com.randomnoun.common.db.to.TableTO;
+
+public class HistoryTableGeneratorTest {
+
+	/** Counts the number of scripts compiled */
+	private static AtomicInteger compilations = new AtomicInteger();
+
+	/** A script engine standing in for jessop, which writes a line for each column of each
+	 * table in the 'tableNames' option (or every table in the schema) */
+	private static class TestScriptEngine extends AbstractScriptEngine implements Compilable {
+		@Override
+		public CompiledScript compile(String script) throws ScriptException {
+			compilations.incrementAndGet();
+			final ScriptEngine engine = this;
+			return new CompiledScript() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public Object eval(ScriptContext sc) throws ScriptException {
+					SchemaTO schema = (SchemaTO) sc.getAttribute("schema");
+					List<String> tableNames = (List<String>) ((Map<String, Object>) sc.getAttribute("options")).get("tableNames");
+					try {
+						for (String tableName : tableNames == null ? schema.getTableNames() : tableNames) {
+							TableTO table = schema.getTable(tableName);
+							sc.getWriter().write("CREATE TABLE " + tableName + "_history (\n");
+							for (String columnName : table.getTableColumnMap().keySet()) {
+								sc.getWriter().write("  " + columnName + ",\n");
+							}
+							sc.getWriter().write(");\n");
+						}
+					} catch (IOException ioe) {
+						throw new ScriptException(ioe);
+					}
+					return null;
+				}
+				@Override
+				public ScriptEngine getEngine() { return engine; }
+			};
+		}
+		@Override
+		public CompiledScript compile(Reader script) { throw new UnsupportedOperationException(); }
+		@Override
+		public Object eval(String script, ScriptContext context) throws ScriptException { return compile(script).eval(context); }
+		@Override
+		public Object eval(Reader reader, ScriptContext context) { throw new UnsupportedOperationException(); }
+		@Override
+		public Bindings createBindings() { return new SimpleBindings(); }
+		@Override
+		public ScriptEngineFactory getFactory() { throw new UnsupportedOperationException(); }
+	}
+
+	/** Returns a generator for a multi-table schema, which uses the test script engine */
+	private HistoryTableGenerator getGenerator(int concurrency) {
+		final DataSource ds = (DataSource) Proxy.newProxyInstance(HistoryTableGeneratorTest.class.getClassLoader(),
+			new Class<?>[] { DataSource.class }, (proxy, method, args) -> { throw new UnsupportedOperationException(); });
+		HistoryTableGenerator generator = new HistoryTableGenerator(ds) {
+			@Override
+			DatabaseReader newDatabaseReader() {
+				return new DatabaseReader(ds) {
+					@Override
+					public SchemaTO readSchema(String schemaName) {
+						SchemaTO schema = new SchemaTO(db, schemaName);
+						for (int i = 0; i < 20; i++) {
+							TableTO table = schema.getTable("table" + i);
+							for (int j = 0; j <= i % 4; j++) {
+								table.getTableColumnMap().put("column" + j, new TableColumnTO(table, "column" + j, j + 1, j == 0, "int",
+									0, 10, 0, j != 0, null, null));
+							}
+						}
+						return schema;
+					}
+				};
+			}
+		};
+		generator.scriptEngineManager.registerEngineName("jessop", (ScriptEngineFactory) Proxy.newProxyInstance(
+			HistoryTableGeneratorTest.class.getClassLoader(), new Class<?>[] { ScriptEngineFactory.class },
+			(proxy, method, args) -> {
+				if (method.getName().equals("getScriptEngine")) { return new TestScriptEngine(); }
+				throw new UnsupportedOperationException();
+			}));
+		generator.setSchemaName("test");
+		generator.setJessopScriptFilename("test.sql.jessop");
+		generator.setJessopScript("test script");
+		generator.setConcurrency(concurrency);
+		return generator;
+	}
+
+	@Test
+	public void testConcurrentGeneration() throws ScriptException, IOException {
+		String expected = getGenerator(1).generateHistoryTableSql();
+		assertTrue(expected.contains("CREATE TABLE table19_history (\n  column0,\n  column1,\n  column2,\n  column3,\n);\n"));
+
+		for (int concurrency : new int[] { 1, 4 }) {
+			HistoryTableGenerator generator = getGenerator(concurrency);
+			compilations.set(0);
+			assertEquals(expected, generator.generateHistoryTableSql());
+			StringWriter writer = new StringWriter();
+			generator.generateHistoryTableSql(writer);
+			assertEquals(expected, writer.toString());
+			File file = File.createTempFile("HistoryTableGeneratorTest", ".sql");
+			try {
+				generator.generateHistoryTableSql(file);
+				assertEquals(expected, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+			} finally {
+				file.delete();
+			}
+			// compiled scripts are reused, and there are no more of them than concurrent evaluations
+			assertTrue(compilations.get() >= 1 && compilations.get() <= concurrency);
+		}
+
+		// the tableNames option restricts the tables generated
+		HistoryTableGenerator generator = getGenerator(4);
+		generator.getOptions().put("tableNames", Arrays.asList("table3", "table1"));
+		assertEquals("CREATE TABLE table3_history (\n  column0,\n  column1,\n  column2,\n  column3,\n);\n" +
+			"CREATE TABLE table1_history (\n  column0,\n  column1,\n);\n", generator.generateHistoryTableSql());
+	}
+
+	@Test
+	public void testScriptChange() throws ScriptException {
+		HistoryTableGenerator generator = getGenerator(1);
+		compilations.set(0);
+		generator.generateHistoryTableSql();
+		generator.generateHistoryTableSql();
+		assertEquals(1, compilations.get());
+		// changing the script discards the compiled copies
+		generator.setJessopScript("another test script");
+		generator.generateHistoryTableSql();
+		assertEquals(2, compilations.get());
+	}
+}
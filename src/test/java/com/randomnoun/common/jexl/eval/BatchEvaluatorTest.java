@@ -0,0 +1,141 @@
+package com.randomnoun.common.jexl.eval;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.randomnoun.common.jexl.ast.TopLevelExpression;
+import com.randomnoun.common.jexl.eval.function.StartsWithFunction;
+import com.randomnoun.common.jexl.parser.ExpressionParser;
+import com.randomnoun.common.jexl.parser.ParseException;
+import com.randomnoun.common.jexl.parser.TokenMgrError;
+
+public class BatchEvaluatorTest {
+
+	private static final int ROW_COUNT = 200000;
+
+	private List<Map<String, Object>> rows;
+	private Map<String, Object> columns;
+
+	@Before
+	public void setUp() throws Exception {
+		Random r = new Random(1234);
+		long[] amount = new long[ROW_COUNT];
+		int[] priority = new int[ROW_COUNT];
+		double[] rate = new double[ROW_COUNT];
+		Object[] name = new Object[ROW_COUNT];
+		rows = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < ROW_COUNT; i++) {
+			amount[i] = r.nextInt(10000);
+			priority[i] = r.nextInt(5);
+			rate[i] = r.nextDouble() * 10;
+			name[i] = (r.nextBoolean() ? "abc" : "xyz") + i;
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("amount", Long.valueOf(amount[i]));
+			row.put("priority", Long.valueOf(priority[i]));
+			row.put("rate", Double.valueOf(rate[i]));
+			row.put("name", name[i]);
+			rows.add(row);
+		}
+		columns = new HashMap<String, Object>();
+		columns.put("amount", amount);
+		columns.put("priority", priority);
+		columns.put("rate", rate);
+		columns.put("name", name);
+	}
+
+	/** Convert Java expression String to a TopLevelExpression */
+	public TopLevelExpression stringToExpression(String expressionString)
+		throws java.text.ParseException
+	{
+		StringReader reader = new StringReader(expressionString);
+		ExpressionParser parser = new ExpressionParser(reader);
+		try {
+			return parser.TopLevelExpression();
+		} catch (ParseException pe) {
+			throw new java.text.ParseException(pe.getMessage(), -1);
+		} catch (TokenMgrError tme) {
+			throw new java.text.ParseException(tme.getMessage(), -1);
+		}
+	}
+
+	private EvalContext getEvalContext() {
+		EvalContext evalContext = new EvalContext();
+		evalContext.setVariable("threshold", Long.valueOf(5000));
+		evalContext.setFunction("startsWith", new StartsWithFunction());
+		return evalContext;
+	}
+
+	/** Evaluate an expression one row at a time, with a new EvalContext for each row */
+	private BitSet filterRowByRow(TopLevelExpression expr) {
+		Evaluator evaluator = new Evaluator();
+		BitSet result = new BitSet();
+		for (int i = 0; i < rows.size(); i++) {
+			EvalContext evalContext = getEvalContext();
+			for (Map.Entry<String, Object> e : rows.get(i).entrySet()) {
+				evalContext.setVariable(e.getKey(), e.getValue());
+			}
+			if (((Boolean) evaluator.visit(expr, evalContext)).booleanValue()) { result.set(i); }
+		}
+		return result;
+	}
+
+	private void assertSameResults(String expression, boolean compilable) throws java.text.ParseException {
+		TopLevelExpression expr = stringToExpression(expression);
+		BatchEvaluator batchEvaluator = new BatchEvaluator();
+		assertEquals(expression, compilable, batchEvaluator.isCompilable(expr, getEvalContext(), columns));
+
+		BitSet expected = filterRowByRow(expr);
+		BitSet rowList = batchEvaluator.filter(expr, getEvalContext(), rows);
+		BitSet columnar = batchEvaluator.filter(expr, getEvalContext(), columns, ROW_COUNT);
+		assertEquals(expression, expected, rowList);
+		assertEquals(expression, expected, columnar);
+	}
+
+	@Test
+	public void testCompiledComparisons() throws java.text.ParseException {
+		assertSameResults("amount > 1000 && amount <= 5000", true);
+		assertSameResults("(amount < 100 || amount >= 9900) && priority != 0", true);
+		assertSameResults("priority == 1 || rate < 2.5", true);
+		assertSameResults("5000 > amount", true);
+		assertSameResults("amount > threshold", true);
+		assertSameResults("rate > -1 && amount < 2500.9", true);
+	}
+
+	@Test
+	public void testInterpretedExpressions() throws java.text.ParseException {
+		assertSameResults("amount + priority > 5000", false);
+		assertSameResults("startsWith(name, \"abc\") && amount > 500", false);
+		assertSameResults("2.5 > priority", false);
+	}
+
+	@Test
+	public void testEvaluate() throws java.text.ParseException {
+		TopLevelExpression expr = stringToExpression("amount * 2 + priority");
+		BatchEvaluator batchEvaluator = new BatchEvaluator();
+		batchEvaluator.setParallelThreshold(1000);
+		Object[] results = batchEvaluator.evaluate(expr, getEvalContext(), columns, ROW_COUNT);
+		assertEquals(ROW_COUNT, results.length);
+		for (int i = 0; i < ROW_COUNT; i++) {
+			Map<String, Object> row = rows.get(i);
+			long expected = ((Long) row.get("amount")).longValue() * 2 + ((Long) row.get("priority")).longValue();
+			assertEquals(Long.valueOf(expected), results[i]);
+		}
+		assertArrayEquals(results, batchEvaluator.evaluate(expr, getEvalContext(), rows));
+	}
+
+	@Test(expected = EvalException.class)
+	public void testNonBooleanFilter() throws java.text.ParseException {
+		new BatchEvaluator().filter(stringToExpression("amount + 1"), getEvalContext(), rows);
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.randomnoun.common.jexl.eval.function;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.randomnoun.common.jexl.eval.EvalContext;
+
+public class LikePatternTest {
+
+	/** Reference implementation; converts a LIKE pattern to a regex */
+	private boolean regexMatches(String text, String pattern, boolean caseInsensitive) {
+		StringBuilder sb = new StringBuilder();
+		for (char c : pattern.toCharArray()) {
+			if (c == '%') { sb.append(".*"); }
+			else if (c == '_') { sb.append("."); }
+			else { sb.append(Pattern.quote(String.valueOf(c))); }
+		}
+		int flags = Pattern.DOTALL | (caseInsensitive ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+		return Pattern.compile(sb.toString(), flags).matcher(text).matches();
+	}
+
+	private String randomString(Random r, String alphabet, int maxLength) {
+		int length = r.nextInt(maxLength + 1);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) { sb.append(alphabet.charAt(r.nextInt(alphabet.length()))); }
+		return sb.toString();
+	}
+
+	@Test
+	public void testLikeAgainstRegex() {
+		Random r = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			String pattern = randomString(r, "abA%_.*", 6);
+			String text = randomString(r, "abAB.*", 8);
+			boolean caseInsensitive = r.nextBoolean();
+			assertEquals("'" + text + "' like '" + pattern + "' (ci=" + caseInsensitive + ")",
+				regexMatches(text, pattern, caseInsensitive), LikePattern.like(pattern, caseInsensitive).matches(text));
+		}
+	}
+
+	@Test
+	public void testStartsWithEndsWith() {
+		assertTrue(LikePattern.startsWith("a%_", false).matches("a%_bc"));
+		assertFalse(LikePattern.startsWith("a%_", false).matches("axxbc"));
+		assertTrue(LikePattern.startsWith("ABC", true).matches("abcd"));
+		assertTrue(LikePattern.endsWith("_C", true).matches("ab_c"));
+		assertFalse(LikePattern.endsWith("abcd", true).matches("bcd"));
+	}
+
+	@Test
+	public void testFunctions() {
+		EvalContext context = new EvalContext();
+		LikeFunction like = new LikeFunction(true);
+		assertEquals(Boolean.TRUE, like.evaluate("like", context, Arrays.<Object>asList("John Smith", "%SMITH")));
+		assertEquals(Boolean.FALSE, like.evaluate("like", context, Arrays.<Object>asList("John Smithers", "%SMITH")));
+		assertEquals(Boolean.TRUE, like.evaluate("like", context, Arrays.<Object>asList("J.Smith", "j._mith")));
+		assertEquals(Boolean.FALSE, new LikeFunction().evaluate("like", context, Arrays.<Object>asList("John Smith", "%SMITH")));
+		assertEquals(Boolean.TRUE, new StartsWithFunction(true).evaluate("startsWith", context, Arrays.<Object>asList("John Smith", "JOHN")));
+		assertEquals(Boolean.FALSE, new EndsWithFunction(true).evaluate("endsWith", context, Arrays.<Object>asList("mith", "SMITH")));
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.randomnoun.common.jexl.sql;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import com.randomnoun.common.jexl.ExpressionUtil;
+import com.randomnoun.common.jexl.eval.EvalContext;
+import com.randomnoun.common.jexl.eval.EvalFunction;
+import com.randomnoun.common.jexl.eval.EvalException;
+import com.randomnoun.common.jexl.sql.function.StartsWithFunction;
+
+public class CriteriaPlannerTest {
+
+	/** An EvalFunction with no SQL equivalent */
+	public static class IsEvenFunction implements EvalFunction {
+		public Object evaluate(String functionName, EvalContext context, List<Object> arguments) throws EvalException {
+			Object arg = arguments.get(0);
+			if (!(arg instanceof Number)) {
+				throw new EvalException("isEven() requires a numeric argument");
+			}
+			return Boolean.valueOf(((Number) arg).longValue() % 2 == 0);
+		}
+	}
+
+	private EvalContext getSqlGeneratorContext() {
+		EvalContext evalContext = new EvalContext();
+		evalContext.setVariable(SqlGenerator.VAR_DATABASE_TYPE, SqlGenerator.DATABASE_MYSQL);
+		evalContext.setVariable("lngId", new SqlColumn("lngId", "SOMETABLE", SqlColumn.NUMERIC));
+		evalContext.setVariable("txtVal", new SqlColumn("txtVal", "SOMETABLE"));
+		evalContext.setVariable("idParam", new PositionalParameter("id"));
+		evalContext.setFunction("startsWith", new StartsWithFunction());
+		evalContext.setFunction("isEven", new IsEvenFunction());
+		return evalContext;
+	}
+
+	private Map<String, Object> row(long lngId, String txtVal) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("lngId", Long.valueOf(lngId));
+		row.put("txtVal", txtVal);
+		return row;
+	}
+
+	@Test
+	public void testPartition() throws Exception {
+		ExpressionUtil util = new ExpressionUtil();
+		CriteriaPlanner planner = new CriteriaPlanner();
+		CriteriaPlan plan = planner.plan(util.stringToExpression(
+			"lngId > idParam && (isEven(lngId) && startsWith(txtVal, \"abc\"))"), getSqlGeneratorContext());
+		assertEquals("((SOMETABLE.lngId > ?) AND (SOMETABLE.txtVal LIKE 'abc%'))", plan.getSqlCriteria().getSql());
+		assertEquals(Arrays.asList("id"), plan.getSqlCriteria().getParameterNames());
+		assertEquals(1, plan.getResidualConjuncts().size());
+
+		Predicate<Map<String, Object>> filter = plan.getResidualFilter(Collections.singletonMap("id", Long.valueOf(10)));
+		assertTrue(filter.test(row(12, "abcd")));
+		assertFalse(filter.test(row(13, "abcd")));
+	}
+
+	@Test
+	public void testUnsplittable() throws Exception {
+		ExpressionUtil util = new ExpressionUtil();
+		CriteriaPlanner planner = new CriteriaPlanner();
+
+		// fully translatable
+		CriteriaPlan plan = planner.plan(util.stringToExpression("lngId == 1 || txtVal == \"x\""), getSqlGeneratorContext());
+		assertEquals("((SOMETABLE.lngId = 1) OR (SOMETABLE.txtVal = 'x'))", plan.getSqlCriteria().getSql());
+		assertFalse(plan.hasResidual());
+
+		// disjunctions containing untranslatable terms are evaluated in memory as a whole
+		plan = planner.plan(util.stringToExpression("lngId == idParam || isEven(lngId)"), getSqlGeneratorContext());
+		assertNull(plan.getSqlCriteria());
+		Predicate<Map<String, Object>> filter = plan.getResidualFilter(Collections.singletonMap("id", Long.valueOf(11)));
+		assertTrue(filter.test(row(11, "abcd")));
+		assertTrue(filter.test(row(12, "abcd")));
+		assertFalse(filter.test(row(13, "abcd")));
+	}
+
+}
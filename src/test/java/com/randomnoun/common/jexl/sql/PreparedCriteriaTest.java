@@ -0,0 +1,84 @@
+package com.randomnoun.common.jexl.sql;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.randomnoun.common.jexl.eval.EvalContext;
+import com.randomnoun.common.jexl.sql.function.StartsWithFunction;
+
+public class PreparedCriteriaTest {
+
+	private EvalContext getSqlGeneratorContext() {
+		EvalContext evalContext = new EvalContext();
+		evalContext.setVariable(SqlGenerator.VAR_DATABASE_TYPE, SqlGenerator.DATABASE_MYSQL);
+		evalContext.setVariable("lngId", new SqlColumn("lngId", "SOMETABLE", SqlColumn.NUMERIC));
+		evalContext.setVariable("txtVal", new SqlColumn("txtVal", "SOMETABLE"));
+		evalContext.setVariable("idParam", new PositionalParameter("id", Types.NUMERIC));
+		evalContext.setVariable("valParam", new PositionalParameter("val"));
+		evalContext.setFunction("startsWith", new StartsWithFunction());
+		return evalContext;
+	}
+
+	/** Returns a PreparedStatement which records the values bound to it */
+	private PreparedStatement getRecordingStatement(final List<String> calls) {
+		return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { PreparedStatement.class },
+			(proxy, method, args) -> {
+				calls.add(method.getName() + Arrays.asList(args));
+				return null;
+			});
+	}
+
+	@Test
+	public void testPrepare() throws Exception {
+		PreparedCriteriaCache cache = new PreparedCriteriaCache(10, 0);
+		EvalContext context = getSqlGeneratorContext();
+		PreparedCriteria criteria = cache.get("(lngId == idParam || lngId > idParam) && txtVal == valParam", context);
+		assertEquals("(((SOMETABLE.lngId = ?) OR (SOMETABLE.lngId > ?)) AND (SOMETABLE.txtVal = ?))", criteria.getSql());
+		assertEquals(Arrays.asList("id", "id", "val"), criteria.getParameterNames());
+		assertFalse(context.hasVariable(SqlGenerator.VAR_PARAMETERS));
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("id", Long.valueOf(12));
+		values.put("val", null);
+		assertArrayEquals(new Object[] { Long.valueOf(12), Long.valueOf(12), null }, criteria.getArguments(values));
+
+		List<String> calls = new ArrayList<String>();
+		assertEquals(5, criteria.bind(getRecordingStatement(calls), 2, values));
+		assertEquals(Arrays.asList(
+			"setObject[2, 12, " + Types.NUMERIC + "]",
+			"setObject[3, 12, " + Types.NUMERIC + "]",
+			"setNull[4, " + Types.NULL + "]"), calls);
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		PreparedCriteriaCache cache = new PreparedCriteriaCache(2, 0);
+		PreparedCriteria c1 = cache.get("lngId == idParam", getSqlGeneratorContext());
+		PreparedCriteria c2 = cache.get("lngId == idParam", getSqlGeneratorContext());
+		assertTrue(c1 == c2);
+		assertEquals(1, cache.size());
+
+		// a different database type or column mapping generates a separate entry
+		EvalContext context = getSqlGeneratorContext();
+		context.setVariable("lngId", new SqlColumn("lngId", "OTHERTABLE", SqlColumn.NUMERIC));
+		PreparedCriteria c3 = cache.get("lngId == idParam", context);
+		assertEquals("(OTHERTABLE.lngId = ?)", c3.getSql());
+		assertEquals(2, cache.size());
+
+		// cache size is bounded
+		cache.get("startsWith(txtVal, \"abc\")", getSqlGeneratorContext());
+		assertEquals(2, cache.size());
+	}
+
+}
@@ -0,0 +1,412 @@
+package com.randomnoun.common.security;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.randomnoun.common.security.impl.NullSecurityAuthenticatorImpl;
+import com.randomnoun.common.security.impl.NullSecurityLoaderImpl;
+import com.randomnoun.common.security.impl.ResourceCriteriaImpl;
+
+public class SecurityContextTest {
+
+	/** A SecurityLoader which returns permissions held in memory */
+	public static class MapSecurityLoader extends NullSecurityLoaderImpl {
+		Map<User, List<Permission>> userPermissions = new HashMap<User, List<Permission>>();
+		Map<User, List<String>> userRoles = new HashMap<User, List<String>>();
+		Map<String, List<Permission>> rolePermissions = new HashMap<String, List<Permission>>();
+		int loadCount = 0;
+
+		public List<Permission> loadRolePermissions(String role) throws IOException {
+			loadCount++;
+			List<Permission> result = rolePermissions.get(role);
+			return result == null ? Collections.<Permission>emptyList() : result;
+		}
+		public List<Permission> loadUserPermissions(User user) throws IOException {
+			loadCount++;
+			List<Permission> result = userPermissions.get(user);
+			return result == null ? Collections.<Permission>emptyList() : result;
+		}
+		public List<String> loadUserRoles(User user) throws IOException {
+			loadCount++;
+			List<String> result = userRoles.get(user);
+			return result == null ? Collections.<String>emptyList() : result;
+		}
+		public List<User> loadAllUsers() throws IOException {
+			return new ArrayList<User>(userRoles.keySet());
+		}
+	}
+
+	public static User newUser(String username) {
+		User user = new User();
+		user.setUsername(username);
+		user.setCustomerId(1);
+		return user;
+	}
+
+	public static MapSecurityLoader newLoader() {
+		MapSecurityLoader loader = new MapSecurityLoader();
+		User alice = newUser("alice");
+		User bob = newUser("bob");
+		loader.userPermissions.put(alice, new ArrayList<Permission>(Collections.singletonList(
+			new Permission(alice, "view", "account", new ResourceCriteriaImpl("amount > 100")))));
+		loader.userRoles.put(alice, Collections.singletonList("clerk"));
+		loader.userRoles.put(bob, Collections.singletonList("manager"));
+		loader.rolePermissions.put("clerk", new ArrayList<Permission>(Collections.singletonList(
+			new Permission("clerk", "view", "account", new ResourceCriteriaImpl("amount < 10")))));
+		List<Permission> managerPermissions = new ArrayList<Permission>();
+		managerPermissions.add(new Permission("manager", "view", "account", null));
+		managerPermissions.add(new Permission("manager", "update", "account", null));
+		loader.rolePermissions.put("manager", managerPermissions);
+		return loader;
+	}
+
+	@Test
+	public void testHasPermission() {
+		SecurityContext securityContext = new SecurityContext(new HashMap<String, Object>(),
+			newLoader(), new NullSecurityAuthenticatorImpl());
+		User alice = newUser("alice");
+		User bob = newUser("bob");
+
+		// without a context, any grant is sufficient
+		assertTrue(securityContext.hasPermission(alice, "view.account"));
+		assertFalse(securityContext.hasPermission(alice, "update.account"));
+		assertTrue(securityContext.hasPermission(bob, "update.account"));
+		assertFalse(securityContext.hasPermission(bob, "delete.account"));
+
+		// with a context, either the user or role criteria must match
+		assertTrue(securityContext.hasPermission(alice, "view.account", Collections.<String, Object>singletonMap("amount", 200L)));
+		assertTrue(securityContext.hasPermission(alice, "view.account", Collections.<String, Object>singletonMap("amount", 5L)));
+		assertFalse(securityContext.hasPermission(alice, "view.account", Collections.<String, Object>singletonMap("amount", 50L)));
+		assertTrue(securityContext.hasPermission(bob, "view.account", Collections.<String, Object>singletonMap("amount", 50L)));
+
+		int id = securityContext.getPermissionId("view.account");
+		assertTrue(id >= 0);
+		assertTrue(securityContext.getEffectivePermissions(bob).isUnconditional(id));
+		assertFalse(securityContext.getEffectivePermissions(alice).isUnconditional(id));
+		assertEquals(-1, securityContext.getPermissionId("delete.account"));
+	}
+
+	@Test
+	public void testResolvePermission() {
+		SecurityContext securityContext = new SecurityContext(new HashMap<String, Object>(),
+			newLoader(), new NullSecurityAuthenticatorImpl());
+		User alice = newUser("alice");
+		User bob = newUser("bob");
+
+		// permissions can be resolved before they are loaded, but aren't registered
+		PermissionId update = securityContext.resolvePermission("update.account");
+		assertEquals("update", update.getActivity());
+		assertEquals("account", update.getResource());
+		assertEquals(-1, update.getId());
+		assertTrue(securityContext.hasPermission(bob, update, null));
+		assertFalse(securityContext.hasPermission(alice, update, null));
+		PermissionId registered = securityContext.resolvePermission("update.account");
+		assertEquals(registered.getId(), securityContext.getPermissionId("update.account"));
+		assertSame(registered, securityContext.resolvePermission("update.account"));
+
+		PermissionId view = securityContext.resolvePermission("view.account");
+		assertTrue(securityContext.hasPermission(alice, view, Collections.<String, Object>singletonMap("amount", 5L)));
+		assertFalse(securityContext.hasPermission(alice, view, Collections.<String, Object>singletonMap("amount", 50L)));
+		assertSame(view, securityContext.getPermissionRegistry().get(view.getId()));
+		assertFalse(securityContext.hasPermission(bob, securityContext.resolvePermission("delete.account"), null));
+
+		// unknown permissions aren't registered
+		int size = securityContext.getPermissionRegistry().size();
+		assertFalse(securityContext.hasPermission(bob, securityContext.resolvePermission("unknown.permission"), null));
+		assertFalse(securityContext.hasPermission(bob, "unknown.permission"));
+		assertEquals(size, securityContext.getPermissionRegistry().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalPermission() {
+		SecurityContext securityContext = new SecurityContext(new HashMap<String, Object>(),
+			newLoader(), new NullSecurityAuthenticatorImpl());
+		securityContext.hasPermission(newUser("alice"), "viewaccount");
+	}
+
+	@Test
+	public void testReset() {
+		MapSecurityLoader loader = newLoader();
+		SecurityContext securityContext = new SecurityContext(new HashMap<String, Object>(),
+			loader, new NullSecurityAuthenticatorImpl());
+		User alice = newUser("alice");
+		assertFalse(securityContext.hasPermission(alice, "update.account"));
+		loader.userPermissions.get(alice).add(new Permission(alice, "update", "account", null));
+		assertFalse(securityContext.hasPermission(alice, "update.account"));
+		securityContext.resetSecurityContext();
+		assertTrue(securityContext.hasPermission(alice, "update.account"));
+	}
+
+	@Test
+	public void testPreload() throws IOException {
+		MapSecurityLoader loader = newLoader();
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(SecurityContext.INIT_PRELOAD, "true");
+		SecurityContext securityContext = new SecurityContext(properties,
+			loader, new NullSecurityAuthenticatorImpl());
+		int loadCount = loader.loadCount;
+		assertTrue(loadCount > 0);
+
+		// no further calls to the loader once preloaded
+		User alice = newUser("alice");
+		assertTrue(securityContext.hasPermission(alice, "view.account"));
+		assertTrue(securityContext.hasPermission(newUser("bob"), "update.account"));
+		assertEquals(1, securityContext.getUserPermissions(alice).size());
+		assertEquals(loadCount, loader.loadCount);
+
+		// users not in the snapshot are still loaded on demand
+		assertFalse(securityContext.hasPermission(newUser("carol"), "view.account"));
+		assertTrue(loader.loadCount > loadCount);
+	}
+
+	/** A ResourceCriteria which counts the number of times it is evaluated */
+	public static class CountingCriteria extends ResourceCriteria {
+		private static final long serialVersionUID = 1L;
+		int count = 0;
+		public CountingCriteria() { super("amount > 100"); }
+		public boolean evaluate(Map<String, Object> criteriaContext) {
+			count++;
+			return ((Long) criteriaContext.get("amount")).longValue() > 100;
+		}
+		public Set<String> getReferencedVariables() {
+			return Collections.singleton("amount");
+		}
+	}
+
+	@Test
+	public void testDecisionCache() {
+		MapSecurityLoader loader = newLoader();
+		User carol = newUser("carol");
+		CountingCriteria criteria = new CountingCriteria();
+		loader.userPermissions.put(carol, Collections.singletonList(new Permission(carol, "view", "account", criteria)));
+		SecurityContext securityContext = new SecurityContext(new HashMap<String, Object>(),
+			loader, new NullSecurityAuthenticatorImpl());
+
+		ResourceCriteriaDecisionCache decisionCache = new ResourceCriteriaDecisionCache();
+		for (int i = 0; i < 10; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("amount", Long.valueOf(i % 2 == 0 ? 50 : 500));
+			row.put("rowNum", Integer.valueOf(i)); // not referenced by the criteria
+			assertEquals(i % 2 == 1, securityContext.hasPermission(carol, "view.account", row, decisionCache));
+		}
+		assertEquals(2, criteria.count);
+		assertEquals(2, decisionCache.size());
+
+		// without a cache, the criteria is evaluated every time
+		securityContext.hasPermission(carol, "view.account", Collections.<String, Object>singletonMap("amount", 50L));
+		assertEquals(3, criteria.count);
+	}
+
+	@Test
+	public void testReferencedVariables() {
+		assertEquals(new HashSet<String>(Arrays.asList("amount", "region")),
+			new ResourceCriteriaImpl("amount > 100 && region.name == \"x\"").getReferencedVariables());
+		assertEquals(Collections.emptySet(), new ResourceCriteriaImpl("").getReferencedVariables());
+	}
+
+	@Test
+	public void testHasPermissions() {
+		SecurityContext securityContext = new SecurityContext(new HashMap<String, Object>(),
+			newLoader(), new NullSecurityAuthenticatorImpl());
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (long amount : new long[] { 5, 50, 500, 20, 200 }) {
+			rows.add(Collections.<String, Object>singletonMap("amount", Long.valueOf(amount)));
+		}
+		User alice = newUser("alice");
+		BitSet permitted = securityContext.hasPermissions(alice, "view.account", rows);
+		assertEquals("{0, 2, 4}", permitted.toString());
+		for (int i = 0; i < rows.size(); i++) {
+			assertEquals(securityContext.hasPermission(alice, "view.account", rows.get(i)), permitted.get(i));
+		}
+		assertEquals(3, securityContext.filterByPermission(alice, "view.account", rows).size());
+		assertEquals(5, securityContext.hasPermissions(newUser("bob"), "view.account", rows).cardinality());
+		assertTrue(securityContext.hasPermissions(alice, "delete.account", rows).isEmpty());
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		MapSecurityLoader loader = newLoader();
+		SecurityContext securityContext = new SecurityContext(new HashMap<String, Object>(),
+			loader, new NullSecurityAuthenticatorImpl());
+		User alice = newUser("alice");
+		User bob = newUser("bob");
+		assertFalse(securityContext.hasPermission(alice, "update.account"));
+		assertTrue(securityContext.hasPermission(bob, "update.account"));
+
+		// user change
+		loader.userPermissions.get(alice).add(new Permission(alice, "update", "account", null));
+		securityContext.invalidateUser(alice).get();
+		assertTrue(securityContext.hasPermission(alice, "update.account"));
+
+		// role change is applied to every cached user holding that role
+		loader.rolePermissions.get("manager").remove(1);
+		securityContext.invalidateRole("manager").get();
+		assertFalse(securityContext.hasPermission(bob, "update.account"));
+		assertTrue(securityContext.hasPermission(bob, "view.account"));
+
+		// resource change
+		loader.rolePermissions.get("clerk").clear();
+		securityContext.invalidateResource("account").get();
+		assertFalse(securityContext.hasPermission(alice, "view.account", Collections.<String, Object>singletonMap("amount", 5L)));
+		securityContext.shutdown();
+	}
+
+	@Test
+	public void testChangeWatcher() throws Exception {
+		MapSecurityLoader loader = newLoader();
+		SecurityContext securityContext = new SecurityContext(new HashMap<String, Object>(),
+			loader, new NullSecurityAuthenticatorImpl());
+		final List<SecurityChange> changes = new ArrayList<SecurityChange>();
+		SecurityChangeSource changeSource = new SecurityChangeSource() {
+			public long getVersion() { return changes.size(); }
+			public List<SecurityChange> getChanges(long sinceVersion) {
+				return changes.subList((int) sinceVersion, changes.size());
+			}
+		};
+		SecurityChangeWatcher watcher = new SecurityChangeWatcher(securityContext, changeSource, 1000);
+		User alice = newUser("alice");
+		assertEquals(0, watcher.poll());
+		assertFalse(securityContext.hasPermission(alice, "update.account"));
+
+		loader.userPermissions.get(alice).add(new Permission(alice, "update", "account", null));
+		changes.add(new SecurityChange(SecurityChange.ChangeType.USER, "alice"));
+		assertEquals(1, watcher.poll());
+		assertEquals(0, watcher.poll());
+		securityContext.invalidateAll().get(); // wait for the background reload
+		assertTrue(securityContext.hasPermission(alice, "update.account"));
+		securityContext.shutdown();
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		File file = File.createTempFile("securityContext", ".snapshot");
+		file.delete();
+		try {
+			final long[] version = new long[] { 1 };
+			SecurityChangeSource changeSource = new SecurityChangeSource() {
+				public long getVersion() { return version[0]; }
+				public List<SecurityChange> getChanges(long sinceVersion) { return null; }
+			};
+			Map<String, Object> properties = new HashMap<String, Object>();
+			properties.put(SecurityContext.INIT_CHANGE_SOURCE, changeSource);
+			properties.put(SecurityContext.INIT_SNAPSHOT_FILE, file.getPath());
+			User alice = newUser("alice");
+			User bob = newUser("bob");
+
+			SecurityContext securityContext = new SecurityContext(properties, newLoader(), new NullSecurityAuthenticatorImpl());
+			assertTrue(securityContext.hasPermission(alice, "view.account"));
+			assertTrue(securityContext.hasPermission(bob, "update.account"));
+			securityContext.shutdown();
+			assertTrue(file.exists());
+
+			// restored without calling the loader
+			MapSecurityLoader loader = newLoader();
+			securityContext = new SecurityContext(properties, loader, new NullSecurityAuthenticatorImpl());
+			assertTrue(securityContext.hasPermission(bob, "update.account"));
+			assertTrue(securityContext.hasPermission(alice, "view.account", Collections.<String, Object>singletonMap("amount", 200L)));
+			assertFalse(securityContext.hasPermission(alice, "view.account", Collections.<String, Object>singletonMap("amount", 50L)));
+			assertEquals(0, loader.loadCount);
+
+			// stale snapshots are ignored
+			version[0] = 2;
+			loader = newLoader();
+			securityContext = new SecurityContext(properties, loader, new NullSecurityAuthenticatorImpl());
+			assertTrue(securityContext.hasPermission(bob, "update.account"));
+			assertTrue(loader.loadCount > 0);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSnapshotVersion() throws Exception {
+		File file = File.createTempFile("securityContext", ".snapshot");
+		file.delete();
+		try {
+			final List<SecurityChange> changes = new ArrayList<SecurityChange>();
+			SecurityChangeSource changeSource = new SecurityChangeSource() {
+				public long getVersion() { return changes.size(); }
+				public List<SecurityChange> getChanges(long sinceVersion) {
+					return changes.subList((int) sinceVersion, changes.size());
+				}
+			};
+			Map<String, Object> properties = new HashMap<String, Object>();
+			properties.put(SecurityContext.INIT_CHANGE_SOURCE, changeSource);
+			properties.put(SecurityContext.INIT_SNAPSHOT_FILE, file.getPath());
+			User alice = newUser("alice");
+
+			MapSecurityLoader loader = newLoader();
+			SecurityContext securityContext = new SecurityContext(properties, loader, new NullSecurityAuthenticatorImpl());
+			assertEquals(0, securityContext.getCacheVersion());
+			assertFalse(securityContext.hasPermission(alice, "update.account"));
+
+			// a change which has not been applied to the caches doesn't advance the snapshot version
+			loader.userPermissions.get(alice).add(new Permission(alice, "update", "account", null));
+			changes.add(new SecurityChange(SecurityChange.ChangeType.USER, "alice"));
+			securityContext.writeSnapshot();
+			assertEquals(0, securityContext.getCacheVersion());
+			assertNull(SecuritySnapshotFile.read(file, 1));
+
+			// the watcher picks up changes made since the caches were loaded
+			SecurityChangeWatcher watcher = new SecurityChangeWatcher(securityContext, changeSource, 1000);
+			assertEquals(1, watcher.poll());
+			assertEquals(1, securityContext.getCacheVersion());
+			assertTrue(securityContext.hasPermission(alice, "update.account"));
+			securityContext.shutdown();
+			assertNotNull(SecuritySnapshotFile.read(file, 1));
+
+			securityContext = new SecurityContext(properties, newLoader(), new NullSecurityAuthenticatorImpl());
+			assertEquals(1, securityContext.getCacheVersion());
+			assertTrue(securityContext.hasPermission(alice, "update.account"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSnapshotFilter() throws Exception {
+		File file = File.createTempFile("securityContext", ".snapshot");
+		try {
+			try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file))) {
+				dos.writeInt(0x524E5353);
+				dos.writeInt(1);
+				dos.writeLong(1);
+				ObjectOutputStream oos = new ObjectOutputStream(dos);
+				oos.writeObject(new java.util.Date());
+				oos.flush();
+			}
+			try {
+				SecuritySnapshotFile.read(file, 1);
+				fail("Expected InvalidClassException");
+			} catch (InvalidClassException ice) {
+				// expected
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testUserHashCode() {
+		assertEquals(newUser("alice").hashCode(), newUser("alice").hashCode());
+		assertEquals(newUser("alice"), newUser("alice"));
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.randomnoun.common.spring;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Blob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.randomnoun.common.StreamUtil;
+import com.randomnoun.common.spring.ClobRowMapper.LobStrategy;
+import com.randomnoun.common.spring.ClobRowMapper.LobSupplier;
+
+public class ClobRowMapperTest {
+
+	private int metaDataCalls;
+
+	/** Returns a single-row ResultSet with columns 'id', 'text' and 'data' */
+	private ResultSet getResultSet(final Object[] values) {
+		final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> {
+				if (method.getName().equals("getColumnCount")) { return 3; }
+				if (method.getName().equals("getColumnLabel")) { return new String[] { "id", "text", "data" }[(Integer) args[0] - 1]; }
+				throw new UnsupportedOperationException(method.getName());
+			});
+		return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+				if (method.getName().equals("getMetaData")) { metaDataCalls++; return metaData; }
+				if (method.getName().equals("getObject")) { return values[(Integer) args[0] - 1]; }
+				throw new UnsupportedOperationException(method.getName());
+			});
+	}
+
+	@Test
+	public void testString() throws Exception {
+		String text = "café 日本 😀";
+		ClobRowMapper rm = new ClobRowMapper(new JdbcTemplate());
+		Map<String, Object> row = rm.mapRow(getResultSet(new Object[] { 1L, new SerialClob(text.toCharArray()), null }), 0);
+		assertEquals(1L, row.get("ID"));
+		assertEquals(text, row.get("TEXT"));
+		assertTrue(row.containsKey("DATA"));
+		assertEquals(1, metaDataCalls);
+
+		// metadata is only read once per ResultSet
+		ResultSet rs = getResultSet(new Object[] { 2L, "text", null });
+		rm.mapRow(rs, 0);
+		rm.mapRow(rs, 1);
+		assertEquals(2, metaDataCalls);
+	}
+
+	@Test
+	public void testSupplier() throws Exception {
+		ClobRowMapper rm = new ClobRowMapper(new JdbcTemplate(), LobStrategy.SUPPLIER);
+		Map<String, Object> row = rm.mapRow(getResultSet(new Object[] {
+			1L, new SerialClob("abc".toCharArray()), new SerialBlob(new byte[] { 1, 2, 3 }) }), 0);
+		@SuppressWarnings("unchecked")
+		LobSupplier<Reader> text = (LobSupplier<Reader>) row.get("TEXT");
+		assertEquals(3, text.length());
+		char[] buf = new char[3];
+		try (Reader r = text.get()) { assertEquals(3, r.read(buf)); }
+		assertEquals("abc", new String(buf));
+		@SuppressWarnings("unchecked")
+		LobSupplier<InputStream> data = (LobSupplier<InputStream>) row.get("DATA");
+		try (InputStream is = data.get()) { assertArrayEquals(new byte[] { 1, 2, 3 }, StreamUtil.getByteArray(is)); }
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		File dir = Files.createTempDirectory("ClobRowMapperTest").toFile();
+		try {
+			ClobRowMapper rm = new ClobRowMapper(new JdbcTemplate(), LobStrategy.FILE);
+			rm.setSpillThreshold(4);
+			rm.setSpillDirectory(dir);
+
+			// small LOBs are held in memory
+			Map<String, Object> row = rm.mapRow(getResultSet(new Object[] {
+				1L, new SerialClob("abc".toCharArray()), new SerialBlob(new byte[] { 1, 2, 3 }) }), 0);
+			assertEquals("abc", row.get("TEXT"));
+			assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) row.get("DATA"));
+
+			// large LOBs are written to files
+			row = rm.mapRow(getResultSet(new Object[] {
+				2L, new SerialClob("ééééé".toCharArray()), new SerialBlob(new byte[] { 1, 2, 3, 4, 5 }) }), 0);
+			File textFile = (File) row.get("TEXT");
+			File dataFile = (File) row.get("DATA");
+			assertEquals(dir, textFile.getParentFile());
+			assertEquals("ééééé", new String(Files.readAllBytes(textFile.toPath()), StandardCharsets.UTF_8));
+			assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, Files.readAllBytes(dataFile.toPath()));
+			textFile.delete();
+			dataFile.delete();
+		} finally {
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testLargeBlob() throws Exception {
+		ClobRowMapper rm = new ClobRowMapper(new JdbcTemplate(), LobStrategy.FILE);
+		rm.setSpillThreshold(Long.MAX_VALUE);
+		final boolean[] freed = new boolean[1];
+		Blob blob = (Blob) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Blob.class }, (proxy, method, args) -> {
+			if (method.getName().equals("length")) { return 3L * 1024 * 1024 * 1024; }
+			if (method.getName().equals("free")) { freed[0] = true; return null; }
+			throw new UnsupportedOperationException(method.getName());
+		});
+		// BLOBs over 2GB can't be held in a byte array
+		try {
+			rm.mapRow(getResultSet(new Object[] { 1L, null, blob }), 0);
+			fail("expected SQLException");
+		} catch (SQLException sqle) {
+			assertEquals("BLOB of 3221225472 bytes is too large to read into a byte array", sqle.getMessage());
+		}
+		assertTrue(freed[0]);
+	}
+}
@@ -0,0 +1,138 @@
+package com.randomnoun.common.spring;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.randomnoun.common.db.SqlWithArguments;
+
+public class JdbcStatisticsTest {
+
+	/** A JdbcTemplate that maps a number of rows equal to the first argument, each containing 
+	 * a single column with the value 42 */
+	private static class TestJdbcTemplate extends JdbcTemplate {
+		@Override
+		public <T> List<T> query(String sql, Object[] args, int[] argTypes, RowMapper<T> rowMapper) {
+			ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSetMetaData.class }, 
+				(p, m, a) -> m.getName().equals("getColumnCount") ? (Object) 1 : "N");
+			ResultSet rs = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, 
+				(p, m, a) -> m.getName().equals("getMetaData") ? md : (Object) 42);
+			List<T> result = new ArrayList<T>();
+			try {
+				for (int i = 0; i < (Integer) args[0]; i++) { result.add(rowMapper.mapRow(rs, i)); }
+			} catch (SQLException sqle) {
+				throw new IllegalStateException(sqle);
+			}
+			return result;
+		}
+		@Override
+		public <T> T queryForObject(String sql, Object[] args, int[] argTypes, RowMapper<T> rowMapper) {
+			return query(sql, args, argTypes, rowMapper).get(0);
+		}
+		@Override
+		public int update(String sql, Object[] args, int[] argTypes) {
+			throw new IllegalStateException("update failed");
+		}
+		@Override
+		public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+			return new int[] { 2, Statement.SUCCESS_NO_INFO, 1 };
+		}
+		@Override
+		public int[] batchUpdate(String... sql) {
+			return new int[sql.length];
+		}
+	}
+
+	@Test
+	public void testGetFingerprint() {
+		assertEquals("SELECT * FROM t1 WHERE a = ? AND b IN (?) AND c = ?",
+			JdbcStatistics.getFingerprint("SELECT *\n  FROM t1 /* comment */ WHERE a = 'it''s' AND b IN (1, 2,3) AND c = -- comment\n 1.5"));
+		assertEquals("SELECT * FROM t1 WHERE a IN (?)", JdbcStatistics.getFingerprint("SELECT * FROM t1 WHERE a IN (?, ?, ?)"));
+		// fingerprints are memoised
+		String sql = "SELECT * FROM t2 WHERE a = 1";
+		assertSame(JdbcStatistics.getFingerprint(sql), JdbcStatistics.getFingerprint(new String(sql)));
+	}
+
+	@Test
+	public void testStatistics() {
+		JdbcStatistics statistics = new JdbcStatistics();
+		statistics.setSlowQueryThreshold(0, TimeUnit.MILLISECONDS);
+		JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(new TestJdbcTemplate());
+		jt.setStatistics(statistics);
+		RowMapper<Integer> rowMapper = (rs, rowNum) -> rowNum;
+
+		jt.query(new SqlWithArguments("SELECT id FROM t WHERE x = 1 AND n = ?", new Object[] { 3 }, new int[] { Types.INTEGER }), rowMapper);
+		jt.query(new SqlWithArguments("SELECT id FROM t WHERE x = 2 AND n = ?", new Object[] { 5 }, new int[] { Types.INTEGER }), rowMapper);
+		try {
+			jt.update(new SqlWithArguments("UPDATE t SET x = ?", new Object[] { "abc" }, new int[] { Types.VARCHAR }));
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException ise) { }
+
+		List<JdbcStatistics.Snapshot> snapshots = statistics.getSnapshots();
+		assertEquals(2, snapshots.size());
+		assertEquals(3, statistics.getSlowQueries());
+		JdbcStatistics.Snapshot select = snapshots.get(0).getFingerprint().startsWith("SELECT") ? snapshots.get(0) : snapshots.get(1);
+		assertEquals("SELECT id FROM t WHERE x = ? AND n = ?", select.getFingerprint());
+		assertEquals(2, select.getCount());
+		assertEquals(0, select.getErrors());
+		assertEquals(8, select.getRows());
+		assertEquals(5, select.getMaxRows());
+		assertEquals(select.getTotalTime(TimeUnit.NANOSECONDS),
+			select.getExecuteTime(TimeUnit.NANOSECONDS) + select.getFetchTime(TimeUnit.NANOSECONDS));
+		assertTrue(select.getPercentileTime(99, TimeUnit.MICROSECONDS) <= Math.max(1, select.getMaxTime(TimeUnit.MICROSECONDS)));
+
+		JdbcStatistics.Snapshot update = snapshots.get(0) == select ? snapshots.get(1) : snapshots.get(0);
+		assertEquals(1, update.getCount());
+		assertEquals(1, update.getErrors());
+
+		// limited number of fingerprints
+		statistics.reset();
+		statistics.setMaxFingerprints(1);
+		jt.query(new SqlWithArguments("SELECT a FROM t WHERE n = ?", new Object[] { 1 }, null), rowMapper);
+		jt.query(new SqlWithArguments("SELECT b FROM t WHERE n = ?", new Object[] { 1 }, null), rowMapper);
+		snapshots = statistics.getSnapshots();
+		assertEquals(2, snapshots.size());
+		assertTrue(snapshots.get(0).getFingerprint().equals(JdbcStatistics.OTHER_FINGERPRINT) ||
+			snapshots.get(1).getFingerprint().equals(JdbcStatistics.OTHER_FINGERPRINT));
+	}
+
+	@Test
+	public void testRowCounts() {
+		JdbcStatistics statistics = new JdbcStatistics();
+		JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(new TestJdbcTemplate());
+		jt.setStatistics(statistics);
+
+		// an Integer result is a single row, not a row count
+		assertEquals(Integer.valueOf(42), jt.queryForObject(new SqlWithArguments("SELECT COUNT(*) FROM t WHERE n = ?", new Object[] { 1 }, null), Integer.class));
+		// rows are counted as they are mapped
+		assertEquals(4, jt.queryForList(new SqlWithArguments("SELECT * FROM t WHERE n = ?", new Object[] { 4 }, null)).size());
+		assertEquals(42, jt.queryForMap(new SqlWithArguments("SELECT * FROM t WHERE id = ?", new Object[] { 1 }, null)).get("N"));
+		// rows updated by a batch, ignoring statements that don't report a count
+		jt.batchUpdate("UPDATE t SET x = ?", Arrays.asList(new Object[] { 1 }, new Object[] { 2 }, new Object[] { 3 }));
+		// batches of statements are recorded under their distinct fingerprints
+		jt.batchUpdate("DELETE FROM t WHERE id = 1", "DELETE FROM t WHERE id = 2", "DELETE FROM u WHERE id = 3");
+
+		Map<String, JdbcStatistics.Snapshot> snapshots = new HashMap<String, JdbcStatistics.Snapshot>();
+		for (JdbcStatistics.Snapshot snapshot : statistics.getSnapshots()) { snapshots.put(snapshot.getFingerprint(), snapshot); }
+		assertEquals(1, snapshots.get("SELECT COUNT(*) FROM t WHERE n = ?").getRows());
+		assertEquals(4, snapshots.get("SELECT * FROM t WHERE n = ?").getRows());
+		assertEquals(1, snapshots.get("SELECT * FROM t WHERE id = ?").getRows());
+		assertEquals(3, snapshots.get("UPDATE t SET x = ?").getRows());
+		assertEquals(1, snapshots.get("DELETE FROM t WHERE id = ?; DELETE FROM u WHERE id = ?").getCount());
+	}
+}
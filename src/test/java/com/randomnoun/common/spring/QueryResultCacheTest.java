@@ -0,0 +1,237 @@
+package com.randomnoun.common.spring;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.randomnoun.common.db.SqlWithArguments;
+
+public class QueryResultCacheTest {
+
+	/** A JdbcTemplate that counts the queries executed, each of which returns a single 'ID' column
+	 * containing the first argument */
+	private static class TestJdbcTemplate extends JdbcTemplate {
+		int queries = 0;
+		@Override
+		public <T> List<T> query(String sql, Object[] args, int[] argTypes, RowMapper<T> rowMapper) {
+			queries++;
+			ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSetMetaData.class }, 
+				(p, m, a) -> m.getName().equals("getColumnCount") ? (Object) 1 : "ID");
+			ResultSet rs = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, 
+				(p, m, a) -> m.getName().equals("getMetaData") ? md : args[0]);
+			try {
+				return new ArrayList<T>(Collections.singletonList(rowMapper.mapRow(rs, 0)));
+			} catch (SQLException sqle) {
+				throw new IllegalStateException(sqle);
+			}
+		}
+		@Override
+		public <T> T queryForObject(String sql, Object[] args, int[] argTypes, RowMapper<T> rowMapper) {
+			return query(sql, args, argTypes, rowMapper).get(0);
+		}
+		@Override
+		public int update(String sql, Object[] args, int[] argTypes) {
+			return 1;
+		}
+		@Override
+		public <T> T execute(ConnectionCallback<T> action) {
+			return null;
+		}
+		@Override
+		public <T> T execute(StatementCallback<T> action) {
+			return null;
+		}
+		@Override
+		public <T> T execute(PreparedStatementCreator psc, PreparedStatementCallback<T> action) {
+			return null;
+		}
+	}
+
+	@Test
+	public void testGetTables() {
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("customer", "address", "country")),
+			QueryResultCache.getTables("SELECT c.name, a.line1 FROM `db`.Customer c INNER JOIN address a ON a.customerId = c.id, country " +
+			"WHERE c.name = 'from x'"));
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("a", "b", "c")),
+			QueryResultCache.getTables("SELECT * FROM a WHERE id IN (SELECT aId FROM b, c WHERE x = 1) ORDER BY id"));
+		assertEquals(Collections.emptySet(), QueryResultCache.getTables("SELECT 1"));
+	}
+
+	@Test
+	public void testGetModifiedTable() {
+		assertEquals("customer", QueryResultCache.getModifiedTable("INSERT INTO db.customer (id) VALUES (?)"));
+		assertEquals("customer", QueryResultCache.getModifiedTable("UPDATE `Customer` c SET name = ? WHERE id = ?"));
+		assertEquals("customer", QueryResultCache.getModifiedTable("DELETE FROM customer WHERE id = ?"));
+		assertEquals("customer", QueryResultCache.getModifiedTable("TRUNCATE TABLE customer"));
+		assertEquals("", QueryResultCache.getModifiedTable("SELECT * FROM customer"));
+		assertNull(QueryResultCache.getModifiedTable("UPDATE customer c JOIN address a ON a.id = c.id SET c.x = 1"));
+		assertNull(QueryResultCache.getModifiedTable("DELETE c FROM customer c"));
+		assertNull(QueryResultCache.getModifiedTable("DROP VIEW v"));
+		assertNull(QueryResultCache.getModifiedTable("CALL refresh()"));
+	}
+
+	@Test
+	public void testJdbcTemplateCache() {
+		TestJdbcTemplate tjt = new TestJdbcTemplate();
+		JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(tjt);
+		SqlWithArguments query = new SqlWithArguments("SELECT id FROM customer WHERE id = ?", new Object[] { 1 }, new int[] { Types.INTEGER });
+
+		// not cached without a cache
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertEquals(2, tjt.queries);
+
+		QueryResultCache cache = new QueryResultCache(2);
+		jt.setQueryResultCache(cache);
+		List<Map<String, Object>> rows = jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertSame(rows, jt.queryForList(query, 1, TimeUnit.MINUTES));
+		assertEquals(3, tjt.queries);
+		assertEquals(1, cache.getHits());
+
+		// a mutated query is a different key
+		query.setArgs(new Object[] { 2 });
+		assertEquals(2, jt.queryForList(query, 1, TimeUnit.MINUTES).get(0).get("ID"));
+		assertEquals(4, tjt.queries);
+
+		// results can't be modified
+		try {
+			rows.get(0).put("ID", 3);
+			fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException uoe) { }
+		try {
+			rows.clear();
+			fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException uoe) { }
+
+		// writes to other tables don't invalidate the result
+		jt.update(new SqlWithArguments("UPDATE address SET x = ? WHERE id = 1", new Object[] { 1 }, new int[] { Types.INTEGER }));
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertEquals(4, tjt.queries);
+
+		// writes to the table do
+		jt.update(new SqlWithArguments("UPDATE customer SET x = ? WHERE id = 1", new Object[] { 1 }, new int[] { Types.INTEGER }));
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertEquals(5, tjt.queries);
+
+		// expired results are reloaded
+		jt.queryForList(query, 0, TimeUnit.MINUTES);
+		assertEquals(6, tjt.queries);
+
+		// the least recently used result is evicted
+		query.setArgs(new Object[] { 3 });
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testCallbackInvalidation() {
+		TestJdbcTemplate tjt = new TestJdbcTemplate();
+		JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(tjt);
+		jt.setQueryResultCache(new QueryResultCache(10));
+		SqlWithArguments query = new SqlWithArguments("SELECT id FROM customer WHERE id = ?", new Object[] { 1 }, new int[] { Types.INTEGER });
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+
+		// the SQL executed by callbacks is unknown, so they invalidate all results
+		jt.execute((ConnectionCallback<Object>) con -> null);
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		jt.execute((StatementCallback<Object>) stmt -> null);
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		jt.execute(con -> null, (PreparedStatementCallback<Object>) ps -> null);
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertEquals(4, tjt.queries);
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertEquals(4, tjt.queries);
+	}
+
+	@Test
+	public void testTransactionInvalidation() throws InterruptedException {
+		TestJdbcTemplate tjt = new TestJdbcTemplate();
+		final JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(tjt);
+		QueryResultCache cache = new QueryResultCache(10);
+		jt.setQueryResultCache(cache);
+		final SqlWithArguments query = new SqlWithArguments("SELECT id FROM customer WHERE id = ?", new Object[] { 1 }, new int[] { Types.INTEGER });
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			// results are cached until the transaction modifies a table
+			jt.queryForList(query, 1, TimeUnit.MINUTES);
+			jt.queryForList(query, 1, TimeUnit.MINUTES);
+			assertEquals(1, tjt.queries);
+			jt.update(new SqlWithArguments("UPDATE customer SET x = ? WHERE id = 1", new Object[] { 1 }, new int[] { Types.INTEGER }));
+			jt.queryForList(query, 1, TimeUnit.MINUTES);
+			jt.queryForList(query, 1, TimeUnit.MINUTES);
+			assertEquals(3, tjt.queries);
+
+			// another thread caches the state of the table before the transaction commits
+			Thread thread = new Thread(() -> jt.queryForList(query, 1, TimeUnit.MINUTES));
+			thread.start();
+			thread.join();
+			assertEquals(4, tjt.queries);
+
+			for (TransactionSynchronization ts : TransactionSynchronizationManager.getSynchronizations()) {
+				ts.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertFalse(TransactionSynchronizationManager.hasResource(cache));
+
+		// the result cached before the commit is invalidated
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertEquals(5, tjt.queries);
+	}
+
+	@Test
+	public void testRowMapperCacheKey() {
+		TestJdbcTemplate tjt = new TestJdbcTemplate();
+		JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(tjt);
+		jt.setQueryResultCache(new QueryResultCache(10));
+		SqlWithArguments query = new SqlWithArguments("SELECT id FROM customer WHERE id = ?", new Object[] { 1 }, new int[] { Types.INTEGER });
+		jt.query(query, (rs, rowNum) -> rs.getObject(1), "id", 1, TimeUnit.MINUTES);
+		jt.query(query, (rs, rowNum) -> rs.getObject(1), "id", 1, TimeUnit.MINUTES);
+		assertEquals(1, tjt.queries);
+		// RowMappers with different keys are cached separately, even if they are the same class
+		RowMapper<String> rowMapper = (rs, rowNum) -> String.valueOf(rs.getObject(1));
+		jt.query(query, rowMapper, "idString", 1, TimeUnit.MINUTES);
+		assertEquals(2, tjt.queries);
+		try {
+			jt.query(query, rowMapper, null, 1, TimeUnit.MINUTES);
+			fail("expected NullPointerException");
+		} catch (NullPointerException npe) { }
+	}
+
+	@Test
+	public void testResultTypeKeys() {
+		TestJdbcTemplate tjt = new TestJdbcTemplate();
+		JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(tjt);
+		jt.setQueryResultCache(new QueryResultCache(10));
+		SqlWithArguments query = new SqlWithArguments("SELECT id FROM customer WHERE id = ?", new Object[] { Arrays.asList("a") }, null);
+		assertEquals(Arrays.asList("a"), jt.queryForObject(query, List.class, 1, TimeUnit.MINUTES));
+		// a List of rows isn't returned from the entry for a single List value
+		List<Map<String, Object>> rows = jt.queryForList(query, 1, TimeUnit.MINUTES);
+		assertEquals(2, tjt.queries);
+		assertEquals(Arrays.asList("a"), rows.get(0).get("ID"));
+	}
+}
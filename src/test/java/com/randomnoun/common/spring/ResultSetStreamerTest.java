@@ -0,0 +1,142 @@
+package com.randomnoun.common.spring;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.randomnoun.common.db.SqlWithArguments;
+import com.randomnoun.common.db.enums.DatabaseTypeEnum;
+
+public class ResultSetStreamerTest {
+
+	/** A JdbcTemplate whose connections return a number of rows with a single VARCHAR(1000) column,
+	 * and which records the fetch sizes set on statements and result sets */
+	private static class TestJdbcTemplate extends JdbcTemplate {
+		String productName, driverName, url;
+		int rows;
+		int metaDataCalls;
+		List<Integer> statementFetchSizes = new ArrayList<Integer>();
+		List<Integer> resultSetFetchSizes = new ArrayList<Integer>();
+		List<Object> args = new ArrayList<Object>();
+
+		TestJdbcTemplate(String productName, String driverName, String url, int rows) {
+			this.productName = productName;
+			this.driverName = driverName;
+			this.url = url;
+			this.rows = rows;
+		}
+
+		private <T> T proxy(Class<T> clazz, java.lang.reflect.InvocationHandler handler) {
+			return clazz.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { clazz }, handler));
+		}
+
+		@Override
+		public <T> T execute(ConnectionCallback<T> action) {
+			final DatabaseMetaData dbmd = proxy(DatabaseMetaData.class, (p, m, a) -> {
+				switch (m.getName()) {
+					case "getDatabaseProductName": return productName;
+					case "getDriverName": return driverName;
+					case "getURL": return url;
+					default: throw new UnsupportedOperationException(m.getName());
+				}
+			});
+			final ResultSetMetaData rsmd = proxy(ResultSetMetaData.class, (p, m, a) -> {
+				switch (m.getName()) {
+					case "getColumnCount": return 1;
+					case "getColumnType": return Types.VARCHAR;
+					case "getColumnDisplaySize": return 1000;
+					default: throw new UnsupportedOperationException(m.getName());
+				}
+			});
+			final int[] row = new int[1];
+			final ResultSet rs = proxy(ResultSet.class, (p, m, a) -> {
+				switch (m.getName()) {
+					case "next": return ++row[0] <= rows;
+					case "getMetaData": metaDataCalls++; return rsmd;
+					case "getInt": return row[0];
+					case "setFetchSize": resultSetFetchSizes.add((Integer) a[0]); return null;
+					case "close": return null;
+					default: throw new UnsupportedOperationException(m.getName());
+				}
+			});
+			final PreparedStatement ps = proxy(PreparedStatement.class, (p, m, a) -> {
+				switch (m.getName()) {
+					case "setFetchSize": statementFetchSizes.add((Integer) a[0]); return null;
+					case "setObject": args.add(a[1]); return null;
+					case "executeQuery": return rs;
+					case "close": return null;
+					default: throw new UnsupportedOperationException(m.getName());
+				}
+			});
+			Connection conn = proxy(Connection.class, (p, m, a) -> {
+				switch (m.getName()) {
+					case "getMetaData": return dbmd;
+					case "getAutoCommit": return false;
+					case "prepareStatement": return ps;
+					default: throw new UnsupportedOperationException(m.getName());
+				}
+			});
+			try {
+				return action.doInConnection(conn);
+			} catch (SQLException sqle) {
+				throw new IllegalStateException(sqle);
+			}
+		}
+	}
+
+	@Test
+	public void testGetDatabaseType() {
+		assertEquals(DatabaseTypeEnum.MYSQL, ResultSetStreamer.getDatabaseType("MySQL"));
+		assertEquals(DatabaseTypeEnum.MYSQL, ResultSetStreamer.getDatabaseType("MariaDB"));
+		assertEquals(DatabaseTypeEnum.ORACLE, ResultSetStreamer.getDatabaseType("Oracle"));
+		assertEquals(DatabaseTypeEnum.SQLSERVER, ResultSetStreamer.getDatabaseType("Microsoft SQL Server"));
+		assertEquals(DatabaseTypeEnum.GENERIC, ResultSetStreamer.getDatabaseType("PostgreSQL"));
+	}
+
+	@Test
+	public void testMysqlRowStreaming() {
+		TestJdbcTemplate tjt = new TestJdbcTemplate("MySQL", "MySQL Connector/J", "jdbc:mysql://localhost/db", 200);
+		JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(tjt);
+		final int[] count = new int[1];
+		jt.streamQuery(new SqlWithArguments("SELECT x FROM t WHERE y = ?", new Object[] { 1 }, new int[] { Types.INTEGER }),
+			rs -> { count[0]++; });
+		assertEquals(200, count[0]);
+		assertEquals(DatabaseTypeEnum.MYSQL, jt.getResultSetStreamer().getDatabaseType());
+		assertEquals(Integer.MIN_VALUE, (int) tjt.statementFetchSizes.get(0));
+		assertEquals(1, tjt.args.get(0));
+		assertTrue(tjt.resultSetFetchSizes.isEmpty());
+		// row widths aren't needed when rows are streamed one at a time
+		assertEquals(0, tjt.metaDataCalls);
+	}
+
+	@Test
+	public void testAdaptiveFetchSize() {
+		TestJdbcTemplate tjt = new TestJdbcTemplate("MariaDB", "MariaDB Connector/J", "jdbc:mariadb://localhost/db", 200);
+		JdbcTemplateWithArguments jt = new JdbcTemplateWithArguments(tjt);
+		SqlWithArguments query = new SqlWithArguments("SELECT x FROM t", null, null);
+
+		// rows are 2000 bytes wide, so 1MB batches are 524 rows
+		int count = jt.streamQuery(query, rs -> { int rows = 0; while (rs.next()) { rows = rs.getInt(1); } return rows; });
+		assertEquals(200, count);
+		assertEquals(100, (int) tjt.statementFetchSizes.get(0));
+		assertEquals(524, (int) tjt.resultSetFetchSizes.get(0));
+
+		// the width is remembered for the next execution
+		jt.streamQuery(query, rs -> { });
+		assertEquals(524, (int) tjt.statementFetchSizes.get(1));
+		assertEquals(1, tjt.resultSetFetchSizes.size());
+	}
+}
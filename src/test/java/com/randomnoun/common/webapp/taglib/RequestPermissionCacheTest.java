@@ -0,0 +1,82 @@
+package com.randomnoun.common.webapp.taglib;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.randomnoun.common.security.SecurityContext;
+import com.randomnoun.common.security.SecurityContextTest;
+import com.randomnoun.common.security.User;
+import com.randomnoun.common.security.impl.NullSecurityAuthenticatorImpl;
+import com.randomnoun.common.webapp.AppConfigBase;
+
+public class RequestPermissionCacheTest {
+
+	/** An AppConfig which checks permissions against an in-memory security context,
+	 * and counts the number of checks */
+	private static class TestAppConfig extends AppConfigBase {
+		private static final long serialVersionUID = 1L;
+		int hasPermissionCalls = 0;
+		int hasPermissionsCalls = 0;
+
+		TestAppConfig() {
+			securityContext = new SecurityContext(new HashMap<String, Object>(),
+				SecurityContextTest.newLoader(), new NullSecurityAuthenticatorImpl());
+		}
+		@Override
+		public String getSystemPropertyKeyConfigPath() { return null; }
+		@Override
+		public String getConfigResourceLocation() { return null; }
+		@Override
+		public boolean hasPermission(User user, String permission) {
+			hasPermissionCalls++;
+			return super.hasPermission(user, permission);
+		}
+		@Override
+		public Map<String, Boolean> hasPermissions(User user, Collection<String> permissions) {
+			hasPermissionsCalls++;
+			return super.hasPermissions(user, permissions);
+		}
+	}
+
+	@Test
+	public void testResolve() {
+		TestAppConfig appConfig = new TestAppConfig();
+		RequestPermissionCache cache = new RequestPermissionCache(appConfig, SecurityContextTest.newUser("bob"));
+		cache.resolve(Arrays.asList("view.account", "update.account", "delete.account"));
+		for (int i = 0; i < 3; i++) {
+			assertTrue(cache.hasPermission("view.account"));
+			assertEquals(Boolean.TRUE, cache.get("update.account"));
+			assertEquals(Boolean.FALSE, cache.get("delete.account"));
+		}
+		cache.resolve(Arrays.asList("view.account", "update.account"));
+		assertEquals(1, appConfig.hasPermissionsCalls);
+		assertEquals(0, appConfig.hasPermissionCalls);
+
+		// unknown permissions are not registered by the bulk check
+		assertEquals(-1, appConfig.getSecurityContext().getPermissionId("delete.account"));
+	}
+
+	@Test
+	public void testMapContract() {
+		TestAppConfig appConfig = new TestAppConfig();
+		RequestPermissionCache cache = new RequestPermissionCache(appConfig, SecurityContextTest.newUser("alice"));
+		assertFalse(cache.containsKey("view.account"));
+		assertEquals(0, cache.size());
+
+		// unresolved permissions are checked once, when they are first read
+		assertEquals(Boolean.TRUE, cache.get("view.account"));
+		assertEquals(Boolean.TRUE, cache.get("view.account"));
+		assertEquals(1, appConfig.hasPermissionCalls);
+		assertTrue(cache.containsKey("view.account"));
+		assertFalse(cache.containsKey("update.account"));
+		assertEquals(1, cache.size());
+		assertEquals(cache.keySet(), cache.entrySet().stream().map(Map.Entry::getKey).collect(java.util.stream.Collectors.toSet()));
+		assertNull(cache.get(Integer.valueOf(1)));
+	}
+}